@@ -0,0 +1,261 @@
+package com.franz.ag.repository;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Iterator;
+
+import org.openrdf.model.BNode;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.Value;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.RDFParseException;
+import org.openrdf.rio.RDFParser;
+import org.openrdf.rio.helpers.RDFHandlerBase;
+import org.openrdf.repository.RepositoryException;
+
+import com.franz.agbase.AllegroGraphException;
+import com.franz.agbase.BlankNode;
+import com.franz.agbase.BulkLoader;
+import com.franz.agsail.impl.AGSailBlankNodeImpl;
+import com.franz.agsail.util.AGSInternal;
+
+/**
+ * Load statements into the triple store of a repository connection
+ * over several server links at once.
+ * <p>
+ * The statements are sent by a {@link BulkLoader}, and the Sesame values
+ * are converted in its sender threads.  The new statements are indexed
+ * by the next commit of the connection.
+ * <p>
+ * Blank nodes that did not come from the triple store are mapped to new
+ * triple store blank nodes by the loader, not by the repository, so the
+ * mapping is dropped when it is no longer needed: once per document for
+ * the documents added, and once per loader for the statements added.
+ * The new blank nodes are allocated from the server in batches that grow
+ * with the number used, so a document with many blank nodes does not
+ * wait on the server for each one.
+ * <p>
+ * The add methods must be called from one thread at a time.
+ * A loader must be closed to send the last batch and stop the senders.
+ *
+ * @see AGRepositoryConnection#getBulkLoader(int)
+ */
+public class AGBulkLoader {
+
+	final AGRepositoryConnection conn;
+	final BulkLoader loader;
+	private HashMap<BNode, Object> blanks = new HashMap<BNode, Object>();
+
+	/**
+	 * Blank nodes allocated on the server and not used yet.
+	 */
+	private BlankNode[] supply = new BlankNode[0];
+	private int supplied = 0;
+	static final int MIN_BLANKS = 100;
+	static final int MAX_BLANKS = 10000;
+
+	AGBulkLoader(AGRepositoryConnection conn, int links) throws RepositoryException {
+		this.conn = conn;
+		final AGSInternal ags = conn.repository.ags;
+		try {
+			loader = new BulkLoader(conn.repository.store, links) {
+				protected Object convert(Object part) {
+					// Blank nodes are already converted by part().
+					if (part instanceof Value) return ags.coerceToAGPart(part);
+					return part;
+				}
+			};
+		} catch (AllegroGraphException e) {
+			throw new RepositoryException(e);
+		}
+		loader.setIndexAtEnd(false);
+	}
+
+	/**
+	 * Set the range of the batch size.
+	 * See {@link BulkLoader#setBatchSize(int, int)}.
+	 */
+	public void setBatchSize(int min, int max) {
+		loader.setBatchSize(min, max);
+	}
+
+	/**
+	 * Set the time in milliseconds that one batch should take to send.
+	 * See {@link BulkLoader#setTargetTime(long)}.
+	 */
+	public void setTargetTime(long millis) {
+		loader.setTargetTime(millis);
+	}
+
+	/**
+	 * Query the number of statements sent to the server.
+	 */
+	public long getCount() {
+		return loader.getCount();
+	}
+
+	/**
+	 * Add a statement.
+	 * @param contexts when present, the statement is added to each of
+	 *    these contexts instead of its own context.
+	 */
+	public void add(Statement st, Resource... contexts) throws RepositoryException {
+		try {
+			Object s = part(st.getSubject());
+			Object o = part(st.getObject());
+			if (contexts.length == 0)
+				loader.add(s, st.getPredicate(), o, part(st.getContext()));
+			else
+				for (Resource c : contexts)
+					loader.add(s, st.getPredicate(), o, part(c));
+		} catch (AllegroGraphException e) {
+			throw new RepositoryException(e);
+		}
+	}
+
+	public void add(Iterable<? extends Statement> statements, Resource... contexts)
+			throws RepositoryException {
+		for (Iterator<? extends Statement> i = statements.iterator(); i.hasNext();)
+			add(i.next(), contexts);
+	}
+
+	/**
+	 * Parse a document on the client and add its statements.
+	 */
+	public void add(Reader reader, String baseURI, RDFFormat dataFormat,
+			Resource... contexts) throws IOException, RDFParseException,
+			RepositoryException {
+		RDFParser parser = AGRepositoryConnection.createParser(dataFormat);
+		HashMap<BNode, Object> outer = blanks;
+		blanks = new HashMap<BNode, Object>();
+		try {
+			parser.setRDFHandler(handler(contexts));
+			parser.parse(reader, baseURI);
+		} catch (RDFHandlerException e) {
+			throw repositoryException(e);
+		} finally {
+			blanks = outer;
+		}
+	}
+
+	/**
+	 * Parse a document on the client and add its statements.
+	 */
+	public void add(InputStream in, String baseURI, RDFFormat dataFormat,
+			Resource... contexts) throws IOException, RDFParseException,
+			RepositoryException {
+		RDFParser parser = AGRepositoryConnection.createParser(dataFormat);
+		HashMap<BNode, Object> outer = blanks;
+		blanks = new HashMap<BNode, Object>();
+		try {
+			parser.setRDFHandler(handler(contexts));
+			parser.parse(in, baseURI);
+		} catch (RDFHandlerException e) {
+			throw repositoryException(e);
+		} finally {
+			blanks = outer;
+		}
+	}
+
+	public void add(File file, String baseURI, RDFFormat dataFormat,
+			Resource... contexts) throws IOException, RDFParseException,
+			RepositoryException {
+		FileInputStream s = new FileInputStream(file);
+		try {
+			add(s, baseURI, dataFormat, contexts);
+		} finally {
+			s.close();
+		}
+	}
+
+	/**
+	 * Send the statements added so far and wait for the server to add them.
+	 */
+	public void flush() throws RepositoryException {
+		try {
+			loader.flush();
+		} catch (AllegroGraphException e) {
+			throw new RepositoryException(e);
+		} finally {
+			if (loader.getCount() > 0) conn.sailconn.setUncommittedInsertions(true);
+		}
+	}
+
+	/**
+	 * Send the remaining statements and stop the sender threads.
+	 */
+	public void close() throws RepositoryException {
+		blanks.clear();
+		try {
+			loader.close();
+		} catch (AllegroGraphException e) {
+			throw new RepositoryException(e);
+		} finally {
+			if (loader.getCount() > 0) conn.sailconn.setUncommittedInsertions(true);
+		}
+	}
+
+	/**
+	 * Map a blank node that did not come from the triple store to a new
+	 * triple store blank node.  Other values are converted by the senders.
+	 */
+	private Object part(Value v) throws AllegroGraphException {
+		if (!(v instanceof BNode) || v instanceof AGSailBlankNodeImpl) return v;
+		Object b = blanks.get(v);
+		if (b == null) {
+			b = nextBlank();
+			blanks.put((BNode) v, b);
+		}
+		return b;
+	}
+
+	/**
+	 * Take the next allocated blank node, allocating a batch twice
+	 * the size of the last one when none are left.
+	 */
+	private BlankNode nextBlank() throws AllegroGraphException {
+		if (!(supplied < supply.length)) {
+			int n = Math.min(MAX_BLANKS, Math.max(MIN_BLANKS, 2 * supply.length));
+			supply = conn.repository.store.createBNodes(n);
+			supplied = 0;
+		}
+		BlankNode b = supply[supplied];
+		supply[supplied++] = null;
+		return b;
+	}
+
+	/**
+	 * Close the loader without reporting errors.
+	 * Called when a document fails to parse.
+	 */
+	void abort() {
+		try {
+			close();
+		} catch (RepositoryException e) {}
+	}
+
+	private static RepositoryException repositoryException(RDFHandlerException e) {
+		if (e.getCause() instanceof RepositoryException)
+			return (RepositoryException) e.getCause();
+		return new RepositoryException(e);
+	}
+
+	private RDFHandlerBase handler(final Resource... contexts) {
+		return new RDFHandlerBase() {
+			public void handleStatement(Statement st) throws RDFHandlerException {
+				try {
+					add(st, contexts);
+				} catch (RepositoryException e) {
+					throw new RDFHandlerException(e);
+				}
+			}
+		};
+	}
+
+}
@@ -2,12 +2,10 @@ package com.franz.ag.repository;
 
 import info.aduna.iteration.Iteration;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.Reader;
 import java.net.URL;
 import java.util.Iterator;
@@ -18,6 +16,7 @@ import org.openrdf.model.Statement;
 import org.openrdf.model.URI;
 import org.openrdf.model.Value;
 import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
 import org.openrdf.query.BooleanQuery;
 import org.openrdf.query.GraphQuery;
 import org.openrdf.query.MalformedQueryException;
@@ -32,7 +31,11 @@ import org.openrdf.rio.RDFFormat;
 import org.openrdf.rio.RDFHandler;
 import org.openrdf.rio.RDFHandlerException;
 import org.openrdf.rio.RDFParseException;
+import org.openrdf.rio.RDFParser;
+import org.openrdf.rio.Rio;
 import org.openrdf.rio.UnsupportedRDFormatException;
+import org.openrdf.rio.ntriples.NTriplesParser;
+import org.openrdf.rio.rdfxml.RDFXMLParser;
 import org.openrdf.sail.SailException;
 
 import com.franz.agbase.AllegroGraphException;
@@ -66,145 +69,137 @@ public class AGRepositoryConnection implements RepositoryConnection {
 		add(st.getSubject(),st.getPredicate(),st.getObject(), contexts);
 	}
 
+	/**
+	 * Send the statements in batches of batchSize statements on the
+	 * calling thread.  Use {@link #getBulkLoader(int)} for large loads.
+	 */
 	public void add(Iterable<? extends Statement> statements,
 			Resource... contexts) throws RepositoryException {
-		// TODO: review for efficiency and intended use
-		// TODO: can we stream this over instead? 
-		try {
-			Statement[] st = new Statement[batchSize];
-			Iterator<? extends Statement> iter = statements.iterator();
-			for (int i = 0; iter.hasNext();) {
-				st[i] = iter.next();
-				i++;
-				if (batchSize == i || !iter.hasNext()) {
-					// set up a batch of at most batchSize
-					// i of the statements are set
-					Object[] s = new Object[i];
-					Object[] p = new Object[i];
-					Object[] o = new Object[i];
-					Object[] c = new Object[i];
-					for (int j = 0; j < i; j++) {
-						s[j] = repository.ags.coerceToAGPart(st[j].getSubject());
-						p[j] = repository.ags.coerceToAGPart(st[j].getPredicate());
-						o[j] = repository.ags.coerceToAGPart(st[j].getObject());
-						c[j] = repository.ags.coerceToAGPart(st[j].getContext());
-						if (contexts.length == 0) {
-							// send 1 batch over using the context specified
-							// in each statement
-							repository.store.addStatements(s, p, o, c);
-						} else {
-							// send 1 batch over for each of the contexts
-							// ignoring the context part of each statement
-							for (Resource ctx : contexts) {
-								repository.store.addStatements(s, p, o,
-										repository.ags.coerceToAGPart(ctx));
-							}
-						}
-						i = 0;
-						sailconn.setUncommittedInsertions(true);
-					}
-				}
+		Statement[] st = new Statement[batchSize];
+		int n = 0;
+		for (Iterator<? extends Statement> i = statements.iterator(); i.hasNext();) {
+			st[n++] = i.next();
+			if (n == batchSize) {
+				addBatch(st, n, contexts);
+				n = 0;
 			}
-		} catch (AllegroGraphException e) {
-			throw new RepositoryException(e);
 		}
+		if (n > 0) addBatch(st, n, contexts);
 	}
 
+	/**
+	 * Send the statements in batches of batchSize statements on the
+	 * calling thread.  Use {@link #getBulkLoader(int)} for large loads.
+	 */
 	public <E extends Exception> void add(
 			Iteration<? extends Statement, E> statementIter,
 			Resource... contexts) throws RepositoryException, E {
-		// TODO: review for efficiency and intended use
-		// TODO: can we stream this over instead? 
-		// TODO: refactor this to share code with the above method
-		try {
-			Statement[] st = new Statement[batchSize];
-			for (int i = 0; statementIter.hasNext();) {
-				st[i] = statementIter.next();
-				i++;
-				if (batchSize == i || !statementIter.hasNext()) {
-					// set up a batch of at most batchSize
-					// i of the statements are set
-					Object[] s = new Object[i];
-					Object[] p = new Object[i];
-					Object[] o = new Object[i];
-					Object[] c = new Object[i];
-					for (int j = 0; j < i; j++) {
-						s[j] = repository.ags.coerceToAGPart(st[j].getSubject());
-						p[j] = repository.ags.coerceToAGPart(st[j].getPredicate());
-						o[j] = repository.ags.coerceToAGPart(st[j].getObject());
-						c[j] = repository.ags.coerceToAGPart(st[j].getContext());
-						if (contexts.length == 0) {
-							// send 1 batch over using the context specified
-							// in each statement
-							repository.store.addStatements(s, p, o, c);
-						} else {
-							// send 1 batch over for each of the contexts
-							// ignoring the context part of each statement
-							for (Resource ctx : contexts) {
-								repository.store.addStatements(s, p, o,
-										repository.ags.coerceToAGPart(ctx));
-							}
-						}
-						i = 0;
-						sailconn.setUncommittedInsertions(true);
-					}
-				}
+		Statement[] st = new Statement[batchSize];
+		int n = 0;
+		while (statementIter.hasNext()) {
+			st[n++] = statementIter.next();
+			if (n == batchSize) {
+				addBatch(st, n, contexts);
+				n = 0;
 			}
+		}
+		if (n > 0) addBatch(st, n, contexts);
+	}
+
+	/**
+	 * Send the first n statements with one addStatements call per context,
+	 * or one call when no contexts are given.
+	 */
+	private void addBatch(Statement[] st, int n, Resource... contexts)
+			throws RepositoryException {
+		Object[] s = new Object[n];
+		Object[] p = new Object[n];
+		Object[] o = new Object[n];
+		Object[] c = new Object[n];
+		for (int j = 0; j < n; j++) {
+			s[j] = repository.ags.coerceToAGPart(st[j].getSubject());
+			p[j] = repository.ags.coerceToAGPart(st[j].getPredicate());
+			o[j] = repository.ags.coerceToAGPart(st[j].getObject());
+			c[j] = repository.ags.coerceToAGPart(st[j].getContext());
+			st[j] = null;
+		}
+		try {
+			if (contexts.length == 0)
+				repository.store.addStatements(s, p, o, c);
+			else
+				for (Resource ctx : contexts)
+					repository.store.addStatements(s, p, o,
+							repository.ags.coerceToAGPart(ctx));
 		} catch (AllegroGraphException e) {
 			throw new RepositoryException(e);
 		}
+		sailconn.setUncommittedInsertions(true);
+	}
+
+	/**
+	 * Make a loader that sends statements to the triple store of this
+	 * connection over several server links at once.
+	 * The batch size starts at batchSize and is adjusted as the
+	 * statements are sent.
+	 * @param links the number of links.  Extra links are used only when the
+	 *    AllegroGraphConnection has a link pool.
+	 * @return a new loader.  It must be closed when all the statements
+	 *    are added.
+	 * @throws RepositoryException
+	 */
+	public AGBulkLoader getBulkLoader(int links) throws RepositoryException {
+		AGBulkLoader loader = new AGBulkLoader(this, links);
+		loader.setBatchSize(batchSize, Math.max(batchSize, 100000));
+		return loader;
 	}
 
 	public void add(InputStream in, String baseURI, RDFFormat dataFormat,
 			Resource... contexts) throws IOException, RDFParseException,
 			RepositoryException {
-		// TODO: can we stream this directly instead? 
-		// FIXME: assume UTF-8 encoding
-		add(new InputStreamReader(in, "UTF-8"), baseURI, dataFormat, contexts);
+		AGBulkLoader loader = getBulkLoader(1);
+		boolean done = false;
+		try {
+			loader.add(in, baseURI, dataFormat, contexts);
+			done = true;
+		} finally {
+			if (done)
+				loader.close();
+			else
+				loader.abort();
+		}
 	}
 
+	/**
+	 * Parse a document on the client and send its statements to the
+	 * server with a {@link com.franz.agbase.BulkLoader} on one link, so that the document
+	 * is parsed while the previous batch is sent.  Any format with a Rio
+	 * parser is accepted.
+	 */
 	public void add(Reader reader, String baseURI, RDFFormat dataFormat,
 			Resource... contexts) throws IOException, RDFParseException,
 			RepositoryException {
-		if (dataFormat!=RDFFormat.NTRIPLES && dataFormat!=RDFFormat.RDFXML) {
-			throw new UnsupportedRDFormatException("Only RDFFormat.NTRIPLES and RDFFormat.RDFXML are supported)");
-		}
-		BufferedReader br = new BufferedReader(reader);
-		StringBuffer sb = new StringBuffer();
-		String line;
-		while ( (line = br.readLine()) != null) {
-			sb.append(line);
-		}
+		AGBulkLoader loader = getBulkLoader(1);
+		boolean done = false;
 		try {
-			if (dataFormat==RDFFormat.NTRIPLES) {
-				if (0 == contexts.length) {
-					// TODO: need a baseURI arg here?
-					repository.store.parseNTriples(sb.toString());
-				} else {
-					for (Resource c : contexts) {
-						// TODO: need a baseURI arg here?
-						repository.store.parseNTriples(sb.toString(), repository.ags.coerceToAGPart(c));
-					}
-				}
-			} else if (dataFormat == RDFFormat.RDFXML) {
-				if (0 == contexts.length) {
-					repository.store.parseRDFXML(sb.toString(), "", baseURI);
-				} else {
-					for (Resource c : contexts) {
-						repository.store.parseRDFXML(sb.toString(), repository.ags.coerceToAGPart(c), baseURI);
-					}
-				}
-			}
-		//} catch (IOException e) {
-			// FIXME: AllegroGraph should throw IOException
-			// throw new IOException(e);
-		} catch (IllegalArgumentException e) {
-			// FIXME: AllegroGraph should throw a proper parse exception
-			throw new RDFParseException(e);
-		} catch (AllegroGraphException e) {
-			throw new RepositoryException(e);
+			loader.add(reader, baseURI, dataFormat, contexts);
+			done = true;
+		} finally {
+			if (done)
+				loader.close();
+			else
+				loader.abort();
 		}
-		sailconn.setUncommittedInsertions(true);
+	}
+
+	/**
+	 * Make a parser that creates plain Sesame values, so that nothing
+	 * is kept from one statement to the next.
+	 */
+	static RDFParser createParser(RDFFormat dataFormat) {
+		ValueFactory vf = new ValueFactoryImpl();
+		if (dataFormat == RDFFormat.NTRIPLES) return new NTriplesParser(vf);
+		if (dataFormat == RDFFormat.RDFXML) return new RDFXMLParser(vf);
+		return Rio.createParser(dataFormat, vf);
 	}
 
 	public void add(URL url, String baseURI, RDFFormat dataFormat,
@@ -0,0 +1,77 @@
+package com.franz.agbase;
+
+/**
+ * A look-ahead policy that follows the pace of the application.
+ * <p>
+ * When the application uses up a block faster than the server delivers
+ * one, round trips dominate and the block size is doubled.  When the
+ * application spends much longer on a block than the server took to
+ * deliver it, large blocks only add delay and memory, and the block size
+ * is halved.  The size stays between the minimum and the maximum,
+ * except that it is cut down further if a block would be larger than
+ * the byte budget.
+ * <p>
+ * To get early results quickly, set a small look-ahead value in the
+ * AllegroGraph instance and let the policy grow it.
+ */
+public class AdaptiveLookAhead implements LookAheadPolicy {
+	
+	/**
+	 * The application is considered slow when it spends this many times
+	 * longer on a block than it waited for the block.
+	 */
+	static final int SLOW_FACTOR = 4;
+	
+	private final int min;
+	private final int max;
+	private final long budget;
+	
+	/**
+	 * Create a policy with a minimum of 100 results, a maximum
+	 * of 100000 results, and a budget of 8 megabytes per block.
+	 */
+	public AdaptiveLookAhead () {
+		this(100, 100000, 8L*1024*1024);
+	}
+	
+	/**
+	 * Create a policy.
+	 * @param min the smallest block size, a positive integer.
+	 * @param max the largest block size, not less than min.
+	 * @param budget the largest estimated block size in bytes.
+	 *     Zero or a negative value means no limit.
+	 */
+	public AdaptiveLookAhead ( int min, int max, long budget ) {
+		if ( min<1 || max<min )
+			throw new IllegalArgumentException
+				("AdaptiveLookAhead needs 0<min<=max " + min + " " + max);
+		this.min = min;
+		this.max = max;
+		this.budget = budget;
+	}
+	
+	public int getMin () { return min; }
+	public int getMax () { return max; }
+	public long getBudget () { return budget; }
+	
+	public int nextSize ( int size, int received, long bytes, long fetchNanos, long useNanos ) {
+		long next = size;
+		if ( useNanos<fetchNanos )
+			next = 2L*size;
+		else if ( useNanos>SLOW_FACTOR*fetchNanos )
+			next = size/2;
+		if ( next<min ) next = min;
+		if ( next>max ) next = max;
+		if ( budget>0 && received>0 && bytes>0 ) {
+			long fit = budget/((bytes + received - 1)/received);
+			if ( fit<next ) next = fit;
+		}
+		if ( next<1 ) next = 1;
+		return (int)next;
+	}
+	
+	public String toString () {
+		return "AdaptiveLookAhead[" + min + ".." + max + " budget=" + budget + "]";
+	}
+
+}
@@ -32,6 +32,7 @@ import com.franz.agbase.impl.URINodeImpl;
 import com.franz.agbase.impl.ValueSetIteratorImpl;
 import com.franz.agbase.transport.AGConnector;
 import com.franz.agbase.util.AGC;
+import com.franz.agbase.util.AGCursorReclaimer;
 import com.franz.agbase.util.AGInternals;
   
 
@@ -183,6 +184,42 @@ public class AllegroGraph extends AGInternals
 	 * @see #setLookAhead(int)
 	 */
 	public int getLookAhead () { return defaultLookAhead; }
+	
+	/**
+	 * Set the prefetch mode for subsequent Statement search operations.
+	 * @param on true if a TriplesIterator should request the next block
+	 *    of look-ahead Statements from the server while the application
+	 *    is still using the current block.
+	 *    The built-in initial value is false.
+	 * @see TriplesIterator#setPrefetch(boolean)
+	 */
+	public void setPrefetch (boolean on) { defaultPrefetch = on; }
+	
+	/**
+	 * Query the prefetch mode.
+	 * @return true if prefetch is on.
+	 * @see #setPrefetch(boolean)
+	 */
+	public boolean getPrefetch () { return defaultPrefetch; }
+	
+	/**
+	 * Set the look-ahead policy for subsequent search and select operations.
+	 * @param p a policy that may change the look-ahead value of a
+	 *    TriplesIterator and the select limit of a ValueSetIterator
+	 *    after each block of results is received from the server.
+	 *    The look-ahead value and the select limit of this instance
+	 *    are the initial sizes.
+	 *    A null value, the built-in initial value, keeps the sizes fixed.
+	 * @see AdaptiveLookAhead
+	 */
+	public void setLookAheadPolicy (LookAheadPolicy p) { lookAheadPolicy = p; }
+	
+	/**
+	 * Query the look-ahead policy.
+	 * @return a policy or null.
+	 * @see #setLookAheadPolicy(LookAheadPolicy)
+	 */
+	public LookAheadPolicy getLookAheadPolicy () { return lookAheadPolicy; }
 
 
 		
@@ -277,9 +314,20 @@ public class AllegroGraph extends AGInternals
 
 	/**
 	 * Sync an AllegroGraph triple store.
+	 * Any statements waiting in the add buffer are sent first.
 	 */
 	public void syncTripleStore() throws AllegroGraphException {
-		verifyEnabled().syncTripleStore(this);
+		verifyFlushed().syncTripleStore(this);
+	}
+
+	/**
+	 * Send the statements waiting in the add buffer before a call that
+	 * changes or reads the statements of the store, so that the call sees
+	 * the buffered adds in the order they were made.
+	 */
+	private AGConnector verifyFlushed() throws AllegroGraphException {
+		flushStatements();
+		return verifyEnabled();
 	}
 
 	
@@ -305,6 +353,7 @@ public class AllegroGraph extends AGInternals
 	public synchronized boolean closeTripleStore ( boolean doClose ) throws AllegroGraphException {
 		if (tsx < 1)
 			return false;
+		flushStatements();
 		boolean r = verifyEnabled().closeTripleStore(this, doClose);
 		tsx = -2;
 		ags.dropTS(this);
@@ -335,7 +384,7 @@ public class AllegroGraph extends AGInternals
 	 *  to make queries or add triples.
 	 */
 	public long loadNTriples(String name) throws AllegroGraphException {
-		return verifyEnabled().loadNTriples(this, name, null, null, null, null, null);
+		return verifyFlushed().loadNTriples(this, name, null, null, null, null, null);
 	}
 	
 	/**
@@ -350,7 +399,7 @@ public class AllegroGraph extends AGInternals
 	 *  @see #loadNTriples(String)
 	 */
 	public long loadNTriples(String name, Object context) throws AllegroGraphException {
-		return verifyEnabled().loadNTriples(this, name, ntripleContext(context), null, null, null, null);
+		return verifyFlushed().loadNTriples(this, name, ntripleContext(context), null, null, null, null);
 	}
 	
 
@@ -364,7 +413,7 @@ public class AllegroGraph extends AGInternals
 	 *  @see #loadNTriples(String)
 	 */
 	public long loadNTriples(String[] names) throws AllegroGraphException {
-		return verifyEnabled().loadNTriples(this, names, null, null, null, null, null);
+		return verifyFlushed().loadNTriples(this, names, null, null, null, null, null);
 	}
 	
 	/**
@@ -380,7 +429,7 @@ public class AllegroGraph extends AGInternals
 	 *  @see #loadNTriples(String)
 	 */
 	public long loadNTriples(String[] names, Object context) throws AllegroGraphException {
-		return verifyEnabled().loadNTriples(this, names, ntripleContext(context), null, null, null, null);
+		return verifyFlushed().loadNTriples(this, names, ntripleContext(context), null, null, null, null);
 	}
 	
 	/**
@@ -425,7 +474,7 @@ public class AllegroGraph extends AGInternals
 	 *  @see #loadNTriples(String)
 	 */
 	public long loadNTriples(Object names, Object context, Boolean save, String ext, Object[] place) throws AllegroGraphException {
-		return verifyEnabled().loadNTriples(this, names, ntripleContext(context), null, place, save, ext);
+		return verifyFlushed().loadNTriples(this, names, ntripleContext(context), null, place, save, ext);
 	}
 	
 	/**
@@ -442,7 +491,7 @@ public class AllegroGraph extends AGInternals
 	 * @throws AllegroGraphException
 	 */
 	public long loadNTriples(String name, Object context, Boolean save, String ext, Object[] place, boolean unzip) throws AllegroGraphException {
-		return verifyEnabled().loadNTriples(this, name, ntripleContext(context), null, place, save, ext, unzip);
+		return verifyFlushed().loadNTriples(this, name, ntripleContext(context), null, place, save, ext, unzip);
 	}
 	
 	
@@ -453,7 +502,7 @@ public class AllegroGraph extends AGInternals
 	 * @throws AllegroGraphException
 	 */
 	public long parseNTriples ( String from ) throws AllegroGraphException {
-		return verifyEnabled().loadNTriples(this, null, null, from, null, null, null);
+		return verifyFlushed().loadNTriples(this, null, null, from, null, null, null);
 	}
 		
 	/**
@@ -467,7 +516,7 @@ public class AllegroGraph extends AGInternals
 	 * @throws AllegroGraphException
 	 */
 	public long parseNTriples ( String from, Object context ) throws AllegroGraphException {
-		return verifyEnabled().loadNTriples(this, null,
+		return verifyFlushed().loadNTriples(this, null,
 				ntripleContext(context), from, null, null, null);	
 	}
 	
@@ -491,7 +540,7 @@ public class AllegroGraph extends AGInternals
 	 * @throws AllegroGraphException
 	 */
 	public long parseNTriples ( String from, Object context, boolean save, Object[] place) throws AllegroGraphException {
-		return verifyEnabled().loadNTriples(this, null,
+		return verifyFlushed().loadNTriples(this, null,
 				ntripleContext(context), from, place, save, null);	
 	}
 	
@@ -514,7 +563,7 @@ public class AllegroGraph extends AGInternals
 	 *  
 	 */
 	public long loadRDFXML(String filePath) throws AllegroGraphException {
-		return verifyEnabled().loadRDF(this, filePath, null, null, null);
+		return verifyFlushed().loadRDF(this, filePath, null, null, null);
 	}
 	
 	/**
@@ -537,7 +586,7 @@ public class AllegroGraph extends AGInternals
 	 *  
 	 */
 	public long loadRDFXML(String filePath, Object context) throws AllegroGraphException {
-		return verifyEnabled().loadRDF(this, filePath, ntripleContext(context), null, null);
+		return verifyFlushed().loadRDF(this, filePath, ntripleContext(context), null, null);
 	}
 	
 	
@@ -562,7 +611,7 @@ public class AllegroGraph extends AGInternals
 	 *  
 	 */
 	public long loadRDFXML(String filePath, Object context, String baseURI) throws AllegroGraphException {
-		return verifyEnabled().loadRDF(this, filePath, ntripleContext(context), baseURI, false, null, null);
+		return verifyFlushed().loadRDF(this, filePath, ntripleContext(context), baseURI, false, null, null);
 	}
 	
 	/**
@@ -588,7 +637,7 @@ public class AllegroGraph extends AGInternals
 	 * @throws AllegroGraphException
 	 */
 	public long loadRDFXML(Object filePath, Object context, String baseURI, Object useRapper, Boolean save) throws AllegroGraphException {
-		return verifyEnabled().loadRDF(this, filePath, ntripleContext(context), baseURI, useRapper, null, save);
+		return verifyFlushed().loadRDF(this, filePath, ntripleContext(context), baseURI, useRapper, null, save);
 	}
 	
 	
@@ -601,7 +650,7 @@ public class AllegroGraph extends AGInternals
 	 * @throws AllegroGraphException
 	 */
 	public long loadRDFXML(String[] filePaths) throws AllegroGraphException {
-		return verifyEnabled().loadRDF(this, filePaths, null, null, null);
+		return verifyFlushed().loadRDF(this, filePaths, null, null, null);
 	}
 	
 	
@@ -618,7 +667,7 @@ public class AllegroGraph extends AGInternals
 	 * @throws AllegroGraphException
 	 */
 	public long parseRDFXML(String data, Object context, String baseURI) throws AllegroGraphException {
-		return verifyEnabled().loadRDF(this, null, ntripleContext(context), baseURI, null, data, null);
+		return verifyFlushed().loadRDF(this, null, ntripleContext(context), baseURI, null, data, null);
 	}
 	
 	/**
@@ -638,7 +687,7 @@ public class AllegroGraph extends AGInternals
 	 * @throws AllegroGraphException
 	 */
 	public long parseRDFXML(String data, Object context, String baseURI, Boolean save) throws AllegroGraphException {
-		return verifyEnabled().loadRDF(this, null, ntripleContext(context), baseURI, null, data, save);
+		return verifyFlushed().loadRDF(this, null, ntripleContext(context), baseURI, null, data, save);
 	}
 	
 	
@@ -649,7 +698,7 @@ public class AllegroGraph extends AGInternals
 	 * @return the number of triples in the triple store.
 	 */
 	public long numberOfTriples() throws AllegroGraphException {
-		return verifyEnabled().numberOfTriples(this);
+		return verifyFlushed().numberOfTriples(this);
 	}
 	
 
@@ -678,7 +727,7 @@ public class AllegroGraph extends AGInternals
 	 */
 	public void indexNewTriples() throws AllegroGraphException {
 		try {
-			verifyEnabled().indexTriples(this, true);
+			verifyFlushed().indexTriples(this, true);
 		} catch (IllegalArgumentException e) {
 			throwIndexError(e);
 			throw e;
@@ -694,7 +743,7 @@ public class AllegroGraph extends AGInternals
 	 */
 	public void indexNewTriples( boolean wait ) throws AllegroGraphException {
 		try {
-			verifyEnabled().indexTriples(this, wait);
+			verifyFlushed().indexTriples(this, wait);
 		} catch (IllegalArgumentException e) {
 			throwIndexError(e);
 			throw e;
@@ -702,7 +751,7 @@ public class AllegroGraph extends AGInternals
 	}
 	
 	public void mergeNewTriples ( boolean wait ) throws AllegroGraphException {
-		verifyEnabled().indexStore(this, wait, null);
+		verifyFlushed().indexStore(this, wait, null);
 	}
 	
 	void throwIndexError( Throwable e ) throws AllegroGraphException {
@@ -726,7 +775,7 @@ public class AllegroGraph extends AGInternals
 	 */
 	public void indexAllTriples() throws AllegroGraphException {
 		try {
-			verifyEnabled().indexAll(this, true);
+			verifyFlushed().indexAll(this, true);
 		} catch (IllegalArgumentException e) {
 			throwIndexError(e);
 			throw e;
@@ -742,7 +791,7 @@ public class AllegroGraph extends AGInternals
 	 */
 	public void indexAllTriples( boolean wait ) throws AllegroGraphException {
 		try {
-			verifyEnabled().indexAll(this, wait);
+			verifyFlushed().indexAll(this, wait);
 		} catch (IllegalArgumentException e) {
 			throwIndexError(e);
 			throw e;
@@ -1280,7 +1329,7 @@ public class AllegroGraph extends AGInternals
 	 */
 	public TriplesIterator getStatements(Object subject, Object predicate,
 			Object object) throws AllegroGraphException {
-		return verifyEnabled().getTriples(this,
+		return verifyFlushed().getTriples(this,
 				validRefOrWild(subject), 
 				validRefOrWild(predicate),
 				validRefOrWild(object),
@@ -1288,6 +1337,23 @@ public class AllegroGraph extends AGInternals
 				defaultLookAhead);
 	}
 	
+	/**
+	 * Scan all the null context statements in the triple store, like
+	 * getStatements(null, null, null), and handle them in n threads.
+	 * The scan uses one server cursor; see 
+	 * {@link TriplesQuery#parallelHandle(int, TripleHandler)}.
+	 * @param n the number of threads.
+	 * @param handler the handler called for each triple found.
+	 * @return the number of triples found.
+	 * @throws AllegroGraphException if the scan or the handler failed.
+	 */
+	public long parallelHandle(int n, TripleHandler handler) throws AllegroGraphException {
+		flushStatements();
+		TriplesQuery q = new TriplesQuery();
+		q.setTripleStore(this);
+		return q.parallelHandle(n, handler);
+	}
+	
 	/**
 	 * Retrieve null context statements from the triple store.
 	 * 
@@ -1301,7 +1367,7 @@ public class AllegroGraph extends AGInternals
 	 */
 	public TriplesIterator getStatements(boolean includeInferred, Object subject, Object predicate,
 			Object object) throws AllegroGraphException {
-		return verifyEnabled().getInfTriples(this,
+		return verifyFlushed().getInfTriples(this,
 				validRefOrWild(subject), 
 				validRefOrWild(predicate),
 				validRefOrWild(object),
@@ -1319,7 +1385,7 @@ public class AllegroGraph extends AGInternals
 	 */
 	public TriplesIterator getStatements(Object subject, Object predicate,
 			Object object, Object context) throws AllegroGraphException {
-		return verifyEnabled().getTriples(this,
+		return verifyFlushed().getTriples(this,
 				validRefOrWild(subject), 
 				validRefOrWild(predicate),
 				validRefOrWild(object),
@@ -1342,7 +1408,7 @@ public class AllegroGraph extends AGInternals
 	 */
 	public TriplesIterator getStatements(boolean includeInferred, Object subject, Object predicate,
 			Object object, Object context) throws AllegroGraphException {
-		return verifyEnabled().getInfTriples(this,
+		return verifyFlushed().getInfTriples(this,
 				validRefOrWild(subject), 
 				validRefOrWild(predicate),
 				validRefOrWild(object),
@@ -1374,7 +1440,7 @@ public class AllegroGraph extends AGInternals
 	public TriplesIterator getStatements(Object subject, Object predicate,
 			Object object, Object obEnd, Object context, Object contextEnd)
 		throws AllegroGraphException {
-		return verifyEnabled().getTriples(this,
+		return verifyFlushed().getTriples(this,
 				validRangeRef(subject), 
 				validRangeRef(predicate),
 				validRangeRef(object),
@@ -1414,7 +1480,7 @@ public class AllegroGraph extends AGInternals
 	public TriplesIterator getStatements(boolean includeInferred, Object subject, Object predicate,
 			Object object, Object obEnd, Object context, Object contextEnd)
 		throws AllegroGraphException {
-		return verifyEnabled().getInfTriples(this,
+		return verifyFlushed().getInfTriples(this,
 				validRangeRef(subject), 
 				validRangeRef(predicate),
 				validRangeRef(object),
@@ -1445,7 +1511,7 @@ public class AllegroGraph extends AGInternals
 			Object subject, Object subEnd, Object predicate, Object predEnd,
 			Object object, Object obEnd, Object context, Object contextEnd)
 		throws AllegroGraphException {
-		return verifyEnabled().getInfTriples(this,
+		return verifyFlushed().getInfTriples(this,
 				validRangeRef(subject), 
 				validRangeRef(predicate),
 				validRangeRef(object),
@@ -1490,7 +1556,7 @@ public class AllegroGraph extends AGInternals
 	 */
 	public boolean hasStatement(Object subject, Object predicate, Object object, Object context)
 			throws AllegroGraphException {
-		return verifyEnabled().hasTriple(this, validRefOrWild(subject),
+		return verifyFlushed().hasTriple(this, validRefOrWild(subject),
 				validRefOrWild(predicate),
 				validRefOrWild(object),
 				anyContextRef(context, 3)
@@ -1507,7 +1573,7 @@ public class AllegroGraph extends AGInternals
 	 */
 	public boolean hasStatement(boolean includeInferred, Object subject, Object predicate, Object object, Object context)
 	throws AllegroGraphException {
-		return verifyEnabled().hasInfTriple(this, validRefOrWild(subject),
+		return verifyFlushed().hasInfTriple(this, validRefOrWild(subject),
 				validRefOrWild(predicate),
 				validRefOrWild(object),
 				anyContextRef(context, 3), includeInferred
@@ -1526,12 +1592,18 @@ public class AllegroGraph extends AGInternals
 	
 	/**
 	 * Add a Statement to the triple store.
-	 * 
+	 * <p>
+	 * If the add buffer is on, the statement is sent later in a batch
+	 * with other statements, see {@link #setAddBuffer(int, long)}.
 	 */
 	public void addStatement(Object subject, Object predicate, Object object, Object context)
 		throws AllegroGraphException {
-		verifyEnabled().addTriple(this, validRef(subject), validRef(predicate),
-				validRef(object), anyContextRef(context, 1));
+		Object s = validRef(subject);
+		Object p = validRef(predicate);
+		Object o = validRef(object);
+		Object c = anyContextRef(context, 1);
+		if ( bufferAdd(s, p, o, c) ) return;
+		verifyEnabled().addTriple(this, s, p, o, c);
 	}
 
 	
@@ -1590,7 +1662,7 @@ public class AllegroGraph extends AGInternals
 	 */
 	public void clear() throws AllegroGraphException {
 		try {
-			verifyEnabled().delete( this,
+			verifyFlushed().delete( this,
 									UPIImpl.wildUPI(),
 									UPIImpl.wildUPI(),
 									UPIImpl.wildUPI(),
@@ -1997,7 +2069,7 @@ public class AllegroGraph extends AGInternals
 	 */
 	public void removeStatements(Object s, Object p, Object o, Object c )
 	throws AllegroGraphException
-	{ verifyEnabled().delete(this, validRefsOrWild(s), validRefsOrWild(p),
+	{ verifyFlushed().delete(this, validRefsOrWild(s), validRefsOrWild(p),
 			validRefsOrWild(o), anyContextRefs(c, 3), true
 			); }
 	
@@ -2046,7 +2118,7 @@ public class AllegroGraph extends AGInternals
 	 */
 	public void removeStatement(Object s, Object p, Object o, Object c )
 		throws AllegroGraphException {
-	verifyEnabled().delete(this, validRef(s), validRef(p), validRef(o), anyContextRef(c, 1), false);
+	verifyFlushed().delete(this, validRef(s), validRef(p), validRef(o), anyContextRef(c, 1), false);
 	}
 	
 	
@@ -2203,8 +2275,11 @@ public class AllegroGraph extends AGInternals
     
     Object registerValues ( Object r, Object token, int more, int plimit, Object sv, boolean nullOk)
     	throws AllegroGraphException {
-    	if ( more>0 || sv!=null )
-    		ags.valueMap.put(r, new valueMapEntry(this, token, more, plimit, sv, nullOk));
+    	if ( more>0 || sv!=null ) {
+    		valueMapEntry e = new valueMapEntry(this, token, more, plimit, sv, nullOk);
+    		e.handle = ags.trackCursor(r, this, token);
+    		ags.valueMap.put(r, e);
+    	}
     	discardOldTokens(false);
     	//System.out.println("registerValues" + r);
     	return r;
@@ -2214,15 +2289,12 @@ public class AllegroGraph extends AGInternals
     static class valueMapEntry {
     	Object savedToken; int savedMore; AGInternals savedAG; Object savedVal = null;
     	int savedPlimit;  boolean savedNullOk;
+    	AGCursorReclaimer.Handle handle = null;
     	public valueMapEntry ( AGInternals ag, Object token, int more, int pl, Object sv, boolean nullOk ) {
 			savedToken = token; savedMore = more; 
 			savedAG = ag; savedPlimit = pl; savedVal = sv;
 			savedNullOk = nullOk;
 		}
-    	protected synchronized void finalize() throws Throwable {
-    		if ( (savedAG.ags)==null ) return;
-    		if ( null!=savedToken ) savedAG.ags.oldTokens.add(savedToken);
-    	}
     }
     	
    
@@ -2676,7 +2748,7 @@ public class AllegroGraph extends AGInternals
     			( "Components of federated triple store must be open triple stores.");
 			iparts[i] = parts[i].tsx;
 		}
-    	tsx = verifyEnabled().federate(name, iparts, supersede);
+    	tsx = verifyEnabled().federate(this, parts, name, iparts, supersede);
     	ags.addTS(this);
     	this.initNamespaces();
     }
@@ -2707,6 +2779,7 @@ public class AllegroGraph extends AGInternals
     protected AllegroGraph ( AGInternals from, int ix, String name, String directory ) {
     	ags = from.ags; storeName = name;   storeDirectory = directory;
     	tsx = ix;
+    	if ( null!=ags.agc ) ags.agc.adopt(from, this);
     	ags.addTS(this);
     }
     
@@ -26,6 +26,9 @@ import java.util.prefs.Preferences;
 
 import com.franz.agbase.impl.TriplesIteratorImpl;
 import com.franz.agbase.transport.AGConnector;
+import com.franz.agbase.transport.AGInternCache;
+import com.franz.agbase.transport.AGLinkMetrics;
+import com.franz.agbase.transport.AGPartCache;
 import com.franz.agbase.util.AGBase;
 import com.franz.agbase.util.AGC;
 import com.franz.agbase.util.AGConnInternals;
@@ -152,10 +155,41 @@ public class AllegroGraphConnection extends AGConnInternals {
 	
 	/**
 	 * Retrieve the connection mode. 
-	 * @return The string "direct" or "jlinker".
+	 * @return The string "direct", "nio" or "jlinker".
 	 */
 	public String getMode () { return mode; }
 	
+	/**
+	 * Set the static default connection mode.
+	 * @param newMode the string "direct" or "nio".
+	 * See also {@link #setMode(String)}.
+	 */
+	public static void setDefaultMode ( String newMode ) {
+		defaultMode = checkMode(newMode);
+	}
+	
+	/**
+	 * Set the connection mode.
+	 * The value takes effect the next time the connection is enabled.
+	 * <p>
+	 * Both "direct" and "nio" mode talk to a server in direct mode.
+	 * The "nio" mode reads and writes through java.nio socket channels 
+	 * with large direct buffers;  it is faster when large amounts of data
+	 * are transferred, as in addStatements() calls or while iterating over
+	 * large results.  The buffer sizes are set with 
+	 * {@link #setSendWindow(int)} and {@link #setReceiveWindow(int)}.
+	 * @param newMode the string "direct" or "nio".
+	 */
+	public void setMode ( String newMode ) {
+		mode = checkMode(newMode);
+	}
+	
+	static String checkMode ( String newMode ) {
+		if ( "direct".equalsIgnoreCase(newMode) ) return "direct";
+		if ( "nio".equalsIgnoreCase(newMode) ) return "nio";
+		throw new IllegalArgumentException("Unknown mode: " + newMode);
+	}
+	
 	/**
 	 * Set the static default connection mode to use direct socket 
 	 * connection for communicating with the AllegroGraph server.
@@ -567,6 +601,15 @@ public class AllegroGraphConnection extends AGConnInternals {
 		else if (-1<agc.query())
 			return false;
 		agc.init(port, port2, host, pollCount, pollInterval, debug, timeout);
+		agc.setPipelined(pipelined);
+		agc.setPool(poolMin, poolMax, poolIdleTimeout);
+		agc.setWindows(sendWindow, receiveWindow);
+		agc.setLockTimeout(lockTimeout);
+		agc.setCompression(compression);
+		agc.setPrefixes(prefixDictionary?getNamespaces():null);
+		agc.setMetrics(transportMetrics);
+		agc.setPartCache((partCacheSize>0)?new AGPartCache(partCacheSize, partCacheMaxLabel):null);
+		agc.setInternCache((internCacheSize>0)?new AGInternCache(internCacheSize, internCacheMaxText):null);
 		agc.enable();
 		if ( debug>0 ) serverTrace(true);
 		
@@ -1172,6 +1215,53 @@ public class AllegroGraphConnection extends AGConnInternals {
     	return getServer().getTimers(null);
     }
     
+    /**
+     * Query the transport metrics of this connection.
+     * @return the metrics instance, or null.
+     */
+    public AGLinkMetrics getTransportMetrics () {
+    	return transportMetrics;
+    }
+    
+    /**
+     * Collect client-side statistics for every operation sent to the
+     * server: call counts, latency, time spent waiting for a busy link,
+     * request and reply sizes, errors and calls in flight.
+     * The statistics complement the server-side {@link #getTimers()}.
+     * The instance takes effect immediately if the connection is enabled.
+     * @param m a metrics instance, usually a 
+     *    {@link com.franz.agbase.transport.AGTransportMetrics} that is
+     *    also registered with JMX; null turns off the collection.
+     */
+    public void setTransportMetrics ( AGLinkMetrics m ) {
+    	transportMetrics = m;
+    	if ( agc!=null ) agc.setMetrics(m);
+    }
+    
+    /**
+     * Query the limit on open server cursors.
+     * @return the maximum number of cursors, or 0 if there is no limit.
+     */
+    public int getMaxOpenCursors () {
+    	return maxCursors;
+    }
+    
+    /**
+     * Limit the number of server cursors that this connection keeps open.
+     * A cursor is open from the time it is returned by a query until it
+     * is closed, or until it is garbage collected and then discarded by
+     * a background thread.  A query that would exceed the limit throws
+     * an IllegalStateException and its cursor is discarded.
+     * The limit takes effect immediately.
+     * The built-in initial value is 0, which means no limit.
+     * @param n the maximum number of open cursors.
+     */
+    public void setMaxOpenCursors ( int n ) {
+    	if ( n<0 ) throw new IllegalArgumentException
+    		("setMaxOpenCursors cannot be negative " + n);
+    	maxCursors = n;
+    }
+    
     /**
      * Query the namespace definitions in the AllegroGraph server.
      * There is one set of namespace definitions in the AllegroGraph server.
@@ -1619,6 +1709,333 @@ public class AllegroGraphConnection extends AGConnInternals {
 		this.timeout = timeout;
 	}
 	
+	/**
+	 * Retrieve the static default value of the pipelined mode flag.
+	 * The built-in initial value is false.
+	 * @return true if new connections are pipelined by default.
+	 * See also {@link #isPipelined()}.
+	 */
+	public static boolean getDefaultPipelined() {
+		return defaultPipelined;
+	}
+
+	/**
+	 * Set the static default value of the pipelined mode flag.
+	 * @param onoff the new default value.
+	 * See also {@link #setPipelined(boolean)}.
+	 */
+	public static void setDefaultPipelined(boolean onoff) {
+		defaultPipelined = onoff;
+	}
+
+	/**
+	 * Query the pipelined mode flag for this connection.
+	 * @return true if the connection is (or will be) enabled in pipelined mode.
+	 */
+	public boolean isPipelined() {
+		return pipelined;
+	}
+
+	/**
+	 * Set the pipelined mode flag for this connection.
+	 * The value takes effect the next time the connection is enabled.
+	 * <p>
+	 * In the default mode, each thread holds the connection
+	 * for the entire round trip to the server, and all other threads
+	 * wait.  In pipelined mode, a thread holds the connection only while
+	 * its request is written; a dedicated reader thread sends each reply to 
+	 * the caller waiting for it.  When many threads share one connection,
+	 * this allows many requests to be outstanding at the same time.
+	 * <p>
+	 * The server still processes the requests on one connection
+	 * in the order they arrive.
+	 * @param onoff true to enable pipelined mode.
+	 */
+	public void setPipelined(boolean onoff) {
+		pipelined = onoff;
+	}
+	
+	/**
+	 * Query the minimum number of pooled server links.
+	 * @return the number of pool links kept open when idle.
+	 * See also {@link #setPoolSize(int, int)}.
+	 */
+	public int getPoolMin() {
+		return poolMin;
+	}
+
+	/**
+	 * Query the maximum number of pooled server links.
+	 * @return the maximum number of pool links, or zero if
+	 *     the connection does not use a pool.
+	 * See also {@link #setPoolSize(int, int)}.
+	 */
+	public int getPoolMax() {
+		return poolMax;
+	}
+
+	/**
+	 * Set the size of the server link pool for this connection.
+	 * The value takes effect the next time the connection is enabled.
+	 * <p>
+	 * By default, all the triple stores opened on a connection share 
+	 * one server link.  When the pool is enabled, each triple store 
+	 * leases a link from the pool when it is opened or created, and 
+	 * returns the link when it is closed.  When all the links are in use, 
+	 * new triple stores share the link with the fewest stores.
+	 * Calls that do not name a triple store use the main link of 
+	 * the connection.
+	 * <p>
+	 * The components of a federated store must be served by the same
+	 * link; they are most easily opened before the pool fills up,
+	 * or with a pool of size 1.
+	 * A triple store opened on a pool link is not visible to 
+	 * {@link #findStore(String, String)}.
+	 * 
+	 * @param minLinks the number of pool links opened with the connection
+	 *     and kept open when idle.
+	 * @param maxLinks the maximum number of pool links.  Zero disables the pool.
+	 */
+	public void setPoolSize(int minLinks, int maxLinks) {
+		if ( minLinks<0 || (maxLinks>0 && minLinks>maxLinks) )
+			throw new IllegalArgumentException
+				("Bad pool size " + minLinks + ".." + maxLinks);
+		poolMin = minLinks;
+		poolMax = maxLinks;
+	}
+
+	/**
+	 * Query the idle timeout of pooled server links.
+	 * @return the timeout in milliseconds.
+	 */
+	public int getPoolIdleTimeout() {
+		return poolIdleTimeout;
+	}
+
+	/**
+	 * Set the idle timeout of pooled server links.
+	 * A pool link that has not served any triple store for this
+	 * interval is closed, unless the pool is at its minimum size.
+	 * @param timeout the timeout in milliseconds; zero means that idle
+	 *     links are never closed.
+	 */
+	public void setPoolIdleTimeout(int timeout) {
+		poolIdleTimeout = timeout;
+	}
+	
+	/**
+	 * Query the lock timeout of this connection.
+	 * @return the timeout in milliseconds; zero means wait forever.
+	 */
+	public int getLockTimeout() {
+		return lockTimeout;
+	}
+
+	/**
+	 * Set the lock timeout of this connection.
+	 * A call waits this long for its turn to use a busy server link;
+	 * if the link does not become available, the call fails with
+	 * an exception.  Waiting callers are served in arrival order.
+	 * The value takes effect the next time the connection is enabled.
+	 * @param ms the timeout in milliseconds.  The built-in initial value is
+	 *     zero, which means wait forever.
+	 */
+	public void setLockTimeout(int ms) {
+		lockTimeout = ms;
+	}
+	
+	/**
+	 * Query the send window size used in "nio" mode.
+	 * @return the size in bytes.
+	 */
+	public int getSendWindow() {
+		return sendWindow;
+	}
+
+	/**
+	 * Set the send window size used in "nio" mode.
+	 * This is the size of the socket send buffer and of the buffer where
+	 * requests are collected before they are written to the socket.
+	 * The value takes effect the next time the connection is enabled.
+	 * @param size the size in bytes.  The built-in initial value is 65536.
+	 */
+	public void setSendWindow(int size) {
+		sendWindow = size;
+	}
+
+	/**
+	 * Query the receive window size used in "nio" mode.
+	 * @return the size in bytes.
+	 */
+	public int getReceiveWindow() {
+		return receiveWindow;
+	}
+
+	/**
+	 * Set the receive window size used in "nio" mode.
+	 * This is the size of the socket receive buffer and of the buffer where
+	 * replies are read from the socket.
+	 * The value takes effect the next time the connection is enabled.
+	 * @param size the size in bytes.  The built-in initial value is 65536.
+	 */
+	public void setReceiveWindow(int size) {
+		receiveWindow = size;
+	}
+	
+	/**
+	 * Query the compression threshold of this connection.
+	 * @return the threshold in bytes, or -1 if compression is off.
+	 */
+	public int getCompression() {
+		return compression;
+	}
+
+	/**
+	 * Set the compression threshold of this connection.
+	 * When the threshold is zero or more, the connection asks the server
+	 * to compress the data sent in both directions, and blocks of data
+	 * of at least this many bytes are compressed.  Small requests and
+	 * replies are sent as they are, since compressing them costs more 
+	 * time than it saves.  Compression needs a server that implements
+	 * the :compress operation of the direct protocol; no released server
+	 * does yet, so with current servers the connection is not compressed.
+	 * Compression is not available in "nio" mode.
+	 * The value takes effect the next time the connection is enabled.
+	 * @param threshold the size in bytes.  The built-in initial value is -1,
+	 *     which means no compression.
+	 */
+	public void setCompression(int threshold) {
+		compression = threshold;
+	}
+	
+	/**
+	 * Query the URI prefix dictionary mode of this connection.
+	 * @return true if the prefix dictionary is used.
+	 */
+	public boolean getPrefixDictionary() {
+		return prefixDictionary;
+	}
+
+	/**
+	 * Set the URI prefix dictionary mode of this connection.
+	 * When true, the namespace URIs registered in this connection are sent
+	 * to the server when the connection is enabled, and URI strings that
+	 * begin with one of them are sent in both directions as a short 
+	 * index and the rest of the string.  Namespaces registered later
+	 * are not added to the dictionary.  The dictionary needs a server that
+	 * implements the :prefixes operation of the direct protocol; no
+	 * released server does yet, so with current servers strings are
+	 * sent in full.
+	 * The value takes effect the next time the connection is enabled.
+	 * @param on The built-in initial value is false.
+	 */
+	public void setPrefixDictionary(boolean on) {
+		prefixDictionary = on;
+	}
+	
+	/**
+	 * Query the size of the part cache of this connection.
+	 * @return the maximum number of cached parts, or 0 if there is no cache.
+	 */
+	public int getPartCacheSize() {
+		return partCacheSize;
+	}
+	
+	/**
+	 * Query the longest label kept in the part cache of this connection.
+	 * @return the length in characters.
+	 */
+	public int getPartCacheMaxLabel() {
+		return partCacheMaxLabel;
+	}
+	
+	/**
+	 * Keep the type, label and modifier of recently used triple parts
+	 * in this connection.  A part in the cache is not requested from the 
+	 * server again, so frequent predicates and classes are resolved once.
+	 * The cache is shared by all the triple stores of the connection,
+	 * and the parts of a store are dropped when the store is closed.
+	 * When the cache is full, the least recently used parts are dropped.
+	 * The values take effect the next time the connection is enabled.
+	 * @param size the maximum number of parts in the cache.
+	 *     The built-in initial value is 0, which means no cache.
+	 *     A positive value must be at least 16.
+	 * @param maxLabel the longest label or modifier, in characters,
+	 *     that is cached.  The built-in initial value is 1024.
+	 * @see #getPartCache()
+	 */
+	public void setPartCache(int size, int maxLabel) {
+		if ( size<0 || (size>0 && size<AGPartCache.SEGMENTS) )
+			throw new IllegalArgumentException("Part cache size must be 0 or at least "
+					+ AGPartCache.SEGMENTS + ": " + size);
+		partCacheSize = size;
+		partCacheMaxLabel = maxLabel;
+	}
+	
+	/**
+	 * Get the part cache of the enabled connection, 
+	 * for its hit and miss counts.
+	 * @return the cache, or null if the connection is not enabled
+	 *    or has no cache.
+	 */
+	public AGPartCache getPartCache() {
+		if ( agc==null ) return null;
+		return agc.getPartCache();
+	}
+	
+	/**
+	 * Query the size of the intern cache of this connection.
+	 * @return the maximum number of cached URIs and literals, 
+	 *     or 0 if there is no cache.
+	 */
+	public int getInternCacheSize() {
+		return internCacheSize;
+	}
+	
+	/**
+	 * Query the longest text kept in the intern cache of this connection.
+	 * @return the length in characters.
+	 */
+	public int getInternCacheMaxText() {
+		return internCacheMaxText;
+	}
+	
+	/**
+	 * Remember the UPIs of URIs and literals added to triple stores
+	 * through this connection, such as by AllegroGraph.addURI() and
+	 * AllegroGraph.addLiteral().  A URI or literal in the cache is
+	 * not sent to the server again.  When several URIs or literals are
+	 * added in one call, the ones that are not in the cache are sent
+	 * together.  The entries of a store are dropped when the store 
+	 * is closed, and the least recently used entries are dropped when
+	 * the cache is full.
+	 * The values take effect the next time the connection is enabled.
+	 * @param size the maximum number of entries in the cache.
+	 *     The built-in initial value is 0, which means no cache.
+	 *     A positive value must be at least 16.
+	 * @param maxText the longest URI or literal text, in characters,
+	 *     that is cached.  The built-in initial value is 1024.
+	 * @see #getInternCache()
+	 */
+	public void setInternCache(int size, int maxText) {
+		if ( size<0 || (size>0 && size<AGPartCache.SEGMENTS) )
+			throw new IllegalArgumentException("Intern cache size must be 0 or at least "
+					+ AGPartCache.SEGMENTS + ": " + size);
+		internCacheSize = size;
+		internCacheMaxText = maxText;
+	}
+	
+	/**
+	 * Get the intern cache of the enabled connection, 
+	 * for its hit and miss counts.
+	 * @return the cache, or null if the connection is not enabled
+	 *    or has no cache.
+	 */
+	public AGInternCache getInternCache() {
+		if ( agc==null ) return null;
+		return agc.getInternCache();
+	}
+	
 	/**
 	 * Query the default size of the SPOGI cache in the current server.
 	 * @return the default size of the SPOGI cache.
@@ -0,0 +1,302 @@
+package com.franz.agbase;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Load a large number of triples into one triple store over several
+ * server links at once.
+ * <p>
+ * Triples added to a loader are collected in batches, and each batch is
+ * sent with one addStatements call by one of several sender threads.
+ * Each sender uses its own AllegroGraph instance for the triple store;
+ * the first is the instance given to the constructor and the others are
+ * opened with {@link AllegroGraphConnection#access(String, String)}.
+ * The extra instances are served by separate links when the connection
+ * has a link pool (see {@link AllegroGraphConnection#setPoolSize(int, int)}),
+ * and share the main link otherwise.
+ * <p>
+ * At most one batch per sender waits to be sent, so add() blocks when the
+ * server falls behind.  The batch size is adjusted after every batch so
+ * that one batch takes about the target time to send.
+ * <p>
+ * The triples are not indexed as they are added.  By default, close()
+ * indexes the new triples once, after the last batch is sent.
+ * <p>
+ * The add methods must be called from one thread at a time.
+ * A loader must be closed to stop the sender threads.
+ * <p>
+ * Typical use:
+ * <pre>
+ *    BulkLoader loader = new BulkLoader(ts, 4);
+ *    try {
+ *       while ( ... ) loader.add(s, p, o);
+ *    } finally {
+ *       loader.close();
+ *    }
+ * </pre>
+ */
+public class BulkLoader {
+
+	private static final Object[][] END = new Object[0][];
+
+	final AllegroGraph store;
+	private final AllegroGraph[] handles;
+	private final Thread[] senders;
+	private final BlockingQueue<Object[][]> queue;
+
+	private int minBatch = 1000;
+	private int maxBatch = 100000;
+	private long targetTime = 1000;
+	private boolean indexAtEnd = true;
+
+	private volatile int batchSize = minBatch;
+	private Object[][] batch = null;
+	private int count = 0;
+	private int pending = 0;
+	private long sent = 0;
+	private volatile Throwable error = null;
+	private boolean closed = false;
+
+	/**
+	 * Create a loader for a triple store.
+	 * @param store the triple store.
+	 * @param links the number of sender threads and AllegroGraph instances.
+	 * @throws AllegroGraphException if an extra instance cannot be opened.
+	 */
+	public BulkLoader ( AllegroGraph store, int links ) throws AllegroGraphException {
+		if ( links<1 )
+			throw new IllegalArgumentException("Bad link count " + links);
+		this.store = store;
+		handles = new AllegroGraph[links];
+		handles[0] = store;
+		try {
+			for (int i = 1; i < links; i++)
+				handles[i] = store.getConnection().access(store.storeName, store.storeDirectory);
+		} catch (AllegroGraphException e) {
+			closeHandles();
+			throw e;
+		}
+		queue = new ArrayBlockingQueue<Object[][]>(links);
+		senders = new Thread[links];
+		for (int i = 0; i < links; i++) {
+			final AllegroGraph ag = handles[i];
+			senders[i] = new Thread("AllegroGraph bulk loader " + i) {
+				public void run() { send(ag); }
+			};
+			senders[i].setDaemon(true);
+			senders[i].start();
+		}
+	}
+
+	/**
+	 * Set the range of the batch size.
+	 * Set min and max to the same value to disable the adjustment.
+	 * @param min the smallest batch size.  This is also the initial size.
+	 * @param max the largest batch size.
+	 */
+	public void setBatchSize ( int min, int max ) {
+		if ( min<1 || max<min )
+			throw new IllegalArgumentException("Bad batch size " + min + ".." + max);
+		minBatch = min;
+		maxBatch = max;
+		batchSize = min;
+	}
+
+	/**
+	 * Query the current batch size.
+	 */
+	public int getBatchSize () { return batchSize; }
+
+	/**
+	 * Set the time in milliseconds that one batch should take to send.
+	 * The default is 1000.
+	 */
+	public void setTargetTime ( long millis ) {
+		if ( millis<1 )
+			throw new IllegalArgumentException("Bad target time " + millis);
+		targetTime = millis;
+	}
+
+	/**
+	 * Control the indexing of the new triples.
+	 * @param onoff when true, close() calls indexNewTriples() on the
+	 *    triple store.  The default is true.
+	 */
+	public void setIndexAtEnd ( boolean onoff ) { indexAtEnd = onoff; }
+
+	/**
+	 * Query the number of triples sent to the server.
+	 */
+	public synchronized long getCount () { return sent; }
+
+	/**
+	 * Add a triple to the null context.
+	 * See {@link #add(Object, Object, Object, Object)}.
+	 */
+	public void add ( Object s, Object p, Object o ) throws AllegroGraphException {
+		add(s, p, o, null);
+	}
+
+	/**
+	 * Add a triple.
+	 * The arguments are any values accepted by
+	 * {@link AllegroGraph#addStatement(Object, Object, Object, Object)}.
+	 * @throws AllegroGraphException if a batch failed to load.
+	 *    Once a batch fails, no more batches are sent.
+	 */
+	public void add ( Object s, Object p, Object o, Object c ) throws AllegroGraphException {
+		if ( closed ) throw new IllegalStateException("BulkLoader is closed.");
+		checkError();
+		if ( batch==null ) batch = new Object[4][batchSize];
+		batch[0][count] = s;
+		batch[1][count] = p;
+		batch[2][count] = o;
+		batch[3][count] = c;
+		count++;
+		if ( count==batch[0].length ) put();
+	}
+
+	/**
+	 * Send the triples added so far and wait for the server to add them.
+	 * @throws AllegroGraphException if a batch failed to load.
+	 */
+	public void flush () throws AllegroGraphException {
+		if ( count>0 ) put();
+		synchronized ( this ) {
+			try {
+				while ( pending>0 ) wait();
+			} catch (InterruptedException e) {
+				throw new AllegroGraphException("Interrupted while loading: " + e, e);
+			}
+		}
+		checkError();
+	}
+
+	/**
+	 * Send the remaining triples, index the new triples if requested,
+	 * stop the sender threads, and close the extra AllegroGraph instances.
+	 * The triple store given to the constructor is not closed.
+	 * @throws AllegroGraphException if a batch failed to load or the
+	 *    indexing failed.
+	 */
+	public void close () throws AllegroGraphException {
+		if ( closed ) return;
+		try {
+			flush();
+			if ( indexAtEnd && getCount()>0 ) store.indexNewTriples();
+		} finally {
+			closed = true;
+			batch = null;  count = 0;
+			stop();
+			closeHandles();
+		}
+	}
+
+	/**
+	 * Convert one part of a triple before it is sent.
+	 * This method is called in the sender threads, so a subclass can
+	 * spread the cost of converting values over the threads.
+	 * It must be thread safe.
+	 * @param part the value passed to add().
+	 * @return a value accepted by addStatements().
+	 */
+	protected Object convert ( Object part ) throws AllegroGraphException {
+		return part;
+	}
+
+	private void put () throws AllegroGraphException {
+		Object[][] b = batch;
+		if ( count<b[0].length ) {
+			b = new Object[4][count];
+			for (int i = 0; i < 4; i++) System.arraycopy(batch[i], 0, b[i], 0, count);
+		}
+		batch = null;  count = 0;
+		synchronized ( this ) { pending++; }
+		try {
+			queue.put(b);
+		} catch (InterruptedException e) {
+			synchronized ( this ) { pending--; }
+			throw new AllegroGraphException("Interrupted while loading: " + e, e);
+		}
+	}
+
+	private void send ( AllegroGraph ag ) {
+		while ( true ) {
+			Object[][] b;
+			try {
+				b = queue.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			if ( b==END ) return;
+			try {
+				if ( error==null ) {
+					int n = b[0].length;
+					long start = System.currentTimeMillis();
+					for (int j = 0; j < 4; j++)
+						for (int i = 0; i < n; i++) b[j][i] = convert(b[j][i]);
+					ag.addStatements(b[0], b[1], b[2], b[3]);
+					adjust(n, System.currentTimeMillis() - start);
+					synchronized ( this ) { sent += n; }
+				}
+			} catch (Throwable e) {
+				error = e;
+			} finally {
+				synchronized ( this ) {
+					pending--;
+					notifyAll();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Double the batch size when a full batch was sent in less than half
+	 * the target time, and halve it when a batch took more than twice
+	 * the target time.
+	 */
+	private void adjust ( int n, long elapsed ) {
+		int size = batchSize;
+		if ( n>=size && elapsed<targetTime/2 )
+			batchSize = Math.min(maxBatch, 2*size);
+		else if ( elapsed>2*targetTime )
+			batchSize = Math.max(minBatch, Math.min(size, n)/2);
+	}
+
+	private void checkError () throws AllegroGraphException {
+		Throwable e = error;
+		if ( e==null ) return;
+		if ( e instanceof AllegroGraphException ) throw (AllegroGraphException) e;
+		if ( e instanceof RuntimeException ) throw (RuntimeException) e;
+		if ( e instanceof Error ) throw (Error) e;
+		throw new AllegroGraphException("Bulk load failed: " + e, e);
+	}
+
+	private void stop () {
+		queue.clear();
+		for (int i = 0; i < senders.length; i++) {
+			try {
+				queue.put(END);
+			} catch (InterruptedException e) {
+				senders[i].interrupt();
+			}
+		}
+		for (int i = 0; i < senders.length; i++) {
+			try {
+				senders[i].join();
+			} catch (InterruptedException e) {}
+		}
+	}
+
+	private void closeHandles () {
+		for (int i = 1; i < handles.length; i++) {
+			if ( handles[i]==null ) continue;
+			try {
+				handles[i].closeTripleStore(false);
+			} catch (AllegroGraphException e) {}
+			handles[i] = null;
+		}
+	}
+
+}
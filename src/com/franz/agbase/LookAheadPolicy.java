@@ -0,0 +1,30 @@
+package com.franz.agbase;
+
+/**
+ * A rule that chooses how many results a cursor requests from the
+ * AllegroGraph server each time it needs more.
+ * <p>
+ * A policy is consulted by TriplesIterator and ValueSetIterator instances
+ * after every block of results is received.  One policy instance may be
+ * shared by any number of cursors, so an implementation should keep its
+ * state in the arguments.
+ * 
+ * @see AllegroGraph#setLookAheadPolicy(LookAheadPolicy)
+ * @see AdaptiveLookAhead
+ */
+public interface LookAheadPolicy {
+	
+	/**
+	 * Choose the size of the next block.
+	 * @param size the number of results requested for the block just received.
+	 * @param received the number of results in the block.
+	 * @param bytes an estimate of the size of the block in bytes.
+	 * @param fetchNanos the time the application waited for the block.
+	 * @param useNanos the time the application spent on the previous block,
+	 *     from its arrival to the request for this block.
+	 * @return the number of results to request next.
+	 *     A value less than 1 keeps the current size.
+	 */
+	public int nextSize ( int size, int received, long bytes, long fetchNanos, long useNanos );
+
+}
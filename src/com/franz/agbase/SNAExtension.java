@@ -48,6 +48,10 @@ public class SNAExtension {
 		return AGConnector.toUPIArray(v[0]);
 	}
 	
+	private int addUPIs ( Object[] v, UPISet into ) {
+		return into.addAll(getUPIArray(v));
+	}
+	
 	/**
 	 * Register a generator in the AllegroGraph server.
 	 * This generator can be used in subsequent calls to search methods.
@@ -213,18 +217,8 @@ public class SNAExtension {
 		 * @return
 		 */
 		private UPI[][] toPathArray ( Object [] w ) {
-			Object w0 = w[0];
-			Object[] v;
-			if ( w0==null ) return new UPI[0][0];
-			if ( w0 instanceof UPI[] ) v = (Object[]) w0;
-			else if ( w0.getClass().isArray() )
-			{
-				w0 = Array.get(w0, 0);
-				if ( (AGConnector.hasLongValue(w0)) && 0==AGConnector.longValue(w0) )
-					return new UPI[0][0];
-				throw new IllegalStateException("Unexpected path array " + w0);
-			}
-			else throw new IllegalStateException("Unexpected path array " + w0);
+			Object[] v = pathValues(w);
+			if ( v==null ) return new UPI[0][0];
 			int len = (int) AGConnector.longValue(v[0]);
 			UPI[][] r = new UPI[len][];  int row = 0;
 			int i = 1;
@@ -239,6 +233,43 @@ public class SNAExtension {
 			return r; 
 		}
 		
+		/**
+		 * Check the shape of a path reply.
+		 * @return the array of path values, or null if there are no paths.
+		 */
+		private Object[] pathValues ( Object[] w ) {
+			Object w0 = w[0];
+			if ( w0==null ) return null;
+			if ( w0 instanceof UPI[] ) return (Object[]) w0;
+			if ( w0.getClass().isArray() )
+			{
+				w0 = Array.get(w0, 0);
+				if ( (AGConnector.hasLongValue(w0)) && 0==AGConnector.longValue(w0) )
+					return null;
+			}
+			throw new IllegalStateException("Unexpected path array " + w0);
+		}
+		
+		/**
+		 * Add the nodes of the paths in a reply to a list.
+		 * @return the index in the list after the last node of each path.
+		 */
+		private int[] toPathList ( Object[] w, UPIList into ) {
+			Object[] v = pathValues(w);
+			if ( v==null ) return new int[0];
+			int len = (int) AGConnector.longValue(v[0]);
+			int[] r = new int[len];  int row = 0;
+			int i = 1;
+			while ( i<v.length ) {
+				int width = (int) AGConnector.longValue(v[i]); i++;
+				for ( int j=0; j<width; j++ ) {
+					into.add((UPI)v[i]); i++;
+				}
+				r[row] = into.size(); row++;
+			}
+			return r;
+		}
+		
 		/**
 		 * Search the triple store in breadth first fashion starting at start and
 		 * looking for end, using generator to expand the search space.
@@ -265,6 +296,23 @@ public class SNAExtension {
 						));                  
 		}
 		
+		/**
+		 * Like {@link #allBreadthFirstSearchPaths(Object, Object, String, int)}, but add the nodes
+		 * of the paths to a list stored outside the Java heap.
+		 * The nodes of the paths are added one path after another.
+		 * @param into the list where the nodes are added.
+		 * @return the index in the list after the last node of each path.
+		 *     If no paths were found, this is an array of length zero.
+		 * @throws AllegroGraphException
+		 */
+		public int[] allBreadthFirstSearchPaths ( Object start, Object end, String generator, int depth, UPIList into ) throws AllegroGraphException {
+			return toPathList(ag.verifyEnabled().applyAGFn(ag, AGC.AG_BREADTH_FIRST_ALL, 
+						new Object[] {
+						    ag.validRef(start), ag.validRef(end), generator, new Integer(depth)
+							}
+						), into);  
+		}
+		
 		/**
 		 * Search the triple store in depth first fashion starting at start and
 		 * looking for end, using generator to expand the search space.
@@ -341,6 +389,23 @@ public class SNAExtension {
 						));  
 		}
 		
+		/**
+		 * Like {@link #allDepthFirstSearchPaths(Object, Object, String, int)}, but add the nodes
+		 * of the paths to a list stored outside the Java heap.
+		 * The nodes of the paths are added one path after another.
+		 * @param into the list where the nodes are added.
+		 * @return the index in the list after the last node of each path.
+		 *     If no paths were found, this is an array of length zero.
+		 * @throws AllegroGraphException
+		 */
+		public int[] allDepthFirstSearchPaths ( Object start, Object end, String generator, int depth, UPIList into ) throws AllegroGraphException {
+			return toPathList(ag.verifyEnabled().applyAGFn(ag, AGC.AG_DEPTH_FIRST_ALL, 
+						new Object[] {
+						    ag.validRef(start), ag.validRef(end), generator, new Integer(depth)
+							}
+						), into);  
+		}
+		
 		/**
 		 * Find one path using bidirectional search.
 		 * @param start a string, Value instance or UPI instance that identifies the start
@@ -412,6 +477,23 @@ public class SNAExtension {
 						));  
 		}
 		
+		/**
+		 * Like {@link #allBidirectionalSearchPaths(Object, Object, String, int)}, but add the nodes
+		 * of the paths to a list stored outside the Java heap.
+		 * The nodes of the paths are added one path after another.
+		 * @param into the list where the nodes are added.
+		 * @return the index in the list after the last node of each path.
+		 *     If no paths were found, this is an array of length zero.
+		 * @throws AllegroGraphException
+		 */
+		public int[] allBidirectionalSearchPaths ( Object start, Object end, String generator, int depth, UPIList into ) throws AllegroGraphException {
+			return toPathList(ag.verifyEnabled().applyAGFn(ag, AGC.AG_BIDIRECTIONAL_ALL, 
+						new Object[] {
+						    ag.validRef(start), ag.validRef(end), generator, new Integer(depth)
+							}
+						), into);  
+		}
+		
 		/**
 		 * Bipartite breadth first search.
 		 * @param start a string, Value instance or UPI instance that identifies the start
@@ -499,6 +581,19 @@ public class SNAExtension {
 			));
 		}
 		
+		/**
+		 * Like {@link #getNodalNeighbors(Object, String)}, but add the nodes
+		 * to a set stored outside the Java heap.
+		 * @param into the set where the nodes are added.
+		 * @return the number of nodes that were not in the set already.
+		 * @throws AllegroGraphException
+		 */
+		public int getNodalNeighbors ( Object node, String generator, UPISet into ) throws AllegroGraphException {
+			return addUPIs(ag.verifyEnabled().applyAGFn(ag, AGC.AG_NODAL_NEIGHBORS, 
+					new Object[] { ag.validRef(node), generator }
+			), into);
+		}
+		
 		
 
 		/**
@@ -538,6 +633,19 @@ public class SNAExtension {
 					new Object[] { ag.validRef(node), new Integer(depth), generator } ));
 		}
 		
+		/**
+		 * Like {@link #getEgoGroup(Object, String, int)}, but add the nodes
+		 * to a set stored outside the Java heap.  The ego groups of several
+		 * nodes can be collected in one set.
+		 * @param into the set where the nodes are added.
+		 * @return the number of nodes that were not in the set already.
+		 * @throws AllegroGraphException
+		 */
+		public int getEgoGroup ( Object node, String generator, int depth, UPISet into ) throws AllegroGraphException {
+			return addUPIs(ag.verifyEnabled().applyAGFn(ag, AGC.AG_EGO_GROUP, 
+					new Object[] { ag.validRef(node), new Integer(depth), generator } ), into);
+		}
+		
 		/**
 		 * Determine the density of a subgraph.
 		 * This is the normalized average degree of the actors in the graph.
@@ -674,6 +782,23 @@ public class SNAExtension {
 						));  
 		}
 		
+		/**
+		 * Like {@link #getCliques(Object, String, int)}, but add the nodes
+		 * of the cliques to a list stored outside the Java heap.
+		 * The nodes of the cliques are added one clique after another.
+		 * @param into the list where the nodes are added.
+		 * @return the index in the list after the last node of each clique.
+		 *     If no cliques were found, this is an array of length zero.
+		 * @throws AllegroGraphException
+		 */
+		public int[] getCliques ( Object node, String generator, int minSize, UPIList into ) throws AllegroGraphException {
+			return toPathList(ag.verifyEnabled().applyAGFn(ag, AGC.AG_CLIQUES, 
+						new Object[] {
+						    ag.validRef(node), generator, new Integer(minSize)
+							}
+						), into);  
+		}
+		
 		/**
 		 * Apply a server function to each clique found.
 		 * @param node a string, Value instance or UPI instance that identifies a node in the graph.
@@ -0,0 +1,26 @@
+package com.franz.agbase;
+
+/**
+ * Receives the triples found by a parallel scan.
+ * <p>
+ * A scan runs each of its parts in a separate thread, so a handler is
+ * called from several threads at once and must be thread safe.
+ * 
+ * @see TriplesQuery#parallelScan(TriplesQuery[], TripleHandler)
+ * @see TriplesQuery#parallelHandle(int, TripleHandler)
+ */
+public interface TripleHandler {
+
+	/**
+	 * Handle one triple.
+	 * @param part the index of the part of the scan that found the triple.
+	 * @param cursor the cursor of the part, positioned at the triple.
+	 *    The handler may read the triple with methods such as getS() and
+	 *    queryTriple(), but must not step or close the cursor, and must
+	 *    not use it after the call returns.
+	 * @throws AllegroGraphException to stop the scan.  The exception
+	 *    is thrown by the method that started the scan.
+	 */
+	public void handle ( int part, TriplesIterator cursor ) throws AllegroGraphException;
+
+}
@@ -1,6 +1,7 @@
 package com.franz.agbase;
 
 
+import java.io.Closeable;
 import java.util.Iterator;
 
 import com.franz.agbase.AllegroGraphException;
@@ -16,7 +17,7 @@ import com.franz.agbase.impl.TripleImpl;
  * <p>
  * Instances are created by search operations.
  */
-public interface TriplesIterator extends Iterator<Triple> {
+public interface TriplesIterator extends Iterator<Triple>, Closeable {
 
 	/**
 	 * Query  the look-ahead value for this cursor instance.
@@ -41,6 +42,33 @@ public interface TriplesIterator extends Iterator<Triple> {
 	 */
 	public void setLookAhead(int lh);
 
+	/**
+	 * Query the prefetch mode of this cursor instance.
+	 * @return true if prefetch is on.
+	 * @see #setPrefetch(boolean)
+	 */
+	public boolean getPrefetch();
+
+	/**
+	 * Set the prefetch mode of this cursor instance.
+	 * When prefetch is on, the cursor requests the next block of
+	 *  look-ahead results from the server as soon as it starts on the
+	 *  current block, so the server and the network work while the
+	 *  application processes the current block.  At most one block is
+	 *  requested ahead, so the cursor holds no more than twice the
+	 *  look-ahead value of results.
+	 *  <p>
+	 *  The overlap requires a pipelined connection.  On other connections
+	 *  the next block is fetched at once, which only moves the delay.
+	 *  <p>
+	 *  The initial setting is determined by the value of setPrefetch in the 
+	 *  AllegroGraph instance where the query was run.
+	 *  Calling close() waits for a prefetched block before the cursor 
+	 *  is discarded.
+	 * @param on true to turn prefetch on.
+	 */
+	public void setPrefetch(boolean on);
+
 	/**
 	 * Retrieve the id number of the current triple in the Cursor instance.
 	 * 
@@ -284,11 +312,53 @@ public interface TriplesIterator extends Iterator<Triple> {
 	 * releases the reference and allows the server storage to be reclaimed.
 	 * <p>
 	 * An attempt to call next() will case an exception to be thrown.
+	 * <p>
+	 * A cursor that is dropped without a call to close() is discarded
+	 * some time after it is garbage collected.  A cursor that has
+	 * returned its last triple is discarded without a call to close().
 	 * 
 	 * @throws IllegalStateException
 	 */
 	public void close();
 
+	/**
+	 * Split off the triples that this Cursor instance has received from the
+	 * server but not yet returned.
+	 * <p>
+	 * The new Cursor returns the triples of the current block, in order, and
+	 * never asks the server for more.  This Cursor continues with the
+	 * triples after the block.  The current triple of this Cursor is not
+	 * changed.  The two cursors can be used in different threads.
+	 * 
+	 * @return a new Cursor instance, or null if no triples are waiting in
+	 *    the current block.
+	 */
+	public TriplesIterator split();
+
+	/**
+	 * Split off the next block of triples.
+	 * <p>
+	 * If triples are waiting in the current block, this is the same as
+	 * split().  Otherwise the next block is requested from the server and
+	 * split off whole.  The current triple of this Cursor is not changed.
+	 * 
+	 * @return a new Cursor instance, or null if the server has no more
+	 *    triples.
+	 * @throws AllegroGraphException if the block could not be fetched.
+	 */
+	public TriplesIterator splitNext() throws AllegroGraphException;
+
+	/**
+	 * Get a count or estimate of the number of triples that step() will
+	 * still return.
+	 * 
+	 * @return a positive integer if the result is an exact count.
+	 *    A negative integer -n if n is a lower bound, or an estimate
+	 *    from the TriplesQuery that made the Cursor.  Zero if the Cursor
+	 *    is exhausted.
+	 */
+	public long getCount();
+
 	/**
 	 * Advance the Cursor instance to the next triple.
 	 * 
@@ -1,5 +1,8 @@
 package com.franz.agbase;
 
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicReference;
+
 import com.franz.agbase.AllegroGraphException;
 import com.franz.agbase.impl.NamedAttributeList;
 import com.franz.agbase.impl.TriplesIteratorImpl;
@@ -598,17 +601,23 @@ public class TriplesQuery {
 	
 	/**
 	 * Find all the triples that match the pattern.
+	 * If {@link #estimate(boolean)} was called since the query was last changed,
+	 * the estimate is used by the getCount() method of the result.
 	 * 
 	 * @return A Cursor instance that can iterate over the results.
 	 * @throws AllegroGraphException if a problem was encountered during the search.
 	 * @throws IllegalArgumentException if this instance is not properly initialized.
 	 */
 	public TriplesIterator run () throws AllegroGraphException {
+		// An estimate of the same query sizes the cursor.
+		long expected = resultCount;
 		validate(null);
 		Object v = ag.verifyEnabled().getTriples(ag, sref, pref, oref, cref,
 				seref, peref, oeref, ceref,
 				getLookAhead(), getOpts());
 		resultCursor = (TriplesIterator) v;
+		if ( expected>-1 && v instanceof TriplesIteratorImpl )
+			((TriplesIteratorImpl) v).setEstimate(expected);
 		return resultCursor;
 	}
 	public TriplesIterator run ( AllegroGraph ag ) throws AllegroGraphException {
@@ -616,6 +625,207 @@ public class TriplesQuery {
 		return run();
 	}
 	
+	/**
+	 * Make a new query with the same parameters, attributes and triple store
+	 * as this one, but without results.
+	 */
+	public TriplesQuery copy () {
+		TriplesQuery q = new TriplesQuery();
+		q.subject = subject;  q.predicate = predicate;
+		q.object = object;    q.context = context;
+		q.subjectEnd = subjectEnd;  q.predicateEnd = predicateEnd;
+		q.objectEnd = objectEnd;    q.contextEnd = contextEnd;
+		q.sref = sref;  q.pref = pref;  q.oref = oref;  q.cref = cref;
+		q.seref = seref;  q.peref = peref;  q.oeref = oeref;  q.ceref = ceref;
+		q.includeInferred = includeInferred;
+		q.withParts = withParts;
+		q.lookahead = lookahead;
+		q.ag = ag;
+		Object[] opts = queryAttributes.getList();
+		for (int i = 0; i < opts.length; i = i+2)
+			q.queryAttributes.setAttribute((String) opts[i], opts[i+1]);
+		return q;
+	}
+	
+	/**
+	 * Run this query and pass the triples found to a handler in n threads.
+	 * <p>
+	 * This is a fan-out on the client, not a parallel search: the query
+	 * runs once, on one server cursor and one link.  Each thread takes the
+	 * next block of triples from the cursor with 
+	 * {@link TriplesIterator#splitNext()}, and handles the block on its own,
+	 * while the other threads fetch and handle the following blocks.
+	 * Only the block requests are made one at a time.  Every triple is
+	 * handled exactly once.  This helps when handling a triple costs more
+	 * than receiving it.  To search disjoint parts of a triple store in
+	 * parallel in the server, over the links of a pooled connection, 
+	 * build the parts with {@link #partition(Object[])} or by hand and use 
+	 * {@link #parallelScan(TriplesQuery[], TripleHandler)}.
+	 * @param n the number of threads.
+	 * @param handler the handler called for each triple found.
+	 *    The part argument is the index of the thread.
+	 * @return the number of triples found.
+	 * @throws AllegroGraphException if the query or the handler failed.
+	 *    The other threads are stopped at the next triple.
+	 */
+	public long parallelHandle ( int n, final TripleHandler handler ) throws AllegroGraphException {
+		if ( n<1 ) n = 1;
+		final TriplesIterator cursor = run();
+		final long[] counts = new long[n];
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		Thread[] threads = new Thread[n];
+		try {
+			for (int k = 0; k < n; k++) {
+				final int part = k;
+				threads[k] = new Thread("AllegroGraph scan " + k) {
+					public void run() {
+						try {
+							while ( error.get()==null ) {
+								TriplesIterator block = cursor.splitNext();
+								if ( block==null ) return;
+								counts[part] += handle(part, block, handler, error);
+							}
+						} catch (Throwable e) {
+							error.compareAndSet(null, e);
+						}
+					}
+				};
+				threads[k].setDaemon(true);
+				threads[k].start();
+			}
+			return finish(threads, counts, error);
+		} finally {
+			cursor.close();
+		}
+	}
+	
+	/**
+	 * Make a copy of this query for each of some contexts.
+	 * The copies find disjoint sets of triples that together are the
+	 * triples this query finds in those contexts, so they can be run
+	 * in parallel with {@link #parallelScan(TriplesQuery[], TripleHandler)}.
+	 * @param contexts the contexts, as accepted by {@link #setContext(Object)}.
+	 * @return an array of queries, one for each context.
+	 * @throws IllegalStateException if this query specifies a context.
+	 */
+	public TriplesQuery[] partition ( Object[] contexts ) throws AllegroGraphException {
+		if ( context!=null || contextEnd!=null )
+			throw new IllegalStateException("Cannot partition a query with a context.");
+		TriplesQuery[] r = new TriplesQuery[contexts.length];
+		for (int k = 0; k < contexts.length; k++) {
+			r[k] = copy();
+			r[k].setContext(contexts[k]);
+		}
+		return r;
+	}
+	
+	/**
+	 * Run some queries, each in its own thread, and pass the triples they
+	 * find to a handler.
+	 * <p>
+	 * Each query after the first one on a triple store runs on another
+	 * AllegroGraph instance of the same store, opened with 
+	 * {@link AllegroGraphConnection#access(String, String)} and closed at
+	 * the end, so the queries run at the same time in the server when
+	 * the connection has a link pool.  Otherwise they share one link.
+	 * The queries themselves are not changed.
+	 * @param parts the queries.  The triple store of each query must be set.
+	 *    The caller is responsible for making the parts disjoint.
+	 * @param handler the handler called for each triple found.
+	 *    The part argument is an index in the parts array.
+	 * @return the number of triples found.
+	 * @throws AllegroGraphException if a query or the handler failed.
+	 *    The other parts are stopped at the next triple.
+	 * @see AllegroGraphConnection#setPoolSize(int, int)
+	 */
+	public static long parallelScan ( final TriplesQuery[] parts, final TripleHandler handler )
+		throws AllegroGraphException {
+		final AllegroGraph[] stores = new AllegroGraph[parts.length];
+		boolean[] opened = new boolean[parts.length];
+		final long[] counts = new long[parts.length];
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		Thread[] threads = new Thread[parts.length];
+		HashSet<AGInternals> used = new HashSet<AGInternals>();
+		try {
+			for (int k = 0; k < parts.length; k++) {
+				parts[k].validate(null);
+				AllegroGraph ag = parts[k].ag;
+				if ( used.add(ag) )
+					stores[k] = ag;
+				else {
+					stores[k] = ag.getConnection().access(ag.storeName, ag.storeDirectory);
+					opened[k] = true;
+				}
+			}
+			for (int k = 0; k < parts.length; k++) {
+				final int part = k;
+				threads[k] = new Thread("AllegroGraph scan " + k) {
+					public void run() {
+						try {
+							TriplesIterator c = parts[part].copy().run(stores[part]);
+							try {
+								counts[part] = handle(part, c, handler, error);
+							} finally {
+								c.close();
+							}
+						} catch (Throwable e) {
+							error.compareAndSet(null, e);
+						}
+					}
+				};
+				threads[k].setDaemon(true);
+				threads[k].start();
+			}
+			return finish(threads, counts, error);
+		} finally {
+			for (int k = 0; k < parts.length; k++)
+				if ( opened[k] )
+					try {
+						stores[k].closeTripleStore(false);
+					} catch (AllegroGraphException e) {}
+		}
+	}
+	
+	/**
+	 * Pass the triples of a cursor to a handler until the cursor is
+	 * exhausted or a thread of the scan has failed.
+	 * @return the number of triples handled.
+	 */
+	private static long handle ( int part, TriplesIterator c, TripleHandler handler,
+			AtomicReference<Throwable> error ) throws AllegroGraphException {
+		long n = 0;
+		while ( error.get()==null && c.step() ) {
+			handler.handle(part, c);
+			n++;
+		}
+		return n;
+	}
+	
+	/**
+	 * Wait for the threads of a scan and report the result.
+	 */
+	private static long finish ( Thread[] threads, long[] counts, 
+			AtomicReference<Throwable> error ) throws AllegroGraphException {
+		long sum = 0;
+		for (int k = 0; k < threads.length; k++) {
+			if ( threads[k]==null ) continue;
+			try {
+				threads[k].join();
+			} catch (InterruptedException e) {
+				error.compareAndSet(null, e);
+				k--;
+				continue;
+			}
+			sum += counts[k];
+		}
+		Throwable e = error.get();
+		if ( e==null ) return sum;
+		if ( e instanceof AllegroGraphException ) throw (AllegroGraphException) e;
+		if ( e instanceof RuntimeException ) throw (RuntimeException) e;
+		if ( e instanceof Error ) throw (Error) e;
+		throw new AllegroGraphException("Parallel scan failed: " + e, e);
+	}
+	
 	
 	
 	
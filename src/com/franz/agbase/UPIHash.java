@@ -0,0 +1,190 @@
+package com.franz.agbase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An open addressing hash table of UPI keys stored outside the Java heap.
+ * <p>
+ * Each slot holds the 12 bytes of a key, a 4 byte flag that is 1 in
+ * a used slot, and the value bytes of the subclass.  Collisions are
+ * resolved by linear probing, and removed keys are filled by moving
+ * later keys back, so the table has no deleted markers.  The table is
+ * doubled when it is 70 percent full.
+ */
+abstract class UPIHash extends UPIStore {
+
+	static final int FLAG = WIDTH;
+	static final int VALUE = WIDTH + 4;
+
+	final int slotWidth;
+	int slots;
+	int mask;
+	int size = 0;
+
+	private final byte[] scratch = new byte[WIDTH];
+
+	UPIHash ( int capacity, int valueWidth ) {
+		super(tableBytes(capacity, VALUE + valueWidth));
+		slotWidth = VALUE + valueWidth;
+		setSlots(buf.capacity()/slotWidth);
+	}
+
+	UPIHash ( File file, int capacity, int valueWidth ) throws IOException {
+		super(file, tableBytes(capacity, VALUE + valueWidth));
+		slotWidth = VALUE + valueWidth;
+		setSlots(buf.capacity()/slotWidth);
+	}
+
+	/**
+	 * The table size in bytes for a number of keys.
+	 */
+	static long tableBytes ( int capacity, int slotWidth ) {
+		long n = 16;
+		while ( n*7<10L*capacity ) n = 2*n;
+		return n*slotWidth;
+	}
+
+	private void setSlots ( int n ) {
+		slots = n;
+		mask = n - 1;
+	}
+
+	static int hash ( byte[] k ) {
+		long h = 0;
+		for (int i = 0; i < WIDTH; i++) h = 31*h + (0xff & k[i]);
+		h ^= (h>>>33);
+		h *= 0xff51afd7ed558ccdL;
+		h ^= (h>>>33);
+		return (int) h;
+	}
+
+	boolean used ( int slot ) {
+		return 0!=buf.getInt(slot*slotWidth + FLAG);
+	}
+
+	/**
+	 * Find the slot of a key.
+	 * @return the slot, or -1-slot where slot is the free slot
+	 *     where the key would be added.
+	 */
+	int find ( byte[] k ) {
+		int s = hash(k) & mask;
+		while ( used(s) ) {
+			if ( sameBytes(buf, s*slotWidth, k) ) return s;
+			s = (s + 1) & mask;
+		}
+		return -1 - s;
+	}
+
+	/**
+	 * Store a key in a free slot, and make room for the next key.
+	 * @return the slot of the key, which may differ from the argument
+	 *    if the table was enlarged.
+	 */
+	int insert ( int free, byte[] k ) {
+		if ( 10L*(size+1)>7L*slots ) {
+			rehash(2*slots);
+			free = -1 - find(k);
+		}
+		int at = free*slotWidth;
+		putBytes(buf, at, k);
+		buf.putInt(at + FLAG, 1);
+		size++;
+		return free;
+	}
+
+	private void rehash ( int n ) {
+		ByteBuffer old = buf;
+		int oldSlots = slots;
+		buf = allocate((long)n*slotWidth);
+		setSlots(n);
+		for (int s = 0; s < oldSlots; s++) {
+			int from = s*slotWidth;
+			if ( 0==old.getInt(from + FLAG) ) continue;
+			getBytes(old, from, scratch);
+			int to = (hash(scratch) & mask);
+			while ( used(to) ) to = (to + 1) & mask;
+			to = to*slotWidth;
+			for (int i = 0; i < slotWidth; i++) buf.put(to+i, old.get(from+i));
+		}
+	}
+
+	/**
+	 * Remove the key in a slot, and move later keys of the same
+	 * probe sequence back to fill the gap.
+	 */
+	void delete ( int slot ) {
+		int gap = slot;
+		int s = slot;
+		while ( true ) {
+			s = (s + 1) & mask;
+			if ( !used(s) ) break;
+			getBytes(buf, s*slotWidth, scratch);
+			int home = hash(scratch) & mask;
+			// Move the key at s to the gap if its home slot is not
+			// in the cyclic interval (gap, s].
+			boolean stays = (gap<s) ? (gap<home && home<=s) : (gap<home || home<=s);
+			if ( stays ) continue;
+			int from = s*slotWidth;
+			int to = gap*slotWidth;
+			for (int i = 0; i < slotWidth; i++) buf.put(to+i, buf.get(from+i));
+			gap = s;
+		}
+		buf.putInt(gap*slotWidth + FLAG, 0);
+		size--;
+	}
+
+	/**
+	 * Query the number of keys in the table.
+	 */
+	public int size () { return size; }
+
+	/**
+	 * Remove all the keys.  The storage is kept for reuse.
+	 */
+	public void clear () {
+		for (int s = 0; s < slots; s++) buf.putInt(s*slotWidth + FLAG, 0);
+		size = 0;
+	}
+
+	/**
+	 * Iterate over the keys of the table, in no particular order.
+	 * The table must not be changed while the iterator is in use.
+	 * The iterator does not support remove().
+	 */
+	Iterator<UPI> keys () {
+		return new Iterator<UPI>() {
+			int next = advance(0);
+			int advance ( int s ) {
+				while ( s<slots && !used(s) ) s++;
+				return s;
+			}
+			public boolean hasNext() { return next<slots; }
+			public UPI next() {
+				if ( !hasNext() ) throw new NoSuchElementException();
+				UPI u = toUPI(buf, next*slotWidth);
+				next = advance(next + 1);
+				return u;
+			}
+			public void remove() {
+				throw new UnsupportedOperationException("Remove the key from the table instead.");
+			}
+		};
+	}
+
+	/**
+	 * Make an array of the keys of the table.
+	 */
+	UPI[] keyArray () {
+		UPI[] r = new UPI[size];
+		int j = 0;
+		for (int s = 0; s < slots; s++)
+			if ( used(s) ) r[j++] = toUPI(buf, s*slotWidth);
+		return r;
+	}
+
+}
@@ -0,0 +1,136 @@
+package com.franz.agbase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A list of UPI instances stored outside the Java heap.
+ * <p>
+ * Each element takes 12 bytes in a direct buffer, or in a memory-mapped
+ * file when the list is made with a file.  An element is stored as the
+ * bytes of the UPI, and a new UPI instance is made each time an element
+ * is retrieved.  Only UPIs that denote parts stored in a triple store
+ * can be added; marker UPIs such as the wild UPI cannot.
+ * <p>
+ * A list is not safe for use by several threads when one of them
+ * adds elements.
+ * 
+ * @see UPISet
+ * @see SNAExtension#allBreadthFirstSearchPaths(Object, Object, String, int, UPIList)
+ */
+public class UPIList extends UPIStore implements Iterable<UPI> {
+
+	private int size = 0;
+
+	/**
+	 * Make an empty list in a direct buffer with room for 1024 elements.
+	 */
+	public UPIList () {
+		this(1024);
+	}
+
+	/**
+	 * Make an empty list in a direct buffer.
+	 * @param capacity the number of elements that fit in the initial buffer.
+	 */
+	public UPIList ( int capacity ) {
+		super(WIDTH*(long)Math.max(capacity, 16));
+	}
+
+	/**
+	 * Make an empty list in a memory-mapped file.
+	 * The previous contents of the file are discarded.
+	 * @param file the file that holds the list.
+	 * @param capacity the number of elements that fit in the initial mapping.
+	 * @throws IOException if the file cannot be opened or mapped.
+	 */
+	public UPIList ( File file, int capacity ) throws IOException {
+		super(file, WIDTH*(long)Math.max(capacity, 16));
+	}
+
+	/**
+	 * Query the number of elements in the list.
+	 */
+	public int size () { return size; }
+
+	/**
+	 * Add a UPI at the end of the list.
+	 * @param u a UPI that denotes a part stored in a triple store.
+	 * @throws IllegalArgumentException if u is not such a UPI.
+	 */
+	public void add ( UPI u ) {
+		byte[] k = bytesOf(u);
+		int at = WIDTH*size;
+		if ( !(at+WIDTH<=buf.capacity()) )
+			grow(2L*buf.capacity(), at);
+		putBytes(buf, at, k);
+		size++;
+	}
+
+	/**
+	 * Add all the elements of an array at the end of the list.
+	 */
+	public void addAll ( UPI[] v ) {
+		for (int i = 0; i < v.length; i++) add(v[i]);
+	}
+
+	/**
+	 * Get an element of the list.
+	 * @param i the index of the element.
+	 * @return a new UPI instance.
+	 */
+	public UPI get ( int i ) {
+		checkIndex(i);
+		return toUPI(buf, WIDTH*i);
+	}
+
+	/**
+	 * Copy the bytes of an element of the list.
+	 * @param i the index of the element.
+	 * @param into an array of at least 12 bytes.
+	 */
+	public void getBytes ( int i, byte[] into ) {
+		checkIndex(i);
+		getBytes(buf, WIDTH*i, into);
+	}
+
+	private void checkIndex ( int i ) {
+		if ( i<0 || !(i<size) )
+			throw new IndexOutOfBoundsException("Index " + i + " in UPIList of size " + size);
+	}
+
+	/**
+	 * Remove all the elements.  The storage is kept for reuse.
+	 */
+	public void clear () { size = 0; }
+
+	/**
+	 * Make an array of the elements of the list.
+	 */
+	public UPI[] toArray () {
+		UPI[] r = new UPI[size];
+		for (int i = 0; i < size; i++) r[i] = toUPI(buf, WIDTH*i);
+		return r;
+	}
+
+	/**
+	 * Iterate over the elements of the list.
+	 * The iterator does not support remove().
+	 */
+	public Iterator<UPI> iterator () {
+		return new Iterator<UPI>() {
+			int next = 0;
+			public boolean hasNext() { return next<size; }
+			public UPI next() {
+				if ( !hasNext() ) throw new NoSuchElementException();
+				return get(next++);
+			}
+			public void remove() {
+				throw new UnsupportedOperationException("UPIList elements cannot be removed.");
+			}
+		};
+	}
+
+}
@@ -0,0 +1,130 @@
+package com.franz.agbase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * A map from UPI instances to long values, stored outside the Java heap.
+ * <p>
+ * The map is an open addressing hash table with 24 byte slots in a direct
+ * buffer, or in a memory-mapped file when the map is made with a file.
+ * A map can count occurrences of nodes, or map nodes to indexes in
+ * a {@link UPIList}, without making a Java object for each entry.
+ * Only UPIs that denote parts stored in a triple store can be keys;
+ * marker UPIs such as the wild UPI cannot.
+ * <p>
+ * A map is not safe for use by several threads when one of them
+ * changes the map.
+ * 
+ * @see UPISet
+ */
+public class UPIMap extends UPIHash {
+
+	/**
+	 * Make an empty map in a direct buffer with room for 1024 entries.
+	 */
+	public UPIMap () {
+		this(1024);
+	}
+
+	/**
+	 * Make an empty map in a direct buffer.
+	 * @param capacity the number of entries that fit in the initial table.
+	 */
+	public UPIMap ( int capacity ) {
+		super(capacity, 8);
+	}
+
+	/**
+	 * Make an empty map in a memory-mapped file.
+	 * The previous contents of the file are discarded.
+	 * @param file the file that holds the map.
+	 * @param capacity the number of entries that fit in the initial table.
+	 * @throws IOException if the file cannot be opened or mapped.
+	 */
+	public UPIMap ( File file, int capacity ) throws IOException {
+		super(file, capacity, 8);
+	}
+
+	/**
+	 * Get the value of a key.
+	 * @param u the key.
+	 * @param missing the value returned when u is not in the map.
+	 */
+	public long get ( UPI u, long missing ) {
+		byte[] k = storedBytes(u);
+		if ( k==null ) return missing;
+		int s = find(k);
+		if ( s<0 ) return missing;
+		return buf.getLong(s*slotWidth + VALUE);
+	}
+
+	/**
+	 * Test if a UPI is a key of the map.
+	 */
+	public boolean containsKey ( UPI u ) {
+		byte[] k = storedBytes(u);
+		return k!=null && !(find(k)<0);
+	}
+
+	/**
+	 * Set the value of a key.
+	 * @param u a UPI that denotes a part stored in a triple store.
+	 * @param value the new value.
+	 * @throws IllegalArgumentException if u is not such a UPI.
+	 */
+	public void put ( UPI u, long value ) {
+		byte[] k = bytesOf(u);
+		int s = find(k);
+		if ( s<0 ) s = insert(-1 - s, k);
+		buf.putLong(s*slotWidth + VALUE, value);
+	}
+
+	/**
+	 * Add to the value of a key.  A key that is not in the map
+	 * is added with the value 0 before the increment.
+	 * @param u a UPI that denotes a part stored in a triple store.
+	 * @param delta the amount added.
+	 * @return the new value.
+	 * @throws IllegalArgumentException if u is not such a UPI.
+	 */
+	public long increment ( UPI u, long delta ) {
+		byte[] k = bytesOf(u);
+		int s = find(k);
+		long v = 0;
+		if ( s<0 )
+			s = insert(-1 - s, k);
+		else
+			v = buf.getLong(s*slotWidth + VALUE);
+		v += delta;
+		buf.putLong(s*slotWidth + VALUE, v);
+		return v;
+	}
+
+	/**
+	 * Remove a key from the map.
+	 * @return true if the key was in the map.
+	 */
+	public boolean remove ( UPI u ) {
+		byte[] k = storedBytes(u);
+		if ( k==null ) return false;
+		int s = find(k);
+		if ( s<0 ) return false;
+		delete(s);
+		return true;
+	}
+
+	/**
+	 * Iterate over the keys of the map, in no particular order.
+	 * The map must not be changed while the iterator is in use.
+	 * The iterator does not support remove().
+	 */
+	public Iterator<UPI> keyIterator () { return keys(); }
+
+	/**
+	 * Make an array of the keys of the map.
+	 */
+	public UPI[] keyArray () { return super.keyArray(); }
+
+}
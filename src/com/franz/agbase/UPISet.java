@@ -0,0 +1,105 @@
+package com.franz.agbase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * A set of UPI instances stored outside the Java heap.
+ * <p>
+ * The set is an open addressing hash table with 16 byte slots in a direct
+ * buffer, or in a memory-mapped file when the set is made with a file.
+ * A new UPI instance is made each time an element is retrieved.
+ * Only UPIs that denote parts stored in a triple store can be added;
+ * marker UPIs such as the wild UPI cannot.
+ * <p>
+ * A set is not safe for use by several threads when one of them
+ * changes the set.
+ * 
+ * @see UPIList
+ * @see UPIMap
+ * @see SNAExtension#getEgoGroup(Object, String, int, UPISet)
+ */
+public class UPISet extends UPIHash implements Iterable<UPI> {
+
+	/**
+	 * Make an empty set in a direct buffer with room for 1024 elements.
+	 */
+	public UPISet () {
+		this(1024);
+	}
+
+	/**
+	 * Make an empty set in a direct buffer.
+	 * @param capacity the number of elements that fit in the initial table.
+	 */
+	public UPISet ( int capacity ) {
+		super(capacity, 0);
+	}
+
+	/**
+	 * Make an empty set in a memory-mapped file.
+	 * The previous contents of the file are discarded.
+	 * @param file the file that holds the set.
+	 * @param capacity the number of elements that fit in the initial table.
+	 * @throws IOException if the file cannot be opened or mapped.
+	 */
+	public UPISet ( File file, int capacity ) throws IOException {
+		super(file, capacity, 0);
+	}
+
+	/**
+	 * Add a UPI to the set.
+	 * @param u a UPI that denotes a part stored in a triple store.
+	 * @return true if the UPI was not in the set.
+	 * @throws IllegalArgumentException if u is not such a UPI.
+	 */
+	public boolean add ( UPI u ) {
+		byte[] k = bytesOf(u);
+		int s = find(k);
+		if ( !(s<0) ) return false;
+		insert(-1 - s, k);
+		return true;
+	}
+
+	/**
+	 * Add all the elements of an array to the set.
+	 * @return the number of elements that were not in the set.
+	 */
+	public int addAll ( UPI[] v ) {
+		int n = 0;
+		for (int i = 0; i < v.length; i++)
+			if ( add(v[i]) ) n++;
+		return n;
+	}
+
+	/**
+	 * Test if a UPI is in the set.
+	 * @return false if u is not in the set, or is not a stored UPI.
+	 */
+	public boolean contains ( UPI u ) {
+		byte[] k = storedBytes(u);
+		return k!=null && !(find(k)<0);
+	}
+
+	/**
+	 * Remove a UPI from the set.
+	 * @return true if the UPI was in the set.
+	 */
+	public boolean remove ( UPI u ) {
+		byte[] k = storedBytes(u);
+		if ( k==null ) return false;
+		int s = find(k);
+		if ( s<0 ) return false;
+		delete(s);
+		return true;
+	}
+
+	/**
+	 * Make an array of the elements of the set.
+	 */
+	public UPI[] toArray () { return keyArray(); }
+
+	public Iterator<UPI> iterator () { return keys(); }
+
+}
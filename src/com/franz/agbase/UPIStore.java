@@ -0,0 +1,147 @@
+package com.franz.agbase;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.franz.agbase.impl.UPIImpl;
+
+/**
+ * The storage of a UPI collection, outside the Java heap.
+ * <p>
+ * The storage is a direct byte buffer, or a region of a memory-mapped
+ * file when the collection is made with a file.  When a collection grows,
+ * its contents are copied to a larger buffer.  A mapped collection takes
+ * each new buffer from the end of the file, so the file grows to about
+ * twice the size of the contents; the file is scratch space and its
+ * contents are not meant to be read back.
+ * <p>
+ * A single buffer is limited to 2GB.
+ */
+abstract class UPIStore implements Closeable {
+
+	/**
+	 * The number of bytes in a stored UPI.
+	 */
+	static final int WIDTH = 12;
+
+	private final File file;
+	private RandomAccessFile raf = null;
+	private long fileEnd = 0;
+	ByteBuffer buf;
+
+	UPIStore ( long bytes ) {
+		file = null;
+		buf = allocateDirect(bytes);
+	}
+
+	UPIStore ( File file, long bytes ) throws IOException {
+		this.file = file;
+		raf = new RandomAccessFile(file, "rw");
+		raf.setLength(0);
+		buf = map(bytes);
+	}
+
+	private static ByteBuffer allocateDirect ( long bytes ) {
+		return ByteBuffer.allocateDirect(checkSize(bytes));
+	}
+
+	private static int checkSize ( long bytes ) {
+		if ( bytes>Integer.MAX_VALUE )
+			throw new IllegalStateException("UPI collection is too large: " + bytes + " bytes");
+		return (int) bytes;
+	}
+
+	private ByteBuffer map ( long bytes ) throws IOException {
+		if ( raf==null ) throw new IllegalStateException("UPI collection is closed: " + file);
+		ByteBuffer b = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, fileEnd, checkSize(bytes));
+		fileEnd += bytes;
+		return b;
+	}
+
+	/**
+	 * Make a new empty buffer.  The current buffer is not changed.
+	 */
+	ByteBuffer allocate ( long bytes ) {
+		if ( file==null ) return allocateDirect(bytes);
+		try {
+			return map(bytes);
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot extend UPI collection in " + file + ": " + e);
+		}
+	}
+
+	/**
+	 * Replace the buffer with a larger one that starts with
+	 * the first used bytes of the current buffer.
+	 */
+	void grow ( long bytes, int used ) {
+		ByteBuffer b = allocate(bytes);
+		ByteBuffer from = buf.duplicate();
+		from.clear();
+		from.limit(used);
+		b.put(from);
+		b.clear();
+		buf = b;
+	}
+
+	/**
+	 * Query the file that holds the collection.
+	 * @return null if the collection is in a direct buffer.
+	 */
+	public File getFile () { return file; }
+
+	/**
+	 * Release the file of a mapped collection.
+	 * The mapped buffer stays valid until it is garbage collected, but the
+	 * collection cannot grow after this call.
+	 * A collection in a direct buffer is not affected.
+	 */
+	public void close () throws IOException {
+		if ( raf!=null ) raf.close();
+		raf = null;
+	}
+
+	static byte[] bytesOf ( UPI u ) {
+		byte[] b = null;
+		if ( u instanceof UPIImpl ) b = ((UPIImpl) u).getUpi();
+		if ( b==null || b.length<WIDTH )
+			throw new IllegalArgumentException("Not a stored UPI: " + u);
+		return b;
+	}
+
+	/**
+	 * Get the bytes of a UPI for a lookup.
+	 * @return null if u is not a stored UPI, since it cannot be in a collection.
+	 */
+	static byte[] storedBytes ( UPI u ) {
+		if ( !(u instanceof UPIImpl) ) return null;
+		byte[] b = ((UPIImpl) u).getUpi();
+		if ( b==null || b.length<WIDTH ) return null;
+		return b;
+	}
+
+	static void putBytes ( ByteBuffer b, int at, byte[] k ) {
+		for (int i = 0; i < WIDTH; i++) b.put(at+i, k[i]);
+	}
+
+	static void getBytes ( ByteBuffer b, int at, byte[] k ) {
+		for (int i = 0; i < WIDTH; i++) k[i] = b.get(at+i);
+	}
+
+	static boolean sameBytes ( ByteBuffer b, int at, byte[] k ) {
+		for (int i = 0; i < WIDTH; i++)
+			if ( b.get(at+i)!=k[i] ) return false;
+		return true;
+	}
+
+	static UPI toUPI ( ByteBuffer b, int at ) {
+		UPIImpl u = new UPIImpl();
+		for (int i = 0; i < WIDTH; i++) u.addByte(b.get(at+i));
+		return u;
+	}
+
+}
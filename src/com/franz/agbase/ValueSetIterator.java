@@ -1,5 +1,6 @@
 package com.franz.agbase;
 
+import java.io.Closeable;
 import java.util.Iterator;
 
 /**
@@ -8,10 +9,34 @@ import java.util.Iterator;
  * Each result set is an array of ValueObject instances.
  * Each position in the array normally contains the binding of a named query variable.
  * Some queries may return null values for unbound positions in a result set.
+ * <p>
+ * The results are kept in the form received from the server, and
+ * ValueObject instances are made only when they are asked for.
+ * An application that steps with {@link #step()} and reads the bindings with
+ * {@link #getUPI(int)} and {@link #getLabel(int)} makes no ValueObject instances.
  * @author mm
  *
  */
-public interface ValueSetIterator extends Iterator<ValueObject[]>  {
+public interface ValueSetIterator extends Iterator<ValueObject[]>, Closeable  {
+	
+	/**
+	 * Release the server resources held by this iterator.
+	 * Any results not yet returned are dropped.
+	 * <p>
+	 * An iterator that is dropped without a call to close() is released
+	 * some time after it is garbage collected.
+	 */
+	public void close ();
+	
+	/**
+	 * Step to the next element in the iteration without making any
+	 * ValueObject instances.  The sub-elements of the new current element
+	 * can be read with the get and query methods.
+	 * @return true if there was a next element.
+	 * @throws AllegroGraphException if more results were requested from
+	 *    the server and the request failed.
+	 */
+	public boolean step () throws AllegroGraphException;
 	
 	/**
 	 * Step to the next element in the iteration and return the i-th sub-element.
@@ -39,6 +64,45 @@ public interface ValueSetIterator extends Iterator<ValueObject[]>  {
 	 */
 	public ValueObject get ( int i );
 	
+	/**
+	 * Get the UPI of the i-th sub-element from the current element in the
+	 * iteration, without making a ValueObject instance.
+	 * @param i
+	 * @return null if the position is unbound or there is no current element.
+	 */
+	public UPI getUPI ( int i );
+	
+	/**
+	 * Get the label of the i-th sub-element from the current element in the
+	 * iteration, without making a ValueObject instance.  The label is the URI
+	 * of a resource node, the string of a literal, or the id of a blank node.
+	 * @param i
+	 * @return null if the position is unbound or there is no current element.
+	 */
+	public String getLabel ( int i );
+	
+	/**
+	 * Get the modifier of the i-th sub-element from the current element in the
+	 * iteration, without making a ValueObject instance.  The modifier is the
+	 * language tag or the datatype URI of a literal.
+	 * @param i
+	 * @return null if the position is unbound, has no modifier, or
+	 *    there is no current element.
+	 */
+	public String getModifier ( int i );
+	
+	/**
+	 * Step through all the remaining elements of the iteration and add
+	 * the UPI of the i-th sub-element of each to a list stored outside
+	 * the Java heap.  Unbound positions are skipped.
+	 * @param i
+	 * @param into the list where the UPIs are added.
+	 * @return the number of UPIs added.
+	 * @throws AllegroGraphException if more results were requested from
+	 *    the server and the request failed.
+	 */
+	public int collect ( int i, UPIList into ) throws AllegroGraphException;
+	
 	/**
 	 * Get the index of a given variable in the result array.
 	 * @param var A variable name
@@ -66,6 +130,21 @@ public interface ValueSetIterator extends Iterator<ValueObject[]>  {
 	 */
 	public long getCount ();
 	
+	/**
+	 * Split off the result sets that this iterator has received from the
+	 * server but not yet returned.
+	 * <p>
+	 * The new iterator returns the result sets of the current block, in
+	 * order, and never asks the server for more.  This iterator continues
+	 * with the result sets after the block.  The current element of this
+	 * iterator is not changed.  The two iterators can be used in
+	 * different threads.
+	 * 
+	 * @return a new iterator, or null if no result sets are waiting in
+	 *    the current block.
+	 */
+	public ValueSetIterator split ();
+	
 	/**
 	 * Get the names of the results in each result set.
 	 * @return an array of names when the names are available, null otherwise.
@@ -26,6 +26,15 @@ public class AGFactory {
 		return new TriplesIteratorImpl(rts, cursor, newts, newdefs);
 	}
 	
+	/**
+	 * @param newdefs the part definitions of the first block, or null
+	 *    if the cursor was created without parts.
+	 */
+	public static TriplesIterator makeCursor(AllegroGraph rts, Object cursor, UPIBlock newts,
+			String[] newdefs) {
+		return new TriplesIteratorImpl(rts, cursor, newts, newdefs);
+	}
+	
 	public static DefaultGraph makeDefaultGraph( AllegroGraph ag, UPI id ) {
 		return new DefaultGraphImpl(ag, id);
 	}
@@ -0,0 +1,265 @@
+//***** BEGIN LICENSE BLOCK *****
+//Version: MPL 1.1
+//
+//The contents of this file are subject to the Mozilla Public License Version
+//1.1 (the "License"); you may not use this file except in compliance with
+//the License. You may obtain a copy of the License at
+//http://www.mozilla.org/MPL/
+//
+//Software distributed under the License is distributed on an "AS IS" basis,
+//WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+//for the specific language governing rights and limitations under the
+//License.
+//
+//The Original Code is the AllegroGraph Java Client interface.
+//
+//The Original Code was written by Franz Inc.
+//Copyright (C) 2006 Franz Inc.  All Rights Reserved.
+//
+//***** END LICENSE BLOCK *****
+
+
+package com.franz.agbase.impl;
+
+import com.franz.agbase.UPI;
+
+/**
+ * One block of triples received for a cursor, in columnar form.
+ * <p>
+ * The slots of a block are laid out like the reply described in
+ * TriplesIteratorImpl: CACHE_CYCLE slots for each triple (triple id,
+ * subject, predicate, object, context) followed by one continuation slot.
+ * The UPIs of the block are held in one byte array, WIDTH bytes per
+ * slot, and the codes (triple ids, marker codes and the continuation flag)
+ * in one long array.  These are the arrays of the UPIBlock filled by the
+ * reply decoder, so a block received in that form costs no allocation
+ * per triple.  A back reference to an earlier slot is resolved once, to
+ * the index of the slot that holds the data.
+ * <p>
+ * UPI instances and part labels are made only when a slot is asked for,
+ * and each slot is made at most once.  A block is used by one cursor;
+ * a split cursor gets a copy, so lazy decoding never races.
+ */
+final class CursorBlock {
+
+	static final byte NONE = 0;
+	static final byte CODE = 1;
+	static final byte BODY = 2;
+
+	/**
+	 * The number of slots, including the continuation slot.
+	 */
+	final int length;
+
+	private final byte[] kinds;
+	private final long[] codes;
+	private final byte[] bodies;
+
+	/**
+	 * The slot that holds the data for each slot, or null if the block
+	 * has no back references.
+	 */
+	private int[] homes = null;
+
+	private UPIImpl[] made = null;
+
+	/**
+	 * The part definitions received with the block, and the index of the
+	 * definition of each slot, or -1.  Null if the block came without parts.
+	 */
+	private String[] defs = null;
+	private int[] defAt = null;
+
+	private int[] types = null;
+	private String[] vals = null;
+	private String[] mods = null;
+
+	/**
+	 * Make a block from a cursor reply.
+	 * @param ts the UPI array of the reply.
+	 * @param newdefs the part definitions of the reply, or null.
+	 */
+	CursorBlock(UPI[] ts, String[] newdefs) {
+		this(new UPIBlock(ts), newdefs);
+	}
+
+	/**
+	 * Make a block from a cursor reply decoded in columnar form.
+	 * The block takes over the arrays of ts.
+	 * @param ts the UPIs of the reply.
+	 * @param newdefs the part definitions of the reply, or null.
+	 */
+	CursorBlock(UPIBlock ts, String[] newdefs) {
+		length = ts.length;
+		kinds = ts.kinds;
+		codes = ts.codes;
+		bodies = ts.bodies;
+		if (newdefs != null) {
+			defs = newdefs;
+			defAt = new int[length];
+			types = new int[length];
+			vals = new String[length];
+			mods = new String[length];
+		}
+		int sx = 0;
+		int cy = 0;
+		for (int i = 0; i < length; i++) {
+			int home = i;
+			if (kinds[i] == CODE && codes[i] < 0 && i < length - 1) {
+				// The continuation flag is not a back reference.
+				home = home(i + (int) codes[i]);
+				kinds[i] = NONE;
+				codes[i] = 0;
+				if (homes == null) {
+					homes = new int[length];
+					for (int j = 0; j < i; j++)
+						homes[j] = j;
+				}
+			}
+			if (homes != null)
+				homes[i] = home;
+			if (defAt != null) {
+				if (home != i)
+					defAt[i] = defAt[home];
+				else if (cy == 0) {
+					defAt[i] = -1;
+					types[i] = 6;
+				} else {
+					defAt[i] = sx;
+					sx = skipDef(newdefs, sx);
+				}
+			}
+			if (cy == (TriplesIteratorImpl.CACHE_CYCLE - 1))
+				cy = 0;
+			else
+				cy++;
+		}
+	}
+
+	/**
+	 * Make a copy of a block for a cursor split from the cursor that holds
+	 * it.  The slots and part definitions are shared, since they do not
+	 * change after a block is made.  The UPI instances and labels made so
+	 * far are copied, and each copy makes the rest on its own.
+	 */
+	CursorBlock(CursorBlock from) {
+		length = from.length;
+		kinds = from.kinds;
+		codes = from.codes;
+		bodies = from.bodies;
+		homes = from.homes;
+		if (from.made != null)
+			made = from.made.clone();
+		defs = from.defs;
+		defAt = from.defAt;
+		if (from.types != null) {
+			types = from.types.clone();
+			vals = from.vals.clone();
+			mods = from.mods.clone();
+		}
+	}
+
+	/**
+	 * Find the index of the definition after the one at sx.
+	 * Prefix definitions are part of the definition that follows them.
+	 */
+	static int skipDef(String[] defs, int sx) {
+		while (defs[sx].regionMatches(true, 1, "P", 0, 1))
+			sx++;
+		return sx + 1;
+	}
+
+	int home(int i) {
+		if (homes == null)
+			return i;
+		return homes[i];
+	}
+
+	/**
+	 * The code stored in a slot: a triple id, a marker code, or
+	 * 0 if the slot holds a UPI.
+	 */
+	long code(int i) {
+		return codes[home(i)];
+	}
+
+	/**
+	 * The continuation flag of the block: &gt;0 if there are more triples,
+	 * 0 if there are no more, and -n if n triples were left behind.
+	 */
+	long flag() {
+		return codes[length - 1];
+	}
+
+	/**
+	 * True if a slot holds a UPI that has a label on the server.
+	 */
+	boolean withLabel(int i) {
+		return kinds[home(i)] == BODY;
+	}
+
+	/**
+	 * Get the UPI instance of a slot.
+	 * @return null if the slot is empty.
+	 */
+	UPIImpl upi(int i) {
+		int h = home(i);
+		if (kinds[h] == NONE)
+			return null;
+		if (made == null)
+			made = new UPIImpl[length];
+		UPIImpl u = made[h];
+		if (u == null) {
+			if (kinds[h] == BODY)
+				u = new UPIImpl(bodies, h * UPIImpl.WIDTH);
+			else
+				u = new UPIImpl(codes[h]);
+			made[h] = u;
+		}
+		return u;
+	}
+
+	/**
+	 * True if the block holds the labels of its parts.
+	 */
+	boolean hasLabels() {
+		return types != null;
+	}
+
+	/**
+	 * Store labels fetched from the server for every slot.
+	 */
+	void setLabels(int[] tp, String[] vl, String[] md) {
+		defs = null;
+		defAt = null;
+		types = tp;
+		vals = vl;
+		mods = md;
+	}
+
+	private int decoded(int i) {
+		int h = home(i);
+		if (defAt != null && types[h] == 0 && defAt[h] > -1)
+			TriplesIteratorImpl.decodeDef(defs, defAt[h], h, types, vals, mods);
+		return h;
+	}
+
+	int type(int i) {
+		if (types == null)
+			return 0;
+		return types[decoded(i)];
+	}
+
+	String label(int i) {
+		if (types == null)
+			return null;
+		return vals[decoded(i)];
+	}
+
+	String mod(int i) {
+		if (types == null)
+			return null;
+		return mods[decoded(i)];
+	}
+
+}
@@ -24,11 +24,15 @@ package com.franz.agbase.impl;
 import com.franz.agbase.AllegroGraphException;
 import com.franz.agbase.UPI;
 import com.franz.agbase.AllegroGraph;
+import com.franz.agbase.LookAheadPolicy;
 import com.franz.agbase.Triple;
 import com.franz.agbase.TriplesIterator;
 import com.franz.agbase.ValueNode;
 import com.franz.agbase.ValueObject;
+import com.franz.agbase.transport.AGConnector;
+import com.franz.agbase.transport.AGFuture;
 import com.franz.agbase.util.AGC;
+import com.franz.agbase.util.AGCursorReclaimer;
 import com.franz.agbase.util.AGInternals;
 
 /**
@@ -86,6 +90,40 @@ public class TriplesIteratorImpl implements TriplesIterator {
 			lookAhead = lh;
 	}
 
+	/**
+	 * Query the look-ahead policy of this cursor instance.
+	 * @return null if the look-ahead value is fixed.
+	 */
+	public LookAheadPolicy getLookAheadPolicy() {
+		return policy;
+	}
+
+	/**
+	 * Set the look-ahead policy of this cursor instance.
+	 * The policy may change the look-ahead value after each block of
+	 * triples is received from the server.
+	 * @param p a policy, or null to keep the current look-ahead value.
+	 */
+	public synchronized void setLookAheadPolicy(LookAheadPolicy p) {
+		policy = p;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.franz.agbase.TriplesIterator#getPrefetch()
+	 */
+	public boolean getPrefetch() {
+		return prefetch;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.franz.agbase.TriplesIterator#setPrefetch(boolean)
+	 */
+	public synchronized void setPrefetch(boolean on) {
+		prefetch = on;
+		if (on)
+			startPrefetch();
+	}
+
 	/**
 	 * Value returned when a triple part is not there.
 	 */
@@ -99,6 +137,35 @@ public class TriplesIteratorImpl implements TriplesIterator {
 
 	int lookAhead = defaultLookAhead;
 
+	boolean prefetch = false;
+
+	LookAheadPolicy policy = null;
+
+	/**
+	 * The estimated size in bytes of one UPI in the cache.
+	 */
+	static final int UPI_BYTES = 24;
+
+	/**
+	 * The System.nanoTime() when the last block was received, or 0.
+	 */
+	long blockTime = 0;
+
+	/**
+	 * True if the server has more triples after the last block received.
+	 */
+	boolean moreBlocks = false;
+
+	/**
+	 * The reply to a request for the block after the one in the cache,
+	 * or null.  The reply is an array of two elements as returned by
+	 * nextCursorBlockAndParts; the second element is null if the cursor
+	 * was created without parts.
+	 */
+	AGFuture<Object[]> pending = null;
+
+	AGCursorReclaimer.Handle tracked = null;
+
 	long id = TripleImpl.NO_TRIPLE;
 
 	UPIImpl s = null;
@@ -143,7 +210,7 @@ public class TriplesIteratorImpl implements TriplesIterator {
 	public AGInternals getStore () {return this.ag;}
 
 	/**
-	 * Cache array is null or a sequence of ids triple-id subject-id
+	 * Cache block is null or holds a sequence of ids triple-id subject-id
 	 * predicate-id object-id context-id tr-id s-id p-id o-id c-id tr-id s-id
 	 * p-id o-id c-id ... continued-p triple-id and continued-p are stored in
 	 * code field of UPI instances.
@@ -151,24 +218,30 @@ public class TriplesIteratorImpl implements TriplesIterator {
 	 * continued-p is >0 if more, 0 if no more, -n if n entries were left
 	 * behind.
 	 * 
-	 * Cache has shadow arrays cTypes cVals cMods that hold triple parts info
-	 * when that info has been fetched.
+	 * The block also holds triple parts info when that info has been fetched.
 	 * 
-	 * In cache array, a negative calue for triple or triple part is a relative
+	 * In the reply array, a negative calue for triple or triple part is a relative
 	 * index to where the real data is for a duplicate triple or part.
 	 */
-	UPI[] cache = null;
+	CursorBlock cache = null;
 	static final int CACHE_CYCLE = 5;
 
-	// 3 arrays may hold details of the cursor triple parts
-	int[] cTypes = null; // AG type codes
-
-	String[] cVals = null; // URI or literal value
-
-	String[] cMods = null; // modifier of literal (lang tag or datatype uri)
+	/**
+	 * The block and index of the current triple, when its parts have not
+	 * been copied to the s, p, o, c fields yet; row is -1 otherwise.
+	 */
+	CursorBlock rowBlock = null;
+	int row = -1;
 
 	boolean withParts;
 
+	/**
+	 * The number of triples stepped over, and the number the query
+	 * was expected to find, or -1.
+	 */
+	long returned = 0;
+	long estimate = -1;
+
 	public static final TriplesIterator emptyCursor = new TriplesIteratorImpl(null, null);
 	
 	public static TriplesIterator emptyCursor () { return emptyCursor; }
@@ -178,22 +251,58 @@ public class TriplesIteratorImpl implements TriplesIterator {
 		if ( 0==rts.defaultLookAhead ) return defaultLookAhead;
 		return rts.defaultLookAhead;
 	}
+	
+	/**
+	 * Register the server cursor so that it is discarded if this
+	 * instance is dropped without a call to close().
+	 */
+	void track() {
+		if (ag != null && ag.ags != null)
+			tracked = ag.ags.trackCursor(this, ag, source);
+	}
+	
+	static boolean initPrefetch ( AGInternals rts ) {
+		if ( rts==null ) return false;
+		return rts.defaultPrefetch;
+	}
 
 //	 Use package access here because only use should be in AGFactory
 	TriplesIteratorImpl(AllegroGraph rts, Object cursor) {
 		super();
 		lookAhead = initLookAhead(rts);
+		prefetch = initPrefetch(rts);
+		policy = (rts == null) ? null : rts.lookAheadPolicy;
 		source = cursor;
 		ag = rts;
+		track();
 		withParts = false;
 	}
 
+	/**
+	 * Make a cursor over the triples that remain in the cache of another
+	 * cursor.  The new cursor has no server cursor, and its own copy of
+	 * the block, since labels and UPIs are decoded in place.
+	 * Called with the lock of from.
+	 */
+	private TriplesIteratorImpl(TriplesIteratorImpl from) {
+		super();
+		ag = from.ag;
+		lookAhead = from.lookAhead;
+		withParts = from.withParts;
+		cache = new CursorBlock(from.cache);
+		cacheIndex = from.cacheIndex;
+		nextp = true;
+	}
+
 //	 Use package access here because only use should be in AGFactory
 	TriplesIteratorImpl(AllegroGraph rts, Object cursor, UPIImpl[] newts) {
 		super();
 		lookAhead = initLookAhead(rts);
+		prefetch = initPrefetch(rts);
+		policy = (rts == null) ? null : rts.lookAheadPolicy;
 		source = cursor;
 		ag = rts;
+		track();
 		setCache(newts, true);
 		withParts = false;
 	}
@@ -203,94 +312,90 @@ public class TriplesIteratorImpl implements TriplesIterator {
 			String[] newdefs) {
 		super();
 		lookAhead = initLookAhead(rts);
+		prefetch = initPrefetch(rts);
+		policy = (rts == null) ? null : rts.lookAheadPolicy;
 		source = cursor;
 		ag = rts;
+		track();
 		setCache(newts, newdefs);
 		withParts = true;
 	}
 
+//	 Use package access here because only use should be in AGFactory
+	TriplesIteratorImpl(AllegroGraph rts, Object cursor, UPIBlock newts,
+			String[] newdefs) {
+		super();
+		lookAhead = initLookAhead(rts);
+		prefetch = initPrefetch(rts);
+		policy = (rts == null) ? null : rts.lookAheadPolicy;
+		source = cursor;
+		ag = rts;
+		track();
+		withParts = (newdefs != null);
+		if (withParts)
+			setCache(newts, newdefs);
+		else
+			setCache(newts, true);
+	}
+
 	void setCache(UPI[] newts, boolean setNext) {
+		setCache((newts == null) ? null : new UPIBlock(newts), setNext);
+	}
+
+	void setCache(UPI[] newts, String[] newdefs) {
+		setCache(new UPIBlock(newts), newdefs);
+	}
+
+	void setCache(UPIBlock newts, boolean setNext) {
 		if (setNext)
 			cacheIndex = -1;
 		if (newts == null) {
-			if (setNext)
+			if (setNext) {
 				nextp = false;
+				moreBlocks = false;
+			}
 			return;
 		}
-		// Set these to null only if we are storing a new cache array
-		// otherwise, keep the old cache available.
+		setMoreBlocks(newts);
 		cacheIndex = -1;
-		cTypes = null;
-		cVals = null;
-		cMods = null;
 		if (0 == newts.length) {
 			if (setNext)
 				nextp = false;
 			return;
 		}
 		if (1 == newts.length) {
-			if (0 < ((UPIImpl) newts[0]).getCode())
+			if (0 < newts.code(0))
 				nextp = true;
 			return;
 		}
-		// If we received only the triples, and not the part strings, then
-		//  there are no negative back indexes in the cache.
-		cache = (newts.clone());
+		cache = new CursorBlock(newts, null);
 		cacheIndex = 0;
 		nextp = true;
 	}
 
-	void setCache(UPI[] newts, String[] newdefs) {
+	void setCache(UPIBlock newts, String[] newdefs) {
+		setMoreBlocks(newts);
 		cacheIndex = -1;
-		cTypes = null;
-		cVals = null;
-		cMods = null;
 		if (0 == newts.length) {
 			nextp = false;
 			return;
 		}
 		if (1 == newts.length) {
 			cacheIndex = 0;
-			if (0 < ((UPIImpl) newts[0]).getCode())
+			if (0 < newts.code(0))
 				nextp = true;
 			return;
 		}
-		cache = (newts.clone());
+		// The defs are decoded into labels only when a part is asked for.
+		cache = new CursorBlock(newts, newdefs);
 		cacheIndex = 0;
 		nextp = true;
+	}
 
-		// Expand array of defs into cTypes cVals cMods
-		int clen = cache.length;
-		cTypes = new int[clen];
-		cVals = new String[clen];
-		cMods = new String[clen];
-		int sx = 0;
-		int cy = 0;
-
-		for (int i = 0; i < clen; i++) {
-			UPI ce = cache[i];
-			long cen = ((UPIImpl) ce).getCode();
-			if (((((UPIImpl) ce).getUpi()) == null) && cen < 0) {
-				int cx = i + (int) cen;
-				cache[i] = cache[cx];
-				cTypes[i] = cTypes[cx];
-				cVals[i] = cVals[cx];
-				cMods[i] = cMods[cx];
-			} else
-				switch (cy) {
-				case 0:
-					cTypes[i] = 6;
-					cVals[i] = null;
-					cMods[i] = null;
-					break;
-				default:
-					sx = decodeDef(newdefs, sx, i, cTypes, cVals, cMods);
-				}
-			if ( cy == (CACHE_CYCLE-1) )
-				cy = 0;
-			else
-				cy++;
-		}
+	void setMoreBlocks(UPIBlock newts) {
+		blockTime = System.nanoTime();
+		moreBlocks = (0 < newts.length)
+				&& (0 < newts.code(newts.length - 1));
 	}
 
 	static int decodeDef(String[] defs, int sx, int i, int[] types,
@@ -389,6 +494,7 @@ public class TriplesIteratorImpl implements TriplesIterator {
 	 * @see com.franz.agbase.TriplesIterator#getS()
 	 */
 	public synchronized UPI getS() {
+		loadParts();
 		if (atTriple())
 			return s;
 		return null;
@@ -398,6 +504,7 @@ public class TriplesIteratorImpl implements TriplesIterator {
 	 * @see com.franz.agbase.TriplesIterator#querySubject()
 	 */
 	public String querySubject() {
+		loadParts();
 		return sVal;
 	}
 
@@ -405,6 +512,7 @@ public class TriplesIteratorImpl implements TriplesIterator {
 	 * @see com.franz.agbase.TriplesIterator#queryObject()
 	 */
 	public String queryObject() {
+		loadParts();
 		return oVal;
 	}
 
@@ -412,6 +520,7 @@ public class TriplesIteratorImpl implements TriplesIterator {
 	 * @see com.franz.agbase.TriplesIterator#queryPredicate()
 	 */
 	public String queryPredicate() {
+		loadParts();
 		return pVal;
 	}
 
@@ -419,6 +528,7 @@ public class TriplesIteratorImpl implements TriplesIterator {
 	 * @see com.franz.agbase.TriplesIterator#queryContext()
 	 */
 	public String queryContext() {
+		loadParts();
 		return cVal;
 	} // quad-store
 
@@ -426,6 +536,7 @@ public class TriplesIteratorImpl implements TriplesIterator {
 	 * @see com.franz.agbase.TriplesIterator#getSubjectLabel()
 	 */
 	public synchronized String getSubjectLabel() throws AllegroGraphException {
+		loadParts();
 		sVal = getPartLabel(s, 1, sType, sVal);
 		return sVal;
 	}
@@ -434,6 +545,7 @@ public class TriplesIteratorImpl implements TriplesIterator {
 	 * @see com.franz.agbase.TriplesIterator#getSubject()
 	 */
 	public ValueNode getSubject() throws AllegroGraphException {
+		loadParts();
 		return (ValueNode) getTripleComponent(s, 1);
 	}
 
@@ -441,6 +553,7 @@ public class TriplesIteratorImpl implements TriplesIterator {
 	 * @see com.franz.agbase.TriplesIterator#getContext()
 	 */
 	public ValueNode getContext() throws AllegroGraphException {
+		loadParts();
 		return (ValueNode) getTripleComponent(s, 4);
 	}
 
@@ -467,6 +580,7 @@ public class TriplesIteratorImpl implements TriplesIterator {
 	 * @see com.franz.agbase.TriplesIterator#getP()
 	 */
 	public synchronized UPI getP() {
+		loadParts();
 		if (atTriple())
 			return p;
 		return null;
@@ -476,6 +590,7 @@ public class TriplesIteratorImpl implements TriplesIterator {
 	 * @see com.franz.agbase.TriplesIterator#getPredicateLabel()
 	 */
 	public synchronized String getPredicateLabel() throws AllegroGraphException {
+		loadParts();
 		pVal = getPartLabel(p, 2, pType, pVal);
 		return pVal;
 	}
@@ -484,6 +599,7 @@ public class TriplesIteratorImpl implements TriplesIterator {
 	 * @see com.franz.agbase.TriplesIterator#getPredicate()
 	 */
 	public ValueNode getPredicate() throws AllegroGraphException {
+		loadParts();
 		return (ValueNode) getTripleComponent(p, 2);
 	}
 
@@ -491,6 +607,7 @@ public class TriplesIteratorImpl implements TriplesIterator {
 	 * @see com.franz.agbase.TriplesIterator#getO()
 	 */
 	public synchronized UPI getO() {
+		loadParts();
 		if (atTriple())
 			return o;
 		return null;
@@ -500,6 +617,7 @@ public class TriplesIteratorImpl implements TriplesIterator {
 	 * @see com.franz.agbase.TriplesIterator#getC()
 	 */
 	public synchronized UPI getC() {
+		loadParts();
 		if (atTriple())
 			return c;
 		return null;
@@ -509,6 +627,7 @@ public class TriplesIteratorImpl implements TriplesIterator {
 	 * @see com.franz.agbase.TriplesIterator#getObjectLabel()
 	 */
 	public synchronized String getObjectLabel() throws AllegroGraphException {
+		loadParts();
 		oVal = getPartLabel(o, 3, oType, oVal);
 		return oVal;
 	}
@@ -517,6 +636,7 @@ public class TriplesIteratorImpl implements TriplesIterator {
 	 * @see com.franz.agbase.TriplesIterator#getContextLabel()
 	 */
 	public synchronized String getContextLabel() throws AllegroGraphException {
+		loadParts();
 		cVal = getPartLabel(c, 4, cType, cVal);
 		return cVal;
 	}
@@ -565,6 +685,7 @@ public class TriplesIteratorImpl implements TriplesIterator {
 
 	public synchronized String getPartLabel(int partIndex)
 			throws AllegroGraphException {
+		loadParts();
 		switch (partIndex) {
 		case 1:
 			sVal = getPartLabel(s, partIndex, sType, sVal);
@@ -603,6 +724,7 @@ public class TriplesIteratorImpl implements TriplesIterator {
 	
 	// Called by Jena API  MAKE-PUBLIC 
 	public synchronized String getPartMod(int partIndex) throws AllegroGraphException {
+		loadParts();
 		switch (partIndex) {
 		case 1:
 			sMod = getPartMod(s, partIndex, sType, sMod);
@@ -643,6 +765,7 @@ public class TriplesIteratorImpl implements TriplesIterator {
 
 	// Called by Jena API  MAKE-PUBLIC 
 	public synchronized int getPartType(int partIndex) throws AllegroGraphException {
+		loadParts();
 		switch (partIndex) {
 		case 1:
 			sType = getPartType(s, partIndex, sType);
@@ -711,6 +834,7 @@ public class TriplesIteratorImpl implements TriplesIterator {
 	 * @see com.franz.agbase.TriplesIterator#getObject()
 	 */
 	public ValueNode getObject() throws AllegroGraphException {
+		loadParts();
 		return (ValueNode) getTripleComponent(o, 3);
 	}
 
@@ -718,6 +842,7 @@ public class TriplesIteratorImpl implements TriplesIterator {
 	 * @see com.franz.agbase.TriplesIterator#queryTriple()
 	 */
 	public synchronized TripleImpl queryTriple() {
+		loadParts();
 		if (!atTriple())
 			return null;
 		TripleImpl tr = new TripleImpl(ag, id, s, p, o, c);
@@ -740,6 +865,7 @@ public class TriplesIteratorImpl implements TriplesIterator {
 	 * @see com.franz.agbase.TriplesIterator#getTriple()
 	 */
 	public synchronized Triple getTriple() throws AllegroGraphException {
+		loadParts();
 		if (!atTriple())
 			return null;
 		TripleImpl tr = new TripleImpl(ag, id, s, p, o, c);
@@ -816,17 +942,98 @@ public class TriplesIteratorImpl implements TriplesIterator {
 	public void close() {
 		if (source == null) return;
 		if ( ag == null ) return;
+		AGFuture<Object[]> f;
+		synchronized (this) {
+			f = pending;
+			pending = null;
+			moreBlocks = false;
+		}
+		if (null != ag.ags)
+			ag.ags.untrackCursor(tracked);
+		tracked = null;
 		try {
+			// A request cannot be withdrawn once it is sent, so let
+			// the server finish the block before the cursor goes away.
+			if ( f!=null )
+				try {
+					f.await();
+				} catch (AllegroGraphException e) {}
 			ag.discardCursor(source);
 		} catch (AllegroGraphException e) {
 			throw new IllegalStateException("Cursor.close " + e);
 		} finally { source = null; }
 	}
 	
-	protected synchronized void finalize() throws Throwable {
-		if ( ag == null ) return;
-		if ( null==ag.ags ) return;
-		if ( null!=source ) ag.ags.oldTokens.add(source);
+	/**
+	 * Release the server cursor when the last triple has been received.
+	 * The cursor is queued to be discarded with the next batch of old
+	 * cursors, so a cursor that is read to the end needs no close() call.
+	 */
+	void exhausted() {
+		if (source == null || ag == null || ag.ags == null)
+			return;
+		// close() waits for an outstanding request.
+		if (pending != null)
+			return;
+		ag.ags.untrackCursor(tracked);
+		tracked = null;
+		ag.ags.addOldToken(ag, source);
+		source = null;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.franz.agbase.TriplesIterator#split()
+	 */
+	public synchronized TriplesIterator split() {
+		if (!isCacheAvailable())
+			return null;
+		TriplesIteratorImpl r = new TriplesIteratorImpl(this);
+		cacheIndex = -1;
+		nextp = (cache.flag() > 0) && (source != null);
+		if (!nextp)
+			exhausted();
+		return r;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.franz.agbase.TriplesIterator#splitNext()
+	 */
+	public synchronized TriplesIterator splitNext() throws AllegroGraphException {
+		while (!isCacheAvailable())
+			if (!fetch())
+				return null;
+		TriplesIterator r = split();
+		startPrefetch();
+		return r;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.franz.agbase.TriplesIterator#getCount()
+	 */
+	public synchronized long getCount() {
+		long have = 0;
+		if (isCacheAvailable())
+			have = ((cache.length - cacheIndex) - 1) / CACHE_CYCLE;
+		if (!nextp)
+			return 0;
+		if (have > 0 && pending == null
+				&& (cache.flag() <= 0 || source == null))
+			return have;
+		long left = estimate - returned;
+		if (left < have)
+			left = have;
+		if (left < 1)
+			return -1;
+		return -left;
+	}
+
+	/**
+	 * Set the number of triples the query of this cursor was
+	 * expected to find.
+	 * @param n a count or estimate from a TriplesQuery.
+	 */
+	public synchronized void setEstimate(long n) {
+		estimate = n;
 	}
 
 	boolean isCacheAvailable() {
@@ -838,58 +1045,122 @@ public class TriplesIteratorImpl implements TriplesIterator {
 	 * @see com.franz.agbase.TriplesIterator#step()
 	 */
 	synchronized public boolean step() throws AllegroGraphException {
-		if (isCacheAvailable())
-			return stepCache();
+		if (!isCacheAvailable() && !fetch())
+			return false;
+		boolean r = stepCache();
+		startPrefetch();
+		return r;
+	}
+
+	/**
+	 * Store the next block from the server in the cache.
+	 * @return false if the server has no more triples.
+	 */
+	private boolean fetch() throws AllegroGraphException {
 		if (!nextp)
 			return false;
 		if (source == null)
 			return false;
-		if (withParts) {
-			Object[] v = ag.verifyEnabled().nextCursorAndParts(ag, source, lookAhead);
-			UPI[] r = (UPI[]) v[0];
-			String[] d = (String[]) v[1];
+		long start = System.nanoTime();
+		if (pending != null) {
+			Object[] v = takePending();
+			UPIBlock r = (v == null) ? null : (UPIBlock) v[0];
+			if (r == null) {
+				setCache((UPIBlock) null, true);
+				exhausted();
+				return false;
+			}
+			adapt(r, (String[]) v[1], start);
+			if (v[1] == null)
+				setCache(r, true);
+			else
+				setCache(r, (String[]) v[1]);
+		} else if (withParts) {
+			Object[] v = ag.verifyEnabled().nextCursorBlockAndParts(ag, source, lookAhead);
+			UPIBlock r = (v == null) ? null : (UPIBlock) v[0];
+			String[] d = (v == null) ? null : (String[]) v[1];
 			if (r == null) {
-				setCache(null, true);
+				setCache((UPIBlock) null, true);
+				exhausted();
 				return false;
 			}
+			adapt(r, d, start);
 			setCache(r, d);
 		} else {
-			UPI[] r = ag.verifyEnabled().nextCursor(ag, source, lookAhead);
+			UPIBlock r = ag.verifyEnabled().nextCursorBlock(ag, source, lookAhead);
 			if (r == null) {
-				setCache(null, true);
+				setCache((UPIBlock) null, true);
+				exhausted();
 				return false;
 			}
+			adapt(r, null, start);
 			setCache(r, true);
 
 		}
-
-		return stepCache();
-
+		return true;
 	}
 
-	String stepVal() {
-		// Called only from stepCache which is already synchronized
-		if (cVals != null)
-			return cVals[cacheIndex];
-		return null;
+	/**
+	 * Let the look-ahead policy choose the size of the next block.
+	 * Called before a new block is stored in the cache.
+	 * @param r the triple ids of the new block
+	 * @param d the part strings of the new block, or null
+	 * @param start the System.nanoTime() when the block was needed
+	 */
+	void adapt(UPIBlock r, String[] d, long start) {
+		if (policy == null || blockTime == 0)
+			return;
+		long now = System.nanoTime();
+		long bytes = (long) UPI_BYTES * r.length;
+		if (d != null)
+			for (int i = 0; i < d.length; i++)
+				if (d[i] != null)
+					bytes += 2 * d[i].length();
+		int size = policy.nextSize(lookAhead, (r.length - 1) / CACHE_CYCLE,
+				bytes, now - start, start - blockTime);
+		if (size > 0)
+			lookAhead = size;
 	}
 
-	int stepType() {
-		// Called only from stepCache which is already synchronized
-		if (cTypes != null)
-			return cTypes[cacheIndex];
-		return 0;
+	/**
+	 * Request the next block from the server if prefetch is on, the
+	 * server has more, and no request is outstanding.  At most one
+	 * block is requested ahead of the cache, so a prefetching
+	 * cursor holds at most two blocks of lookAhead triples.
+	 */
+	synchronized void startPrefetch() {
+		if (!prefetch || pending != null || !moreBlocks)
+			return;
+		if (source == null || ag == null)
+			return;
+		AGConnector agc = ag.verifyEnabled();
+		if (withParts)
+			pending = agc.nextCursorBlockAndPartsAsync(ag, source, lookAhead);
+		else
+			pending = agc.nextCursorBlockAsync(ag, source, lookAhead)
+				.then(new AGFuture.Function<UPIBlock, Object[]>() {
+					public Object[] apply(UPIBlock r) {
+						return (r == null) ? null : new Object[]{ r, null };
+					}
+				});
 	}
 
-	String stepMod() {
-		// Called only from stepCache which is already synchronized
-		if (cMods != null)
-			return cMods[cacheIndex];
-		return null;
+	/**
+	 * Wait for the prefetched block.
+	 * @return the reply, as described for the pending field.
+	 * @throws AllegroGraphException if the request failed.
+	 */
+	synchronized Object[] takePending() throws AllegroGraphException {
+		AGFuture<Object[]> f = pending;
+		pending = null;
+		return f.await();
 	}
 
-	synchronized void setTriple() {
+	// Called by stepCache() and remove(), which hold the lock.
+	void setTriple() {
 		id = TripleImpl.NO_TRIPLE;
+		rowBlock = null;
+		row = -1;
 		s = null;
 		p = null;
 		o = null;
@@ -908,58 +1179,74 @@ public class TriplesIteratorImpl implements TriplesIterator {
 		cMod = null;
 	}
 
-	UPIImpl getCache() {
-		UPIImpl cupi = (UPIImpl) cache[cacheIndex];
-		if ( null==cupi ) return null;
-		if (null != cupi.getUpi())
-			return cupi;
-		long idnum = cupi.getCode();
-		if (idnum < 0)
-			return (UPIImpl) cache[cacheIndex + (int) idnum];
-		return cupi;
-	}
-
-	synchronized boolean stepCache() {
-		// This method and setTriple() are the only places
+	// Called by step(), step(n) and stepTriple(), which hold the lock.
+	boolean stepCache() {
+		// This method, loadParts() and setTriple() are the only places
 		// where id and components are set.
-		id = (getCache()).getCode();
-		cacheIndex++;
-		s = getCache();
-		sVal = stepVal();
-		sType = stepType();
-		sMod = stepMod();
-		cacheIndex++;
-		p = getCache();
-		pVal = stepVal();
-		pType = stepType();
-		pMod = stepMod();
-		cacheIndex++;
-		o = getCache();
-		oVal = stepVal();
-		oType = stepType();
-		oMod = stepMod();
-		cacheIndex++;
-		c = getCache();
-		cVal = stepVal();
-		cType = stepType();
-		cMod = stepMod();
-		cacheIndex++;
+		setTriple();
+		id = cache.code(cacheIndex);
+		rowBlock = cache;
+		row = cacheIndex;
+		cacheIndex += CACHE_CYCLE;
+		returned++;
 		if (cacheIndex == ((cache.length) - 1)) {
-			UPIImpl ce = (UPIImpl) cache[cacheIndex];
-			long cx = ce.getCode();
+			long cx = cache.flag();
 			if (cx > 0 && source != null)
 				nextp = true;
 			else {
 				nextp = false;
 				if (cx < 0)
 					truncated = true;
+				exhausted();
 			}
-			setCache(null, false);
+			setCache((UPIBlock) null, false);
 		} else
 			nextp = true;
 		return true;
 	}
 
+	/**
+	 * Copy the parts of the current triple from its block to the
+	 * s, p, o, c fields, if that has not been done yet.
+	 */
+	synchronized void loadParts() {
+		if (row < 0)
+			return;
+		CursorBlock b = rowBlock;
+		int i = row;
+		rowBlock = null;
+		row = -1;
+		s = b.upi(i + 1);
+		sVal = b.label(i + 1);
+		sType = b.type(i + 1);
+		sMod = b.mod(i + 1);
+		p = b.upi(i + 2);
+		pVal = b.label(i + 2);
+		pType = b.type(i + 2);
+		pMod = b.mod(i + 2);
+		o = b.upi(i + 3);
+		oVal = b.label(i + 3);
+		oType = b.type(i + 3);
+		oMod = b.mod(i + 3);
+		c = b.upi(i + 4);
+		cVal = b.label(i + 4);
+		cType = b.type(i + 4);
+		cMod = b.mod(i + 4);
+	}
+
+	/**
+	 * Step to the next triple in the cache and make a Triple instance
+	 * with the UPIs of its parts.
+	 */
+	// Called by step(n), which holds the lock.
+	TripleImpl stepTriple() {
+		stepCache();
+		CursorBlock b = rowBlock;
+		int i = row;
+		return new TripleImpl(ag, id, b.upi(i + 1), b.upi(i + 2),
+				b.upi(i + 3), b.upi(i + 4));
+	}
+
 	/**
 	 * Update the parts cache
 	 * 
@@ -974,7 +1261,7 @@ public class TriplesIteratorImpl implements TriplesIterator {
 		if (cache == null)
 			return;
 		// if ( cacheIndex<0 ) return;
-		if (cTypes != null)
+		if (cache.hasLabels())
 			return;
 		int ln = (cache.length);
 
@@ -984,11 +1271,8 @@ public class TriplesIteratorImpl implements TriplesIterator {
 		for (int i = 0; i < ln - 1; i++) {
 			if (cc == 0)
 				cc = CACHE_CYCLE; // Skip the triple ids in the cache.
-			else {
-				UPIImpl cu = (UPIImpl) cache[i];
-				if (cu!=null && cu.withLabel())
-					sln++;
-			}
+			else if (cache.home(i) == i && cache.withLabel(i))
+				sln++;
 			cc--;
 		}
 
@@ -1005,15 +1289,13 @@ public class TriplesIteratorImpl implements TriplesIterator {
 				cachePos[i] = -1;
 			}
 
-			else {
-				UPIImpl cu = (UPIImpl) cache[i];
-				if (cu!=null && cu.withLabel()) {
-					shortCache[sx] = cu;
-					sx++;
-					cachePos[i] = -2;
-				} else
-					cachePos[i] = -1;
-			}
+			// Duplicate parts share the labels of the first one.
+			else if (cache.home(i) == i && cache.withLabel(i)) {
+				shortCache[sx] = cache.upi(i);
+				sx++;
+				cachePos[i] = -2;
+			} else
+				cachePos[i] = -1;
 			cc--;
 		}
 		int[] stp = new int[sln];
@@ -1039,9 +1321,7 @@ public class TriplesIteratorImpl implements TriplesIterator {
 			}
 		}
 
-		cTypes = tp;
-		cVals = vl;
-		cMods = md;
+		cache.setLabels(tp, vl, md);
 	}
 
 	void getCachedAll(int partIndex) throws AllegroGraphException {
@@ -1074,9 +1354,9 @@ public class TriplesIteratorImpl implements TriplesIterator {
 			return 0;
 		if (cacheIndex < 0)
 			return 0;
-		if (cTypes == null)
+		if (!cache.hasLabels())
 			getTripleComponents();
-		return cTypes[cacheIndex - CACHE_CYCLE + tpart]; // -5 if quad-store
+		return cache.type(cacheIndex - CACHE_CYCLE + tpart); // -5 if quad-store
 	}
 
 	String getCachedValue(int tpart) throws AllegroGraphException {
@@ -1084,9 +1364,9 @@ public class TriplesIteratorImpl implements TriplesIterator {
 			return null;
 		if (cacheIndex < 0)
 			return null;
-		if (cTypes == null)
+		if (!cache.hasLabels())
 			getTripleComponents();
-		return cVals[cacheIndex - CACHE_CYCLE + tpart]; // -5 if quad-store
+		return cache.label(cacheIndex - CACHE_CYCLE + tpart); // -5 if quad-store
 	}
 
 	String getCachedModifier(int tpart) throws AllegroGraphException {
@@ -1094,9 +1374,9 @@ public class TriplesIteratorImpl implements TriplesIterator {
 			return null;
 		if (cacheIndex < 0)
 			return null;
-		if (cTypes == null)
+		if (!cache.hasLabels())
 			getTripleComponents();
-		return cMods[cacheIndex - CACHE_CYCLE + tpart]; // -5 if quad-store
+		return cache.mod(cacheIndex - CACHE_CYCLE + tpart); // -5 if quad-store
 	}
 
 	/* (non-Javadoc)
@@ -1108,59 +1388,73 @@ public class TriplesIteratorImpl implements TriplesIterator {
 		if (isCacheAvailable())
 			have = ((cache.length - cacheIndex) - 1) / CACHE_CYCLE;
 		boolean didFetch = false;
-		UPIImpl[] newa = null;
+		UPIBlock newa = null;
 		int newl = 0;
 		String[] newd = null;
 		
 		//System.out.println("have " + have);
-		if ((have < n) // we need more than we have
+		long start = System.nanoTime();
+		if ((have < n) && (pending != null)) {
+			// The next block is already on its way; return it
+			// even if it holds fewer than n triples.
+			Object[] v = takePending();
+			didFetch = true;
+			if (v != null && v[0] != null) {
+				newa = (UPIBlock) v[0];
+				newd = (String[]) v[1];
+				adapt(newa, newd, start);
+				newl = (((newa.length) - 1) / CACHE_CYCLE);
+			}
+		}
+		else if ((have < n) // we need more than we have
 				&& (cache != null) // there is possibly more
-				&& ((((UPIImpl) cache[cache.length - 1]).getCode()) > 0) // next-p flag
+				&& (cache.flag() > 0) // next-p flag
 																// is set
 				&& (source != null)) // we have a cursor
 		{
-			UPIImpl[] ra = null;
+			UPIBlock ra = null;
 			int get = n - have;
 			if ( get<lookAhead ) get = lookAhead;
 			if ( withParts ) 
 			{
-				Object[] v = ag.verifyEnabled().nextCursorAndParts(ag, source, get);
-				ra = (UPIImpl[]) v[0];
-				newd = (String[]) v[1];
+				Object[] v = ag.verifyEnabled().nextCursorBlockAndParts(ag, source, get);
+				if ( v!=null ) {
+					ra = (UPIBlock) v[0];
+					newd = (String[]) v[1];
+				}
 				didFetch = true;
 
 			}
 			else
 			{
-				ra = ag.verifyEnabled().nextCursor(ag, source, get);
+				ra = ag.verifyEnabled().nextCursorBlock(ag, source, get);
 				didFetch = true;
 			}
 			if (ra != null)
 			{
+				adapt(ra, newd, start);
 				newa = ra;
 				newl = (((newa.length) - 1) / CACHE_CYCLE);
 			}
 		}
 		else if ( have>=n ) have = n;
 		r = new Triple[have + newl];
-		for (int i = 0; i < have; i++) {
-			stepCache();
-			r[i] = new TripleImpl(ag, id, s, p, o, c);
-		}
+		for (int i = 0; i < have; i++)
+			r[i] = stepTriple();
 		if ( didFetch ) {
 			if (newa == null) {
-				setCache(null, true);
+				setCache((UPIBlock) null, true);
+				exhausted();
 				return r;
 			}
 			else if ( newd ==null )
 				setCache(newa, true);
 			else
 				setCache(newa, newd);
-			for (int i = 0; i < newl; i++) {
-				stepCache();
-				r[have + i] = new TripleImpl(ag, id, s, p, o, c);
-			}
+			for (int i = 0; i < newl; i++)
+				r[have + i] = stepTriple();
 		}
+		startPrefetch();
 		return r;
 	}
 
@@ -1168,6 +1462,7 @@ public class TriplesIteratorImpl implements TriplesIterator {
 	 * @see com.franz.agbase.TriplesIterator#toString()
 	 */
 	public synchronized String toString() {
+		loadParts();
 		String triple = "empty";
 		String ns;
 		if (atTriple())
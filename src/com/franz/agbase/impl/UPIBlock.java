@@ -0,0 +1,137 @@
+//***** BEGIN LICENSE BLOCK *****
+//Version: MPL 1.1
+//
+//The contents of this file are subject to the Mozilla Public License Version
+//1.1 (the "License"); you may not use this file except in compliance with
+//the License. You may obtain a copy of the License at
+//http://www.mozilla.org/MPL/
+//
+//Software distributed under the License is distributed on an "AS IS" basis,
+//WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+//for the specific language governing rights and limitations under the
+//License.
+//
+//The Original Code is the AllegroGraph Java Client interface.
+//
+//The Original Code was written by Franz Inc.
+//Copyright (C) 2006 Franz Inc.  All Rights Reserved.
+//
+//***** END LICENSE BLOCK *****
+
+
+package com.franz.agbase.impl;
+
+import com.franz.agbase.UPI;
+
+/**
+ * The UPIs of one reply sequence in columnar form.
+ * <p>
+ * The reply decoder fills the arrays of a block directly: the bytes of
+ * each UPI go into one byte array, WIDTH bytes per slot, and the codes
+ * (triple ids, marker codes and flags) into one long array.  No UPIImpl
+ * instance is made for a slot until one is asked for.
+ * A cursor keeps the arrays of the block as its CursorBlock.
+ */
+public final class UPIBlock {
+
+	/**
+	 * The number of slots.
+	 */
+	final int length;
+
+	final byte[] kinds;
+	final long[] codes;
+	final byte[] bodies;
+
+	/**
+	 * Make an empty block; every slot is null until it is set.
+	 */
+	public UPIBlock(int length) {
+		this.length = length;
+		kinds = new byte[length];
+		codes = new long[length];
+		bodies = new byte[length * UPIImpl.WIDTH];
+	}
+
+	/**
+	 * Make a block from UPI instances.
+	 */
+	public UPIBlock(UPI[] ts) {
+		this(ts.length);
+		for (int i = 0; i < length; i++) {
+			UPIImpl u = (UPIImpl) ts[i];
+			if (u == null)
+				continue;
+			if (u.upi != null) {
+				System.arraycopy(u.upi, 0, bodies, i * UPIImpl.WIDTH,
+						UPIImpl.WIDTH);
+				kinds[i] = CursorBlock.BODY;
+			} else
+				setCode(i, u.getCode());
+		}
+	}
+
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * The array that holds the UPI bytes of the block.  The bytes of
+	 * slot i start at i*UPI_WIDTH.  The decoder writes the bytes and 
+	 * then calls setBody(i).
+	 */
+	public byte[] bodies() {
+		return bodies;
+	}
+
+	/**
+	 * Note that the bytes of a UPI were stored for slot i.
+	 */
+	public void setBody(int i) {
+		kinds[i] = CursorBlock.BODY;
+	}
+
+	/**
+	 * Store a code in slot i.
+	 */
+	public void setCode(int i, long code) {
+		kinds[i] = CursorBlock.CODE;
+		codes[i] = code;
+	}
+
+	/**
+	 * Copy slot from to slot to.
+	 */
+	public void copy(int from, int to) {
+		kinds[to] = kinds[from];
+		codes[to] = codes[from];
+		System.arraycopy(bodies, from * UPIImpl.WIDTH, bodies, to * UPIImpl.WIDTH,
+				UPIImpl.WIDTH);
+	}
+
+	/**
+	 * The code in slot i, or 0 if the slot holds a UPI or is null.
+	 */
+	public long code(int i) {
+		return codes[i];
+	}
+
+	/**
+	 * Make a UPIImpl instance for every slot.
+	 */
+	public UPIImpl[] toArray() {
+		UPIImpl[] r = new UPIImpl[length];
+		for (int i = 0; i < length; i++) {
+			switch (kinds[i]) {
+			case CursorBlock.BODY:
+				r[i] = new UPIImpl(bodies, i * UPIImpl.WIDTH);
+				break;
+			case CursorBlock.CODE:
+				r[i] = new UPIImpl(codes[i]);
+				break;
+			}
+		}
+		return r;
+	}
+
+}
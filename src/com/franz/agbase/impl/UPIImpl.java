@@ -115,6 +115,11 @@ public class UPIImpl implements com.franz.agbase.UPI {
 		upi[i] = bb[i];
 	}
   }
+  UPIImpl ( byte[] bb, int off ) {
+	  super();
+	  upi = new byte[WIDTH];
+	  System.arraycopy(bb, off, upi, 0, WIDTH);
+  }
   
   public long getCode () { return code; }
   
@@ -3,24 +3,51 @@ package com.franz.agbase.impl;
 import java.util.NoSuchElementException;
 
 import com.franz.agbase.AllegroGraphException;
+import com.franz.agbase.LookAheadPolicy;
+import com.franz.agbase.UPI;
+import com.franz.agbase.UPIList;
 import com.franz.agbase.ValueObject;
 import com.franz.agbase.ValueSetIterator;
 import com.franz.agbase.util.AGBase;
+import com.franz.agbase.util.AGCursorReclaimer;
 import com.franz.agbase.util.AGInternals;
 
 
 public class ValueSetIteratorImpl implements ValueSetIterator {
 	
-	public ValueObject[][] sets = null;
+	/**
+	 * The current block of results, as received from the server:
+	 * parallel arrays with width elements for each result set.
+	 * ValueObject instances are made only when a result is asked for.
+	 * The ids array is null if no block was received.
+	 */
+	private UPIImpl[] ids = null;
+	private int[] types = null;
+	private String[] labels = null;
+	private String[] mods = null;
+	private int blockWidth = 0;
+	private int rows = 0;
 	// -3 never filled   -2 current array empty   -1 array ready   -4 exhausted
 	private int index = -3;
+	/**
+	 * The ValueObject instances made for the current result set, or null.
+	 */
 	private ValueObject[] row = null;
+	private boolean atRow = false;
+	/**
+	 * The index of the current result set in the block.
+	 */
+	private int current = -1;
 	private AGInternals ag = null;
 	private Object savedToken = null;
 	private boolean nullOk = false;
 	private int savedMore = 0;
 	private int savedPlimit = 0;
 	public Object savedExtra = null;
+	private LookAheadPolicy policy = null;
+	private int limit = 0;
+	private long blockTime = 0;
+	private AGCursorReclaimer.Handle tracked = null;
 	
 	public ValueSetIteratorImpl() {
 	}
@@ -39,35 +66,15 @@ public class ValueSetIteratorImpl implements ValueSetIterator {
     	if ( !(vv instanceof Object[]) )
     		throw new IllegalArgumentException("Unexpected result " + vv);
     	Object[] v = (Object[]) vv;
-    	UPIImpl[] ids = (UPIImpl[])v[0];
-    	if ( ids==null ) return;
-    	int[] types = (int[])v[1];
-    	String[] labels = (String[]) v[2];
-    	String[] mods = (String[])v[3];
+    	if ( v[0]==null ) return;
     	int more = ((Integer)v[4]).intValue();
-    	int width = ((Integer)v[5]).intValue();
     	Object token = v[6];
     	int plimit = ((Integer)v[7]).intValue();
     	Object sv = null;
     	if ( 8<v.length ) sv = v[8];
     	
-    	int all = ids.length;
-    	int n = all;
-    	if ( width>0 )  n = all/width;
-    	ValueObject[][] r = new ValueObject[n][width];
-    	if ( width>0 )
-    	{
-    		int i = 0; int j = 0; 
-    		while (i<all) {
-    			for ( int k=0; k<width; k++ ) {
-    				r[j][k] = ((AGInternals) ag).newSelectValue(true, ids[i], types[i], labels[i], mods[i]);
-    				i++;
-    			}
-    			j++;
-    		}
-    	}
     	this.ag = (AGInternals) ag;
-		this.sets = r;
+    	setBlock(v);
 		index = -1;
 		row = null;
 		this.nullOk = true;
@@ -75,19 +82,37 @@ public class ValueSetIteratorImpl implements ValueSetIterator {
 		savedMore = more;
 		savedPlimit = plimit;
 		savedExtra = sv;
+		if ( more>0 && this.ag.ags!=null )
+			tracked = this.ag.ags.trackCursor(this, this.ag, token);
+		policy = this.ag.lookAheadPolicy;
+		limit = this.ag.selectLimit;
+		blockTime = System.nanoTime();
     }
 	
 
 
+	/**
+	 * Store the parallel arrays of a reply as the current block.
+	 */
+	private void setBlock ( Object[] v ) {
+		ids = (UPIImpl[])v[0];
+		types = (int[])v[1];
+		labels = (String[]) v[2];
+		mods = (String[])v[3];
+		blockWidth = ((Integer)v[5]).intValue();
+		rows = ids.length;
+		if ( blockWidth>0 ) rows = ids.length/blockWidth;
+	}
+
 	public boolean hasNext() {
-		if ( sets==null ) return false;
+		if ( ids==null ) return false;
 		if ( index<-2 ) return false;
 		if ( index==-2 ) 
 		{
 			if ( savedMore>0 ) return true;
 			return false;
 		}
-		if ( (index+1)<sets.length ) return true;
+		if ( (index+1)<rows ) return true;
 		if ( savedMore>0 ) return true;
 		return false;
 	}
@@ -97,122 +122,196 @@ public class ValueSetIteratorImpl implements ValueSetIterator {
 	 * @return true if result is there to be fetched.
 	 */
 	private boolean canUseIndex () {
-		if ( sets==null ) return false;
+		if ( ids==null ) return false;
 		if ( index<0 ) return false;
-		if ( index<sets.length ) return true;
+		if ( index<rows ) return true;
 		return false;
 	}
 	
 	private boolean stepIndex () {
-		if ( sets==null ) return false;
+		if ( ids==null ) return false;
 		if ( index<-1 ) return false;
 		index++; 
-		if ( index<sets.length ) return true;
+		if ( index<rows ) return true;
 		index = -2;
 		return false;
 	}
 
-	public ValueObject[] next() {
+	public boolean step() throws AllegroGraphException {
 		row = null;
-		if ( sets==null || index<-1 )
-			throw new NoSuchElementException("Empty iterator.");
+		atRow = false;
+		if ( ids==null || index<-1 ) return false;
 		if ( stepIndex() ) {
-			row = sets[index]; return row;
+			current = index; atRow = true; return true;
 		}
 		if ( savedMore>0 )
 			{
-			try {
-				sets = selectMoreInternal(sets);
-			} catch (AllegroGraphException e) {
-				throw new NoSuchElementException("Server error " + e);
-			}
+			selectMoreInternal();
 			index = 0;
 			}
 		if ( canUseIndex() ) {
-			row = sets[index]; return row;
+			current = index; atRow = true; return true;
 		}
 		index = -4;
+		return false;
+	}
+
+	public ValueObject[] next() {
+		boolean found;
+		if ( ids==null || index<-1 )
+			throw new NoSuchElementException("Empty iterator.");
+		try {
+			found = step();
+		} catch (AllegroGraphException e) {
+			throw new NoSuchElementException("Server error " + e);
+		}
+		if ( found ) return get();
 		throw new NoSuchElementException("Exhausted iterator.");
 	}
 
 	public void remove() {
 		row = null;
+		atRow = false;
+	}
+	
+	public synchronized void close() {
+		if ( savedToken==null || ag==null || ag.ags==null ) return;
+		if ( savedMore>0 && tracked!=null ) {
+			ag.ags.untrackCursor(tracked);
+			try {
+				ag.discardCursor(savedToken);
+			} catch (AllegroGraphException e) {
+				throw new IllegalStateException("ValueSetIterator.close " + e);
+			}
+		}
+		tracked = null;
+		savedToken = null;
+		savedMore = 0;
+		if ( index>-2 ) index = -2;
 	}
 	
 	
-	private ValueObject[][] selectMoreInternal ( ValueObject[][] sets ) throws AllegroGraphException {
+	private void selectMoreInternal () throws AllegroGraphException {
     	// get more results from server
-    	// re-use the old array if size is the same
 		
-    	Object[] v = ag.verifyEnabled().nextValuesArray(ag, savedToken, ag.selectLimit);
-    	if ( v==null ) return (ValueObject[][]) ag.selectNull(false);
-    	UPIImpl[] ids = (UPIImpl[])v[0];
-    	int[] types = (int[])v[1];
-    	String[] labels = (String[]) v[2];
-    	String[] mods = (String[])v[3];
+		long start = System.nanoTime();
+    	Object[] v = ag.verifyEnabled().nextValuesArray(ag, savedToken,
+    			(policy==null)?ag.selectLimit:limit);
+    	if ( v==null ) {
+    		rows = 0;
+    		return;
+    	}
     	int more = ((Integer)v[4]).intValue();
-    	int width = ((Integer)v[5]).intValue();
     	String token = (String) v[6];
     	int plimit = ((Integer)v[7]).intValue();
-    	int all = ids.length;
+    	setBlock(v);
+    	if ( policy!=null ) adapt(ids, labels, mods, blockWidth, start);
     	
-    	int i = 0;
     	savedMore = more;
     	if ( more>0 ) 
     	{
     		savedToken = token;
 			savedPlimit = plimit;
+			if ( tracked!=null ) tracked.setToken(token);
     		}
     	else
     		{
-    		ag.ags.oldTokens.add(token);
+    		ag.ags.untrackCursor(tracked);
+    		tracked = null;
+    		ag.ags.addOldToken(ag, token);
     		token = null;
     		}
-   
-    	//System.out.println("all=" + all + "   x.length=" + x.length);
-    	if ( all==(width*sets.length) )
-    	{
-    		// We can recycle the same result array.
-    		for (int j = 0; j < sets.length; j++) {
-    			ValueObject[] row = new ValueObject[width];
-    			for ( int k=0; k<width; k++ ) {
-    				row[k] = ag.newSelectValue(nullOk, ids[i], types[i], labels[i], mods[i]);
-    				i++;
-    			}
-				sets[j] = row;
-			}
-			return sets;
-    	}
-    	if ( width==0 ) sets = new ValueObject[all][0];
-    	else
-    	{    	
-    		int n = 0;
-    		n = all/width;
-    		i = 0; int j = 0; sets = new ValueObject[n][width];
-    		while (i<all) {
-    			for ( int k=0; k<width; k++ ) {
-    				//System.out.println("mods="+mods[i]);
-    				sets[j][k] = ag.newSelectValue(nullOk, ids[i], types[i], labels[i], mods[i]);
-    				i++;
-    			}
-    			j++;
-    		}
-    	}
-    	//System.out.println("New results array ");
     	
     	ag.discardOldTokens(false);
-    	return sets;    	
     }
+	
+	/**
+	 * Let the look-ahead policy choose the size of the next block.
+	 */
+	private void adapt ( UPIImpl[] ids, String[] labels, String[] mods, int width, long start ) {
+		long now = System.nanoTime();
+		long bytes = (long)TriplesIteratorImpl.UPI_BYTES*ids.length;
+		for (int i = 0; i < ids.length; i++) {
+			if ( labels[i]!=null ) bytes += 2*labels[i].length();
+			if ( mods[i]!=null ) bytes += 2*mods[i].length();
+		}
+		int rows = (width>0)?(ids.length/width):ids.length;
+		int size = policy.nextSize(limit, rows, bytes, now - start, start - blockTime);
+		if ( size>0 ) limit = size;
+		blockTime = now;
+	}
 
 	public ValueObject[] get() {
+		if ( !atRow ) return null;
+		for (int i = 0; i < blockWidth; i++) get(i);
+		if ( row==null ) row = new ValueObject[blockWidth];
 		return row;
 	}
 
+	/**
+	 * Find the position of a sub-element of the current result set
+	 * in the block arrays.
+	 * @return -1 if there is no current result or no such sub-element.
+	 */
+	private int cell ( int i ) {
+		if ( !atRow ) return -1;
+		if ( i<0 ) return -1;
+		if ( i<blockWidth ) return current*blockWidth + i;
+		return -1;
+	}
+
 	public ValueObject get(int i) {
-		if ( row==null ) return null;
-		if ( i<0 ) return null;
-		if ( i<row.length ) return row[i];
-		return null;
+		int k = cell(i);
+		if ( k<0 ) return null;
+		if ( row==null ) row = new ValueObject[blockWidth];
+		if ( row[i]==null )
+			row[i] = ag.newSelectValue(nullOk, ids[k], types[k], labels[k], mods[k]);
+		return row[i];
+	}
+
+	public UPI getUPI(int i) {
+		int k = cell(i);
+		if ( k<0 || !(types[k]>0) ) return null;
+		return ids[k];
+	}
+
+	public String getLabel(int i) {
+		int k = cell(i);
+		if ( k<0 || !(types[k]>0) ) return null;
+		return labels[k];
+	}
+
+	public String getModifier(int i) {
+		int k = cell(i);
+		if ( k<0 || !(types[k]>0) ) return null;
+		return mods[k];
+	}
+
+	public int collect(int i, UPIList into) throws AllegroGraphException {
+		int n = 0;
+		while ( step() ) {
+			UPI u = getUPI(i);
+			if ( u!=null && ((UPIImpl) u).hasBody() ) {
+				into.add(u);
+				n++;
+			}
+		}
+		return n;
+	}
+
+	public synchronized ValueSetIterator split() {
+		if ( ids==null || index<-1 || !((index+1)<rows) ) return null;
+		ValueSetIteratorImpl r = new ValueSetIteratorImpl();
+		r.ag = ag;
+		r.ids = ids;  r.types = types;  r.labels = labels;  r.mods = mods;
+		r.blockWidth = blockWidth;
+		r.rows = rows;
+		r.index = index;
+		r.nullOk = nullOk;
+		r.savedExtra = savedExtra;
+		// Continue after the block; the next step asks for more.
+		index = rows - 1;
+		return r;
 	}
 
 	public ValueObject next(int i) {
@@ -222,9 +321,9 @@ public class ValueSetIteratorImpl implements ValueSetIterator {
 
 	
 	public int width() {
-		if ( canUseIndex() ) return sets[index].length;
+		if ( canUseIndex() ) return blockWidth;
 		if ( savedExtra instanceof String[] ) return ((String[]) savedExtra).length;
-		if ( (sets!=null) && 0<sets.length ) return sets[0].length;
+		if ( (ids!=null) && 0<rows ) return blockWidth;
 		return -1;
 	}
 
@@ -232,9 +331,9 @@ public class ValueSetIteratorImpl implements ValueSetIterator {
 	public long getCount() {
 		long sum = 0;
 		if ( canUseIndex() )
-			sum = sets.length - index;
-		else if ( sets!=null )
-			sum = sets.length;
+			sum = rows - index;
+		else if ( ids!=null )
+			sum = rows;
 		sum = sum + savedMore;
     	if ( savedMore>savedPlimit ) return -sum;
     	return sum;
@@ -31,6 +31,7 @@ import com.franz.agbase.AllegroGraphException;
 import com.franz.ag.UPI;
 import com.franz.agbase.AllegroGraph;
 import com.franz.agbase.TriplesIterator;
+import com.franz.agbase.impl.UPIBlock;
 import com.franz.agbase.impl.UPIImpl;
 import com.franz.agbase.util.AGBase;
 import com.franz.agbase.util.AGC;
@@ -62,6 +63,27 @@ public abstract class AGConnector extends AGC {
 	int currentServerLevel = -1; 
 	Object[] serverVersions = null;
 	
+	boolean pipelined = false;
+	
+	int poolMin = 0;
+	int poolMax = 0;
+	long poolIdle = 60000;
+	
+	int lockTimeout = 0;
+	
+	int sendWindow = AGNioLink.DEFAULT_WINDOW;
+	int receiveWindow = AGNioLink.DEFAULT_WINDOW;
+	
+	int compression = -1;
+	
+	AGPrefixTable prefixTable = null;
+	
+	AGLinkMetrics metrics = null;
+	
+	AGPartCache partCache = null;
+	
+	AGInternCache internCache = null;
+	
 	public abstract String getVersion () throws AllegroGraphException;
 
 	public void init(int port, int port2, String host, int pollCount, int pollInterval,
@@ -76,10 +98,109 @@ public abstract class AGConnector extends AGC {
 		this.timeout = timeout;
 	}
 	
+	/**
+	 * Request pipelined mode for the next call to enable().
+	 * <p>
+	 * In pipelined mode, several threads may have requests outstanding
+	 * on one connection at the same time.  Each request is written as soon
+	 * as the previous request has been written, and replies are sent to
+	 * the waiting callers as they arrive.
+	 * @param onoff true to request pipelined mode.
+	 */
+	public void setPipelined ( boolean onoff ) {
+		pipelined = onoff;
+	}
+	
+	/**
+	 * Request a pool of extra server links for the next call to enable().
+	 * <p>
+	 * Each triple store opened on the connection leases a link from the pool
+	 * and keeps it until the store is closed.  Calls that do not name a 
+	 * triple store use the main link.
+	 * @param minLinks the number of pool links kept open when idle.
+	 * @param maxLinks the maximum number of pool links; zero means no pool.
+	 * @param idleTimeout milliseconds before an idle link above minLinks
+	 *     is closed.
+	 */
+	public void setPool ( int minLinks, int maxLinks, long idleTimeout ) {
+		poolMin = minLinks;  poolMax = maxLinks;  poolIdle = idleTimeout;
+	}
+	
+	/**
+	 * Set the time a caller waits for a busy server link
+	 * before the call fails, for the next call to enable().
+	 * @param ms the timeout in milliseconds; zero means wait forever.
+	 */
+	public void setLockTimeout ( int ms ) {
+		lockTimeout = ms;
+	}
+	
+	/**
+	 * Set the socket buffer sizes for the next call to enable().
+	 * The values are used only by the "nio" mode connector, which 
+	 * also sizes its transfer buffers to match.
+	 * @param send the send window in bytes.
+	 * @param receive the receive window in bytes.
+	 */
+	public void setWindows ( int send, int receive ) {
+		sendWindow = send;  receiveWindow = receive;
+	}
+	
+	/**
+	 * Set the compression threshold for the next call to enable().
+	 * @param threshold the smallest block of data that is compressed;
+	 *    a negative value means no compression.
+	 */
+	public void setCompression ( int threshold ) {
+		compression = threshold;
+	}
+	
+	/**
+	 * Set the URI prefix dictionary for the next call to enable().
+	 * @param defs an array of alternating namespace prefix and URI strings,
+	 *    or null for no dictionary.
+	 */
+	public void setPrefixes ( String[] defs ) {
+		prefixTable = AGPrefixTable.fromNamespaces(defs);
+	}
+	
+	/**
+	 * Set the receiver of transport metrics.  Links that are already
+	 * open report to the new receiver.
+	 * @param m a metrics receiver, or null.
+	 */
+	public void setMetrics ( AGLinkMetrics m ) {
+		metrics = m;
+	}
+	
+	/**
+	 * Set the cache of triple part details consulted before a part
+	 * is requested from the server.
+	 * @param c a cache, or null for no cache.
+	 */
+	public void setPartCache ( AGPartCache c ) {
+		partCache = c;
+	}
+	
+	public AGPartCache getPartCache () { return partCache; }
+	
+	/**
+	 * Set the cache of URIs and literals that were added to a store,
+	 * consulted before a URI or literal is sent to the server.
+	 * @param c a cache, or null for no cache.
+	 */
+	public void setInternCache ( AGInternCache c ) {
+		internCache = c;
+	}
+	
+	public AGInternCache getInternCache () { return internCache; }
+	
 	public static AGConnector createConnector ( String mode ) {
 		if ( mode==null ) mode = "";
 		if ( "direct".equalsIgnoreCase(mode) ) 
 			return new AGDirectConnector();
+		if ( "nio".equalsIgnoreCase(mode) ) 
+			return new AGNioConnector();
 		// mode must be "jlinker"
 		// return new AGJLinkerConnector();
 		throw new IllegalStateException("Unknown mode: " + mode);	
@@ -145,6 +266,22 @@ public abstract class AGConnector extends AGC {
 	public abstract int access(String createCode, String name, String dir, Object[] more)
 		throws AllegroGraphException;
 
+	/**
+	 * Open or create a triple store for the AGBase instance ag.
+	 * A connector with several server links uses this call to 
+	 * assign a link to the new store.
+	 */
+	public int access(AGBase ag, String createCode, String name, String dir, Object[] more)
+		throws AllegroGraphException {
+		return access(createCode, name, dir, more);
+	}
+	
+	/**
+	 * Note that the AGBase instance ag denotes a store already open
+	 * in the server session of the instance from.
+	 */
+	public void adopt ( AGBase from, AGBase ag ) {}
+
 	public abstract boolean exists(String name, String directory) throws AllegroGraphException;
 
 
@@ -389,6 +526,32 @@ public abstract class AGConnector extends AGC {
 	public abstract Object[] nextCursorAndParts(AGBase ag, Object source, int lh)
 		throws AllegroGraphException;	
 	
+	/**
+	 * Advance a Cursor instance and return the UPIs in columnar form.
+	 * A connector that decodes replies into UPIBlock instances
+	 * overrides this method.
+	 * @return the block, or null.
+	 */
+	public UPIBlock nextCursorBlock(AGBase ag, Object source, int lh)
+			throws AllegroGraphException {
+		UPIImpl[] r = nextCursor(ag, source, lh);
+		return (r == null) ? null : new UPIBlock(r);
+	}
+	
+	/**
+	 * Like nextCursorAndParts, but the first array is a UPIBlock.
+	 */
+	public Object[] nextCursorBlockAndParts(AGBase ag, Object source, int lh)
+			throws AllegroGraphException {
+		return toBlockAndParts(nextCursorAndParts(ag, source, lh));
+	}
+	
+	static Object[] toBlockAndParts(Object[] v) {
+		if ( v==null || v[0]==null ) return null;
+		if ( v[0] instanceof UPIBlock ) return v;
+		return new Object[] { new UPIBlock(toUPIArray(v[0])), v[1] };
+	}
+	
 	/**
 	 * 
 	 * @param ag
@@ -578,6 +741,19 @@ public abstract class AGConnector extends AGC {
 		if ( canBeUPI(x) ) return new UPIImpl[] { toUPI(x) };
 		//System.out.println("
 		if ( x instanceof UPIImpl[] ) return (UPIImpl[])x;
+		if ( x instanceof UPIBlock ) return ((UPIBlock)x).toArray();
+		if ( x instanceof long[] ) {
+			long[] lx = (long[])x;
+			UPIImpl[] r = new UPIImpl[lx.length];
+			for (int i=0; i<lx.length; i++) r[i] = new UPIImpl(lx[i]);
+			return r;
+		}
+		if ( x instanceof Object[] ) {
+			Object[] ox = (Object[])x;
+			UPIImpl[] r = new UPIImpl[ox.length];
+			for (int i=0; i<ox.length; i++) r[i] = toUPI(ox[i]);
+			return r;
+		}
 		if ( x.getClass().isArray() ) {
 			int ln = java.lang.reflect.Array.getLength(x);
 			UPIImpl[] r = new UPIImpl[ln];
@@ -673,6 +849,86 @@ public abstract class AGConnector extends AGC {
 	public abstract int federate ( String name, int[] parts, boolean supersede )
 	throws AllegroGraphException;
 	
+	/**
+	 * Create a federated store for the AGBase instance ag.
+	 * @param ag the new federated store
+	 * @param stores the component stores
+	 */
+	public int federate ( AGBase ag, AGBase[] stores, String name, int[] parts, boolean supersede )
+	throws AllegroGraphException {
+		return federate(name, parts, supersede);
+	}
+	
+	// ASYNCHRONOUS CALLS
+	//  The methods below return a future for the result of the synchronous
+	//  method with the same name.  A connector that cannot overlap calls
+	//  makes the call at once and returns a completed future.
+	
+	public AGFuture<Object[]> addTriplesAsync(AGBase ag, Object s, Object p, Object o, Object c ) {
+		try {
+			return AGFuture.done(addTriples(ag, s, p, o, c));
+		} catch (Exception e) {
+			return AGFuture.failed(e);
+		}
+	}
+	
+	public AGFuture<TriplesIterator> getTriplesAsync(AllegroGraph ag, Object s, Object p, Object o, Object c, int lh) {
+		try {
+			return AGFuture.done(getTriples(ag, s, p, o, c, lh));
+		} catch (Exception e) {
+			return AGFuture.failed(e);
+		}
+	}
+	
+	public AGFuture<UPIImpl[]> nextCursorAsync(AGBase ag, Object source, int lh) {
+		try {
+			return AGFuture.done(nextCursor(ag, source, lh));
+		} catch (Exception e) {
+			return AGFuture.failed(e);
+		}
+	}
+	
+	public AGFuture<Object[]> nextCursorAndPartsAsync(AGBase ag, Object source, int lh) {
+		try {
+			return AGFuture.done(nextCursorAndParts(ag, source, lh));
+		} catch (Exception e) {
+			return AGFuture.failed(e);
+		}
+	}
+	
+	public AGFuture<UPIBlock> nextCursorBlockAsync(AGBase ag, Object source, int lh) {
+		try {
+			return AGFuture.done(nextCursorBlock(ag, source, lh));
+		} catch (Exception e) {
+			return AGFuture.failed(e);
+		}
+	}
+	
+	public AGFuture<Object[]> nextCursorBlockAndPartsAsync(AGBase ag, Object source, int lh) {
+		try {
+			return AGFuture.done(nextCursorBlockAndParts(ag, source, lh));
+		} catch (Exception e) {
+			return AGFuture.failed(e);
+		}
+	}
+	
+	public AGFuture<Object[]> selectValuesAsync( AGBase ag, String query, Object[] presets, String pvars, boolean infer, boolean distinct, Object[] more ) {
+		try {
+			return AGFuture.done(selectValues(ag, query, presets, pvars, infer, distinct, more));
+		} catch (Exception e) {
+			return AGFuture.failed(e);
+		}
+	}
+	
+	public AGFuture<Object[]> twinqlSelectAsync ( AGBase ag, String query, String vars, int limit,
+			int offset, int slimit, boolean infer, Object[] more ) {
+		try {
+			return AGFuture.done(twinqlSelect(ag, query, vars, limit, offset, slimit, infer, more));
+		} catch (Exception e) {
+			return AGFuture.failed(e);
+		}
+	}
+	
 	/**
 	 * 
 	 * @param ag AlegroGraph instance
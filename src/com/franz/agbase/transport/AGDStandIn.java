@@ -0,0 +1,170 @@
+//***** BEGIN LICENSE BLOCK *****
+//Version: MPL 1.1
+//
+//The contents of this file are subject to the Mozilla Public License Version
+//1.1 (the "License"); you may not use this file except in compliance with
+//the License. You may obtain a copy of the License at
+//http://www.mozilla.org/MPL/
+//
+//Software distributed under the License is distributed on an "AS IS" basis,
+//WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+//for the specific language governing rights and limitations under the
+//License.
+//
+//The Original Code is the AllegroGraph Java Client interface.
+//
+//The Original Code was written by Franz Inc.
+//Copyright (C) 2006 Franz Inc.  All Rights Reserved.
+//
+//***** END LICENSE BLOCK *****
+
+package com.franz.agbase.transport;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import com.franz.agbase.util.AGC;
+
+/**
+ * A stand-in for the server end of the direct protocol, for testing
+ * the transport layer without an AllegroGraph server.
+ * <p>
+ * Usage: AGDStandIn [port [compress]]
+ * <p>
+ * The stand-in answers :verify and :disconnect like the server, and
+ * reports LINK_OPTIONS_LEVEL as its server level.
+ * It agrees to :compress when compress is true, and replies with an
+ * error otherwise, like a server without compression.  It always accepts
+ * a :prefixes table.  Any other operation
+ * is answered with its own arguments, so an operation whose first
+ * argument is "error" gets an error reply.
+ */
+public class AGDStandIn {
+
+	final ServerSocket server;
+	final boolean compress;
+
+	AGDStandIn ( int port, boolean compress ) throws IOException {
+		server = new ServerSocket(port);
+		this.compress = compress;
+	}
+
+	int getPort () { return server.getLocalPort(); }
+
+	/**
+	 * Accept connections in a daemon thread.
+	 */
+	void start () {
+		Thread t = new Thread("AGDStandIn " + getPort()) {
+			public void run() { serve(); }
+		};
+		t.setDaemon(true);
+		t.start();
+	}
+
+	void close () {
+		try {
+			server.close();
+		} catch (IOException e) {}
+	}
+
+	void serve () {
+		while ( !server.isClosed() ) {
+			final Socket s;
+			try {
+				s = server.accept();
+			} catch (IOException e) {
+				return;
+			}
+			Thread t = new Thread("AGDStandIn session") {
+				public void run() {
+					try {
+						session(s);
+					} catch (IOException e) {
+					} finally {
+						try {
+							s.close();
+						} catch (IOException e) {}
+					}
+				}
+			};
+			t.setDaemon(true);
+			t.start();
+		}
+	}
+
+	void session ( Socket s ) throws IOException {
+		s.setTcpNoDelay(true);
+		AGDirectLink l = new AGDirectLink();
+		l.inStream = new BufferedInputStream(s.getInputStream());
+		l.outStream = new BufferedOutputStream(s.getOutputStream());
+		l.outStream.write(AGC.TAG_START + AGC.AG_DIRECT_LEVEL);
+		l.outStream.flush();
+		while ( true ) {
+			int tag = l.streamInCode();
+			if ( tag!=AGC.TAG_OP ) throw new IOException("Expected an op, received " + tag);
+			String op = l.portInString().toString();
+			long opix = ((Number)l.streamInValue()).longValue();
+			int n = ((Number)l.streamInValue()).intValue();
+			Object[] args = new Object[n];
+			for (int i = 0; i < n; i++) {
+				args[i] = l.streamInValue();
+				if ( args[i] instanceof CharSequence ) args[i] = args[i].toString();
+			}
+			if ( AGC.OP_DISCONNECT.equals(op) ) return;
+			boolean deflate = false;
+			int threshold = 0;
+			AGPrefixTable table = null;
+			if ( AGC.OP_VERIFY.equals(op) )
+				args = new Object[] { "AGDirect Version " + AGC.AG_DIRECT_LEVEL + " stand-in" };
+			else if ( AGC.OP_CALL.equals(op) && n>1 && AGC.AGJ_TRACE_INT.equals(args[0])
+					&& args[1] instanceof Number && ((Number)args[1]).intValue()==100 )
+				args = new Object[] { new Long(AGDirectLink.LINK_OPTIONS_LEVEL), "stand-in" };
+			else if ( AGDirectLink.OP_COMPRESS.equals(op) ) {
+				deflate = compress && n>1
+					&& AGDirectLink.COMPRESS_DEFLATE.equals(args[0]);
+				if ( deflate ) {
+					threshold = ((Number)args[1]).intValue();
+					args = new Object[] { AGDirectLink.COMPRESS_DEFLATE };
+				}
+				else {
+					args = new Object[] { "error", "Compression is not supported." };
+					opix = -Math.abs(opix);
+				}
+			}
+			else if ( AGDirectLink.OP_PREFIXES.equals(op) && n>1 ) {
+				table = new AGPrefixTable((String[])args[1]);
+				args = new Object[] { new Long(table.size()) };
+			}
+			else if ( n>0 && "error".equals(args[0]) )
+				opix = -Math.abs(opix);
+			if ( opix==0 ) continue;
+			l.portOutTag(AGC.TAG_OP);
+			l.portOut(op);
+			l.portOut(opix);
+			l.portOut((long)args.length);
+			for (int i = 0; i < args.length; i++) l.portOutUnwrapped(args[i]);
+			l.portFlush();
+			if ( table!=null ) l.prefixes = table;
+			if ( deflate ) {
+				l.inStream = new AGFrameInputStream(l.inStream);
+				l.outStream = l.framer = new AGFrameOutputStream(l.outStream, threshold);
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int port = 4567;
+		boolean compress = true;
+		if ( args.length>0 ) port = Integer.parseInt(args[0]);
+		if ( args.length>1 ) compress = Boolean.valueOf(args[1]).booleanValue();
+		AGDStandIn s = new AGDStandIn(port, compress);
+		System.out.println("AGDStandIn listening on port " + s.getPort()
+				+ " compress=" + compress);
+		s.serve();
+	}
+
+}
@@ -0,0 +1,95 @@
+//***** BEGIN LICENSE BLOCK *****
+//Version: MPL 1.1
+//
+//The contents of this file are subject to the Mozilla Public License Version
+//1.1 (the "License"); you may not use this file except in compliance with
+//the License. You may obtain a copy of the License at
+//http://www.mozilla.org/MPL/
+//
+//Software distributed under the License is distributed on an "AS IS" basis,
+//WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+//for the specific language governing rights and limitations under the
+//License.
+//
+//The Original Code is the AllegroGraph Java Client interface.
+//
+//The Original Code was written by Franz Inc.
+//Copyright (C) 2006 Franz Inc.  All Rights Reserved.
+//
+//***** END LICENSE BLOCK *****
+
+package com.franz.agbase.transport;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.franz.agbase.util.AGC;
+
+/**
+ * Stress test for many threads calling through one direct link.
+ * <p>
+ * Usage: AGDStress [host [port [threads [calls [pipelined]]]]]
+ * <p>
+ * Every thread makes the given number of OP_VERIFY calls on a single
+ * link.  The threads are created with a small stack so that thousands
+ * of them can run at once.  The test reports the call rate and the number
+ * of failed calls.
+ */
+public class AGDStress {
+
+	static String host = "localhost";
+	static int port = 4567;
+	static int threads = 10000;
+	static int calls = 10;
+	static boolean pipelined = true;
+
+	public static void main(String[] args) throws Exception {
+		if ( args.length>0 ) host = args[0];
+		if ( args.length>1 ) port = Integer.parseInt(args[1]);
+		if ( args.length>2 ) threads = Integer.parseInt(args[2]);
+		if ( args.length>3 ) calls = Integer.parseInt(args[3]);
+		if ( args.length>4 ) pipelined = Boolean.valueOf(args[4]).booleanValue();
+
+		final AGDirectLink link = new AGDirectLink(host, port, 1, 100, 5000);
+		if ( pipelined ) link.startPipeline();
+		final AtomicInteger failed = new AtomicInteger(0);
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch finish = new CountDownLatch(threads);
+
+		Runnable caller = new Runnable() {
+			public void run() {
+				try {
+					start.await();
+					for (int i = 0; i < calls; i++) {
+						try {
+							link.sendOp1(AGDirectLink.OP_VERIFY, 1, 0, AGC.AG_DIRECT_LEVEL);
+						} catch (Exception e) {
+							failed.incrementAndGet();
+						}
+					}
+				} catch (InterruptedException e) {
+				} finally {
+					finish.countDown();
+				}
+			}
+		};
+		for (int i = 0; i < threads; i++) {
+			Thread t = new Thread(null, caller, "AGDStress " + i, 64*1024);
+			t.setDaemon(true);
+			t.start();
+		}
+
+		long t0 = System.currentTimeMillis();
+		start.countDown();
+		finish.await();
+		long ms = Math.max(1, System.currentTimeMillis() - t0);
+		link.disconnect();
+
+		long total = (long)threads*calls;
+		System.out.println("threads=" + threads + " calls=" + total
+				+ " pipelined=" + pipelined + " failed=" + failed.get());
+		System.out.println(ms + " ms, " + (1000*total/ms) + " calls/sec");
+		if ( failed.get()>0 ) System.exit(1);
+	}
+
+}
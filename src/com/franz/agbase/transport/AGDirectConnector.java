@@ -23,6 +23,7 @@ package com.franz.agbase.transport;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 
 import com.franz.ag.UPI;
 import com.franz.agbase.AllegroGraph;
@@ -32,6 +33,7 @@ import com.franz.agbase.TriplesIterator;
 import com.franz.agbase.impl.AGFactory;
 import com.franz.agbase.impl.TripleImpl;
 import com.franz.agbase.impl.TriplesIteratorImpl;
+import com.franz.agbase.impl.UPIBlock;
 import com.franz.agbase.impl.UPIImpl;
 import com.franz.agbase.impl.ValueNodeImpl;
 import com.franz.agbase.util.AGBase;
@@ -57,6 +59,104 @@ public class AGDirectConnector
 		return trs;
 	}
 	
+	/**
+	 * The extra links used for triple stores, or null if every
+	 * call goes through the main link.
+	 */
+	AGDirectLinkPool pool = null;
+	
+	/**
+	 * The pool link assigned to each open triple store.
+	 */
+	final HashMap<AGBase, AGDirectLink> pins = new HashMap<AGBase, AGDirectLink>();
+	
+	/**
+	 * Find the link that serves a triple store.
+	 * @param ag
+	 * @return the pool link assigned to the store, or the main link.
+	 */
+	AGDirectLink linkFor ( AGBase ag ) {
+		if ( pool!=null ) {
+			AGDirectLink link;
+			synchronized ( pins ) { link = pins.get(ag); }
+			if ( link!=null ) return link;
+		}
+		return verifyLink();
+	}
+	
+	AGDirectLink newLink () throws IOException {
+		if ( debug>0 )
+			return new AGDirectLinkDebug(host, port, pollCount, pollInterval, timeout);
+		return new AGDirectLink(host, port, pollCount, pollInterval, timeout);
+	}
+	
+	AGDirectLink openLink () throws IOException {
+		AGDirectLink link = newLink();
+		link.lockTimeout = lockTimeout;
+		link.metrics = metrics;
+		try {
+			if ( (compression>-1 || prefixTable!=null)
+					&& AGDirectLink.LINK_OPTIONS_LEVEL<=linkServerLevel(link) ) {
+				if ( compression>-1 ) link.startCompression(compression);
+				if ( prefixTable!=null ) link.startPrefixes(prefixTable);
+			}
+		} catch (IOException e) {
+			link.disconnect();
+			throw e;
+		}
+		if ( pipelined ) link.startPipeline();
+		if ( trs!=null ) {
+			// A pool link needs the same client level as the main link.
+			try {
+				link.sendOp1n(AGDirectLink.OP_CALL, 1, -1, AGJ_SERVER_OPTIONS,
+						new Object[] { "client-level", new Integer(AGU_PROTOCOL_LEVEL) });
+			} catch (IOException e) {
+				link.disconnect();
+				throw e;
+			} catch (IllegalArgumentException e) {}
+		}
+		return link;
+	}
+	
+	/**
+	 * Find the server level through a link that is not yet in use.
+	 * The main link may not be open yet, so the query cannot go
+	 * through getVersion().
+	 * @param link
+	 * @return the server level, or 0 if the server does not report one.
+	 * @throws IOException
+	 */
+	int linkServerLevel ( AGDirectLink link ) throws IOException {
+		if ( -1<currentServerLevel ) return currentServerLevel;
+		try {
+			Object r = link.sendOp1n(AGDirectLink.OP_CALL, 1, -1, AGJ_TRACE_INT, 
+							 new Object[]{ new Integer(100) } );
+			if ( !(r instanceof Object[]) || ((Object[])r).length<3 ) return 0;
+			currentServerLevel = (int)AGConnector.longValue(((Object[])r)[2]);
+		} catch (IllegalArgumentException e) {
+			return 0;
+		}
+		return currentServerLevel;
+	}
+	
+	public void setMetrics ( AGLinkMetrics m ) {
+		super.setMetrics(m);
+		AGDirectLink link = trs;
+		if ( link!=null ) link.metrics = m;
+		AGDirectLinkPool p = pool;
+		if ( p!=null ) p.setMetrics(m);
+	}
+	
+	void pin ( AGBase ag, AGDirectLink link ) {
+		synchronized ( pins ) { pins.put(ag, link); }
+	}
+	
+	void unpin ( AGBase ag ) {
+		AGDirectLink link;
+		synchronized ( pins ) { link = pins.remove(ag); }
+		if ( link!=null && pool!=null ) pool.release(link);
+	}
+	
 	public int transportVersion () { return AGC.AG_DIRECT_LEVEL; }
 	
 	/**
@@ -70,7 +170,7 @@ public class AGDirectConnector
 		throws AllegroGraphException {
 		testIndex(ag);
 		try {
-			return verifyLink().sendOp3n(AGDirectLink.OP_CALL, 1, 0, AG_APPLY,
+			return linkFor(ag).sendOp3n(AGDirectLink.OP_CALL, 1, 0, AG_APPLY,
 								ag.tsx, fn, args);
 		} catch (IOException e) {
 			throw new AllegroGraphException(e);
@@ -88,13 +188,57 @@ public class AGDirectConnector
 		throws AllegroGraphException {
 		testIndex(ag);
 		try {
-			return (Object[])verifyLink().sendOp3n(AGDirectLink.OP_CALL, 1, -1, AG_APPLY,
+			return (Object[])linkFor(ag).sendOp3n(AGDirectLink.OP_CALL, 1, -1, AG_APPLY,
 										  ag.tsx, fn, args);
 		} catch (IOException e) {
 			throw new AllegroGraphException(e);
 		}
 	}
 	
+	/**
+	 * Call a function via ag-apply without waiting for the reply.
+	 * @return a future for the result array (includes 2extra leading entries)
+	 */
+	AGFuture<Object[]> tsApplyAsync ( AGBase ag, String fn, Object[] args) {
+		try {
+			testIndex(ag);
+			return linkFor(ag).sendOp3nAsync(AGDirectLink.OP_CALL, -1, AG_APPLY,
+					ag.tsx, fn, args).then(toArray);
+		} catch (RuntimeException e) {
+			return AGFuture.failed(e);
+		}
+	}
+	
+	/**
+	 * Call a function via ag-apply and return all the values, with
+	 * every sequence of UPIs decoded into a UPIBlock.
+	 */
+	Object[] tsApplyBlocks ( AGBase ag, String fn, Object[] args)
+		throws AllegroGraphException {
+		testIndex(ag);
+		try {
+			return (Object[])linkFor(ag).sendOp3nBlocks(AGDirectLink.OP_CALL, -1, AG_APPLY,
+										  ag.tsx, fn, args);
+		} catch (IOException e) {
+			throw new AllegroGraphException(e);
+		}
+	}
+	
+	AGFuture<Object[]> tsApplyBlocksAsync ( AGBase ag, String fn, Object[] args) {
+		try {
+			testIndex(ag);
+			return linkFor(ag).sendOp3nAsync(AGDirectLink.OP_CALL, -1, true, AG_APPLY,
+					ag.tsx, fn, args).then(toArray);
+		} catch (RuntimeException e) {
+			return AGFuture.failed(e);
+		}
+	}
+	
+	static final AGFuture.Function<Object, Object[]> toArray = 
+		new AGFuture.Function<Object, Object[]>() {
+			public Object[] apply(Object v) { return (Object[])v; }
+	};
+	
 	Object[] applyA( String fn, Object[] args)
 		throws AllegroGraphException {
 	try {
@@ -117,6 +261,32 @@ public class AGDirectConnector
 	}
 	
 	public int access(String createCode, String name, String dir, Object[] more)
+	throws AllegroGraphException {
+		return access(verifyLink(), createCode, name, dir, more);
+	}
+	
+	public int access(AGBase ag, String createCode, String name, String dir, Object[] more)
+	throws AllegroGraphException {
+		if ( pool==null ) return access(createCode, name, dir, more);
+		AGDirectLink link;
+		try {
+			link = pool.lease();
+		} catch (IOException e) {
+			throw new AllegroGraphException(e);
+		}
+		int ix = -1;
+		try {
+			ix = access(link, createCode, name, dir, more);
+		} finally {
+			if ( ix<0 ) 
+				pool.release(link);
+			else
+				pin(ag, link);
+		}
+		return ix;
+	}
+	
+	int access(AGDirectLink link, String createCode, String name, String dir, Object[] more)
 	throws AllegroGraphException {
 		Object r;
 		Object[] args = new Object[3+more.length];
@@ -129,7 +299,7 @@ public class AGDirectConnector
 			args[3+i] = more[i];
 		}
 		try {
-			r = verifyLink().sendOp1n(AGDirectLink.OP_CALL, 1, 0, AG_ACCESS_TRIPLE_STORE, 
+			r = link.sendOp1n(AGDirectLink.OP_CALL, 1, 0, AG_ACCESS_TRIPLE_STORE, 
 					args );
 		} catch (IOException e) {
 			String m = e.getMessage();
@@ -140,6 +310,17 @@ public class AGDirectConnector
 		}
 		return (int)AGConnector.longValue(r);
 }
+	
+	public void adopt ( AGBase from, AGBase ag ) {
+		if ( pool==null ) return;
+		AGDirectLink link;
+		synchronized ( pins ) {
+			link = pins.get(from);
+			if ( link==null ) return;
+			pins.put(ag, link);
+		}
+		pool.share(link);
+	}
 
 
 	public Object[] addTriple(AGBase ag, Object s, Object p, Object o, Object c )
@@ -158,9 +339,22 @@ public class AGDirectConnector
 
 	public Object[] addTriples(AGBase ag, Object s, Object p, Object o, Object c )
 		throws AllegroGraphException {
-		Object[] v = tsApplyA(ag, AG_ADD_TRIPLES,
-				new Object[]{ s, p, o, c, "with-parts", new Integer(1),
-						"sync", (ag.sync)?"":null });
+		return addTriplesResult(tsApplyA(ag, AG_ADD_TRIPLES, addTriplesArgs(ag, s, p, o, c)));
+	}
+	
+	public AGFuture<Object[]> addTriplesAsync(AGBase ag, Object s, Object p, Object o, Object c ) {
+		return tsApplyAsync(ag, AG_ADD_TRIPLES, addTriplesArgs(ag, s, p, o, c))
+			.then(new AGFuture.Function<Object[], Object[]>() {
+				public Object[] apply(Object[] v) { return addTriplesResult(v); }
+			});
+	}
+	
+	static Object[] addTriplesArgs(AGBase ag, Object s, Object p, Object o, Object c ) {
+		return new Object[]{ s, p, o, c, "with-parts", new Integer(1),
+				"sync", (ag.sync)?"":null };
+	}
+	
+	static Object[] addTriplesResult(Object[] v) {
 //		returns 5 arrays of equal length:  triple ids,
 //		subject ids, pred ids, object ids, context ids
 		long[] ids = longArray(v[2]);
@@ -174,7 +368,15 @@ public class AGDirectConnector
 	
 
 	public boolean closeTripleStore(AGBase ag, boolean doClose) throws AllegroGraphException {
-		return 1==longValue(tsApply0(ag, AG_CLOSE, new Object[] { doClose?"":null }));
+		try {
+			return 1==longValue(tsApply0(ag, AG_CLOSE, new Object[] { doClose?"":null }));
+		} finally {
+			unpin(ag);
+			AGPartCache pc = partCache;
+			if ( pc!=null ) pc.removeStore(ag);
+			AGInternCache ic = internCache;
+			if ( ic!=null ) ic.removeStore(ag);
+		}
 	}
 
 	public void delete(AGBase ag, Object s, Object p, Object o, Object c, boolean wildOk )
@@ -183,6 +385,11 @@ public class AGDirectConnector
 }
 
 	public void disable() {
+		if ( pool!=null ) {
+			pool.close();
+			pool = null;
+			synchronized ( pins ) { pins.clear(); }
+		}
 		try {
 			verifyLink().disconnect();
 			trs = null;
@@ -205,10 +412,16 @@ public class AGDirectConnector
 	public void enable() throws IOException {
 		if ( trs!=null ) return;
 		AGDirectLink.debug(debug);
-		if ( debug>0 )
-			trs = new AGDirectLinkDebug(host, port, pollCount, pollInterval, timeout);
-		else
-			trs = new AGDirectLink(host, port, pollCount, pollInterval, timeout);
+		trs = openLink();
+		if ( poolMax>0 ) {
+			pool = new AGDirectLinkPool(this, poolMin, poolMax, poolIdle);
+			try {
+				pool.start();
+			} catch (IOException e) {
+				disable();
+				throw e;
+			}
+		}
 	}
 
 
@@ -227,23 +440,39 @@ public class AGDirectConnector
 		return false;
 	}
 
-	public String getLangPart(AGBase ag, UPI id)
+	/**
+	 * Get the type number, label and modifier of one part,
+	 * from the part cache if possible.
+	 */
+	AGPartCache.Entry nodeParts(AGBase ag, UPI id)
 		throws AllegroGraphException {
+		AGPartCache pc = partCache;
+		if ( pc!=null ) {
+			AGPartCache.Entry e = pc.get(ag, id);
+			if ( e!=null ) return e;
+		}
 		Object[] v = tsApplyA(ag, AG_GET_NODE_PARTS, new Object[]{ id });
 		// returns 3 values: part type num, label, mod
-		switch ( (int)AGConnector.longValue(v[2]) ) {
-		case 4: if ( 4<v.length ) return (String)v[4];
+		int type = (int)AGConnector.longValue(v[2]);
+		String label = (3<v.length)?(String)v[3]:null;
+		String mod = (4<v.length)?(String)v[4]:null;
+		if ( pc!=null ) pc.put(ag, id, type, label, mod);
+		return new AGPartCache.Entry(ag, type, label, mod);
+	}
+
+	public String getLangPart(AGBase ag, UPI id)
+		throws AllegroGraphException {
+		AGPartCache.Entry e = nodeParts(ag, id);
+		switch ( e.type ) {
+		case 4: return e.mod;
 		}
 		return null;
 	}
 
 	public Object[] getParts(AGBase ag, UPI id)
 		throws AllegroGraphException {
-		Object[] v = tsApplyA(ag, AG_GET_NODE_PARTS,
-				           new Object[]{ id });
-		// returns 3 values: part type num, label, mod
-		return new Object[]{ new Integer( (int)AGConnector.longValue(v[2]) ),
-							 (String)v[3], (String)v[4] };
+		AGPartCache.Entry e = nodeParts(ag, id);
+		return new Object[]{ new Integer(e.type), e.label, e.mod };
 	}
 
 	
@@ -251,25 +480,54 @@ public class AGDirectConnector
 	public void getParts(AGBase ag, UPI[] ids, int[] types,
 			             String[] vals, String[] mods)
 		throws AllegroGraphException {
+		AGPartCache pc = partCache;
+		UPI[] ask = ids;
+		int[] miss = null;
+		if ( pc!=null ) {
+			// Look up every part and ask the server only for the misses.
+			miss = new int[ids.length];
+			int n = 0;
+			for (int i = 0; i < ids.length; i++) {
+				AGPartCache.Entry e = pc.get(ag, ids[i]);
+				if ( e==null ) 
+					miss[n++] = i;
+				else {
+					types[i] = e.type;  vals[i] = e.label;  mods[i] = e.mod;
+				}
+			}
+			if ( n==0 ) return;
+			ask = new UPI[n];
+			for (int j = 0; j < n; j++) ask[j] = ids[miss[j]];
+		}
 		Object[] v = tsApplyA(ag, AG_GET_NODE_PARTS,
-		                   new Object[]{ ids });
+		                   new Object[]{ ask });
 		// returns 3 values: part type num array, label array, mod array
-		copy( intArray(v[2]), types );
-		copy( stringArray(v[3]), vals );
-		copy( stringArray(v[4]), mods );
+		int[] t = intArray(v[2]);
+		String[] l = stringArray(v[3]);
+		String[] m = stringArray(v[4]);
+		if ( pc==null ) {
+			copy( t, types );
+			copy( l, vals );
+			copy( m, mods );
+			return;
+		}
+		for (int j = 0; j < ask.length; j++) {
+			int i = miss[j];
+			types[i] = t[j];  vals[i] = l[j];  mods[i] = m[j];
+			pc.put(ag, ask[j], t[j], l[j], m[j]);
+		}
 	}
 
 	public String getTextPart(AGBase ag, UPI id)
 		throws AllegroGraphException {
-		Object[] v = tsApplyA(ag, AG_GET_NODE_PARTS, new Object[]{ id });
-		// returns 3 values: part type num, label, mod
-		switch ( (int)AGConnector.longValue(v[2]) ) {
+		AGPartCache.Entry e = nodeParts(ag, id);
+		switch ( e.type ) {
 		case 2:
 		case 3:
 		case 4:
 		case 5:
 		case 8:
-			if ( 3<v.length ) return (String)v[3];
+			return e.label;
 		}
 		return null;
 	}
@@ -278,14 +536,34 @@ public class AGDirectConnector
 			  Object c, int lh)
 		throws AllegroGraphException {
 		if (lh < 1) lh = TriplesIteratorImpl.defaultLookAhead;
-		Object[] v = tsApplyA(ag, AG_GET_TRIPLES,
+		Object[] v = tsApplyBlocks(ag, AG_GET_TRIPLES,
 				              new Object[]{ s, p, o, c, 
 								new Integer(lh), new Integer(1) });
+		return getTriplesResult(ag, v);
+	}
+	
+	public AGFuture<TriplesIterator> getTriplesAsync(final AllegroGraph ag, Object s, Object p, Object o,
+			  Object c, int lh) {
+		if (lh < 1) lh = TriplesIteratorImpl.defaultLookAhead;
+		return tsApplyBlocksAsync(ag, AG_GET_TRIPLES,
+	              new Object[]{ s, p, o, c, new Integer(lh), new Integer(1) })
+	        .thenApart(new AGFuture.Function<Object[], TriplesIterator>() {
+				public TriplesIterator apply(Object[] v) { return getTriplesResult(ag, v); }
+			});
+	}
+	
+	static TriplesIterator getTriplesResult(AllegroGraph ag, Object[] v) {
 		//	returned 2 values: Lisp source object, array of lh results
 		//       or 3 values: source, ids, parts
 		if ( 4>v.length ) return TriplesIteratorImpl.emptyCursor;
-		if ( 4 ==v.length ) AGFactory.makeCursor(ag, v[2], toUPIArray(v[3]));
-		return AGFactory.makeCursor(ag, v[2], toUPIArray(v[3]), (String[])v[4]);
+		return AGFactory.makeCursor(ag, v[2], toUPIBlock(v[3]),
+				(4==v.length)?null:(String[])v[4]);
+	}
+	
+	static UPIBlock toUPIBlock(Object x) {
+		if ( x==null ) return null;
+		if ( x instanceof UPIBlock ) return (UPIBlock)x;
+		return new UPIBlock(toUPIArray(x));
 	}
 	
 	public TriplesIterator getInfTriples(AllegroGraph ag, Object s, Object p, Object o,
@@ -309,14 +587,10 @@ public class AGDirectConnector
 			Object obend, Object cxend, int lh)
 	throws AllegroGraphException {
 		if (lh < 1) lh = TriplesIteratorImpl.defaultLookAhead;
-		Object[] v = tsApplyA(ag, AG_GET_TRIPLE_RANGE,
+		Object[] v = tsApplyBlocks(ag, AG_GET_TRIPLE_RANGE,
 				new Object[]{ s, p, o, c, subend, predend, obend, cxend,
 				new Integer(lh), new Integer(1) });
-		//	returned 2 values: Lisp source object, array of lh results
-		//       or 3 values: source, ids, parts
-		if ( 4>v.length ) return TriplesIteratorImpl.emptyCursor;
-		if ( 4 ==v.length ) return AGFactory.makeCursor(ag, v[2], toUPIArray(v[3]));
-		return AGFactory.makeCursor(ag, v[2], toUPIArray(v[3]), (String[])v[4]);
+		return getTriplesResult(ag, v);
 	}
 	
 	public Object getTriples(AllegroGraph ag, Object s, Object p, Object o,
@@ -347,7 +621,7 @@ public class AGDirectConnector
 		for (int i = 0; i < options.length; i++) {
 			args[9+i] = options[i];
 		}
-		Object[] v = tsApplyA(ag, AG_GET_TRIPLE_RANGE, args);
+		Object[] v = tsApplyBlocks(ag, AG_GET_TRIPLE_RANGE, args);
 		switch (lh) {
 		case -1:  
 			if ( 3>v.length ) return false;
@@ -359,11 +633,7 @@ public class AGDirectConnector
 			return longValue(v[2]);
 		}
 		// Otherwise return a Cursor.
-		//	returned 2 values: Lisp source object, array of lh results
-		//       or 3 values: source, ids, parts
-		if ( 4>v.length ) return TriplesIteratorImpl.emptyCursor;
-		if ( 4 ==v.length ) return AGFactory.makeCursor(ag, v[2], toUPIArray(v[3]));
-		return AGFactory.makeCursor(ag, v[2], toUPIArray(v[3]), (String[])v[4]);
+		return getTriplesResult(ag, v);
 	}
 
 	
@@ -389,10 +659,9 @@ public class AGDirectConnector
 
 
 	public String getTypePart(AGBase ag, UPI id) throws AllegroGraphException {
-		Object[] v = tsApplyA(ag, AG_GET_NODE_PARTS, new Object[]{ id });
-		// returns 3 values: part type num, label, mod
-		switch ( (int)AGConnector.longValue(v[2]) ) {
-		case 5: if ( 4<v.length ) return (String)v[4];
+		AGPartCache.Entry e = nodeParts(ag, id);
+		switch ( e.type ) {
+		case 5: return e.mod;
 		}
 		return null;
 	}
@@ -517,43 +786,183 @@ public class AGDirectConnector
 
 	public UPIImpl newLiteral(AGBase ag, String text, String type, String lang)
 		throws AllegroGraphException {
-		Object v = tsApply0(ag, AG_INTERN_LIT,  new Object[]{ text, type, lang });
-		return toUPI(v);
+		return internOne(ag, AGInternCache.LITERAL, text, type, lang);
 	}
 
 	public UPIImpl newLiteral(AGBase ag, String text, UPI type, String lang)
 		throws AllegroGraphException {
-		Object v = tsApply0(ag, AG_INTERN_LIT,  new Object[]{ text, type, lang });
-		return toUPI(v);
+		return internOne(ag, AGInternCache.LITERAL, text, type, lang);
 	}
 
 	public UPIImpl[] newLiteral(AGBase ag, String[] text, String[] type, String[] lang) throws AllegroGraphException {
-		Object v = tsApply0(ag, AG_INTERN_LIT,  new Object[]{ text, type, lang });
-		return toUPIArray(v);
+		return internMany(ag, AGInternCache.LITERAL, text, type, lang);
 	}
 
 	public UPIImpl newResource(AGBase ag, String uri) throws AllegroGraphException {
-		Object v = tsApply0(ag, AG_INTERN_RES,  new Object[]{ uri });
-		return toUPI(v);
+		return internOne(ag, AGInternCache.RESOURCE, uri, null, null);
 	}
 
 	public UPIImpl[] newResources(AGBase ag, String[] uri) throws AllegroGraphException {
-		Object v = tsApply0(ag, AG_INTERN_RES,  new Object[]{ uri });
-		return toUPIArray(v);
+		return internMany(ag, AGInternCache.RESOURCE, uri, null, null);
+	}
+	
+	/**
+	 * Add one URI or literal to the store, unless the intern cache
+	 * shows that it is already there.
+	 */
+	UPIImpl internOne(AGBase ag, int kind, String text, Object type, String lang)
+		throws AllegroGraphException {
+		AGInternCache ic = internCache;
+		AGInternCache.Key k = null;
+		if ( ic!=null ) {
+			k = ic.key(ag, kind, text, type, lang);
+			UPIImpl u = ic.get(k);
+			if ( u!=null ) return u;
+		}
+		Object v;
+		if ( kind==AGInternCache.RESOURCE )
+			v = tsApply0(ag, AG_INTERN_RES,  new Object[]{ text });
+		else
+			v = tsApply0(ag, AG_INTERN_LIT,  new Object[]{ text, type, lang });
+		UPIImpl u = toUPI(v);
+		if ( ic!=null ) ic.put(k, u);
+		return u;
+	}
+	
+	/**
+	 * Add several URIs or literals to the store.  The ones that are not
+	 * in the intern cache are sent to the server in one call, 
+	 * and each distinct one is sent only once.
+	 */
+	UPIImpl[] internMany(AGBase ag, int kind, String[] text, String[] type, String[] lang)
+		throws AllegroGraphException {
+		AGInternCache ic = internCache;
+		if ( ic==null ) 
+			return toUPIArray(internCall(ag, kind, text, type, lang));
+		int n = text.length;
+		UPIImpl[] r = new UPIImpl[n];
+		AGInternCache.Key[] keys = new AGInternCache.Key[n];
+		int[] miss = new int[n];
+		int[] same = new int[n];
+		int m = 0;
+		HashMap<AGInternCache.Key, Integer> asked = new HashMap<AGInternCache.Key, Integer>();
+		for (int i = 0; i < n; i++) {
+			same[i] = -1;
+			keys[i] = ic.key(ag, kind, text[i], element(type, i), element(lang, i));
+			r[i] = ic.get(keys[i]);
+			if ( r[i]!=null ) continue;
+			Integer j = (keys[i]==null)?null:asked.get(keys[i]);
+			if ( j!=null ) {
+				same[i] = j.intValue();
+				continue;
+			}
+			if ( keys[i]!=null ) asked.put(keys[i], new Integer(i));
+			miss[m++] = i;
+		}
+		if ( m==0 ) return r;
+		UPIImpl[] got = toUPIArray(internCall(ag, kind, subset(text, miss, m), 
+				subset(type, miss, m), subset(lang, miss, m)));
+		for (int j = 0; j < m && j < got.length; j++) {
+			int i = miss[j];
+			r[i] = got[j];
+			ic.put(keys[i], got[j]);
+		}
+		for (int i = 0; i < n; i++)
+			if ( same[i]>-1 ) r[i] = r[same[i]];
+		return r;
+	}
+	
+	Object internCall(AGBase ag, int kind, String[] text, String[] type, String[] lang)
+		throws AllegroGraphException {
+		if ( kind==AGInternCache.RESOURCE )
+			return tsApply0(ag, AG_INTERN_RES,  new Object[]{ text });
+		return tsApply0(ag, AG_INTERN_LIT,  new Object[]{ text, type, lang });
+	}
+	
+	/**
+	 * Get the datatype or language of one node.  As in the server,
+	 * a short array repeats its last element for the remaining nodes.
+	 */
+	static String element(String[] a, int i) {
+		if ( a==null || a.length==0 ) return null;
+		if ( i<a.length ) return a[i];
+		return a[a.length - 1];
+	}
+	
+	/**
+	 * Get the datatypes or languages of the selected nodes, with the
+	 * repeated last element written out in full.
+	 */
+	static String[] subset(String[] a, int[] index, int n) {
+		if ( a==null ) return null;
+		String[] r = new String[n];
+		for (int j = 0; j < n; j++) r[j] = element(a, index[j]);
+		return r;
 	}
 
 	public UPIImpl[] nextCursor(AGBase ag, Object source, int lh) throws AllegroGraphException {
 		Object[] v = tsApplyA(ag, AG_NEXT,  new Object[]{ source, new Integer(lh) });
+		return nextCursorResult(v);
+	}
+	
+	public AGFuture<UPIImpl[]> nextCursorAsync(AGBase ag, Object source, int lh) {
+		return tsApplyAsync(ag, AG_NEXT,  new Object[]{ source, new Integer(lh) })
+			.then(new AGFuture.Function<Object[], UPIImpl[]>() {
+				public UPIImpl[] apply(Object[] v) { return nextCursorResult(v); }
+			});
+	}
+	
+	static UPIImpl[] nextCursorResult(Object[] v) {
 		if (3>v.length) return null;
 		return toUPIArray(v[2]);
 	}
 	
+	public UPIBlock nextCursorBlock(AGBase ag, Object source, int lh) throws AllegroGraphException {
+		Object[] v = tsApplyBlocks(ag, AG_NEXT,  new Object[]{ source, new Integer(lh) });
+		return nextCursorBlockResult(v);
+	}
+	
+	public AGFuture<UPIBlock> nextCursorBlockAsync(AGBase ag, Object source, int lh) {
+		return tsApplyBlocksAsync(ag, AG_NEXT,  new Object[]{ source, new Integer(lh) })
+			.then(new AGFuture.Function<Object[], UPIBlock>() {
+				public UPIBlock apply(Object[] v) { return nextCursorBlockResult(v); }
+			});
+	}
+	
+	static UPIBlock nextCursorBlockResult(Object[] v) {
+		if (3>v.length) return null;
+		return toUPIBlock(v[2]);
+	}
+	
+	public Object[] nextCursorBlockAndParts(AGBase ag, Object source, int lh) throws AllegroGraphException {
+		Object[] v = tsApplyBlocks(ag, AG_NEXT_WITH_PARTS,  new Object[]{ source, new Integer(lh) });
+		return toBlockAndParts(nextCursorAndPartsResult(v));
+	}
+	
+	public AGFuture<Object[]> nextCursorBlockAndPartsAsync(AGBase ag, Object source, int lh) {
+		return tsApplyBlocksAsync(ag, AG_NEXT_WITH_PARTS,  new Object[]{ source, new Integer(lh) })
+			.then(new AGFuture.Function<Object[], Object[]>() {
+				public Object[] apply(Object[] v) { return toBlockAndParts(nextCursorAndPartsResult(v)); }
+			});
+	}
+	
 
 	public Object[] nextCursorAndParts(AGBase ag, Object source, int lh) throws AllegroGraphException {
 		Object[] v = tsApplyA(ag, AG_NEXT_WITH_PARTS,  new Object[]{ source, new Integer(lh) });
+		return nextCursorAndPartsResult(v);
+	}	
+	
+	public AGFuture<Object[]> nextCursorAndPartsAsync(AGBase ag, Object source, int lh) {
+		return tsApplyAsync(ag, AG_NEXT_WITH_PARTS,  new Object[]{ source, new Integer(lh) })
+			.then(new AGFuture.Function<Object[], Object[]>() {
+				public Object[] apply(Object[] v) { return nextCursorAndPartsResult(v); }
+			});
+	}
+	
+	static Object[] nextCursorAndPartsResult(Object[] v) {
 		if (4>v.length) return null;
 		return new Object[]{ v[2], v[3] };
-	}	
+	}
 	
 	
 
@@ -565,8 +974,9 @@ public class AGDirectConnector
 	public int query() {
 		if ( trs==null )
 			return -1;
-		if ( null==trs.softLock ) return 0;
-		return 1;
+		if ( trs.isBusy() ) return 1;
+		if ( pool!=null && pool.isBusy() ) return 1;
+		return 0;
 	}
 
 	public void syncTripleStore(AGBase ag) throws AllegroGraphException {
@@ -628,6 +1038,26 @@ public class AGDirectConnector
 	}
 	
 	public Object[] selectValues ( AGBase ag, String query, Object[] presets, String pvars, boolean infer, boolean distinct, Object[] more )
+		throws AllegroGraphException {
+		Object[] r = tsApplyA(ag, AG_SELECT_VALUES, 
+				selectValuesArgs(ag, query, presets, pvars, infer, distinct, more));
+		return valuesResults(r);
+	}
+	
+	public AGFuture<Object[]> selectValuesAsync ( AGBase ag, String query, Object[] presets, String pvars, boolean infer, boolean distinct, Object[] more ) {
+		Object[] args;
+		try {
+			args = selectValuesArgs(ag, query, presets, pvars, infer, distinct, more);
+		} catch (Exception e) {
+			return AGFuture.failed(e);
+		}
+		return tsApplyAsync(ag, AG_SELECT_VALUES, args)
+			.then(new AGFuture.Function<Object[], Object[]>() {
+				public Object[] apply(Object[] r) { return valuesResults(r); }
+			});
+	}
+	
+	Object[] selectValuesArgs ( AGBase ag, String query, Object[] presets, String pvars, boolean infer, boolean distinct, Object[] more )
 		throws AllegroGraphException {
 		ArrayList<Object> args = new ArrayList<Object>();
 		args.add(pvars);
@@ -682,9 +1112,7 @@ public class AGDirectConnector
 			for (int i = 0; i < more.length; i++) {
 				args.add(more[i]);
 			}
-		
-		Object[] r = tsApplyA(ag, AG_SELECT_VALUES, args.toArray());
-		return valuesResults(r);
+		return args.toArray();
 	}
 	
 	public Object[] nextValuesArray ( AGBase ag, Object source, int lh )
@@ -884,16 +1312,34 @@ public class AGDirectConnector
 	}
 	public Object[] twinqlSelect(AGBase ag, String query, String vars, int limit, int offset,
 			int slimit, boolean infer, Object[] more ) throws AllegroGraphException {
-		Object[] r;  int ml = (null==more)?0:more.length;
+		Object[] r = tsApplyA(ag, AG_TWINQL_SELECT,
+				twinqlSelectArgs(query, vars, limit, offset, slimit, infer, more));
+		if ( slimit==-1 ) return valuesOnly(r);
+		return valuesResults(r);
+	}
+	
+	public AGFuture<Object[]> twinqlSelectAsync(AGBase ag, String query, String vars, int limit, int offset,
+			final int slimit, boolean infer, Object[] more ) {
+		return tsApplyAsync(ag, AG_TWINQL_SELECT,
+				twinqlSelectArgs(query, vars, limit, offset, slimit, infer, more))
+			.then(new AGFuture.Function<Object[], Object[]>() {
+				public Object[] apply(Object[] r) {
+					if ( slimit==-1 ) return valuesOnly(r);
+					return valuesResults(r);
+				}
+			});
+	}
+	
+	static Object[] twinqlSelectArgs(String query, String vars, int limit, int offset,
+			int slimit, boolean infer, Object[] more ) {
+		int ml = (null==more)?0:more.length;
 		Object[] args = new Object[8+ml];
 		args[0] = query; args[1] = vars; args[2] =  new Integer(limit); 
 		args[3] = new Integer(offset);
 		args[4] = "slimit";  args[5] = new Integer(slimit);
 		args[6] = "use-reasoner";  args[7] = new Boolean(infer);
 		for (int i = 0; i < ml; i++) { args[8+i] = more[i]; }
-		r = tsApplyA(ag, AG_TWINQL_SELECT, args	);
-		if ( slimit==-1 ) return valuesOnly(r);
-		return valuesResults(r);
+		return args;
 	}
 
 	public TriplesIterator twinqlFind(AllegroGraph ag, String query, int limit, int offset, int slimit,
@@ -1008,9 +1454,26 @@ public class AGDirectConnector
 	// FEDERATION ADDITIONS
 
 	public int federate ( String name, int[] parts, boolean supersede ) throws AllegroGraphException {
+		return federate(verifyLink(), name, parts, supersede);
+	}
+	
+	public int federate ( AGBase ag, AGBase[] stores, String name, int[] parts, boolean supersede )
+	throws AllegroGraphException {
+		if ( pool==null || stores.length==0 ) return federate(name, parts, supersede);
+		AGDirectLink link = linkFor(stores[0]);
+		for (int i = 1; i < stores.length; i++)
+			if ( link!=linkFor(stores[i]) )
+				throw new AllegroGraphException
+				( "Components of federated triple store must share one server link.");
+		int ix = federate(link, name, parts, supersede);
+		adopt(stores[0], ag);
+		return ix;
+	}
+	
+	int federate ( AGDirectLink link, String name, int[] parts, boolean supersede ) throws AllegroGraphException {
 		Object r;
 		try {
-			r = verifyLink().sendOp1n(AGDirectLink.OP_CALL, 1, 0,
+			r = link.sendOp1n(AGDirectLink.OP_CALL, 1, 0,
 					AG_FEDERATE,
 					new Object[]{ name, parts, "if-exists",
 									(supersede?"supersede":null)
@@ -24,12 +24,19 @@ package com.franz.agbase.transport;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.lang.reflect.Array;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketAddress;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import com.franz.ag.UPI;
+import com.franz.agbase.impl.UPIBlock;
 import com.franz.agbase.impl.UPIImpl;
 import com.franz.agbase.util.AGC;
 
@@ -136,7 +143,80 @@ import com.franz.agbase.util.AGC;
 
 	int endpos = 0;
 
-	Thread softLock = null;
+	volatile Thread softLock = null;
+	
+	/**
+	 * Guards softLock, the waiting queue and the port state.
+	 */
+	final ReentrantLock portLock = new ReentrantLock();
+	
+	/**
+	 * A thread waiting for the soft lock.
+	 */
+	static class LockWaiter {
+		final Thread thread;
+		final Condition turn;
+		LockWaiter(Thread thread, Condition turn) {
+			this.thread = thread;  this.turn = turn;
+		}
+	}
+	
+	/**
+	 * The threads waiting for the soft lock in arrival order.  When the
+	 * lock is dropped, it is handed to the first waiter, which is the 
+	 * only thread woken up.
+	 */
+	final LinkedList<LockWaiter> lockWaiters = new LinkedList<LockWaiter>();
+	
+	/**
+	 * Milliseconds to wait for the soft lock; zero means wait forever.
+	 */
+	int lockTimeout = 0;
+	
+	/**
+	 * Where the cost of each operation is reported, or null.
+	 */
+	volatile AGLinkMetrics metrics = null;
+	
+	/**
+	 * Protocol bytes written to the link, updated by the soft lock owner.
+	 */
+	long bytesOut = 0;
+	
+	/**
+	 * Protocol bytes read from the link, updated by the reading thread.
+	 */
+	long bytesIn = 0;
+	
+	/**
+	 * The measurements of one operation while metrics are on.
+	 */
+	static class OpCall {
+		String key;
+		boolean nameNext;
+		boolean sent = false;
+		boolean ok = false;
+		final long start = System.nanoTime();
+		long lockNanos = 0;
+		long outMark = 0;
+		long bytesOut = 0;
+		long bytesIn = 0;
+		OpCall(String op) {
+			key = op;
+			nameNext = OP_CALL.equals(op);
+		}
+	}
+	
+	/**
+	 * The operation of the current thread on this link.
+	 */
+	final ThreadLocal<OpCall> calls = new ThreadLocal<OpCall>();
+	
+	/**
+	 * The operation whose request is being written; set only while 
+	 * the soft lock is held.
+	 */
+	OpCall writing = null;
 	
 	int timeout = 5000;
 
@@ -222,6 +302,104 @@ import com.franz.agbase.util.AGC;
 
 	static boolean connectFlag = false;
 
+	/**
+	 * The first server level that implements the :compress and
+	 * :prefixes operations.  No released server reports this level yet,
+	 * so a link only uses these options with a server that claims it.
+	 */
+	static final int LINK_OPTIONS_LEVEL = 17;
+
+	//  Operation: :compress
+	//  Arguments: method-string threshold
+	//    Results: method-string
+	static final String OP_COMPRESS = ":compress";
+
+	static final String COMPRESS_DEFLATE = "deflate";
+
+	/**
+	 * The compressed output stream, or null if the link is not compressed.
+	 */
+	AGFrameOutputStream framer = null;
+
+	/**
+	 * Ask the server to compress the link in both directions.
+	 * <p>
+	 * Once the server agrees, all data is sent in frames, and frames
+	 * of threshold bytes or more are compressed.  A server that does not
+	 * know the :compress operation replies with an error, and the link
+	 * stays uncompressed.
+	 * The caller must check that the server is at LINK_OPTIONS_LEVEL
+	 * or above before calling this.
+	 * This must be called before the pipeline is started.
+	 * @param threshold the smallest block that is compressed.
+	 * @return true if the link is now compressed.
+	 * @throws IOException
+	 */
+	boolean startCompression ( int threshold ) throws IOException {
+		if ( framer!=null ) return true;
+		if ( reader!=null ) throwIOErr("startCompression", ERR_PORT_STATE);
+		Object r;
+		try {
+			r = sendOp2(OP_COMPRESS, 1, 0, COMPRESS_DEFLATE, threshold);
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+		if ( !COMPRESS_DEFLATE.equals(stringValue(r)) ) return false;
+		inStream = new AGFrameInputStream(inStream);
+		outStream = framer = new AGFrameOutputStream(outStream, threshold);
+		return true;
+	}
+
+	//  Operation: :prefixes
+	//  Arguments: kind-string prefix-strings
+	//    Results: prefix-count
+	static final String OP_PREFIXES = ":prefixes";
+
+	/**
+	 * A string that begins with a prefix from the prefix table:
+	 * [TAG_PSTR][prefix index][string]
+	 * where the string is the rest of the string after the prefix.
+	 */
+	static final int TAG_PSTR = 214;  // 0xd6
+
+	/**
+	 * Strings shorter than this are always sent in full.
+	 */
+	static final int PSTR_MIN = 12;
+
+	/**
+	 * The URI prefix table of this link, or null if none was agreed.
+	 */
+	AGPrefixTable prefixes = null;
+
+	/**
+	 * Send a URI prefix table to the server.
+	 * <p>
+	 * If the server accepts the table, strings that begin with a prefix
+	 * are sent in both directions as a prefix index and the rest of
+	 * the string.  A server that does not know the :prefixes operation
+	 * replies with an error, and strings are sent in full.
+	 * The caller must check that the server is at LINK_OPTIONS_LEVEL
+	 * or above before calling this.
+	 * This must be called before the pipeline is started.
+	 * @param table
+	 * @return true if the server accepted the table.
+	 * @throws IOException
+	 */
+	boolean startPrefixes ( AGPrefixTable table ) throws IOException {
+		if ( reader!=null ) throwIOErr("startPrefixes", ERR_PORT_STATE);
+		Object r;
+		try {
+			r = sendOp2(OP_PREFIXES, 1, 0, "uri", table.toArray());
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+		if ( !(r instanceof Number) || ((Number)r).intValue()!=table.size() )
+			return false;
+		prefixes = table;
+		return true;
+	}
+
 	 boolean query() throws IOException {
 		Object r = sendOp1(OP_VERIFY, 1, 0, AGC.AG_DIRECT_LEVEL);
 		if ( r instanceof String ) {
@@ -242,17 +420,24 @@ import com.franz.agbase.util.AGC;
 		return false;
 	}
 
-	 synchronized boolean disconnect() throws IOException {
-
-		// this one is ok to be synchronized because
-		//  call is oneway
-
-		switch (state) {
-		case PORT_CLOSED:
-			return false;
-		case PORT_IDLE: {
+	 boolean disconnect() throws IOException {
 
+		// No lock is held while the disconnect message is sent or
+		// while we wait for it to arrive.
+		boolean idle;
+		portLock.lock();
+		try {
+			if (state == PORT_CLOSED)
+				return false;
+			idle = (state == PORT_IDLE) && (softLock == null);
+		} finally {
+			portLock.unlock();
+		}
+		if (idle) {
 			sendOp0(OP_DISCONNECT, -1, -1);
+			// Hold the soft lock until the socket is closed, so that
+			// no other request follows the disconnect message.
+			grabSoftLock("disconnect()");
 
 			// give message a chance to arrive???
 			try {
@@ -261,42 +446,431 @@ import com.franz.agbase.util.AGC;
 			}
 		}
 
-		default:
-			try {
-				socket.close();
-				state = PORT_CLOSED;
-				socket = null;
-				inStream = null;
-				outStream = null;
-				return true;
-			} catch (Exception e) {
+		portLock.lock();
+		try {
+			if (state == PORT_CLOSED)
 				return false;
-			}
+			socket.close();
+			state = PORT_CLOSED;
+			socket = null;
+			inStream = null;
+			outStream = null;
+			return true;
+		} catch (Exception e) {
+			return false;
+		} finally {
+			if (idle)
+				dropSoftLock();
+			portLock.unlock();
 		}
 	}
 
-	synchronized String grabSoftLock(String from) {
+	String grabSoftLock(String from) {
 		Thread cur = Thread.currentThread();
-		if (softLock == null)
-			softLock = cur;
-		else if (softLock == cur)
-			return ("Recursive call to" + from);
-		else {
-			while (softLock != null)
+		boolean interrupted = false;
+		portLock.lock();
+		try {
+			if (softLock == null)
+				softLock = cur;
+			else if (softLock == cur)
+				return ("Recursive call to" + from);
+			else {
+				LockWaiter w = new LockWaiter(cur, portLock.newCondition());
+				lockWaiters.addLast(w);
+				long wait = TimeUnit.MILLISECONDS.toNanos(lockTimeout);
+				while (softLock != cur) {
+					try {
+						if (lockTimeout == 0)
+							w.turn.await();
+						else if (wait > 0)
+							wait = w.turn.awaitNanos(wait);
+						else {
+							lockWaiters.remove(w);
+							return ("Timed out waiting for link in " + from);
+						}
+					} catch (InterruptedException e) {
+						interrupted = true;
+					}
+				}
+			}
+			return "";
+		} finally {
+			portLock.unlock();
+			if (interrupted)
+				cur.interrupt();
+		}
+	}
+
+	void dropSoftLock() {
+		portLock.lock();
+		try {
+			if (softLock == null)
+				return;
+			LockWaiter w = lockWaiters.poll();
+			if (w == null)
+				softLock = null;
+			else {
+				softLock = w.thread;
+				w.turn.signal();
+			}
+		} finally {
+			portLock.unlock();
+		}
+	}
+
+	/**
+	 * Release the soft lock and reset the port state, but only if the
+	 * lock is held by the current thread.  In pipelined mode the lock
+	 * is dropped as soon as a request is written, so by the time a
+	 * caller finishes, another thread may own it.
+	 */
+	void releaseSoftLock() {
+		portLock.lock();
+		try {
+			if (softLock != Thread.currentThread())
+				return;
+			state = PORT_IDLE;
+			dropSoftLock();
+		} finally {
+			portLock.unlock();
+		}
+	}
+
+	void sendOpDone(int opix) {
+		if (reader != null)
+			forgetReply(opix);
+		OpCall call = null;
+		if (metrics != null) {
+			call = calls.get();
+			calls.remove();
+			if (writing == call && softLock == Thread.currentThread())
+				writing = null;
+		}
+		releaseSoftLock();
+		doneCall(call);
+	}
+
+	/**
+	 * Query the state of the link.
+	 * @return true if a request is being written or a reply is expected.
+	 */
+	boolean isBusy() {
+		if (softLock != null)
+			return true;
+		synchronized (pending) {
+			return !pending.isEmpty();
+		}
+	}
+
+	// Pipelined mode
+
+	/**
+	 * A caller waiting for the reply to one operation in pipelined mode.
+	 */
+	static class PendingReply {
+		/**
+		 * The size of the reply in bytes.
+		 */
+		long bytes = 0;
+		/**
+		 * True if UPI sequences in the reply are decoded into UPIBlock
+		 * instances.
+		 */
+		boolean blocks = false;
+		private Object[] res = null;
+		private IOException ioErr = null;
+		private RuntimeException runErr = null;
+		private final CountDownLatch done = new CountDownLatch(1);
+
+		void deliver(Object[] r) {
+			res = r;  done.countDown();
+		}
+
+		void fail(IOException e) {
+			ioErr = e;  done.countDown();
+		}
+
+		void fail(RuntimeException e) {
+			runErr = e;  done.countDown();
+		}
+
+		Object[] await() throws IOException {
+			boolean interrupted = false;
+			while (done.getCount() > 0)
 				try {
-					wait();
-				} catch (Exception e) {
+					done.await();
+				} catch (InterruptedException e) {
+					interrupted = true;
 				}
-			softLock = cur;
+			if (interrupted)
+				Thread.currentThread().interrupt();
+			if (ioErr != null)
+				throw ioErr;
+			if (runErr != null)
+				throw runErr;
+			return res;
 		}
-		return "";
 	}
 
-	synchronized void dropSoftLock() {
-		if (softLock == null)
-			return;
-		softLock = null;
-		notifyAll();
+	/**
+	 * A reply that completes an AGFuture instead of waking a caller.
+	 */
+	class AsyncReply extends PendingReply {
+		final String op;
+		final int opix;
+		final int rx;
+		final AGFuture<Object> future;
+		OpCall call = null;
+
+		AsyncReply(String op, int opix, int rx, AGFuture<Object> future) {
+			this.op = op;  this.opix = opix;  this.rx = rx;
+			this.future = future;
+		}
+
+		void done(boolean ok) {
+			OpCall c;
+			synchronized (this) {
+				c = call;
+				call = null;
+			}
+			if (c == null)
+				return;
+			c.ok = ok;
+			c.bytesIn = bytes;
+			doneCall(c);
+		}
+
+		void deliver(Object[] r) {
+			super.deliver(r);
+			forgetReply(opix);
+			Object v;
+			try {
+				v = opResult(op, opix, rx, r);
+			} catch (Throwable e) {
+				// Only this call fails; the reader goes on.
+				done(false);
+				future.fail(e);
+				return;
+			}
+			done(true);
+			future.complete(v);
+		}
+
+		void fail(IOException e) {
+			super.fail(e);
+			forgetReply(opix);
+			done(false);
+			future.fail(e);
+		}
+
+		void fail(RuntimeException e) {
+			super.fail(e);
+			forgetReply(opix);
+			done(false);
+			future.fail(e);
+		}
+	}
+
+	/**
+	 * Send an operation without waiting for the reply.
+	 * <p>
+	 * On a pipelined link, the request is written and the returned
+	 * future is completed by the reply reader thread.  Otherwise, the
+	 * call is made synchronously.
+	 * @return a future for the value selected by rx, as in sendOp3n.
+	 */
+	AGFuture<Object> sendOp3nAsync(String op, int rx,
+			 		 String arg0, long arg1, String arg2,
+			 		 Object[] args) {
+		return sendOp3nAsync(op, rx, false, arg0, arg1, arg2, args);
+	}
+
+	/**
+	 * @param blocks true if UPI sequences in the reply are decoded
+	 *    into UPIBlock instances, as in sendOp3nBlocks.
+	 */
+	AGFuture<Object> sendOp3nAsync(String op, int rx, boolean blocks,
+			 		 String arg0, long arg1, String arg2,
+			 		 Object[] args) {
+		AGFuture<Object> f = new AGFuture<Object>();
+		if (reader == null) {
+			try {
+				f.complete(sendOp3n(op, 1, rx, blocks, arg0, arg1, arg2, args));
+			} catch (IOException e) {
+				f.fail(e);
+			} catch (RuntimeException e) {
+				f.fail(e);
+			}
+			return f;
+		}
+		int opix = 0;
+		boolean sent = false;
+		AsyncReply w = null;
+		try {
+			opix = sendOpHeader(op, 1, 3+args.length);
+			portOut(arg0);
+			portOut(arg1);
+			portOut(arg2);
+			for (int i=0; i<args.length; i++) portOutUnwrapped(args[i]);
+			w = new AsyncReply(op, opix, rx, f);
+			w.blocks = blocks;
+			if (metrics != null) {
+				// The reply reader finishes the measurement.
+				w.call = sentCall(1);
+				calls.remove();
+			}
+			synchronized (pending) {
+				// The reader may have failed since sendOpHeader.
+				if (readerFailure != null)
+					throw new IOException("Pipelined link failed: "
+							+ readerFailure.getMessage());
+				pending.put(opix, w);
+			}
+			int ret = streamOutFlush();
+			if (ret < 0)
+				throwIOErr("sendOp", ret);
+			sent = true;
+		} catch (IOException e) {
+			f.fail(e);
+		} catch (RuntimeException e) {
+			f.fail(e);
+		} finally {
+			if ( sent )
+				releaseSoftLock();
+			else {
+				sendOpDone(opix);
+				if ( w!=null ) w.done(false);
+			}
+		}
+		return f;
+	}
+
+	/**
+	 * The thread that reads all the replies on a pipelined link and
+	 * hands each one to the caller waiting for that op index.
+	 */
+	class ReplyReader extends Thread {
+
+		ReplyReader() {
+			super("AGDirectLink reply reader");
+			setDaemon(true);
+		}
+
+		public void run() {
+			IOException why;
+			try {
+				while (true) {
+					long mark = bytesIn;
+					Object[] r = portInReply(streamInCode());
+					long rx = ((Long) r[1]).longValue();
+					int opix = (int) ((rx < 0) ? -rx : rx);
+					PendingReply w = findReply(opix);
+					if (w == null)
+						// The link is out of step with the server.
+						throw new IOException("Reply to op index " + opix
+								+ " that no caller is waiting for");
+					w.bytes = bytesIn - mark;
+					if (rx < 0)
+						w.fail(new IllegalArgumentException(replyErrorString(r)));
+					else
+						w.deliver(r);
+				}
+			} catch (IOException e) {
+				why = e;
+			} catch (Throwable e) {
+				// Errors too, since callers wait for their replies
+				// without a timeout.
+				why = new IOException("Reply reader failed: " + e);
+				why.initCause(e);
+			}
+			failReplies(why);
+		}
+	}
+
+	ReplyReader reader = null;
+
+	IOException readerFailure = null;
+
+	final HashMap<Integer, PendingReply> pending = new HashMap<Integer, PendingReply>();
+
+	/**
+	 * Switch the link to pipelined mode.
+	 * <p>
+	 * In pipelined mode, the soft lock is held only while a request is
+	 * written to the socket.  Many threads may have requests outstanding
+	 * on the link at the same time; a dedicated reader thread sends each
+	 * reply to the waiting caller by op index.
+	 * <p>
+	 * This must be called while the link is idle, normally right after
+	 * the link is created.  Once started, pipelined mode stays on until
+	 * the link is disconnected.
+	 */
+	void startPipeline() throws IOException {
+		portLock.lock();
+		try {
+			if (reader != null)
+				return;
+			if (state == PORT_CLOSED)
+				throwIOErr("startPipeline", ERR_PORT_CLOSED);
+			if (softLock != null)
+				throwIOErr("startPipeline", ERR_BUSY);
+			reader = new ReplyReader();
+			reader.start();
+		} finally {
+			portLock.unlock();
+		}
+	}
+
+	boolean isPipelined() {
+		return reader != null;
+	}
+
+	void expectReply(int opix) throws IOException {
+		synchronized (pending) {
+			if (readerFailure != null)
+				throw new IOException("Pipelined link failed: "
+						+ readerFailure.getMessage());
+			pending.put(opix, new PendingReply());
+		}
+	}
+
+	PendingReply findReply(int opix) {
+		synchronized (pending) {
+			return pending.get(opix);
+		}
+	}
+
+	void forgetReply(int opix) {
+		synchronized (pending) {
+			pending.remove(opix);
+		}
+	}
+
+	Object[] awaitReply(String op, int opix) throws IOException {
+		PendingReply w = findReply(opix);
+		if (w == null)
+			throw new IOException("opResIn " + op + "[" + opix + "]"
+					+ " no reply expected");
+		try {
+			return w.await();
+		} finally {
+			forgetReply(opix);
+			if (metrics != null) {
+				OpCall call = calls.get();
+				if (call != null)
+					call.bytesIn = w.bytes;
+			}
+		}
+	}
+
+	void failReplies(IOException why) {
+		PendingReply[] all;
+		synchronized (pending) {
+			readerFailure = why;
+			all = pending.values().toArray(new PendingReply[pending.size()]);
+		}
+		for (int i = 0; i < all.length; i++)
+			all[i].fail(new IOException(why.getMessage()));
 	}
 
 	/**
@@ -308,12 +882,12 @@ import com.franz.agbase.util.AGC;
 	 *         class of the object depends on the call.
 	 */
 	 Object sendOp0(String op, int style, int rx) throws IOException {
+		int opix = 0;
 		try {
-			int opix = sendOpHeader(op, style, 0);
+			opix = sendOpHeader(op, style, 0);
 			return sendOpTail(op, opix, style, rx);
 		} finally {
-			state = PORT_IDLE;
-			dropSoftLock();
+			sendOpDone(opix);
 		}
 	}
 
@@ -329,13 +903,13 @@ import com.franz.agbase.util.AGC;
 	  */
 	 Object sendOp1(String op, int style, int rx, String arg)
 			throws IOException {
+		int opix = 0;
 		try {
-			int opix = sendOpHeader(op, style, 1);
+			opix = sendOpHeader(op, style, 1);
 			portOut(arg);
 			return sendOpTail(op, opix, style, rx);
 		} finally {
-			state = PORT_IDLE;
-			dropSoftLock();
+			sendOpDone(opix);
 		}
 	}
 
@@ -351,13 +925,13 @@ import com.franz.agbase.util.AGC;
 	  */
 	 Object sendOp1(String op, int style, int rx, long arg)
 			throws IOException {
+		int opix = 0;
 		try {
-			int opix = sendOpHeader(op, style, 1);
+			opix = sendOpHeader(op, style, 1);
 			portOut(arg);
 			return sendOpTail(op, opix, style, rx);
 		} finally {
-			state = PORT_IDLE;
-			dropSoftLock();
+			sendOpDone(opix);
 		}
 	}
 
@@ -373,14 +947,14 @@ import com.franz.agbase.util.AGC;
 	  */
 	 Object sendOp2(String op, int style, int rx, String arg0, long arg1)
 			throws IOException {
+		int opix = 0;
 		try {
-			int opix = sendOpHeader(op, style, 2);
+			opix = sendOpHeader(op, style, 2);
 			portOut(arg0);
 			portOut(arg1);
 			return sendOpTail(op, opix, style, rx);
 		} finally {
-			state = PORT_IDLE;
-			dropSoftLock();
+			sendOpDone(opix);
 		}
 	}
 
@@ -397,14 +971,14 @@ import com.franz.agbase.util.AGC;
 	  */
 	 Object sendOp2(String op, int style, int rx, String arg0,
 			Object arg1) throws IOException {
+		int opix = 0;
 		try {
-			int opix = sendOpHeader(op, style, 2);
+			opix = sendOpHeader(op, style, 2);
 			portOut(arg0);
 			portOutUnwrapped(arg1);
 			return sendOpTail(op, opix, style, rx);
 		} finally {
-			state = PORT_IDLE;
-			dropSoftLock();
+			sendOpDone(opix);
 		}
 	}
 	
@@ -420,14 +994,14 @@ import com.franz.agbase.util.AGC;
 	  */
 	 Object sendOp1n(String op, int style, int rx, String arg0,
 			Object[] args) throws IOException {
+		int opix = 0;
 		try {
-			int opix = sendOpHeader(op, style, 1+args.length);
+			opix = sendOpHeader(op, style, 1+args.length);
 			portOut(arg0);
 			for (int i=0; i<args.length; i++) portOutUnwrapped(args[i]);
 			return sendOpTail(op, opix, style, rx);
 		} finally {
-			state = PORT_IDLE;
-			dropSoftLock();
+			sendOpDone(opix);
 		}
 	}
 	 
@@ -445,40 +1019,93 @@ import com.franz.agbase.util.AGC;
 	  */
 	 Object sendOp2n(String op, int style, int rx, String arg0, long arg1,
 				Object[] args) throws IOException {
+			int opix = 0;
 			try {
-				int opix = sendOpHeader(op, style, 2+args.length);
+				opix = sendOpHeader(op, style, 2+args.length);
 				portOut(arg0);
 				portOut(arg1);
 				for (int i=0; i<args.length; i++) portOutUnwrapped(args[i]);
 				return sendOpTail(op, opix, style, rx);
 			} finally {
-				state = PORT_IDLE;
-				dropSoftLock();
+				sendOpDone(opix);
 			}
 		}
 	
 	 Object sendOp3n(String op, int style, int rx,
 			 		 String arg0, long arg1, String arg2,
 			 		 Object[] args) throws IOException {
+		 return sendOp3n(op, style, rx, false, arg0, arg1, arg2, args);
+	 }
+	
+	 /**
+	  * Send an operation with 3+n parts to the server, and decode every
+	  * sequence of UPIs in the reply into a UPIBlock instead of a
+	  * UPIImpl array.
+	  */
+	 Object sendOp3nBlocks(String op, int rx,
+			 		 String arg0, long arg1, String arg2,
+			 		 Object[] args) throws IOException {
+		 return sendOp3n(op, 1, rx, true, arg0, arg1, arg2, args);
+	 }
+	
+	 Object sendOp3n(String op, int style, int rx, boolean blocks,
+			 		 String arg0, long arg1, String arg2,
+			 		 Object[] args) throws IOException {
+			int opix = 0;
 			try {
-				int opix = sendOpHeader(op, style, 3+args.length);
+				opix = sendOpHeader(op, style, 3+args.length);
+				if (blocks) replyInBlocks(opix);
 				portOut(arg0);
 				portOut(arg1);
 				portOut(arg2);
 				for (int i=0; i<args.length; i++) portOutUnwrapped(args[i]);
 				return sendOpTail(op, opix, style, rx);
 			} finally {
-				state = PORT_IDLE;
-				dropSoftLock();
+				if (reader == null) blockReply = false;
+				sendOpDone(opix);
 			}
 		}
 	
+	/**
+	 * Set while the caller that holds the soft lock waits for a reply
+	 * that is decoded in blocks.  Used only when the link is not 
+	 * pipelined; a pipelined link keeps the flag in the PendingReply.
+	 */
+	boolean blockReply = false;
+	
+	/**
+	 * Set while the values of a reply that is decoded in blocks are read.
+	 * Only the thread that reads replies uses it.
+	 */
+	boolean decodeBlocks = false;
+	
+	/**
+	 * Mark the reply to an operation whose header was just written.
+	 */
+	void replyInBlocks(int opix) {
+		if (reader == null) {
+			blockReply = true;
+			return;
+		}
+		PendingReply w = findReply(opix);
+		if (w != null) w.blocks = true;
+	}
+	
+	/**
+	 * @return true if UPI sequences in the reply are decoded in blocks.
+	 */
+	boolean isBlockReply(long opix) {
+		if (reader == null) return blockReply;
+		PendingReply w = findReply((int) ((opix < 0) ? -opix : opix));
+		return w != null && w.blocks;
+	}
+	
 	 
 
-	static int opIndex = 0;
+	static final AtomicInteger opIndex = new AtomicInteger(0);
 
-	synchronized int getOpIndex() {
-		return ++opIndex;
+	int getOpIndex() {
+		return opIndex.incrementAndGet();
 	}
 
 	/**
@@ -493,10 +1120,19 @@ import com.franz.agbase.util.AGC;
 		// override in AGDirectLinkDebug
 		int ret = 0;
 		int opix = getOpIndex();
+		OpCall call = null;
+		if (metrics != null) {
+			call = new OpCall(op);
+			calls.set(call);
+		}
 		String gv = grabSoftLock("sendOpHeader()");
 		if (gv.length() > 0)
 			throw new IOException("sendOpHeader " + op + "cannot grab lock: "
 					+ gv);
+		if (call != null) {
+			call.lockNanos = System.nanoTime() - call.start;
+			call.outMark = bytesOut + endpos;
+		}
 		switch (state) {
 		case PORT_IDLE:
 			state = PORT_MESSAGE;
@@ -521,6 +1157,11 @@ import com.franz.agbase.util.AGC;
 			ret = ERR_PORT_STATE;
 		}
 		if (ret < 0) throwIOErr("sendOpHeader ", ret);
+		writing = call;
+		// Register before the request is flushed so that the reader
+		// thread cannot see the reply first.
+		if (reader != null && !(style < 0))
+			expectReply(opix);
 		return opix;
 	}
 
@@ -528,13 +1169,51 @@ import com.franz.agbase.util.AGC;
 			throws IOException {
 		// override in AGDirectLinkDebug
 		int ret = 0;
+		OpCall call = sentCall(style);
 		ret = streamOutFlush();
 		if (ret < 0)
 			throwIOErr("sendOp", ret);
-		if (style < 0)
+		if (style < 0) {
+			if (call != null) call.ok = true;
+			return null;
+		}
+		if (reader != null)
+			// Let other callers write while we wait for the reply.
+			releaseSoftLock();
+		else
+			state = PORT_WAITING_REPLY;
+		Object r = opResIn(op, opix, rx);
+		if (call != null) call.ok = true;
+		return r;
+	}
+	
+	/**
+	 * Note that the request of the current operation is written.
+	 * @return the measurements of the operation, or null.
+	 */
+	OpCall sentCall(int style) {
+		OpCall call = writing;
+		if (call == null)
 			return null;
-		state = PORT_WAITING_REPLY;
-		return opResIn(op, opix, rx);
+		writing = null;
+		call.bytesOut = bytesOut + endpos - call.outMark;
+		AGLinkMetrics m = metrics;
+		if (m != null && !(style < 0)) {
+			call.sent = true;
+			m.opSent(call.key);
+		}
+		return call;
+	}
+	
+	/**
+	 * Report an operation to the metrics.
+	 */
+	void doneCall(OpCall call) {
+		AGLinkMetrics m = metrics;
+		if (call == null || m == null)
+			return;
+		m.opDone(call.key, call.sent, !call.ok, System.nanoTime() - call.start,
+				call.lockNanos, call.bytesOut, call.bytesIn);
 	}
 
 	/**
@@ -557,7 +1236,28 @@ import com.franz.agbase.util.AGC;
 	 */
 	Object opResIn(String op, int opix, int rx) throws IOException {
 		// override in AGDirectLinkDebug
-		Object[] res = portInOp();
+		Object[] res;
+		if (reader == null) {
+			long mark = bytesIn;
+			try {
+				res = portInOp();
+			} finally {
+				if (metrics != null) {
+					OpCall call = calls.get();
+					if (call != null)
+						call.bytesIn = bytesIn - mark;
+				}
+			}
+		} else
+			res = awaitReply(op, opix);
+		return opResult(op, opix, rx, res);
+	}
+	
+	/**
+	 * Check a reply and select the requested result.
+	 * @see #opResIn(String, int, int)
+	 */
+	static Object opResult(String op, int opix, int rx, Object[] res) throws IOException {
 		if ( 2>res.length )
 			throw new IOException("opResIn " + op + "[" + opix + "]" +
 		              " received " + res.length );
@@ -675,31 +1375,28 @@ import com.franz.agbase.util.AGC;
 		if (tag < TAG_START)
 			throw new java.io.IOException("streamInValue tag " + tag);
 		if (tag < TAG_INT_END) {
-			w = new Long(portInLong(tag));
+			w = boxLong(portInLong(tag));
 		} else
 			switch (tag) {
 			case TAG_NULL:
 				break;
 			case TAG_BYTE:
-				w = new Byte((byte) portInLong());
+				w = Byte.valueOf((byte) portInLong());
 				break;
 			case TAG_SHORT:
-				w = new Short((short) portInLong());
+				w = Short.valueOf((short) portInLong());
 				break;
 			case TAG_INT:
-				w = new Integer((int) portInLong());
+				w = Integer.valueOf((int) portInLong());
 				break;
 			case TAG_CHAR:
-				StringBuffer wb = new StringBuffer(2);
-				//JAVA5 wb.appendCodePoint((int) portInLong());
-				wb.append((char) portInLong());
-				w = new Character(wb.charAt(0));
+				w = Character.valueOf((char) portInLong());
 				break;
 			case TAG_FLOAT:
-				w = new Float(portInFloat(tag));
+				w = Float.valueOf(portInFloat(tag));
 				break;
 			case TAG_DOUBLE:
-				w = new Double(portInDouble(tag));
+				w = Double.valueOf(portInDouble(tag));
 				break;
 			case TAG_SEQ:
 				w = portInSequence(tag);
@@ -711,10 +1408,10 @@ import com.franz.agbase.util.AGC;
 				w = portInObject(tag);
 				break;
 			case TAG_TRUE:
-				w = new Boolean(true);
+				w = Boolean.TRUE;
 				break;
 			case TAG_FALSE:
-				w = new Boolean(false);
+				w = Boolean.FALSE;
 				break;
 			case TAG_OPENd:
 				throw new java.io.IOException("streamInValue tag " + tag);
@@ -736,6 +1433,25 @@ import com.franz.agbase.util.AGC;
 		return w;
 	}
 
+	static final int SMALL_LONG_MIN = -128;
+	static final int SMALL_LONG_MAX = 4095;
+	static final Long[] smallLongs = new Long[SMALL_LONG_MAX - SMALL_LONG_MIN + 1];
+	static {
+		for (int i = 0; i < smallLongs.length; i++)
+			smallLongs[i] = new Long(i + SMALL_LONG_MIN);
+	}
+	
+	/**
+	 * Box a long value, sharing one instance for each small value.
+	 * Op indices, counts, type codes and most flags come back as 
+	 * small integers.
+	 */
+	static Long boxLong ( long v ) {
+		if ( SMALL_LONG_MIN<=v && v<=SMALL_LONG_MAX )
+			return smallLongs[(int)v - SMALL_LONG_MIN];
+		return new Long(v);
+	}
+
 	Object portInSequence() throws java.io.IOException {
 		return portInSequence(streamInCode());
 	}
@@ -753,18 +1469,19 @@ import com.franz.agbase.util.AGC;
 	}
 	
 	int portInDupRep ( int next, int i, Object w, String from ) throws IOException {
+		// System.arraycopy copies primitive elements without boxing them.
 		if ( next==TAG_DUP )
 		{
 			int j = (int)portInLong();
-			Array.set(w, i, Array.get(w, i-j));
+			System.arraycopy(w, i-j, w, i, 1);
 			return i+1;
 		}
 		if ( next==TAG_REP )
 		{
 			int j = (int)portInLong();
 			int n = (int)portInLong();
-			Object v = Array.get(w, i-j);
-			for (int k = 0; k < n; k++) Array.set(w, i++, v);
+			int from0 = i-j;
+			for (int k = 0; k < n; k++) System.arraycopy(w, from0, w, i++, 1);
 			return i;
 		}
 		throw new java.io.IOException(from + " subtag " + next);
@@ -911,6 +1628,41 @@ import com.franz.agbase.util.AGC;
 	}
 	
 		
+	/**
+	 * Decode a sequence of UPIs straight into the arrays of a UPIBlock,
+	 * without a UPIImpl instance for each element.
+	 */
+	UPIBlock portInUPIBlock ( int len ) throws IOException {
+		UPIBlock b = new UPIBlock(len);
+		byte[] bodies = b.bodies();
+		for ( int i=0; i < len; ) {
+			int next = portIn_8();
+			if ( next==TAG_DUP ) 
+			{
+				int j = (int)portInLong();
+				b.copy(i-j, i);
+				i++;
+			}
+			else if ( next==TAG_REP )
+			{
+				int j = (int)portInLong();
+				int n = (int)portInLong();
+				int from = i-j;
+				for (int k = 0; k < n; k++) b.copy(from, i++);
+			}
+			else if ( next==TAG_NULL )
+				i++;
+			else if ( next==TAG_UPI )
+			{
+				portInUPIBytes(bodies, i*UPI_WIDTH);
+				b.setBody(i++);
+			}
+			else
+				b.setCode(i++, portInLong(next));
+		}		
+		return b;
+	}
+	
 	Object portInSeqBody ( int tag, int len, int sub ) throws java.io.IOException {
 //		 override in AGDirectLinkDebug
 		if (tag != TAG_SEQ)
@@ -924,6 +1676,7 @@ import com.franz.agbase.util.AGC;
 			case TAG_BYTE:
 				return portInSeqByte(len);
 			case TAG_UPI:
+				if (decodeBlocks) return portInUPIBlock(len);
 				return portInSeqUPI(len);
 			case TAG_SHORT:
 				return portInSeqShort(len);
@@ -982,27 +1735,46 @@ import com.franz.agbase.util.AGC;
 	}
 	Object[] portInOp(int tag) throws java.io.IOException {
 		// override in AGDirectLinkDebug
+		Object[] w = portInReply(tag);
+		long opix = ((Long) w[1]).longValue();
+		if (opix < 0)
+			throw new IllegalArgumentException(replyErrorString(w));
+		return w;
+	}
+
+	/**
+	 * Read one complete reply without checking for a server error.
+	 * @return the array {op_name, op-seq-num, value0, value1, ...}
+	 */
+	Object[] portInReply(int tag) throws java.io.IOException {
 		if (tag != TAG_OP)
 			throw new java.io.IOException("portInOp tag " + tag);
-		CharSequence op = portInString();
+		CharSequence op = portInOpName();
 		long opix = portInLong();
 		int len = (int) portInLong();
 		Object[] w = new Object[len + 2];
 		w[0] = op;
-		w[1] = new Long(opix);
-		for (int i = 0; i < len; i++)
-			w[i + 2] = streamInValue();
+		w[1] = boxLong(opix);
+		decodeBlocks = isBlockReply(opix);
+		try {
+			for (int i = 0; i < len; i++)
+				w[i + 2] = streamInValue();
+		} finally {
+			decodeBlocks = false;
+		}
+		return w;
+	}
+
+	static String replyErrorString(Object[] w) {
 		String s1 = "Unknown";
 		String s2 = "Unknown";
-		if (len > 0)
+		if (w.length > 2)
 			s1 = stringValue(w[2]);
-		if (len > 1)
+		if (w.length > 3)
 			s2 = stringValue(w[3]);
-		if (opix < 0)
-			throw new IllegalArgumentException("Operation " + op + "["
-					+ (-opix) + "] signalled an error in server: " + s1
-					+ " -- " + s2);
-		return w;
+		long opix = ((Long) w[1]).longValue();
+		return "Operation " + w[0] + "[" + (-opix)
+				+ "] signalled an error in server: " + s1 + " -- " + s2;
 	}
 	
 	/**
@@ -1015,11 +1787,11 @@ import com.franz.agbase.util.AGC;
 		// override in AGDirectLinkDebug ???
 		if (tag != TAG_OP)
 			throw new java.io.IOException("portInOp tag " + tag);
-		CharSequence op = portInString();
+		CharSequence op = portInOpName();
 		long opix = portInLong();
 		int len = (int) portInLong();
 		Object[] rr = new Object[len];
-		Object[] ww = new Object[] { op, new Long(opix), rr };
+		Object[] ww = new Object[] { op, boxLong(opix), rr };
 		for (int i = 0; i < len; i++)
 			rr[i] = streamInValue();
 		if (opix < 0)
@@ -1046,6 +1818,7 @@ import com.franz.agbase.util.AGC;
 		} catch (java.io.IOException e) {
 			res = ERR_PORT_IO;
 		}
+		bytesIn++;
 		if (res < 0)
 			throwIOErr("portIn", res);
 		return res;
@@ -1081,6 +1854,15 @@ import com.franz.agbase.util.AGC;
 		}
 		return u;
 	}
+	
+	/**
+	 * Read the bytes of a UPI, after its tag, into an array.
+	 */
+	void portInUPIBytes ( byte[] into, int at ) throws IOException {
+		for (int i = 0; i < UPI_WIDTH; i++) {
+			into[at + i] = (byte) portIn_8();
+		}
+	}
 
 	int portOutInteger(long x) {
 		// override in AGDirectLinkDebug
@@ -1224,11 +2006,50 @@ import com.franz.agbase.util.AGC;
 	//		return v;
 	//	}
 
+	/**
+	 * Scratch space for portInString.  Only one thread decodes a reply
+	 * at any time.
+	 */
+	char[] chars = new char[64];
+	
+	/**
+	 * The most recent op name in a reply header.
+	 */
+	String lastOp = "";
+
 	CharSequence portInString(int tag) throws java.io.IOException {
 		// override in AGDirectLinkDebug
-		StringBuffer v;
-		int len;
 		if ( tag==TAG_NULL ) return null;
+		int len = portInChars(tag);
+		if ( len==0 ) return "";
+		return new String(chars, 0, len);
+	}
+	
+	/**
+	 * Decode the characters of a string into the chars array.
+	 * @return the length of the string.
+	 */
+	int portInChars(int tag) throws java.io.IOException {
+		if (tag != TAG_PSTR)
+			return portInChars(tag, 0);
+		AGPrefixTable pt = prefixes;
+		int id = (int) portInLong();
+		if ( pt==null || id<0 || !(id<pt.size()) )
+			throw new java.io.IOException("portInString prefix " + id);
+		String p = pt.get(id);
+		int at = p.length();
+		if ( chars.length<at ) chars = new char[Math.max(at, 2*chars.length)];
+		p.getChars(0, at, chars, 0);
+		return portInChars(streamInCode(), at);
+	}
+
+	/**
+	 * Decode the characters of a string into the chars array
+	 * after the first at characters.
+	 * @return the length of the string including the first at characters.
+	 */
+	int portInChars(int tag, int at) throws java.io.IOException {
+		int len;
 		if (tag < TAG_LSTR)
 			throw new java.io.IOException("portInString tag " + tag);
 		if (tag == TAG_LSTR) {
@@ -1238,25 +2059,49 @@ import com.franz.agbase.util.AGC;
 			len = tag - TAG_SSTR_START;
 		} else
 			throw new java.io.IOException("portInString tag " + tag);
-		v = new StringBuffer(len);
+		if ( chars.length<(at + len) ) {
+			char[] c = new char[Math.max(at + len, 2*chars.length)];
+			System.arraycopy(chars, 0, c, 0, at);
+			chars = c;
+		}
+		char[] v = chars;
 		int run = 0;
 		char runChar = 0;
-		for (int i = 0; i < len; i++) {
+		for (int i = at; i < at + len; i++) {
 			if (run == 0) {
 				int x = streamInCode();
 				if (x == TAG_FRAG) {
 					run = (int) portInLong();
 					runChar = (char) portInLong();
-					v.append(runChar);
+					v[i] = runChar;
 					run--;
 				} else
-					v.append((char) portInLong(x));
+					v[i] = (char) portInLong(x);
 			} else {
-				v.append(runChar);
+				v[i] = runChar;
 				run--;
 			}
 		}
-		return new String(v);
+		return at + len;
+	}
+	
+	/**
+	 * Read the op name of a reply header.  Replies usually repeat the
+	 * name of the previous reply, so the previous String is reused.
+	 */
+	CharSequence portInOpName() throws java.io.IOException {
+		int tag = streamInCode();
+		if ( tag==TAG_NULL ) return null;
+		int len = portInChars(tag);
+		String op = lastOp;
+		if ( len==op.length() ) {
+			int i = 0;
+			while ( i<len && chars[i]==op.charAt(i) ) i++;
+			if ( i==len ) return op;
+		}
+		op = new String(chars, 0, len);
+		lastOp = op;
+		return op;
 	}
 
 	double portInDouble() throws java.io.IOException {
@@ -1325,6 +2170,7 @@ import com.franz.agbase.util.AGC;
 
 	int portFlush() {
 		// override in AGDirectLinkDebug
+		bytesOut += endpos;
 		if (endpos > 0)
 			try {
 				outStream.write(buffer, 0, endpos);
@@ -1336,10 +2182,25 @@ import com.franz.agbase.util.AGC;
 		return 0;
 	}
 
+	/**
+	 * Write out a full buffer in the middle of a message without flushing
+	 * the stream, so that a compressed link sends the message in one frame.
+	 */
+	int portSpill() {
+		bytesOut += endpos;
+		try {
+			outStream.write(buffer, 0, endpos);
+		} catch (Exception e) {
+			return ERR_FLUSH_IO;
+		}
+		endpos = 0;
+		return 0;
+	}
+
 	int portReserveSpace(int size) {
 		int rc = 0;
 		if ((endpos + size) > buffer.length)
-			rc = portFlush();
+			rc = (framer == null) ? portFlush() : portSpill();
 		if (rc < 0)
 			return rc;
 		return endpos + size;
@@ -1543,8 +2404,35 @@ import com.franz.agbase.util.AGC;
 	int portOut(CharSequence x) {
 		// override in AGDirectLinkDebug
 		if ( x==null ) return portOutNull();
+		OpCall call = writing;
+		if ( call!=null && call.nameNext ) {
+			// The first argument of a :call op names the function.
+			call.nameNext = false;
+			call.key = x.toString();
+		}
+		AGPrefixTable pt = prefixes;
+		if ( pt!=null && !(x.length()<PSTR_MIN) ) {
+			int id = pt.find(x);
+			if ( id>-1 ) {
+				int rc = portReserveSpace(1);
+				if (rc < 0)
+					return rc;
+				bufferOut_8(TAG_PSTR);
+				rc = portOutInteger(id);
+				if (rc < 0)
+					return rc;
+				return portOutChars(x, pt.get(id).length());
+			}
+		}
+		return portOutChars(x, 0);
+	}
+
+	/**
+	 * Send the characters of a string from a starting index.
+	 */
+	int portOutChars(CharSequence x, int from) {
 		int rc;
-		int len = x.length();
+		int len = x.length() - from;
 		if (len < TAG_SSTR_MAX) {
 			// Short string - TAG_SSTR_START + length
 
@@ -1552,7 +2440,7 @@ import com.franz.agbase.util.AGC;
 			if (rc < 0)
 				return rc;
 			bufferOut_8(TAG_SSTR_START + len);
-			for (int i = 0; i < len; i++)
+			for (int i = from; i < from + len; i++)
 				//JAVA5 portOutInteger(x.codePointAt(i));
 				portOutInteger(x.charAt(i));
 		} else {
@@ -1567,7 +2455,7 @@ import com.franz.agbase.util.AGC;
 				return rc;
 			int run = 0;
 			int runChar = 0;
-			for (int i = 0; i < len; i++) {
+			for (int i = from; i < from + len; i++) {
 				//JAVA5 int c = x.codePointAt(i);
 				int c = x.charAt(i);
 				if (run == 0) {
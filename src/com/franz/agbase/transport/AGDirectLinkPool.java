@@ -0,0 +1,232 @@
+//***** BEGIN LICENSE BLOCK *****
+//Version: MPL 1.1
+//
+//The contents of this file are subject to the Mozilla Public License Version
+//1.1 (the "License"); you may not use this file except in compliance with
+//the License. You may obtain a copy of the License at
+//http://www.mozilla.org/MPL/
+//
+//Software distributed under the License is distributed on an "AS IS" basis,
+//WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+//for the specific language governing rights and limitations under the
+//License.
+//
+//The Original Code is the AllegroGraph Java Client interface.
+//
+//The Original Code was written by Franz Inc.
+//Copyright (C) 2006 Franz Inc.  All Rights Reserved.
+//
+//***** END LICENSE BLOCK *****
+
+package com.franz.agbase.transport;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * A pool of extra server links for one AGDirectConnector.
+ * <p>
+ * A triple store handle lives in the server session of the link
+ * where it was opened, so a link is leased for the lifetime of a store
+ * and not for a single call.  When every link is in use,
+ * new stores share the link with the fewest stores.
+ * <p>
+ * A link that has been idle for longer than validateInterval
+ * is checked with an OP_VERIFY call before it is leased again.
+ * Idle links above the minimum count are closed after idleTimeout.
+ */
+class AGDirectLinkPool {
+
+	/**
+	 * Idle time in milliseconds after which a link is verified
+	 * before it is leased again.
+	 */
+	static long validateInterval = 5000;
+
+	static class Entry {
+		final AGDirectLink link;
+		int stores = 0;
+		long idleSince = System.currentTimeMillis();
+		Entry ( AGDirectLink link ) { this.link = link; }
+	}
+
+	final AGDirectConnector owner;
+	final int minLinks;
+	final int maxLinks;
+	final long idleTimeout;
+
+	private final ArrayList<Entry> links = new ArrayList<Entry>();
+	private int opening = 0;
+	private boolean closed = false;
+	private Timer evictor = null;
+
+	AGDirectLinkPool ( AGDirectConnector owner, int minLinks, int maxLinks, long idleTimeout ) {
+		if ( maxLinks<1 || minLinks<0 || minLinks>maxLinks )
+			throw new IllegalArgumentException
+				("Bad pool size " + minLinks + ".." + maxLinks);
+		this.owner = owner;
+		this.minLinks = minLinks;
+		this.maxLinks = maxLinks;
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * Open the minimum number of links and start the idle link evictor.
+	 * @throws IOException
+	 */
+	void start() throws IOException {
+		for (int i = 0; i < minLinks; i++) {
+			Entry e = new Entry(owner.openLink());
+			synchronized ( this ) { links.add(e); }
+		}
+		if ( idleTimeout>0 ) {
+			long period = Math.max(idleTimeout/2, 100);
+			evictor = new Timer("AGDirectLink pool evictor", true);
+			evictor.schedule(new TimerTask() {
+				public void run() { evictIdle(); }
+			}, period, period);
+		}
+	}
+
+	/**
+	 * Lease a link for one triple store.
+	 * @return an idle link, a new link, or a shared link if the pool is full.
+	 * @throws IOException if a new link cannot be opened.
+	 */
+	AGDirectLink lease() throws IOException {
+		Entry e = null;
+		synchronized ( this ) {
+			if ( closed ) throw new IOException("Link pool is closed.");
+			for (Entry x : links)
+				if ( x.stores==0 ) { e = x;  break; }
+			if ( e==null ) {
+				if ( (links.size()+opening)<maxLinks )
+					opening++;
+				else {
+					for (Entry x : links)
+						if ( e==null || x.stores<e.stores ) e = x;
+					if ( e==null )
+						throw new IOException("Link pool is empty.");
+					e.stores++;
+					return e.link;
+				}
+			}
+			else
+				e.stores++;
+		}
+		if ( e!=null ) {
+			if ( (System.currentTimeMillis()-e.idleSince)<validateInterval
+					|| validate(e.link) )
+				return e.link;
+			discard(e);
+			return lease();
+		}
+		AGDirectLink link = null;
+		try {
+			link = owner.openLink();
+		} finally {
+			synchronized ( this ) {
+				opening--;
+				if ( link!=null ) {
+					e = new Entry(link);
+					e.stores = 1;
+					links.add(e);
+				}
+			}
+		}
+		return link;
+	}
+
+	/**
+	 * Return a link leased for a triple store that is now closed.
+	 * @param link
+	 */
+	synchronized void release ( AGDirectLink link ) {
+		for (Entry e : links)
+			if ( e.link==link ) {
+				if ( e.stores>0 ) e.stores--;
+				if ( e.stores==0 ) e.idleSince = System.currentTimeMillis();
+				return;
+			}
+	}
+
+	/**
+	 * Add a store to a link already leased for another store
+	 * in the same server session.
+	 * @param link
+	 */
+	synchronized void share ( AGDirectLink link ) {
+		for (Entry e : links)
+			if ( e.link==link ) { e.stores++;  return; }
+	}
+
+	/**
+	 * Close links that have been idle longer than idleTimeout,
+	 * but keep at least minLinks links open.
+	 */
+	void evictIdle() {
+		ArrayList<Entry> old = new ArrayList<Entry>();
+		synchronized ( this ) {
+			long now = System.currentTimeMillis();
+			for (int i = links.size()-1; i>-1 && (links.size()>minLinks); i--) {
+				Entry e = links.get(i);
+				if ( e.stores==0 && (now-e.idleSince)>=idleTimeout ) {
+					links.remove(i);
+					old.add(e);
+				}
+			}
+		}
+		for (Entry e : old) disconnect(e.link);
+	}
+
+	synchronized boolean isBusy() {
+		for (Entry e : links)
+			if ( e.link.isBusy() ) return true;
+		return false;
+	}
+
+	synchronized int size() { return links.size(); }
+	
+	synchronized void setMetrics ( AGLinkMetrics m ) {
+		for (Entry e : links) e.link.metrics = m;
+	}
+
+	/**
+	 * Close every link in the pool.
+	 */
+	void close() {
+		Entry[] all;
+		synchronized ( this ) {
+			closed = true;
+			if ( evictor!=null ) evictor.cancel();
+			evictor = null;
+			all = links.toArray(new Entry[links.size()]);
+			links.clear();
+		}
+		for (Entry e : all) disconnect(e.link);
+	}
+
+	static boolean validate ( AGDirectLink link ) {
+		try {
+			return link.query();
+		} catch (IOException e) {
+			return false;
+		} catch (RuntimeException e) {
+			return false;
+		}
+	}
+
+	private void discard ( Entry e ) {
+		synchronized ( this ) { links.remove(e); }
+		disconnect(e.link);
+	}
+
+	static void disconnect ( AGDirectLink link ) {
+		try {
+			link.disconnect();
+		} catch (IOException e) {}
+	}
+
+}
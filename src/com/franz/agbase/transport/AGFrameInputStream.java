@@ -0,0 +1,136 @@
+//***** BEGIN LICENSE BLOCK *****
+//Version: MPL 1.1
+//
+//The contents of this file are subject to the Mozilla Public License Version
+//1.1 (the "License"); you may not use this file except in compliance with
+//the License. You may obtain a copy of the License at
+//http://www.mozilla.org/MPL/
+//
+//Software distributed under the License is distributed on an "AS IS" basis,
+//WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+//for the specific language governing rights and limitations under the
+//License.
+//
+//The Original Code is the AllegroGraph Java Client interface.
+//
+//The Original Code was written by Franz Inc.
+//Copyright (C) 2006 Franz Inc.  All Rights Reserved.
+//
+//***** END LICENSE BLOCK *****
+
+package com.franz.agbase.transport;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * The receiving side of a compressed link.
+ * The frame format is described in AGFrameOutputStream.  The deflate
+ * frames are inflated as one stream, since each frame may refer to the
+ * data of the frames before it.
+ */
+class AGFrameInputStream extends FilterInputStream {
+
+	private final Inflater inflater = new Inflater();
+	private byte[] packed = new byte[0];
+	private byte[] frame = new byte[0];
+	private int pos = 0;
+	private int limit = 0;
+	private final byte[] header = new byte[8];
+
+	AGFrameInputStream ( InputStream in ) {
+		super(in);
+	}
+
+	public int read () throws IOException {
+		while ( !(pos<limit) )
+			if ( !nextFrame() ) return -1;
+		return 0xff & frame[pos++];
+	}
+
+	public int read ( byte[] b, int off, int len ) throws IOException {
+		if ( len==0 ) return 0;
+		while ( !(pos<limit) )
+			if ( !nextFrame() ) return -1;
+		int n = Math.min(len, limit-pos);
+		System.arraycopy(frame, pos, b, off, n);
+		pos += n;
+		return n;
+	}
+
+	public int available () throws IOException {
+		if ( pos<limit ) return limit-pos;
+		// Any bytes in the stream are the start of a frame.
+		return (0<in.available())?1:0;
+	}
+
+	public long skip ( long n ) throws IOException {
+		long done = 0;
+		while ( done<n && read()>-1 ) done++;
+		return done;
+	}
+
+	public boolean markSupported () { return false; }
+
+	public void close () throws IOException {
+		inflater.end();
+		super.close();
+	}
+
+	private boolean nextFrame () throws IOException {
+		int kind = in.read();
+		if ( kind<0 ) return false;
+		readFully(header, 0, 4);
+		int length = getInt(header, 0);
+		switch ( kind ) {
+		case AGFrameOutputStream.FRAME_RAW:
+			if ( frame.length<length ) frame = new byte[length];
+			readFully(frame, 0, length);
+			limit = length;
+			break;
+		case AGFrameOutputStream.FRAME_DEFLATE:
+			readFully(header, 4, 4);
+			int size = getInt(header, 4);
+			if ( packed.length<length ) packed = new byte[length];
+			if ( frame.length<size ) frame = new byte[size];
+			readFully(packed, 0, length);
+			inflater.setInput(packed, 0, length);
+			try {
+				limit = 0;
+				while ( limit<size ) {
+					int n = inflater.inflate(frame, limit, size-limit);
+					if ( n==0 && (inflater.finished() || inflater.needsInput()) ) break;
+					limit += n;
+				}
+			} catch (DataFormatException e) {
+				throw new IOException("Bad compressed frame: " + e.getMessage());
+			}
+			if ( limit!=size )
+				throw new IOException("Bad compressed frame: expected " + size
+						+ " bytes, inflated " + limit);
+			break;
+		default:
+			throw new IOException("Unknown frame kind " + kind);
+		}
+		pos = 0;
+		return true;
+	}
+
+	private void readFully ( byte[] b, int off, int len ) throws IOException {
+		while ( len>0 ) {
+			int n = in.read(b, off, len);
+			if ( n<0 ) throw new EOFException("End of file in frame");
+			off += n;  len -= n;
+		}
+	}
+
+	static int getInt ( byte[] b, int at ) {
+		return (0xff & b[at]) | ((0xff & b[at+1])<<8)
+			| ((0xff & b[at+2])<<16) | ((0xff & b[at+3])<<24);
+	}
+
+}
@@ -0,0 +1,147 @@
+//***** BEGIN LICENSE BLOCK *****
+//Version: MPL 1.1
+//
+//The contents of this file are subject to the Mozilla Public License Version
+//1.1 (the "License"); you may not use this file except in compliance with
+//the License. You may obtain a copy of the License at
+//http://www.mozilla.org/MPL/
+//
+//Software distributed under the License is distributed on an "AS IS" basis,
+//WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+//for the specific language governing rights and limitations under the
+//License.
+//
+//The Original Code is the AllegroGraph Java Client interface.
+//
+//The Original Code was written by Franz Inc.
+//Copyright (C) 2006 Franz Inc.  All Rights Reserved.
+//
+//***** END LICENSE BLOCK *****
+
+package com.franz.agbase.transport;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+import com.franz.agbase.util.AGC;
+
+/**
+ * The sending side of a compressed link.
+ * <p>
+ * The data written between two flush calls is sent as one frame:
+ * <pre>
+ *   [kind] [length: 4 bytes] [data]                     kind=FRAME_RAW
+ *   [kind] [length: 4 bytes] [size: 4 bytes] [data]     kind=FRAME_DEFLATE
+ * </pre>
+ * where length is the number of data bytes, size is the number of bytes
+ * after inflation, and all integers are sent low byte first like the
+ * integers of the link protocol.  The link flushes at the end of each
+ * message, so a frame normally holds one message; longer data is cut
+ * into frames of MAX_FRAME bytes.
+ * <p>
+ * The deflate frames of a link are the pieces of one deflate stream,
+ * each ended with a sync flush, so every frame is compressed with the
+ * data of the frames before it as the dictionary.  Frames shorter than
+ * the threshold are sent raw and are not part of the deflate stream.
+ */
+class AGFrameOutputStream extends FilterOutputStream {
+
+	static final int FRAME_RAW = 0;
+	static final int FRAME_DEFLATE = 1;
+
+	static final int MAX_FRAME = 0x10000;
+
+	final int threshold;
+	private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+	private byte[] data = new byte[AGC.DEFAULT_BUFFER_SIZE];
+	private int count = 0;
+	private byte[] packed = new byte[AGC.DEFAULT_BUFFER_SIZE];
+	private final byte[] header = new byte[9];
+
+	long rawBytes = 0;
+	long wireBytes = 0;
+
+	AGFrameOutputStream ( OutputStream out, int threshold ) {
+		super(out);
+		this.threshold = threshold;
+	}
+
+	public void write ( int b ) throws IOException {
+		if ( count==MAX_FRAME ) frame();
+		if ( count==data.length ) grow(1);
+		data[count++] = (byte)b;
+	}
+
+	public void write ( byte[] b, int off, int len ) throws IOException {
+		while ( len>0 ) {
+			if ( count==MAX_FRAME ) frame();
+			int n = Math.min(len, MAX_FRAME-count);
+			if ( data.length<count+n ) grow(n);
+			System.arraycopy(b, off, data, count, n);
+			count += n;  off += n;  len -= n;
+		}
+	}
+
+	/**
+	 * Send the data written since the last flush as a frame.
+	 */
+	public void flush () throws IOException {
+		if ( count>0 ) frame();
+		out.flush();
+	}
+
+	public void close () throws IOException {
+		deflater.end();
+		super.close();
+	}
+
+	private void grow ( int n ) {
+		byte[] b = new byte[Math.min(MAX_FRAME, Math.max(2*data.length, count+n))];
+		System.arraycopy(data, 0, b, 0, count);
+		data = b;
+	}
+
+	private void frame () throws IOException {
+		int len = count;
+		count = 0;
+		rawBytes += len;
+		if ( len<threshold ) {
+			header[0] = FRAME_RAW;
+			putInt(header, 1, len);
+			out.write(header, 0, 5);
+			out.write(data, 0, len);
+			wireBytes += 5 + len;
+			return;
+		}
+		deflater.setInput(data, 0, len);
+		int n = 0;
+		while ( true ) {
+			if ( packed.length-n<64 ) {
+				byte[] b = new byte[2*packed.length];
+				System.arraycopy(packed, 0, b, 0, n);
+				packed = b;
+			}
+			int room = packed.length - n;
+			int k = deflater.deflate(packed, n, room, Deflater.SYNC_FLUSH);
+			n += k;
+			// A sync flush is complete when it leaves room in the buffer.
+			if ( k<room ) break;
+		}
+		header[0] = FRAME_DEFLATE;
+		putInt(header, 1, n);
+		putInt(header, 5, len);
+		out.write(header, 0, 9);
+		out.write(packed, 0, n);
+		wireBytes += 9 + n;
+	}
+
+	static void putInt ( byte[] b, int at, int v ) {
+		b[at] = (byte)v;
+		b[at+1] = (byte)(v>>8);
+		b[at+2] = (byte)(v>>16);
+		b[at+3] = (byte)(v>>24);
+	}
+
+}
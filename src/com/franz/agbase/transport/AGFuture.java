@@ -0,0 +1,263 @@
+//***** BEGIN LICENSE BLOCK *****
+//Version: MPL 1.1
+//
+//The contents of this file are subject to the Mozilla Public License Version
+//1.1 (the "License"); you may not use this file except in compliance with
+//the License. You may obtain a copy of the License at
+//http://www.mozilla.org/MPL/
+//
+//Software distributed under the License is distributed on an "AS IS" basis,
+//WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+//for the specific language governing rights and limitations under the
+//License.
+//
+//The Original Code is the AllegroGraph Java Client interface.
+//
+//The Original Code was written by Franz Inc.
+//Copyright (C) 2006 Franz Inc.  All Rights Reserved.
+//
+//***** END LICENSE BLOCK *****
+
+package com.franz.agbase.transport;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.franz.agbase.AllegroGraphException;
+
+/**
+ * The pending result of an asynchronous call to the AllegroGraph server.
+ * <p>
+ * On a pipelined connection the request is written before the async
+ * method returns, and the future is completed by the thread that reads
+ * replies.  On other connections the call is made synchronously and
+ * the future is already done when it is returned.
+ * <p>
+ * Callbacks run in the thread that completes the future, and an
+ * exception thrown by a callback is ignored.  A callback
+ * must not make a blocking call on the same connection, since
+ * that thread is needed to deliver the reply.  A conversion that
+ * may use the connection is added with thenApart().
+ *
+ * @param <T> the type of the result
+ */
+public class AGFuture<T> implements Future<T> {
+
+	/**
+	 * A callback run when an AGFuture is completed.
+	 */
+	public interface Callback<T> {
+		void completed ( T value );
+		void failed ( Throwable e );
+	}
+
+	/**
+	 * A conversion applied to the result of an AGFuture.
+	 */
+	public interface Function<A, R> {
+		R apply ( A value ) throws AllegroGraphException;
+	}
+
+	private boolean done = false;
+	private T value = null;
+	private Throwable failure = null;
+	private ArrayList<Callback<? super T>> callbacks = null;
+
+	/**
+	 * Create a future that is already completed.
+	 */
+	public static <T> AGFuture<T> done ( T value ) {
+		AGFuture<T> f = new AGFuture<T>();
+		f.complete(value);
+		return f;
+	}
+
+	/**
+	 * Create a future that has already failed.
+	 */
+	public static <T> AGFuture<T> failed ( Throwable e ) {
+		AGFuture<T> f = new AGFuture<T>();
+		f.fail(e);
+		return f;
+	}
+
+	void complete ( T v ) {
+		ArrayList<Callback<? super T>> cbs;
+		synchronized ( this ) {
+			if ( done ) return;
+			value = v;  done = true;
+			cbs = callbacks;  callbacks = null;
+			notifyAll();
+		}
+		if ( cbs!=null )
+			for (Callback<? super T> cb : cbs) run(cb, v, null);
+	}
+
+	void fail ( Throwable e ) {
+		ArrayList<Callback<? super T>> cbs;
+		synchronized ( this ) {
+			if ( done ) return;
+			failure = e;  done = true;
+			cbs = callbacks;  callbacks = null;
+			notifyAll();
+		}
+		if ( cbs!=null )
+			for (Callback<? super T> cb : cbs) run(cb, null, e);
+	}
+
+	/**
+	 * Run one callback from complete() or fail().  A callback that throws
+	 * must not stop the other callbacks, or the reply reader thread of a
+	 * pipelined link, so the exception is dropped.
+	 */
+	private static <T> void run ( Callback<? super T> cb, T v, Throwable e ) {
+		try {
+			if ( e==null ) cb.completed(v);
+			else cb.failed(e);
+		} catch (Throwable x) {}
+	}
+
+	/**
+	 * Add a callback.  If the future is already done, the callback
+	 * runs immediately in the calling thread.
+	 * @param cb
+	 */
+	public void addCallback ( Callback<? super T> cb ) {
+		synchronized ( this ) {
+			if ( !done ) {
+				if ( callbacks==null ) callbacks = new ArrayList<Callback<? super T>>();
+				callbacks.add(cb);
+				return;
+			}
+		}
+		if ( failure==null ) cb.completed(value);
+		else cb.failed(failure);
+	}
+
+	/**
+	 * Create a future for the converted result of this one.
+	 * The conversion runs in the thread that completes this future.
+	 * @param fn
+	 * @return a new future
+	 */
+	public <R> AGFuture<R> then ( final Function<? super T, R> fn ) {
+		final AGFuture<R> next = new AGFuture<R>();
+		addCallback(new Callback<T>() {
+			public void completed(T v) {
+				R r;
+				try {
+					r = fn.apply(v);
+				} catch (Throwable e) {
+					next.fail(e);
+					return;
+				}
+				next.complete(r);
+			}
+			public void failed(Throwable e) { next.fail(e); }
+		});
+		return next;
+	}
+
+	/**
+	 * The daemon threads that run the conversions of thenApart().
+	 */
+	private static final Executor apart = Executors.newCachedThreadPool(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "AllegroGraph async result");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	/**
+	 * Create a future for the converted result of this one.
+	 * The conversion runs in a pool thread, not in the thread that
+	 * completes this future, so it may use the connection.
+	 * Use this for conversions that build result objects, such as cursors.
+	 * @param fn
+	 * @return a new future
+	 */
+	public <R> AGFuture<R> thenApart ( final Function<? super T, R> fn ) {
+		final AGFuture<R> next = new AGFuture<R>();
+		addCallback(new Callback<T>() {
+			public void completed(final T v) {
+				apart.execute(new Runnable() {
+					public void run() {
+						R r;
+						try {
+							r = fn.apply(v);
+						} catch (Throwable e) {
+							next.fail(e);
+							return;
+						}
+						next.complete(r);
+					}
+				});
+			}
+			public void failed(Throwable e) { next.fail(e); }
+		});
+		return next;
+	}
+
+	/**
+	 * A server call cannot be withdrawn once it is sent.
+	 * @return false
+	 */
+	public boolean cancel ( boolean mayInterruptIfRunning ) {
+		return false;
+	}
+
+	public boolean isCancelled () {
+		return false;
+	}
+
+	public synchronized boolean isDone () {
+		return done;
+	}
+
+	public synchronized T get () throws InterruptedException, ExecutionException {
+		while ( !done ) wait();
+		if ( failure!=null ) throw new ExecutionException(failure);
+		return value;
+	}
+
+	public synchronized T get ( long timeout, TimeUnit unit )
+		throws InterruptedException, ExecutionException, TimeoutException {
+		long end = System.currentTimeMillis() + unit.toMillis(timeout);
+		while ( !done ) {
+			long w = end - System.currentTimeMillis();
+			if ( w<=0 ) throw new TimeoutException();
+			wait(w);
+		}
+		if ( failure!=null ) throw new ExecutionException(failure);
+		return value;
+	}
+
+	/**
+	 * Wait for the result with the exceptions of the synchronous API.
+	 * @return the result
+	 * @throws AllegroGraphException if the call failed in the server
+	 *    or in the connection.
+	 */
+	public synchronized T await () throws AllegroGraphException {
+		while ( !done )
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				throw new AllegroGraphException(e);
+			}
+		if ( failure==null ) return value;
+		if ( failure instanceof AllegroGraphException )
+			throw (AllegroGraphException)failure;
+		if ( failure instanceof RuntimeException )
+			throw (RuntimeException)failure;
+		throw new AllegroGraphException(failure);
+	}
+
+}
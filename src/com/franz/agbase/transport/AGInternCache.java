@@ -0,0 +1,122 @@
+//***** BEGIN LICENSE BLOCK *****
+//Version: MPL 1.1
+//
+//The contents of this file are subject to the Mozilla Public License Version
+//1.1 (the "License"); you may not use this file except in compliance with
+//the License. You may obtain a copy of the License at
+//http://www.mozilla.org/MPL/
+//
+//Software distributed under the License is distributed on an "AS IS" basis,
+//WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+//for the specific language governing rights and limitations under the
+//License.
+//
+//The Original Code is the AllegroGraph Java Client interface.
+//
+//The Original Code was written by Franz Inc.
+//Copyright (C) 2006 Franz Inc.  All Rights Reserved.
+//
+//***** END LICENSE BLOCK *****
+
+
+package com.franz.agbase.transport;
+
+import com.franz.agbase.impl.UPIImpl;
+import com.franz.agbase.util.AGBase;
+import com.franz.agbase.util.SegmentedCache;
+
+/**
+ * A cache of the UPIs of URIs and literals that were already added
+ * to a triple store through one connection.
+ * <p>
+ * A URI or literal in the cache is known to be in the string table of
+ * the store, so it does not need to be sent to the server again.
+ * Strings longer than the text limit are not cached.  The entries of a
+ * triple store are removed when the store is closed.  Entries are keyed
+ * by the triple store instance, not by its index, since two open stores
+ * of a pooled connection may share an index.
+ */
+public class AGInternCache extends SegmentedCache<AGInternCache.Key, UPIImpl> {
+
+	static final int RESOURCE = 1;
+	static final int LITERAL = 2;
+
+	/**
+	 * The store, kind, text, datatype and language of an interned node.
+	 * The datatype is a string, a UPI, or null.
+	 */
+	static final class Key {
+		final AGBase store;
+		final int kind;
+		final String text;
+		final Object type;
+		final String lang;
+		final int hash;
+		Key ( AGBase store, int kind, String text, Object type, String lang ) {
+			this.store = store;  this.kind = kind;  this.text = text;
+			this.type = type;  this.lang = lang;
+			int h = 31*System.identityHashCode(store) + kind;
+			h = 31*h + text.hashCode();
+			if ( type!=null ) h = 31*h + type.hashCode();
+			if ( lang!=null ) h = 31*h + lang.hashCode();
+			hash = h;
+		}
+		public int hashCode () { return hash; }
+		public boolean equals ( Object x ) {
+			if ( this==x ) return true;
+			if ( !(x instanceof Key) ) return false;
+			Key y = (Key) x;
+			return hash==y.hash && store==y.store && kind==y.kind && text.equals(y.text)
+				&& (type==null?y.type==null:type.equals(y.type))
+				&& (lang==null?y.lang==null:lang.equals(y.lang));
+		}
+	}
+
+	private final int maxText;
+
+	/**
+	 * Create a cache.
+	 * @param capacity the maximum number of entries.
+	 * @param maxText the longest URI or literal text that is cached.
+	 */
+	public AGInternCache ( int capacity, int maxText ) {
+		super(capacity);
+		this.maxText = maxText;
+	}
+
+	/**
+	 * Make the key of a node.
+	 * @return the key, or null if the node is not cached.
+	 */
+	Key key ( AGBase store, int kind, String text, Object type, String lang ) {
+		if ( text==null || text.length()>maxText ) return null;
+		if ( type!=null && !(type instanceof String || type instanceof UPIImpl) ) return null;
+		return new Key(store, kind, text, type, lang);
+	}
+
+	/**
+	 * Look up a node.
+	 * @param k a key, or null.
+	 * @return the UPI, or null if the node is not in the cache.
+	 */
+	UPIImpl get ( Key k ) { return lookup(k); }
+
+	/**
+	 * Add a node returned by the server.
+	 * @param k a key, or null.
+	 */
+	void put ( Key k, UPIImpl u ) {
+		if ( u!=null && u.withLabel() ) store(k, u);
+	}
+
+	protected Object ownerOf ( Key k, UPIImpl u ) { return k.store; }
+
+	/**
+	 * Remove the entries of one triple store.
+	 * @param store the triple store.
+	 */
+	void removeStore ( AGBase store ) { removeOwner(store); }
+
+	public int getMaxText () { return maxText; }
+
+}
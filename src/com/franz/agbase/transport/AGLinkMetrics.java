@@ -0,0 +1,54 @@
+//***** BEGIN LICENSE BLOCK *****
+//Version: MPL 1.1
+//
+//The contents of this file are subject to the Mozilla Public License Version
+//1.1 (the "License"); you may not use this file except in compliance with
+//the License. You may obtain a copy of the License at
+//http://www.mozilla.org/MPL/
+//
+//Software distributed under the License is distributed on an "AS IS" basis,
+//WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+//for the specific language governing rights and limitations under the
+//License.
+//
+//The Original Code is the AllegroGraph Java Client interface.
+//
+//The Original Code was written by Franz Inc.
+//Copyright (C) 2006 Franz Inc.  All Rights Reserved.
+//
+//***** END LICENSE BLOCK *****
+
+package com.franz.agbase.transport;
+
+/**
+ * Receives the cost of each operation sent on a server link.
+ * <p>
+ * Operations are named by the op string of the request, except that
+ * :call operations are named by the function they call.
+ * The methods are called in the threads that make the calls
+ * and in the reply reader threads of pipelined links, so they must be
+ * thread safe and fast.
+ * @see AGTransportMetrics
+ */
+public interface AGLinkMetrics {
+
+	/**
+	 * An operation was written to the link and its reply is expected.
+	 * @param op the operation name.
+	 */
+	void opSent ( String op );
+
+	/**
+	 * An operation finished.
+	 * @param op the operation name.
+	 * @param sent true if opSent() was called for this operation.
+	 * @param failed true if the operation failed in the link or in the server.
+	 * @param nanos the time from the start of the call to its end.
+	 * @param lockNanos the part of that time spent waiting for the link.
+	 * @param bytesOut the size of the request in bytes, before compression.
+	 * @param bytesIn the size of the reply in bytes, before decompression.
+	 */
+	void opDone ( String op, boolean sent, boolean failed, long nanos,
+			long lockNanos, long bytesOut, long bytesIn );
+
+}
@@ -0,0 +1,40 @@
+//***** BEGIN LICENSE BLOCK *****
+//Version: MPL 1.1
+//
+//The contents of this file are subject to the Mozilla Public License Version
+//1.1 (the "License"); you may not use this file except in compliance with
+//the License. You may obtain a copy of the License at
+//http://www.mozilla.org/MPL/
+//
+//Software distributed under the License is distributed on an "AS IS" basis,
+//WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+//for the specific language governing rights and limitations under the
+//License.
+//
+//The Original Code is the AllegroGraph Java Client interface.
+//
+//The Original Code was written by Franz Inc.
+//Copyright (C) 2006 Franz Inc.  All Rights Reserved.
+//
+//***** END LICENSE BLOCK *****
+
+package com.franz.agbase.transport;
+
+import java.io.IOException;
+
+/**
+ * Direct socket interface to AllegroGraph server through
+ * java.nio channels.
+ * <p>
+ * The server sees the same protocol as in direct mode.
+ * In debug mode, the connector uses the debugging stream link.
+ */
+public class AGNioConnector extends AGDirectConnector {
+
+	AGDirectLink newLink () throws IOException {
+		if ( debug>0 ) return super.newLink();
+		return new AGNioLink(host, port, pollCount, pollInterval, timeout,
+				sendWindow, receiveWindow);
+	}
+
+}
@@ -0,0 +1,272 @@
+//***** BEGIN LICENSE BLOCK *****
+//Version: MPL 1.1
+//
+//The contents of this file are subject to the Mozilla Public License Version
+//1.1 (the "License"); you may not use this file except in compliance with
+//the License. You may obtain a copy of the License at
+//http://www.mozilla.org/MPL/
+//
+//Software distributed under the License is distributed on an "AS IS" basis,
+//WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+//for the specific language governing rights and limitations under the
+//License.
+//
+//The Original Code is the AllegroGraph Java Client interface.
+//
+//The Original Code was written by Franz Inc.
+//Copyright (C) 2006 Franz Inc.  All Rights Reserved.
+//
+//***** END LICENSE BLOCK *****
+
+package com.franz.agbase.transport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.franz.agbase.impl.UPIImpl;
+import com.franz.agbase.util.AGC;
+
+/**
+ * A direct link that uses a SocketChannel and direct ByteBuffers.
+ * <p>
+ * The wire protocol is the same as in AGDirectLink.  Input is read
+ * from the channel into a large direct buffer, and integers, byte arrays
+ * and UPIs are decoded from the buffer in bulk instead of one
+ * stream read per byte.  Output is collected in a byte array as large
+ * as the send window and written to the channel through a direct buffer.
+ * <p>
+ * Direct buffers are expensive to allocate, so they are kept in a pool
+ * and reused by later links.
+ */
+class AGNioLink extends AGDirectLink {
+
+	static final int DEFAULT_WINDOW = 65536;
+
+	private static final ConcurrentLinkedQueue<ByteBuffer> bufferPool =
+		new ConcurrentLinkedQueue<ByteBuffer>();
+
+	static ByteBuffer takeBuffer ( int size ) {
+		for (ByteBuffer b = bufferPool.poll(); b!=null; b = bufferPool.poll()) {
+			if ( b.capacity()==size ) {
+				b.clear();
+				return b;
+			}
+		}
+		return ByteBuffer.allocateDirect(size);
+	}
+
+	static void giveBuffer ( ByteBuffer b ) {
+		if ( b!=null && bufferPool.size()<16 ) bufferPool.add(b);
+	}
+
+	SocketChannel channel;
+
+	/**
+	 * The receive buffer is always in read mode: the bytes between
+	 * position and limit have been read from the channel but not decoded.
+	 */
+	ByteBuffer in;
+
+	ByteBuffer out;
+
+	AGNioLink(String host, int port, int pollCount, int pollInterval, int timeout,
+			int sendWindow, int receiveWindow)
+	 	throws IOException
+	{
+		super();
+		if ( sendWindow<DEFAULT_BUFFER_SIZE ) sendWindow = DEFAULT_BUFFER_SIZE;
+		if ( receiveWindow<DEFAULT_BUFFER_SIZE ) receiveWindow = DEFAULT_BUFFER_SIZE;
+		this.timeout = timeout;
+		SocketChannel client = null;
+		Exception ee = null;
+		for (int i = 0; (client==null) && (i < pollCount); i++) {
+			SocketChannel testClient = null;
+			try {
+				if ( i>0 ) Thread.sleep(pollInterval);
+				testClient = SocketChannel.open();
+				testClient.socket().setReceiveBufferSize(receiveWindow);
+				testClient.socket().setSendBufferSize(sendWindow);
+				testClient.socket().connect(new InetSocketAddress(host, port), timeout);
+				client = testClient;
+			}
+			catch (IOException e) {
+				ee = e;
+				if ( testClient!=null ) testClient.close();
+			}
+			catch (InterruptedException e) {}
+		}
+		if ( client==null )
+		{
+			if ( ee==null )
+				throw new IOException("Failed to connect to server.");
+			throw new IOException(ee.toString());
+		}
+		client.socket().setTcpNoDelay(true);
+		channel = client;
+		socket = client.socket();
+
+		buffer = new byte[sendWindow];
+		out = takeBuffer(sendWindow);
+		in = takeBuffer(receiveWindow);
+
+		state = PORT_IDLE;
+		softLock = null;
+		int flag = timeout/10;  // wait for 10 times the timeout value
+		channel.configureBlocking(false);
+		in.clear();
+		while ( flag>0 )
+			try {
+			if ( 0>channel.read(in) ) flag = 0;
+			else if ( 0<in.position() ) flag = -1;
+			else {
+				Thread.sleep(100);
+				flag--;
+			}
+		} catch (InterruptedException e) {}
+		in.flip();
+		channel.configureBlocking(true);
+		if ( flag==0 ) {
+			close();
+			throw new java.io.IOException( "Connected but timed out.");
+		}
+		int reply = portIn_8();
+		switch ( reply ) {
+		case TAG_ENDER:
+			close();
+			throw new java.io.IOException( "Too many connections.");
+		case TAG_NULL:
+			close();
+			throw new java.io.IOException( "Connection rejected.");
+
+		default:
+			if ( reply==(TAG_START+AGC.AG_DIRECT_LEVEL) ) break;
+			close();
+			throw new java.io.IOException( "Unexpected initial reply " + reply);
+		}
+	}
+
+	private void close () throws IOException {
+		state = PORT_CLOSED;
+		channel.close();
+		giveBuffer(in);  in = null;
+		giveBuffer(out);  out = null;
+	}
+
+	boolean disconnect() throws IOException {
+		boolean r = super.disconnect();
+		// The reply reader may still be decoding from the input buffer,
+		// so only a link without one returns its buffers to the pool.
+		if ( r && reader==null ) {
+			giveBuffer(in);  in = null;
+			giveBuffer(out);  out = null;
+		}
+		return r;
+	}
+
+	/**
+	 * The channel is read and written directly, so a nio link
+	 * is never compressed.
+	 */
+	boolean startCompression ( int threshold ) {
+		return false;
+	}
+
+	/**
+	 * Make sure that at least n undecoded bytes are in the receive buffer.
+	 * @param n must not exceed the capacity of the buffer.
+	 * @throws IOException
+	 */
+	void fill ( int n ) throws IOException {
+		if ( in.remaining()>=n ) return;
+		in.compact();
+		try {
+			while ( in.position()<n ) {
+				int r = channel.read(in);
+				if ( 0>r )
+					throwIOErr("portIn", -1);
+				bytesIn += r;
+			}
+		} finally {
+			in.flip();
+		}
+	}
+
+	int portIn_8() throws IOException {
+		if ( !in.hasRemaining() ) fill(1);
+		return 0xff & in.get();
+	}
+
+	long portInLong(int tag) throws java.io.IOException {
+		if ((tag < TAG_INT_START) || !(tag < TAG_INT_END))
+			throw new java.io.IOException("portInLong tag " + tag);
+		int s = tag & (TAG_INT_MASK | TAG_SIGN_MASK);
+		boolean neg = false;
+		if (s < TAG_IMM_TOP)
+			return s;
+		if (s > (TAG_SIGN_MASK - 1)) {
+			neg = true;
+			s = s - TAG_SIGN_MASK;
+			if (s < TAG_IMM_TOP)
+				return ((-s) - 1);
+		}
+		int count = s - TAG_IMM_TOP + 1;
+		fill(count);
+		long v = 0;
+		for (int shift = 0; shift < 8*count; shift += 8)
+			v = v | ((0xffL & in.get()) << shift);
+		if (count == 1)
+			v = v + TAG_IMM_TOP;
+		if (neg)
+			v = (-v) - 1;
+		return v;
+	}
+
+	byte[] portInBytes ( int tag ) throws IOException {
+		if (tag != TAG_BYTES)
+			throw new java.io.IOException("portInOp tag " + tag);
+		byte[] b = new byte[(int)portInLong()];
+		int done = 0;
+		while ( done<b.length ) {
+			if ( !in.hasRemaining() ) fill(1);
+			int n = Math.min(in.remaining(), b.length-done);
+			in.get(b, done, n);
+			done += n;
+		}
+		return b;
+	}
+
+	UPIImpl portInUPI ( int tag ) throws IOException {
+		if (tag != TAG_UPI)
+			throw new java.io.IOException("portInOp tag " + tag);
+		fill(UPI_WIDTH);
+		UPIImpl u = new UPIImpl();
+		for (int i = 0; i < UPI_WIDTH; i++) {
+			u.addByte(in.get());
+		}
+		return u;
+	}
+
+	void portInUPIBytes ( byte[] into, int at ) throws IOException {
+		fill(UPI_WIDTH);
+		in.get(into, at, UPI_WIDTH);
+	}
+
+	int portFlush() {
+		bytesOut += endpos;
+		if (endpos > 0)
+			try {
+				out.clear();
+				out.put(buffer, 0, endpos);
+				out.flip();
+				while ( out.hasRemaining() ) channel.write(out);
+			} catch (Exception e) {
+				return ERR_FLUSH_IO;
+			}
+		endpos = 0;
+		return 0;
+	}
+
+}
@@ -0,0 +1,104 @@
+//***** BEGIN LICENSE BLOCK *****
+//Version: MPL 1.1
+//
+//The contents of this file are subject to the Mozilla Public License Version
+//1.1 (the "License"); you may not use this file except in compliance with
+//the License. You may obtain a copy of the License at
+//http://www.mozilla.org/MPL/
+//
+//Software distributed under the License is distributed on an "AS IS" basis,
+//WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+//for the specific language governing rights and limitations under the
+//License.
+//
+//The Original Code is the AllegroGraph Java Client interface.
+//
+//The Original Code was written by Franz Inc.
+//Copyright (C) 2006 Franz Inc.  All Rights Reserved.
+//
+//***** END LICENSE BLOCK *****
+
+
+package com.franz.agbase.transport;
+
+import com.franz.agbase.impl.UPIImpl;
+import com.franz.agbase.util.AGBase;
+import com.franz.agbase.util.SegmentedCache;
+
+/**
+ * A cache of the type, label and modifier of triple parts, shared by
+ * all the triple stores of one connection.
+ * <p>
+ * The cache is consulted before a part is requested from the server.
+ * Only parts identified by a full UPI are cached, and labels longer than
+ * the label limit are not cached.  Entries belong to the triple store
+ * instance that read them, since two open stores of a pooled connection
+ * may have the same store index, and they are removed when the store is
+ * closed.
+ */
+public class AGPartCache extends SegmentedCache<UPIImpl, AGPartCache.Entry> {
+
+	/**
+	 * The part details of one UPI.
+	 */
+	static class Entry {
+		final AGBase store;
+		final int type;
+		final String label;
+		final String mod;
+		Entry ( AGBase store, int type, String label, String mod ) {
+			this.store = store;  this.type = type;
+			this.label = label;  this.mod = mod;
+		}
+	}
+
+	private final int maxLabel;
+
+	/**
+	 * Create a cache.
+	 * @param capacity the maximum number of entries.
+	 * @param maxLabel the longest label and modifier that is cached.
+	 */
+	public AGPartCache ( int capacity, int maxLabel ) {
+		super(capacity);
+		this.maxLabel = maxLabel;
+	}
+
+	static boolean cacheable ( Object id ) {
+		return (id instanceof UPIImpl) && ((UPIImpl)id).withLabel();
+	}
+
+	/**
+	 * Look up a part.
+	 * @return the entry, or null if the part is not in the cache.
+	 */
+	Entry get ( AGBase store, Object id ) {
+		if ( !cacheable(id) ) return null;
+		Entry e = peek((UPIImpl)id);
+		if ( e!=null && e.store!=store ) e = null;
+		count(e!=null);
+		return e;
+	}
+
+	/**
+	 * Add a part received from the server.  Parts of unknown type
+	 * are not cached since they may be added to the store later.
+	 */
+	void put ( AGBase store, Object id, int type, String label, String mod ) {
+		if ( type<1 || !cacheable(id) ) return;
+		if ( label!=null && label.length()>maxLabel ) return;
+		if ( mod!=null && mod.length()>maxLabel ) return;
+		store((UPIImpl)id, new Entry(store, type, label, mod));
+	}
+
+	protected Object ownerOf ( UPIImpl id, Entry e ) { return e.store; }
+
+	/**
+	 * Remove the entries of one triple store.
+	 * @param store the triple store.
+	 */
+	void removeStore ( AGBase store ) { removeOwner(store); }
+
+	public int getMaxLabel () { return maxLabel; }
+
+}
@@ -0,0 +1,130 @@
+//***** BEGIN LICENSE BLOCK *****
+//Version: MPL 1.1
+//
+//The contents of this file are subject to the Mozilla Public License Version
+//1.1 (the "License"); you may not use this file except in compliance with
+//the License. You may obtain a copy of the License at
+//http://www.mozilla.org/MPL/
+//
+//Software distributed under the License is distributed on an "AS IS" basis,
+//WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+//for the specific language governing rights and limitations under the
+//License.
+//
+//The Original Code is the AllegroGraph Java Client interface.
+//
+//The Original Code was written by Franz Inc.
+//Copyright (C) 2006 Franz Inc.  All Rights Reserved.
+//
+//***** END LICENSE BLOCK *****
+
+package com.franz.agbase.transport;
+
+import java.util.ArrayList;
+
+/**
+ * A table of URI prefixes shared by the two ends of a link.
+ * <p>
+ * A string that starts with a prefix in the table is sent as the
+ * index of the prefix followed by the rest of the string.
+ * A prefix must end with '/', '#' or ':', and a string is matched only
+ * against its leading substrings that end at one of these characters.
+ * The table is not changed after it is made, so it can be used
+ * by any number of threads.
+ */
+class AGPrefixTable {
+
+	private final String[] prefixes;
+	private final int[] slots;
+	private final int mask;
+
+	/**
+	 * The length of the longest prefix.
+	 */
+	private final int longest;
+
+	AGPrefixTable ( String[] prefixes ) {
+		this.prefixes = prefixes;
+		int m = 0;
+		for (int i = 0; i < prefixes.length; i++) m = Math.max(m, prefixes[i].length());
+		longest = m;
+		int n = 16;
+		while ( n<2*prefixes.length ) n = 2*n;
+		slots = new int[n];
+		mask = n - 1;
+		for (int i = 0; i < n; i++) slots[i] = -1;
+		for (int i = 0; i < prefixes.length; i++) {
+			int s = prefixes[i].hashCode() & mask;
+			while ( slots[s]>-1 ) s = (s + 1) & mask;
+			slots[s] = i;
+		}
+	}
+
+	/**
+	 * Make a table from namespace definitions.  Every namespace URI is
+	 * added as it is and in the angle bracket form used in
+	 * Ntriples strings.
+	 * @param defs an array of alternating prefix and URI strings,
+	 *     as returned by NamespaceRegistry.toArray().
+	 * @return a table, or null if there are no suitable URIs.
+	 */
+	static AGPrefixTable fromNamespaces ( String[] defs ) {
+		if ( defs==null ) return null;
+		ArrayList<String> v = new ArrayList<String>();
+		for (int i = 1; i < defs.length; i += 2) {
+			String uri = defs[i];
+			if ( uri==null || uri.length()==0 || !isDelimiter(uri.charAt(uri.length()-1)) )
+				continue;
+			if ( !v.contains(uri) ) {
+				v.add(uri);
+				v.add("<" + uri);
+			}
+		}
+		if ( v.isEmpty() ) return null;
+		return new AGPrefixTable(v.toArray(new String[v.size()]));
+	}
+
+	static boolean isDelimiter ( char c ) {
+		return c=='/' || c=='#' || c==':';
+	}
+
+	int size () { return prefixes.length; }
+
+	String get ( int id ) { return prefixes[id]; }
+
+	String[] toArray () { return prefixes.clone(); }
+
+	/**
+	 * Find the longest prefix of a string.
+	 * @param s
+	 * @return the index of the prefix, or -1.
+	 */
+	int find ( CharSequence s ) {
+		// Compute String.hashCode() of each leading substring that ends
+		// at a delimiter, up to the length of the longest prefix, and
+		// look up every one; a later match is a longer prefix.
+		int found = -1;
+		int h = 0;
+		int end = Math.min(s.length() - 1, longest);
+		for (int i = 0; i < end; i++) {
+			char c = s.charAt(i);
+			h = 31*h + c;
+			if ( !isDelimiter(c) ) continue;
+			for (int sl = h & mask; slots[sl]>-1; sl = (sl + 1) & mask) {
+				String p = prefixes[slots[sl]];
+				if ( p.length()==i+1 && matches(p, s) ) {
+					found = slots[sl];
+					break;
+				}
+			}
+		}
+		return found;
+	}
+
+	private static boolean matches ( String p, CharSequence s ) {
+		for (int i = p.length() - 1; i>-1; i--)
+			if ( p.charAt(i)!=s.charAt(i) ) return false;
+		return true;
+	}
+
+}
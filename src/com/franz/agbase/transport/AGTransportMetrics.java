@@ -0,0 +1,259 @@
+//***** BEGIN LICENSE BLOCK *****
+//Version: MPL 1.1
+//
+//The contents of this file are subject to the Mozilla Public License Version
+//1.1 (the "License"); you may not use this file except in compliance with
+//the License. You may obtain a copy of the License at
+//http://www.mozilla.org/MPL/
+//
+//Software distributed under the License is distributed on an "AS IS" basis,
+//WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+//for the specific language governing rights and limitations under the
+//License.
+//
+//The Original Code is the AllegroGraph Java Client interface.
+//
+//The Original Code was written by Franz Inc.
+//Copyright (C) 2006 Franz Inc.  All Rights Reserved.
+//
+//***** END LICENSE BLOCK *****
+
+package com.franz.agbase.transport;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Transport statistics collected for each operation name:
+ * call and error counts, calls in flight, request and reply bytes,
+ * time spent waiting for the link, and a latency histogram.
+ * <p>
+ * The latency histogram has one bucket for each power of two
+ * microseconds, so percentiles are accurate to a factor of two.
+ * <p>
+ * Usage:
+ * <pre>
+ *   AGTransportMetrics m = new AGTransportMetrics();
+ *   m.register("main");
+ *   conn.setTransportMetrics(m);
+ * </pre>
+ */
+public class AGTransportMetrics implements AGLinkMetrics, AGTransportMetricsMBean {
+
+	static final int BUCKETS = 40;
+
+	static class OpStats {
+		final AtomicLong count = new AtomicLong();
+		final AtomicLong errors = new AtomicLong();
+		final AtomicLong inFlight = new AtomicLong();
+		final AtomicLong nanos = new AtomicLong();
+		final AtomicLong lockNanos = new AtomicLong();
+		final AtomicLong bytesOut = new AtomicLong();
+		final AtomicLong bytesIn = new AtomicLong();
+		final AtomicLongArray latency = new AtomicLongArray(BUCKETS);
+	}
+
+	private final ConcurrentHashMap<String, OpStats> ops =
+		new ConcurrentHashMap<String, OpStats>();
+
+	private ObjectName registered = null;
+
+	OpStats stats ( String op ) {
+		OpStats s = ops.get(op);
+		if ( s==null ) {
+			OpStats n = new OpStats();
+			s = ops.putIfAbsent(op, n);
+			if ( s==null ) s = n;
+		}
+		return s;
+	}
+
+	static int bucket ( long nanos ) {
+		long us = nanos/1000;
+		int b = 0;
+		while ( us>0 && b<BUCKETS-1 ) { us = us>>1;  b++; }
+		return b;
+	}
+
+	public void opSent ( String op ) {
+		stats(op).inFlight.incrementAndGet();
+	}
+
+	public void opDone ( String op, boolean sent, boolean failed, long nanos,
+			long lockNanos, long bytesOut, long bytesIn ) {
+		OpStats s = stats(op);
+		if ( sent ) s.inFlight.decrementAndGet();
+		s.count.incrementAndGet();
+		if ( failed ) s.errors.incrementAndGet();
+		s.nanos.addAndGet(nanos);
+		s.lockNanos.addAndGet(lockNanos);
+		s.bytesOut.addAndGet(bytesOut);
+		s.bytesIn.addAndGet(bytesIn);
+		s.latency.incrementAndGet(bucket(nanos));
+	}
+
+	/**
+	 * Register this instance with the platform MBean server.
+	 * @param name the value of the name key in the object name.
+	 * @return the object name
+	 *     com.franz.agbase:type=TransportMetrics,name=<i>name</i>
+	 * @throws JMException
+	 */
+	public synchronized ObjectName register ( String name ) throws JMException {
+		unregister();
+		ObjectName on = new ObjectName("com.franz.agbase:type=TransportMetrics,name="
+				+ ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+		registered = on;
+		return on;
+	}
+
+	/**
+	 * Remove this instance from the platform MBean server.
+	 */
+	public synchronized void unregister () throws JMException {
+		if ( registered==null ) return;
+		MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+		if ( mbs.isRegistered(registered) ) mbs.unregisterMBean(registered);
+		registered = null;
+	}
+
+	public String[] getOpNames () {
+		String[] v = ops.keySet().toArray(new String[0]);
+		Arrays.sort(v);
+		return v;
+	}
+
+	public long getCount () {
+		long n = 0;
+		for (OpStats s : ops.values()) n += s.count.get();
+		return n;
+	}
+
+	public long getErrors () {
+		long n = 0;
+		for (OpStats s : ops.values()) n += s.errors.get();
+		return n;
+	}
+
+	public long getInFlight () {
+		long n = 0;
+		for (OpStats s : ops.values()) n += s.inFlight.get();
+		return n;
+	}
+
+	public long getBytesOut () {
+		long n = 0;
+		for (OpStats s : ops.values()) n += s.bytesOut.get();
+		return n;
+	}
+
+	public long getBytesIn () {
+		long n = 0;
+		for (OpStats s : ops.values()) n += s.bytesIn.get();
+		return n;
+	}
+
+	public double getLockWaitMillis () {
+		long n = 0;
+		for (OpStats s : ops.values()) n += s.lockNanos.get();
+		return n/1e6;
+	}
+
+	public String[] getSummary () {
+		String[] names = getOpNames();
+		ArrayList<String> v = new ArrayList<String>();
+		for (String op : names) {
+			OpStats s = ops.get(op);
+			if ( s==null ) continue;
+			v.add(op + " count=" + s.count.get() + " errors=" + s.errors.get()
+					+ " inFlight=" + s.inFlight.get()
+					+ " mean=" + meanMillis(op) + "ms"
+					+ " p50=" + percentileMillis(op, 50) + "ms"
+					+ " p99=" + percentileMillis(op, 99) + "ms"
+					+ " lockWait=" + lockWaitMillis(op) + "ms"
+					+ " out=" + s.bytesOut.get() + " in=" + s.bytesIn.get());
+		}
+		return v.toArray(new String[v.size()]);
+	}
+
+	public long count ( String op ) {
+		OpStats s = ops.get(op);
+		return (s==null)?0:s.count.get();
+	}
+
+	public long errors ( String op ) {
+		OpStats s = ops.get(op);
+		return (s==null)?0:s.errors.get();
+	}
+
+	public long inFlight ( String op ) {
+		OpStats s = ops.get(op);
+		return (s==null)?0:s.inFlight.get();
+	}
+
+	public long bytesOut ( String op ) {
+		OpStats s = ops.get(op);
+		return (s==null)?0:s.bytesOut.get();
+	}
+
+	public long bytesIn ( String op ) {
+		OpStats s = ops.get(op);
+		return (s==null)?0:s.bytesIn.get();
+	}
+
+	public double meanMillis ( String op ) {
+		OpStats s = ops.get(op);
+		if ( s==null ) return 0;
+		long n = s.count.get();
+		return (n==0)?0:(s.nanos.get()/1e6/n);
+	}
+
+	/**
+	 * Estimate a latency percentile from the histogram.
+	 * @param op
+	 * @param p a percentage between 0 and 100.
+	 * @return the upper bound of the bucket that holds the percentile.
+	 */
+	public double percentileMillis ( String op, double p ) {
+		OpStats s = ops.get(op);
+		if ( s==null ) return 0;
+		long[] h = new long[BUCKETS];
+		long n = 0;
+		for (int i = 0; i < BUCKETS; i++) { h[i] = s.latency.get(i);  n += h[i]; }
+		if ( n==0 ) return 0;
+		long rank = (long)Math.ceil(n*p/100.0);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += h[i];
+			if ( seen>=rank && h[i]>0 ) return (1L<<i)/1000.0;
+		}
+		return (1L<<(BUCKETS-1))/1000.0;
+	}
+
+	public double lockWaitMillis ( String op ) {
+		OpStats s = ops.get(op);
+		return (s==null)?0:(s.lockNanos.get()/1e6);
+	}
+
+	/**
+	 * Discard all the statistics except the counts of calls in flight.
+	 */
+	public void reset () {
+		for (OpStats s : ops.values()) {
+			s.count.set(0);  s.errors.set(0);
+			s.nanos.set(0);  s.lockNanos.set(0);
+			s.bytesOut.set(0);  s.bytesIn.set(0);
+			for (int i = 0; i < BUCKETS; i++) s.latency.set(i, 0);
+		}
+	}
+
+}
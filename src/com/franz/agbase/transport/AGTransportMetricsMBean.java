@@ -0,0 +1,66 @@
+//***** BEGIN LICENSE BLOCK *****
+//Version: MPL 1.1
+//
+//The contents of this file are subject to the Mozilla Public License Version
+//1.1 (the "License"); you may not use this file except in compliance with
+//the License. You may obtain a copy of the License at
+//http://www.mozilla.org/MPL/
+//
+//Software distributed under the License is distributed on an "AS IS" basis,
+//WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+//for the specific language governing rights and limitations under the
+//License.
+//
+//The Original Code is the AllegroGraph Java Client interface.
+//
+//The Original Code was written by Franz Inc.
+//Copyright (C) 2006 Franz Inc.  All Rights Reserved.
+//
+//***** END LICENSE BLOCK *****
+
+package com.franz.agbase.transport;
+
+/**
+ * The JMX management interface of AGTransportMetrics.
+ * Times are in milliseconds.
+ */
+public interface AGTransportMetricsMBean {
+
+	String[] getOpNames ();
+
+	long getCount ();
+
+	long getErrors ();
+
+	long getInFlight ();
+
+	long getBytesOut ();
+
+	long getBytesIn ();
+
+	double getLockWaitMillis ();
+
+	/**
+	 * One line of statistics for each operation.
+	 */
+	String[] getSummary ();
+
+	long count ( String op );
+
+	long errors ( String op );
+
+	long inFlight ( String op );
+
+	long bytesOut ( String op );
+
+	long bytesIn ( String op );
+
+	double meanMillis ( String op );
+
+	double percentileMillis ( String op, double p );
+
+	double lockWaitMillis ( String op );
+
+	void reset ();
+
+}
@@ -0,0 +1,203 @@
+//***** BEGIN LICENSE BLOCK *****
+//Version: MPL 1.1
+//
+//The contents of this file are subject to the Mozilla Public License Version
+//1.1 (the "License"); you may not use this file except in compliance with
+//the License. You may obtain a copy of the License at
+//http://www.mozilla.org/MPL/
+//
+//Software distributed under the License is distributed on an "AS IS" basis,
+//WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+//for the specific language governing rights and limitations under the
+//License.
+//
+//The Original Code is the AllegroGraph Java Client interface.
+//
+//The Original Code was written by Franz Inc.
+//Copyright (C) 2006 Franz Inc.  All Rights Reserved.
+//
+//***** END LICENSE BLOCK *****
+
+package com.franz.agbase.util;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.WeakHashMap;
+
+import com.franz.agbase.AllegroGraphException;
+import com.franz.agbase.impl.UPIImpl;
+
+/**
+ * A write-behind buffer for single statement adds to one triple store.
+ * <p>
+ * Statements added from any number of threads are collected and sent
+ * to the server in one addTriples call when the buffer holds size
+ * statements, when the oldest statement has waited delay milliseconds,
+ * or when the buffer is flushed explicitly.
+ * Only one batch is sent at a time; statements added while a batch
+ * is being sent are collected in the next batch.
+ * <p>
+ * If a batch fails, the error is reported to every thread that
+ * added a statement to the batch, in its next add or flush call.
+ * Since a thread may never call again, the error is also reported
+ * by the next flush from any thread.
+ */
+class AGAddBuffer {
+
+	private static Timer timer = null;
+
+	private static synchronized Timer timer () {
+		if ( timer==null ) timer = new Timer("AllegroGraph add buffer", true);
+		return timer;
+	}
+
+	final AGInternals ag;
+	final int size;
+	final long delay;
+
+	private ArrayList<Object> subjects;
+	private ArrayList<Object> predicates;
+	private ArrayList<Object> objects;
+	private ArrayList<Object> contexts;
+	private HashSet<Thread> callers;
+	private TimerTask pending = null;
+
+	private final Object sendLock = new Object();
+	private final Map<Thread, AllegroGraphException> errors =
+		new WeakHashMap<Thread, AllegroGraphException>();
+	/**
+	 * The last batch failure that no flush has reported yet.
+	 */
+	private AllegroGraphException unflushed = null;
+
+	AGAddBuffer ( AGInternals ag, int size, long delay ) {
+		this.ag = ag;
+		this.size = size;
+		this.delay = delay;
+		clear();
+	}
+
+	private void clear () {
+		subjects = new ArrayList<Object>(size);
+		predicates = new ArrayList<Object>(size);
+		objects = new ArrayList<Object>(size);
+		contexts = new ArrayList<Object>(size);
+		callers = new HashSet<Thread>();
+	}
+
+	/**
+	 * Add one statement to the buffer.
+	 * The arguments must be valid part references.
+	 * @throws AllegroGraphException if an earlier batch with a statement
+	 *    from this thread failed, or if this call sent a batch that failed.
+	 */
+	void add ( Object s, Object p, Object o, Object c ) throws AllegroGraphException {
+		Thread caller = Thread.currentThread();
+		checkErrors(caller);
+		boolean full;
+		synchronized ( this ) {
+			subjects.add(s);  predicates.add(p);  objects.add(o);  contexts.add(c);
+			callers.add(caller);
+			full = !(subjects.size()<size);
+			if ( !full && pending==null && delay>0 ) {
+				pending = new TimerTask() {
+					public void run() {
+						try {
+							send();
+						} catch (AllegroGraphException e) {
+							// already recorded for the callers
+						}
+					}
+				};
+				timer().schedule(pending, delay);
+			}
+		}
+		if ( full ) {
+			send();
+			checkErrors(caller);
+		}
+	}
+
+	/**
+	 * Send all the buffered statements and wait for the server to add them.
+	 * @throws AllegroGraphException if a batch with a statement from
+	 *    this thread failed, if this call sent a batch that failed, or
+	 *    if a batch failed that no flush has reported yet.
+	 */
+	void flush () throws AllegroGraphException {
+		send();
+		checkErrors(Thread.currentThread());
+		AllegroGraphException e;
+		synchronized ( errors ) {
+			e = unflushed;
+			unflushed = null;
+		}
+		if ( e!=null ) throw e;
+	}
+
+	synchronized int count () { return subjects.size(); }
+
+	private void checkErrors ( Thread caller ) throws AllegroGraphException {
+		AllegroGraphException e;
+		synchronized ( errors ) {
+			e = errors.remove(caller);
+			if ( e!=null && e==unflushed ) unflushed = null;
+		}
+		if ( e!=null ) throw e;
+	}
+
+	private void send () throws AllegroGraphException {
+		synchronized ( sendLock ) {
+			Object[] s, p, o, c;
+			HashSet<Thread> from;
+			synchronized ( this ) {
+				if ( pending!=null ) pending.cancel();
+				pending = null;
+				if ( subjects.isEmpty() ) return;
+				s = subjects.toArray();  p = predicates.toArray();
+				o = objects.toArray();   c = contexts.toArray();
+				from = callers;
+				clear();
+			}
+			try {
+				ag.verifyEnabled().addTriples(ag, column(s), column(p), column(o), column(c));
+			} catch (Exception e) {
+				AllegroGraphException ee = new AllegroGraphException
+					("Buffered add of " + s.length + " statements failed: " + e, e);
+				// The sending thread sees the failure when it is thrown
+				// here, so it is recorded only for the other callers.
+				Thread sender = Thread.currentThread();
+				synchronized ( errors ) {
+					for (Thread t : from)
+						if ( t!=sender ) errors.put(t, ee);
+					// The other callers may never call again, so the
+					// next flush reports it too.
+					if ( !(from.size()==1 && from.contains(sender)) ) unflushed = ee;
+				}
+				throw ee;
+			}
+		}
+	}
+
+	/**
+	 * Make a homogeneous array of part references: UPIs if every
+	 * element is a UPI, otherwise strings.
+	 */
+	private Object column ( Object[] refs ) {
+		boolean upis = true;
+		for (int i = 0; upis && i < refs.length; i++)
+			upis = refs[i] instanceof UPIImpl;
+		if ( upis ) {
+			UPIImpl[] v = new UPIImpl[refs.length];
+			System.arraycopy(refs, 0, v, 0, refs.length);
+			return v;
+		}
+		String[] v = new String[refs.length];
+		for (int i = 0; i < refs.length; i++) v[i] = ag.refToString(refs[i]);
+		return v;
+	}
+
+}
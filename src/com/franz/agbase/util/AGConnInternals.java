@@ -23,6 +23,7 @@ package com.franz.agbase.util;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Vector;
 import java.util.WeakHashMap;
@@ -32,6 +33,7 @@ import com.franz.agbase.GeospatialSubtype;
 import com.franz.agbase.NamespaceRegistry;
 import com.franz.agbase.AllegroGraphConnection;
 import com.franz.agbase.transport.AGConnector;
+import com.franz.agbase.transport.AGLinkMetrics;
 
 public class AGConnInternals {
 	
@@ -58,6 +60,8 @@ public class AGConnInternals {
 
 	protected static int defaultTimeout = 5000;
 	
+	protected static boolean defaultPipelined = false;
+	
 	protected static final String agLispKey = "lispcommand";
 
 	// Declared in package com.franz.ag to allow dual AG APIs
@@ -69,6 +73,34 @@ public class AGConnInternals {
 	protected int pollInterval = defaultPollInterval;
 
 	protected int timeout = defaultTimeout;
+	
+	protected boolean pipelined = defaultPipelined;
+	
+	protected int poolMin = 0;
+	
+	protected int poolMax = 0;
+	
+	protected int poolIdleTimeout = 60000;
+	
+	protected int lockTimeout = 0;
+	
+	protected int sendWindow = 65536;
+	
+	protected int receiveWindow = 65536;
+	
+	protected int compression = -1;
+	
+	protected boolean prefixDictionary = false;
+	
+	protected AGLinkMetrics transportMetrics = null;
+	
+	protected int partCacheSize = 0;
+	
+	protected int partCacheMaxLabel = 1024;
+	
+	protected int internCacheSize = 0;
+	
+	protected int internCacheMaxText = 1024;
 
 
 	
@@ -91,6 +123,129 @@ public class AGConnInternals {
 	
 	public Vector<Object> oldTokens = new Vector<Object>(100);
 	
+	/**
+	 * A discarded cursor token and the triple store that created it.
+	 * A cursor must be discarded through the same server link that
+	 * created it.
+	 */
+	public static class OldToken {
+		public final AGBase ts;
+		public final Object token;
+		OldToken ( AGBase ts, Object token ) {
+			this.ts = ts;  this.token = token;
+		}
+	}
+	
+	/**
+	 * Queue a cursor token for a later discardCursors call.
+	 * @param ts the triple store that created the cursor.
+	 * @param token the server cursor token.
+	 */
+	public void addOldToken ( AGBase ts, Object token ) {
+		if ( null!=token ) oldTokens.add(new OldToken(ts, token));
+	}
+	
+	private final Object discardLock = new Object();
+	
+	/**
+	 * Send queued cursor tokens to the server.
+	 * @param force if true, send all the queued tokens; otherwise send
+	 *    one batch of oldBatch tokens if there are that many.
+	 * @throws AllegroGraphException
+	 */
+	public void discardOldTokens ( boolean force ) throws AllegroGraphException {
+		synchronized ( discardLock ) {
+			while ( !oldTokens.isEmpty() ) {
+				int n = oldTokens.size();
+				if ( n>=oldBatch )
+					n = oldBatch;
+				else if ( !force )
+					return;
+				OldToken[] r = new OldToken[n];
+				for (int i = 0; i < n; i++) 
+					r[i] = (OldToken) oldTokens.remove(0);
+				// Group the tokens by store since each store may be served
+				// by a different link of a pooled connection.
+				for (int i = 0; i < n; i++) {
+					AGBase ts = r[i].ts;
+					if ( ts==null ) continue;
+					ArrayList<Object> group = new ArrayList<Object>();
+					for (int j = i; j < n; j++)
+						if ( r[j].ts==ts ) {
+							group.add(r[j].token);
+							r[j] = new OldToken(null, null);
+						}
+					// Cursors of a closed store are gone with the store.
+					if ( -1<ts.tsx )
+						getServer().discardCursors(ts, group.toArray());
+				}
+				if ( !force ) return;
+			}
+		}
+	}
+	
+	/**
+	 * The cursors created through this connection that are still open
+	 * in the server.
+	 */
+	private final HashSet<AGCursorReclaimer.Handle> openCursors =
+		new HashSet<AGCursorReclaimer.Handle>();
+	
+	protected int maxCursors = 0;
+	
+	/**
+	 * Track a server cursor until its owner is closed or collected.
+	 * This makes no server call, since a cursor may be created in the
+	 * thread that reads the replies of a pipelined connection.
+	 * @param owner the object that holds the cursor token.
+	 * @param ts the triple store that created the cursor.
+	 * @param token the server cursor token.
+	 * @return a handle for untrackCursor, or null if token is null.
+	 * @throws IllegalStateException if the connection already has the
+	 *    maximum number of open cursors.  The new cursor is queued
+	 *    for discard.
+	 */
+	public AGCursorReclaimer.Handle trackCursor ( Object owner, AGBase ts, Object token ) {
+		if ( token==null ) return null;
+		if ( maxCursors>0 && !(getOpenCursors()<maxCursors) )
+			AGCursorReclaimer.collect();
+		synchronized ( openCursors ) {
+			if ( maxCursors>0 && !(openCursors.size()<maxCursors) ) {
+				addOldToken(ts, token);
+				throw new IllegalStateException
+					("There are " + maxCursors + " open cursors on " + this
+							+ "; cursors that are no longer needed must be closed.");
+			}
+			AGCursorReclaimer.Handle h = AGCursorReclaimer.track(owner, this, ts, token);
+			openCursors.add(h);
+			return h;
+		}
+	}
+	
+	/**
+	 * Stop tracking a cursor.
+	 * @param h a handle returned by trackCursor, or null.
+	 * @return true if the cursor was tracked by this connection.
+	 */
+	public boolean untrackCursor ( AGCursorReclaimer.Handle h ) {
+		if ( h==null ) return false;
+		h.clear();
+		synchronized ( openCursors ) {
+			return openCursors.remove(h);
+		}
+	}
+	
+	/**
+	 * Query the number of tracked server cursors.
+	 * @return the number of cursors that have been neither closed nor
+	 *    reclaimed.
+	 */
+	public int getOpenCursors () {
+		synchronized ( openCursors ) {
+			return openCursors.size();
+		}
+	}
+	
 	private ArrayList<Object> allTS = new ArrayList<Object>();
 	
 	public synchronized void addTS(AGBase ts) {
@@ -111,6 +266,9 @@ public class AGConnInternals {
 	public void freshState () {
 		geoSubs = new GeospatialSubtype[256];
 		oldTokens = new Vector<Object>(100);
+		synchronized ( openCursors ) {
+			openCursors.clear();
+		}
 		allTS = new ArrayList<Object>();
 		valueMap = Collections.synchronizedMap(new WeakHashMap<Object, Object>());
 	}
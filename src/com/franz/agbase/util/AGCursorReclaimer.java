@@ -0,0 +1,142 @@
+package com.franz.agbase.util;
+
+//***** BEGIN LICENSE BLOCK *****
+//Version: MPL 1.1
+//
+//The contents of this file are subject to the Mozilla Public License Version
+//1.1 (the "License"); you may not use this file except in compliance with
+//the License. You may obtain a copy of the License at
+//http://www.mozilla.org/MPL/
+//
+//Software distributed under the License is distributed on an "AS IS" basis,
+//WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+//for the specific language governing rights and limitations under the
+//License.
+//
+//The Original Code is the AllegroGraph Java Client interface.
+//
+//The Original Code was written by Franz Inc.
+//Copyright (C) 2006 Franz Inc.  All Rights Reserved.
+//
+//***** END LICENSE BLOCK *****
+
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.HashSet;
+
+/**
+ * Release the server cursors of result objects that the application
+ * dropped without closing them.
+ * <p>
+ * Every object that owns a server cursor token is tracked by a phantom
+ * reference.  When the owner is collected, a daemon thread moves the
+ * token to the old token queue of its connection and sends all the
+ * queued tokens to the server in batches.  An owner that is closed
+ * explicitly stops the tracking of its token.
+ * <p>
+ * Only the daemon thread talks to the server.  A thread that needs room
+ * under the open cursor limit calls collect(), which moves the tokens
+ * without any server call and wakes the daemon thread to discard them.
+ */
+public class AGCursorReclaimer {
+
+	private static final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+	private static Thread thread = null;
+
+	/**
+	 * The record of one tracked cursor.  It must not refer to the owner.
+	 */
+	public static class Handle extends PhantomReference<Object> {
+		final AGConnInternals conn;
+		final AGBase ts;
+		volatile Object token;
+		final boolean wake;
+
+		Handle ( Object owner, AGConnInternals conn, AGBase ts, Object token ) {
+			this(owner, conn, ts, token, false);
+		}
+
+		private Handle ( Object owner, AGConnInternals conn, AGBase ts, Object token,
+				boolean wake ) {
+			super(owner, queue);
+			this.conn = conn;  this.ts = ts;  this.token = token;  this.wake = wake;
+		}
+
+		/**
+		 * Replace the token when the server hands out a new one for
+		 * the same cursor.
+		 */
+		public void setToken ( Object token ) { this.token = token; }
+	}
+
+	static synchronized void start () {
+		if ( thread!=null ) return;
+		thread = new Thread("AllegroGraph cursor reclaimer") {
+			public void run() {
+				while ( true ) {
+					try {
+						reclaim((Handle)queue.remove());
+					} catch (InterruptedException e) {}
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * The referent of the wake-up handles; it is never collected.
+	 */
+	private static final Object WAKE = new Object();
+
+	/**
+	 * Queue the tokens of the collected owners in the queue.
+	 * @param h a collected handle, or null.
+	 * @return the connections with newly queued tokens.
+	 */
+	private static HashSet<AGConnInternals> untrack ( Handle h ) {
+		HashSet<AGConnInternals> conns = new HashSet<AGConnInternals>();
+		for (; h!=null; h = (Handle)queue.poll()) {
+			if ( h.wake )
+				conns.add(h.conn);
+			else if ( h.conn.untrackCursor(h) ) {
+				h.conn.addOldToken(h.ts, h.token);
+				conns.add(h.conn);
+			}
+		}
+		return conns;
+	}
+
+	/**
+	 * Queue the tokens of all collected owners and discard them.
+	 * Called only from the reclaimer thread.
+	 * @param h a collected handle, or null.
+	 */
+	static void reclaim ( Handle h ) {
+		for (AGConnInternals conn : untrack(h)) {
+			try {
+				conn.discardOldTokens(true);
+			} catch (Exception e) {
+				// The tokens go with the connection.
+			}
+		}
+	}
+
+	/**
+	 * Queue the tokens of all collected owners, and leave the server
+	 * calls to the reclaimer thread.  This makes no server call, so it
+	 * can be used in any thread, including the thread that reads the
+	 * replies of a pipelined connection.
+	 */
+	static void collect () {
+		for (AGConnInternals conn : untrack((Handle)queue.poll()))
+			new Handle(WAKE, conn, null, null, true).enqueue();
+	}
+
+	static Handle track ( Object owner, AGConnInternals conn, AGBase ts, Object token ) {
+		start();
+		return new Handle(owner, conn, ts, token);
+	}
+
+}
@@ -9,6 +9,7 @@ import com.franz.agbase.AllegroGraphConnection;
 import com.franz.agbase.AllegroGraph;
 import com.franz.agbase.BlankNode;
 import com.franz.agbase.DefaultGraph;
+import com.franz.agbase.LookAheadPolicy;
 import com.franz.agbase.TriplesIterator;
 import com.franz.agbase.URINode;
 import com.franz.agbase.ValueNode;
@@ -49,10 +50,6 @@ public class AGInternals extends AGBase {
 			savedAG = ag; savedPlimit = pl; savedVal = sv;
 			savedNullOk = nullOk;
 		}
-    	protected synchronized void finalize() throws Throwable {
-    		if ( (savedAG.ags)==null ) return;
-    		if ( null!=savedToken ) savedAG.ags.oldTokens.add(savedToken);
-    	}
     }
 	
 	public NamedAttributeList accOpts = new NamedAttributeList(accessOptions);
@@ -67,6 +64,10 @@ protected NamespaceRegistry nsregs = null;
 	
 	public int defaultLookAhead = 0;   // use the default in Cursor class
 	
+	public boolean defaultPrefetch = false;
+	
+	public LookAheadPolicy lookAheadPolicy = null;
+	
 	public TriplesIterator emptyCursor () { return TriplesIteratorImpl.emptyCursor(); }
 	
 	// CREATED GETTER FOR THIS PUBLIC FIELD - RMM
@@ -78,6 +79,81 @@ protected NamespaceRegistry nsregs = null;
 		return ags.getServer();
 		}
 	
+	private AGAddBuffer addBuffer = null;
+	
+	/**
+	 * Turn on or off buffering of addStatement() calls.
+	 * When buffering is on, addStatement() returns as soon as the statement
+	 * is in the buffer, and statements added by all the threads using this
+	 * AllegroGraph instance are sent to the server together in one
+	 * addStatements() call.  A batch is sent when the buffer holds size
+	 * statements, when the oldest statement has waited delay milliseconds,
+	 * or when {@link #flushStatements()}, AllegroGraph.syncTripleStore()
+	 * or AllegroGraph.closeTripleStore() is called.
+	 * <p>
+	 * The AllegroGraph methods that remove, load, index, count or
+	 * read statements (removeStatements(), clear(), loadNTriples(),
+	 * getStatements(), hasStatement() and the like) flush the buffer
+	 * first.  Queries made with TriplesQuery, SPARQLQuery or Prolog
+	 * selects do not, so buffered statements are not visible to them
+	 * until flushStatements() is called.
+	 * <p>
+	 * If a batch fails, the error is thrown to each thread that
+	 * added a statement to the batch, in its next addStatement()
+	 * or flushStatements() call, and to the next flushStatements()
+	 * call from any thread, which includes closeTripleStore().
+	 * <p>
+	 * Buffering is off by default.
+	 * @param size the number of statements in a full buffer; a value less
+	 *    than 2 turns off buffering.
+	 * @param delay the longest time in milliseconds that a statement may
+	 *    wait in the buffer; zero means wait until the buffer is full or
+	 *    flushed.
+	 * @throws AllegroGraphException if the statements in the old buffer
+	 *    could not be sent.
+	 */
+	public void setAddBuffer ( int size, long delay ) throws AllegroGraphException {
+		AGAddBuffer old;
+		synchronized ( this ) {
+			old = addBuffer;
+			addBuffer = (size<2)?null:new AGAddBuffer(this, size, delay);
+		}
+		if ( old!=null ) old.flush();
+	}
+	
+	public synchronized int getAddBufferSize () {
+		return (addBuffer==null)?0:addBuffer.size;
+	}
+	
+	public synchronized long getAddBufferDelay () {
+		return (addBuffer==null)?0:addBuffer.delay;
+	}
+	
+	/**
+	 * Add a statement to the add buffer if buffering is on.
+	 * @return false if buffering is off.
+	 */
+	protected boolean bufferAdd ( Object s, Object p, Object o, Object c )
+		throws AllegroGraphException {
+		AGAddBuffer b;
+		synchronized ( this ) { b = addBuffer; }
+		if ( b==null ) return false;
+		b.add(s, p, o, c);
+		return true;
+	}
+	
+	/**
+	 * Send any statements waiting in the add buffer.
+	 * @throws AllegroGraphException if a batch with statements added
+	 *    by this thread failed, or a batch failed that was not yet
+	 *    reported by a flush.
+	 */
+	public void flushStatements () throws AllegroGraphException {
+		AGAddBuffer b;
+		synchronized ( this ) { b = addBuffer; }
+		if ( b!=null ) b.flush();
+	}
+	
 
 	public void discardCursor(Object ref)
 		throws AllegroGraphException {
@@ -429,18 +505,9 @@ protected NamespaceRegistry nsregs = null;
 	}
 
 
-	public synchronized void discardOldTokens(boolean force) throws AllegroGraphException {
+	public void discardOldTokens(boolean force) throws AllegroGraphException {
 		if ( ags==null ) return;
-		if ( ags.oldTokens.size()<ags.oldBatch ) return;
-		int n = ags.oldTokens.size();
-		if ( n>=ags.oldBatch )
-			n = ags.oldBatch;
-		else if ( !force )
-			return;
-		Object[] r = new Object[n];
-		for (int i = 0; i < n; i++) 
-			r[i] = ags.oldTokens.remove(0);
-		verifyEnabled().discardCursors(this, r);
+		ags.discardOldTokens(force);
 	}
 
 	 public Object selectNull ( boolean one ) {
@@ -467,7 +534,7 @@ protected NamespaceRegistry nsregs = null;
 	public void connect(String key) throws AllegroGraphException {
 		if ( tsx>-1 ) throw new IllegalStateException ("Allready connected");
 		if ( tsx<-1 ) throw new IllegalStateException("Closed triple store");
-		tsx = verifyEnabled().access(key, storeName, storeDirectory,
+		tsx = verifyEnabled().access(this, key, storeName, storeDirectory,
 										accOpts.getList());
 		ags.addTS(this);
 		initNamespaces();
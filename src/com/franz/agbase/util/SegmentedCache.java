@@ -0,0 +1,215 @@
+//***** BEGIN LICENSE BLOCK *****
+//Version: MPL 1.1
+//
+//The contents of this file are subject to the Mozilla Public License Version
+//1.1 (the "License"); you may not use this file except in compliance with
+//the License. You may obtain a copy of the License at
+//http://www.mozilla.org/MPL/
+//
+//Software distributed under the License is distributed on an "AS IS" basis,
+//WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+//for the specific language governing rights and limitations under the
+//License.
+//
+//The Original Code is the AllegroGraph Java Client interface.
+//
+//The Original Code was written by Franz Inc.
+//Copyright (C) 2006 Franz Inc.  All Rights Reserved.
+//
+//***** END LICENSE BLOCK *****
+
+
+
+
+package com.franz.agbase.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache that drops its least recently used entries, used by the
+ * part and intern caches of a connection and by the value caches of the
+ * Sesame layer.
+ * <p>
+ * The cache is divided into segments with a lock each, so that it can be
+ * shared by several threads; every segment drops its least recently used
+ * entry when it is full.  Subclasses define the public lookup methods and
+ * decide which entries are cached.
+ */
+public class SegmentedCache<K, V> {
+
+	public static final int SEGMENTS = 16;
+
+	private class Segment extends LinkedHashMap<K, V> {
+		private static final long serialVersionUID = 1L;
+		final int max;
+		Segment ( int max ) {
+			super(16, 0.75f, true);
+			this.max = max;
+		}
+		protected boolean removeEldestEntry ( Map.Entry<K, V> eldest ) {
+			if ( size()>max ) {
+				evictions.incrementAndGet();
+				return true;
+			}
+			return false;
+		}
+	}
+
+	private final Map<K, V>[] segments;
+	private final int capacity;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * Create a cache.
+	 * @param capacity the maximum number of entries.
+	 */
+	protected SegmentedCache ( int capacity ) {
+		if ( capacity<SEGMENTS )
+			throw new IllegalArgumentException
+				(getClass().getSimpleName() + " capacity must be at least "
+					+ SEGMENTS + ": " + capacity);
+		this.capacity = capacity;
+		segments = newSegments();
+		for (int i = 0; i < SEGMENTS; i++)
+			segments[i] = new Segment(capacity/SEGMENTS);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <K, V> Map<K, V>[] newSegments () {
+		return (Map<K, V>[]) new Map<?, ?>[SEGMENTS];
+	}
+
+	private Map<K, V> segment ( K k ) {
+		// Fold every byte of the hash into the segment index, since some
+		// keys, like UPIs, keep their varying bits in the top byte.
+		int h = k.hashCode();
+		return segments[(h ^ (h>>>8) ^ (h>>>16) ^ (h>>>24)) & (SEGMENTS - 1)];
+	}
+
+	/**
+	 * Look up an entry and count a hit or a miss.
+	 * @param k a key, or null.
+	 * @return the value, or null if the key is not in the cache.
+	 */
+	protected V lookup ( K k ) {
+		V v = peek(k);
+		count(v!=null);
+		return v;
+	}
+
+	/**
+	 * Look up an entry without counting a hit or a miss.
+	 * @param k a key, or null.
+	 */
+	protected V peek ( K k ) {
+		if ( k==null ) return null;
+		Map<K, V> s = segment(k);
+		synchronized ( s ) {
+			return s.get(k);
+		}
+	}
+
+	/**
+	 * Count a lookup made with peek().
+	 */
+	protected void count ( boolean hit ) {
+		if ( hit ) hits.incrementAndGet();
+		else misses.incrementAndGet();
+	}
+
+	protected void store ( K k, V v ) {
+		if ( k==null || v==null ) return;
+		Map<K, V> s = segment(k);
+		synchronized ( s ) {
+			s.put(k, v);
+		}
+	}
+
+	/**
+	 * Query the owner of an entry for removeOwner().
+	 * @return null here; subclasses with entries that belong to a triple
+	 *    store return the store.
+	 */
+	protected Object ownerOf ( K k, V v ) { return null; }
+
+	/**
+	 * Remove the entries of one owner.
+	 */
+	protected void removeOwner ( Object owner ) {
+		for (int i = 0; i < SEGMENTS; i++) {
+			Map<K, V> s = segments[i];
+			synchronized ( s ) {
+				for (Iterator<Map.Entry<K, V>> it = s.entrySet().iterator(); it.hasNext(); ) {
+					Map.Entry<K, V> e = it.next();
+					if ( ownerOf(e.getKey(), e.getValue())==owner ) it.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Remove all the entries.
+	 */
+	public void clear () {
+		for (int i = 0; i < SEGMENTS; i++)
+			synchronized ( segments[i] ) { segments[i].clear(); }
+	}
+
+	/**
+	 * Query the number of entries in the cache.
+	 */
+	public int size () {
+		int n = 0;
+		for (int i = 0; i < SEGMENTS; i++)
+			synchronized ( segments[i] ) { n += segments[i].size(); }
+		return n;
+	}
+
+	public int getCapacity () { return capacity; }
+
+	/**
+	 * Query the number of lookups answered from the cache.
+	 */
+	public long getHits () { return hits.get(); }
+
+	/**
+	 * Query the number of lookups of cacheable entries that were
+	 * not in the cache.
+	 */
+	public long getMisses () { return misses.get(); }
+
+	/**
+	 * Query the number of entries dropped to make room for new ones.
+	 */
+	public long getEvictions () { return evictions.get(); }
+
+	/**
+	 * Query the fraction of lookups answered from the cache.
+	 * @return a number between 0 and 1, or 0 if there were no lookups.
+	 */
+	public double getHitRatio () {
+		long h = hits.get();
+		long all = h + misses.get();
+		if ( all==0 ) return 0;
+		return ((double)h)/all;
+	}
+
+	/**
+	 * Set the hit, miss and eviction counts to zero.
+	 */
+	public void resetCounters () {
+		hits.set(0);  misses.set(0);  evictions.set(0);
+	}
+
+	public String toString () {
+		return getClass().getSimpleName() + "[" + size() + "/" + capacity + " hits=" + getHits()
+			+ " misses=" + getMisses() + " evictions=" + getEvictions() + "]";
+	}
+
+}
@@ -30,9 +30,12 @@ import org.openrdf.model.Statement;
 import org.openrdf.model.URI;
 import org.openrdf.model.Value;
 import org.openrdf.model.ValueFactory;
+import org.openrdf.model.datatypes.XMLDatatypeUtil;
+import org.openrdf.model.vocabulary.XMLSchema;
 
 import com.franz.agbase.AllegroGraph;
 import com.franz.agbase.AllegroGraphException;
+import com.franz.agbase.LookAheadPolicy;
 import com.franz.agbase.ResourceNode;
 import com.franz.agbase.URINode;
 import com.franz.agbase.ValueNode;
@@ -90,66 +93,56 @@ public class AGForSail extends AGSInternal
 	}
 
 	public BNode createBNode() {
-		// TODO Auto-generated method stub
-		return null;
+		return (BNode) coerceToSailValue(getDirectInstance().createBNode());
 	}
 
 	public BNode createBNode(String arg0) {
-		// TODO Auto-generated method stub
-		return null;
+		return (BNode) coerceToSailValue(getDirectInstance().createBNode(arg0));
 	}
 
 	public Literal createLiteral(String arg0) {
-		// TODO Auto-generated method stub
-		return null;
+		return (Literal) coerceToSailValue(literalNode(arg0, null, null));
 	}
 
 	public Literal createLiteral(boolean arg0) {
-		// TODO Auto-generated method stub
-		return null;
+		return createLiteral(Boolean.toString(arg0), XMLSchema.BOOLEAN);
 	}
 
 	public Literal createLiteral(byte arg0) {
-		// TODO Auto-generated method stub
-		return null;
+		return createLiteral(Byte.toString(arg0), XMLSchema.BYTE);
 	}
 
 	public Literal createLiteral(short arg0) {
-		// TODO Auto-generated method stub
-		return null;
+		return createLiteral(Short.toString(arg0), XMLSchema.SHORT);
 	}
 
 	public Literal createLiteral(int arg0) {
-		// TODO Auto-generated method stub
-		return null;
+		return createLiteral(Integer.toString(arg0), XMLSchema.INT);
 	}
 
 	public Literal createLiteral(long arg0) {
-		// TODO Auto-generated method stub
-		return null;
+		return createLiteral(Long.toString(arg0), XMLSchema.LONG);
 	}
 
 	public Literal createLiteral(float arg0) {
-		// TODO Auto-generated method stub
-		return null;
+		return createLiteral(Float.toString(arg0), XMLSchema.FLOAT);
 	}
 
 	public Literal createLiteral(double arg0) {
-		// TODO Auto-generated method stub
-		return null;
+		return createLiteral(Double.toString(arg0), XMLSchema.DOUBLE);
 	}
 
 	public Literal createLiteral(XMLGregorianCalendar arg0) {
-		// TODO Auto-generated method stub
-		return null;
+		return createLiteral(arg0.toXMLFormat(), 
+				XMLDatatypeUtil.qnameToURI(arg0.getXMLSchemaType()));
 	}
 
 	public Literal createLiteral(String arg0, String arg1) {
-		return (Literal) coerceToSailValue(getDirectInstance().createLiteral(arg0, arg1));
+		return (Literal) coerceToSailValue(literalNode(arg0, arg1, null));
 	}
 
 	public Literal createLiteral(String arg0, URI arg1) {
-		return (Literal) coerceToSailValue(getDirectInstance().createTypedLiteral(arg0, arg1.toString()));
+		return (Literal) coerceToSailValue(literalNode(arg0, null, arg1.toString()));
 	}
 
 	public Statement createStatement(Resource arg0, URI arg1, Value arg2) {
@@ -165,7 +158,7 @@ public class AGForSail extends AGSInternal
 	}
 
 	public URI createURI(String arg0) {
-		return (URI)coerceToSailValue(getDirectInstance().createURI(arg0));
+		return (URI)coerceToSailValue(uriNode(arg0));
 	}
 
 	public URI createURI(String arg0, String arg1) {
@@ -175,9 +168,13 @@ public class AGForSail extends AGSInternal
 	
 	public int getLookAhead () { return getDirectInstance().getLookAhead();  }
 	public void setLookAhead ( int n ) { getDirectInstance().setLookAhead(n); }
+	public LookAheadPolicy getLookAheadPolicy () { return getDirectInstance().getLookAheadPolicy(); }
+	public void setLookAheadPolicy ( LookAheadPolicy p ) { getDirectInstance().setLookAheadPolicy(p); }
 	public int getSelectLimit () { return getDirectInstance().getSelectLimit(); }
 	public void setSelectLimit ( int v ) { getDirectInstance().setSelectLimit(v); }
 	public void setSyncEveryTime ( boolean s ) { getDirectInstance().setSyncEveryTime(s); }
+	public void setAddBuffer ( int size, long delay ) throws AllegroGraphException { getDirectInstance().setAddBuffer(size, delay); }
+	public void flushStatements () throws AllegroGraphException { getDirectInstance().flushStatements(); }
 	public void clear () throws AllegroGraphException { getDirectInstance().clear(); }
 	public void indexNewTriples (boolean wait) throws AllegroGraphException { getDirectInstance().indexNewTriples(wait); }
 	public void indexAllTriples (boolean wait) throws AllegroGraphException { getDirectInstance().indexAllTriples(wait); }
@@ -14,6 +14,7 @@ import com.franz.agbase.LiteralNode;
 import com.franz.agbase.TriplesIterator;
 import com.franz.agbase.UPI;
 import com.franz.agbase.URINode;
+import com.franz.agbase.ValueNode;
 import com.franz.agsail.AGForSail;
 import com.franz.agsail.AGSailCursor;
 import com.franz.agsail.AGSailTriple;
@@ -44,16 +45,11 @@ public class AGSInternal {
 //			// null contect of any store
 //			return "";
 		if ( openrdfPart instanceof URI ) 
-			return directInstance.createURI(openrdfPart.toString());
+			return uriNode(openrdfPart.toString());
 		if ( openrdfPart instanceof Literal ) {
 			Literal lit = (Literal) openrdfPart;
-			String lang = lit.getLanguage();
-			if ( lang!=null )
-				return directInstance.createLiteral(lit.getLabel(), lang);
 			URI dt = lit.getDatatype();
-			if ( dt!=null )
-				return directInstance.createTypedLiteral(lit.getLabel(), dt.toString());
-			return directInstance.createLiteral(lit.getLabel());
+			return literalNode(lit.getLabel(), lit.getLanguage(), (dt==null)?null:dt.toString());
 		}
 		if ( openrdfPart instanceof BNode ) {
 			return lookupBNode((BNode) openrdfPart);
@@ -63,6 +59,125 @@ public class AGSInternal {
 		 	("Cannot coerce to AGPart " + openrdfPart);
 	}
 	
+	/**
+	 * The key of a literal in the conversion cache.
+	 * A URI is keyed by its string.
+	 */
+	static final class LiteralKey {
+		final String label;
+		final String lang;
+		final String type;
+		final int hash;
+		LiteralKey ( String label, String lang, String type ) {
+			this.label = label;  this.lang = lang;  this.type = type;
+			int h = label.hashCode();
+			if ( lang!=null ) h = 31*h + lang.hashCode();
+			if ( type!=null ) h = 31*h + type.hashCode();
+			hash = h;
+		}
+		public int hashCode () { return hash; }
+		public boolean equals ( Object x ) {
+			if ( this==x ) return true;
+			if ( !(x instanceof LiteralKey) ) return false;
+			LiteralKey y = (LiteralKey) x;
+			return hash==y.hash && label.equals(y.label)
+				&& (lang==null?y.lang==null:lang.equals(y.lang))
+				&& (type==null?y.type==null:type.equals(y.type));
+		}
+	}
+	
+	private int valueCacheSize = 10000;
+	private int valueCacheMaxText = 1024;
+	private volatile AGSValueCache<Object, ValueNode> toAGCache
+		= new AGSValueCache<Object, ValueNode>(valueCacheSize);
+	private volatile AGSValueCache<UPI, Value> toSailCache
+		= new AGSValueCache<UPI, Value>(valueCacheSize);
+	
+	/**
+	 * Remember the conversions of URIs and literals between Sesame values
+	 * and AllegroGraph parts.  A URI or literal converted once, such as a
+	 * common predicate or context, is not converted again while it is
+	 * in the cache.  The URIs returned by the server are cached with
+	 * their UPIs, so that an equal Sesame URI is sent as a UPI.
+	 * There are two caches of this size, one for each direction.
+	 * The least recently used entries are dropped when a cache is full.
+	 * @param size the maximum number of entries in each cache.
+	 *     The built-in initial value is 10000.  A value of 0 means no cache.
+	 *     A positive value must be at least 16.
+	 * @param maxText the longest URI or literal text, in characters,
+	 *     that is cached.  The built-in initial value is 1024.
+	 */
+	public void setValueCache ( int size, int maxText ) {
+		if ( size<0 || (size>0 && size<AGSValueCache.SEGMENTS) )
+			throw new IllegalArgumentException("Value cache size must be 0 or at least "
+					+ AGSValueCache.SEGMENTS + ": " + size);
+		valueCacheSize = size;
+		valueCacheMaxText = maxText;
+		toAGCache = (size>0)?new AGSValueCache<Object, ValueNode>(size):null;
+		toSailCache = (size>0)?new AGSValueCache<UPI, Value>(size):null;
+	}
+	
+	public int getValueCacheSize () { return valueCacheSize; }
+	
+	public int getValueCacheMaxText () { return valueCacheMaxText; }
+	
+	/**
+	 * Get the cache of Sesame values converted to AllegroGraph parts,
+	 * for its hit and miss counts.
+	 * @return the cache, or null if there is no cache.
+	 */
+	public AGSValueCache<Object, ValueNode> getValueCache () { return toAGCache; }
+	
+	/**
+	 * Get the cache of AllegroGraph parts converted to Sesame values,
+	 * for its hit and miss counts.
+	 * @return the cache, or null if there is no cache.
+	 */
+	public AGSValueCache<UPI, Value> getSailValueCache () { return toSailCache; }
+	
+	/**
+	 * Find or create the AllegroGraph part of a URI.
+	 */
+	public URINode uriNode ( String uri ) {
+		AGSValueCache<Object, ValueNode> cache = toAGCache;
+		if ( cache==null || uri.length()>valueCacheMaxText )
+			return directInstance.createURI(uri);
+		URINode n = (URINode) cache.get(uri);
+		if ( n==null ) {
+			n = directInstance.createURI(uri);
+			cache.put(uri, n);
+		}
+		return n;
+	}
+	
+	/**
+	 * Find or create the AllegroGraph part of a literal.
+	 * @param lang the language tag, or null.
+	 * @param type the datatype URI, or null.  It is ignored when
+	 *     the language is not null.
+	 */
+	public LiteralNode literalNode ( String label, String lang, String type ) {
+		if ( lang!=null ) type = null;
+		AGSValueCache<Object, ValueNode> cache = toAGCache;
+		if ( cache==null || label.length()>valueCacheMaxText )
+			return makeLiteralNode(label, lang, type);
+		LiteralKey k = new LiteralKey(label, lang, type);
+		LiteralNode n = (LiteralNode) cache.get(k);
+		if ( n==null ) {
+			n = makeLiteralNode(label, lang, type);
+			cache.put(k, n);
+		}
+		return n;
+	}
+	
+	private LiteralNode makeLiteralNode ( String label, String lang, String type ) {
+		if ( lang!=null )
+			return directInstance.createLiteral(label, lang);
+		if ( type!=null )
+			return directInstance.createTypedLiteral(label, type);
+		return directInstance.createLiteral(label);
+	}
+	
 
 	
 	
@@ -100,18 +215,38 @@ public class AGSInternal {
 	
 	public Value coerceToSailValue ( com.franz.agbase.ValueNode agInstance ) {
 		if ( agInstance==null ) return null;
-		if ( agInstance instanceof URINode )
-			return AGSailFactory.makeNode((AGForSail) this, (URINode) agInstance);
+		if ( agInstance instanceof URINode || agInstance instanceof LiteralNode ) {
+			UPI id = agInstance.queryAGId();
+			AGSValueCache<UPI, Value> cache = toSailCache;
+			if ( id==null || cache==null ) return makeSailValue(agInstance);
+			Value v = cache.get(id);
+			if ( v==null ) {
+				v = makeSailValue(agInstance);
+				cache.put(id, v);
+				if ( agInstance instanceof URINode ) {
+					// Send an equal Sesame URI as this UPI from now on.
+					String uri = ((URINode) agInstance).queryURI();
+					AGSValueCache<Object, ValueNode> ac = toAGCache;
+					if ( uri!=null && ac!=null && uri.length()<=valueCacheMaxText )
+						ac.put(uri, agInstance);
+				}
+			}
+			return v;
+		}
 		if ( agInstance instanceof BlankNode )
 			return registerBlankNode((BlankNode) agInstance, null);
-		if ( agInstance instanceof LiteralNode )
-			return AGSailFactory.makeLiteral((AGForSail)this, (LiteralNode)agInstance);
 		if ( agInstance instanceof DefaultGraph )
 			return null;  // Use a null value in Sesame [bug18178]
 		throw new IllegalArgumentException
 	 		("Cannot coerce to Sesame Part " + agInstance);
 	}
 	
+	private Value makeSailValue ( com.franz.agbase.ValueNode agInstance ) {
+		if ( agInstance instanceof URINode )
+			return AGSailFactory.makeNode((AGForSail) this, (URINode) agInstance);
+		return AGSailFactory.makeLiteral((AGForSail)this, (LiteralNode)agInstance);
+	}
+	
 	
 
 	private Hashtable<UPI, BNode> agToSail = new Hashtable<UPI, BNode>();
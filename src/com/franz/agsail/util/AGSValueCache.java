@@ -0,0 +1,30 @@
+package com.franz.agsail.util;
+
+import com.franz.agbase.util.SegmentedCache;
+
+/**
+ * A cache of converted values, used by AGSInternal in both directions
+ * between Sesame values and AllegroGraph parts.
+ * <p>
+ * The cache can be shared by the sender threads of a bulk loader.
+ */
+public class AGSValueCache<K, V> extends SegmentedCache<K, V> {
+
+	/**
+	 * Create a cache.
+	 * @param capacity the maximum number of entries.
+	 */
+	public AGSValueCache ( int capacity ) {
+		super(capacity);
+	}
+
+	/**
+	 * Look up a value.
+	 * @param k a key, or null.
+	 * @return the value, or null if the key is not in the cache.
+	 */
+	V get ( K k ) { return lookup(k); }
+
+	void put ( K k, V v ) { store(k, v); }
+
+}
@@ -0,0 +1,119 @@
+package com.knowledgereefsystems.agsail;
+
+import info.aduna.iteration.CloseableIteration;
+
+import java.util.Set;
+
+import org.openrdf.model.URI;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.Dataset;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.algebra.Filter;
+import org.openrdf.query.algebra.Join;
+import org.openrdf.query.algebra.LeftJoin;
+import org.openrdf.query.algebra.TupleExpr;
+import org.openrdf.query.algebra.Union;
+import org.openrdf.query.algebra.evaluation.TripleSource;
+import org.openrdf.query.algebra.evaluation.impl.EvaluationStrategyImpl;
+
+import com.franz.agbase.AllegroGraphException;
+import com.franz.agbase.SPARQLQuery;
+import com.franz.agbase.ValueSetIterator;
+import com.franz.agsail.AGForSail;
+
+/**
+ * An evaluation strategy that sends joins, optional joins, unions and
+ * filters to the AllegroGraph server as one SPARQL query, instead of
+ * evaluating them with one getStatements call per intermediate binding.
+ * <p>
+ * A part of the query model that cannot be written as SPARQL
+ * (see {@link SPARQLSerializer}) is evaluated by the superclass, which
+ * calls this strategy again for its arguments, so the largest parts
+ * that can be written are still sent to the server.
+ * <p>
+ * When such a join is evaluated by the superclass, its right argument
+ * is sent for a block of left bindings at a time
+ * (see {@link BatchJoinIteration}).
+ */
+public class AllegroEvaluationStrategy extends EvaluationStrategyImpl {
+    private final AGForSail aGraph;
+    private final boolean includeInferred;
+    private final int joinBatchSize;
+
+    /**
+     * @param joinBatchSize the number of left bindings of a join that are
+     *        sent in one query.  A value less than 2 disables batching.
+     */
+    public AllegroEvaluationStrategy(final TripleSource tripleSource,
+                                     final Dataset dataSet,
+                                     final AGForSail aGraph,
+                                     final boolean includeInferred,
+                                     final int joinBatchSize) {
+        super(tripleSource, dataSet);
+        this.aGraph = aGraph;
+        this.includeInferred = includeInferred;
+        this.joinBatchSize = joinBatchSize;
+    }
+
+    AGForSail getAGraph() {
+        return aGraph;
+    }
+
+    public CloseableIteration<BindingSet, QueryEvaluationException> evaluate(final TupleExpr expr,
+                                                                           final BindingSet bindings)
+            throws QueryEvaluationException {
+        // A single statement pattern is no cheaper as a query.
+        if (expr instanceof Join || expr instanceof LeftJoin
+                || expr instanceof Union || expr instanceof Filter) {
+            SPARQLSerializer query = new SPARQLSerializer(bindings);
+            String queryStr = query.select(expr);
+            if (queryStr != null) return evaluateNative(queryStr, query, bindings);
+        }
+        return super.evaluate(expr, bindings);
+    }
+
+    public CloseableIteration<BindingSet, QueryEvaluationException> evaluate(final Join join,
+                                                                           final BindingSet bindings)
+            throws QueryEvaluationException {
+        if (joinBatchSize > 1 && BatchJoinIteration.canBatch(join.getRightArg()))
+            return new BatchJoinIteration(this, join, bindings, joinBatchSize);
+        return super.evaluate(join, bindings);
+    }
+
+    private CloseableIteration<BindingSet, QueryEvaluationException> evaluateNative(final String queryStr,
+                                                                                  final SPARQLSerializer query,
+                                                                                  final BindingSet bindings)
+            throws QueryEvaluationException {
+        return new NativeSelectIteration(aGraph, select(queryStr), query, bindings);
+    }
+
+    /**
+     * Send a SPARQL SELECT query to the server, with the dataset and
+     * inference setting of this strategy.
+     */
+    ValueSetIterator select(final String queryStr) throws QueryEvaluationException {
+        SPARQLQuery sq = new SPARQLQuery();
+        sq.setIncludeInferred(includeInferred);
+        if (dataset == null) {
+            // Like getStatements, the default graph is the whole store.
+            sq.setDefaultDatasetBehaviorAll();
+        } else {
+            if (!dataset.getDefaultGraphs().isEmpty())
+                sq.setFrom(labels(dataset.getDefaultGraphs()));
+            if (!dataset.getNamedGraphs().isEmpty())
+                sq.setFromNamed(labels(dataset.getNamedGraphs()));
+        }
+        try {
+            return sq.select(aGraph.getDirectInstance(), queryStr);
+        } catch (AllegroGraphException e) {
+            throw new QueryEvaluationException(e);
+        }
+    }
+
+    private static String[] labels(final Set<URI> graphs) {
+        String[] r = new String[graphs.size()];
+        int i = 0;
+        for (URI g : graphs) r[i++] = g.stringValue();
+        return r;
+    }
+}
@@ -40,6 +40,8 @@ public class AllegroSail implements Sail {
     private boolean reindexOnCommit = false;
     private boolean indexAllOnCommit = false;
     private boolean backgroundIndexing = false;
+    private boolean nativeEvaluation = true;
+    private int joinBatchSize = 64;
     private final boolean syncOnInsert;
 
     private int lookahead = -1;
@@ -245,4 +247,34 @@ public class AllegroSail implements Sail {
 	public void setBackgroundIndexing(boolean backgroundIndexing) {
 		this.backgroundIndexing = backgroundIndexing;
 	}
+
+	public boolean isNativeEvaluation() {
+		return nativeEvaluation;
+	}
+
+	/**
+	 * Control how queries are evaluated.
+	 * @param nativeEvaluation when true (the default), the joins, optional
+	 *    joins, unions and filters of a query are sent to the server as
+	 *    SPARQL queries.  When false, every statement pattern is evaluated
+	 *    with a separate getStatements call.
+	 */
+	public void setNativeEvaluation(boolean nativeEvaluation) {
+		this.nativeEvaluation = nativeEvaluation;
+	}
+
+	public int getJoinBatchSize() {
+		return joinBatchSize;
+	}
+
+	/**
+	 * Set the number of left bindings of a join that are sent to the
+	 * server in one query, when the join is not sent as a whole.
+	 * Applies only when native evaluation is enabled.
+	 * @param joinBatchSize the batch size.  A value less than 2 sends
+	 *    the right argument of the join once for each left binding.
+	 */
+	public void setJoinBatchSize(int joinBatchSize) {
+		this.joinBatchSize = joinBatchSize;
+	}
 }
@@ -163,6 +163,11 @@ public class AllegroSailConnection implements SailConnection {
     }
 
     public void commit() throws SailException {
+    	try {
+    		aGraph.flushStatements();
+    	} catch (AllegroGraphException e) {
+    		throw new AllegroSailException(e);
+    	}
     	if ( sail.isReindexOnCommit() && (uncommittedInsertions || uncommittedDeletions) )
     	{
     		try {
@@ -409,17 +414,20 @@ public class AllegroSailConnection implements SailConnection {
 
     // supporting methods //////////////////////////////////////////////////////
 
-    // Evaluates tuple queries by decomposing them into getStatements queries
+    // Evaluates tuple queries by sending the parts that can be written as
+    // SPARQL to the server, and decomposing the rest into getStatements queries
 
     private CloseableIteration<? extends BindingSet, QueryEvaluationException> evaluateByDecomposition(final TupleExpr tupleExpr,
                                                                                                        final Dataset dataSet,
                                                                                                        final BindingSet bindings,
                                                                                                        final boolean includeInferred)
             throws SailException {
-//evaluateNativeSelect(tupleExpr, dataSet, bindings, includeInferred);
         try {
             TripleSource tripleSource = new SailConnectionTripleSource(this, valueFactory, includeInferred);
-            EvaluationStrategyImpl strategy = new EvaluationStrategyImpl(tripleSource, dataSet);
+            EvaluationStrategyImpl strategy = sail.isNativeEvaluation()
+                    ? new AllegroEvaluationStrategy(tripleSource, dataSet, aGraph, includeInferred,
+                            sail.getJoinBatchSize())
+                    : new EvaluationStrategyImpl(tripleSource, dataSet);
 
             return strategy.evaluate(tupleExpr, bindings);
         }
@@ -429,36 +437,6 @@ public class AllegroSailConnection implements SailConnection {
         }
     }
 
-    // TODO: write a SPARQL reserializer
-//    private CloseableIteration<? extends BindingSet, QueryEvaluationException> evaluateNativeSelect(final TupleExpr tupleExpr,
-//                                                                                                    final Dataset dataSet,
-//                                                                                                    final BindingSet bindings,
-//                                                                                                    final boolean includeInferred)
-//            throws SailException {
-//        String queryStr = new ParsedTupleQuery(tupleExpr).toString();
-//        //System.out.println("queryStr = " + queryStr);
-//        int limit = -1;
-//        int offset = 0;
-//
-//        SPARQLQuery sq = new SPARQLQuery();
-//        sq.setLimit(limit);
-//        sq.setOffset(offset);
-//        sq.setIncludeInferred(includeInferred);
-//        
-//        ValueSetIterator vo;
-//		try {
-//			vo = sq.select(aGraph.getDirectInstance(), queryStr);
-//		} catch (AllegroGraphException e) {
-//			throw new SailException(e);
-//		}
-//
-//		int i = 0;
-//		while ( vo.hasNext() ) {
-//		    System.out.println("vo[" + i + "] = " + vo.get());
-//		}
-//		return null;
-//    }
-
     private void statementAdded(final Resource subject,
                                 final URI predicate,
                                 final Value object,
@@ -0,0 +1,119 @@
+package com.knowledgereefsystems.agsail;
+
+import info.aduna.iteration.CloseableIteration;
+import info.aduna.iteration.LookAheadIteration;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.algebra.Filter;
+import org.openrdf.query.algebra.Join;
+import org.openrdf.query.algebra.StatementPattern;
+import org.openrdf.query.algebra.TupleExpr;
+
+/**
+ * Evaluates a join by sending the right argument to the server for a
+ * block of left bindings at a time, instead of once per left binding.
+ * <p>
+ * The right argument is written as SPARQL once for each left binding,
+ * with its own variable names, and the copies are sent as the branches
+ * of one UNION query.  The results are matched back to the left
+ * bindings by {@link NativeSelectIteration}.  A left binding for which
+ * the right argument cannot be written is joined by evaluating the
+ * right argument for it alone.
+ */
+class BatchJoinIteration extends LookAheadIteration<BindingSet, QueryEvaluationException> {
+    private final AllegroEvaluationStrategy strategy;
+    private final TupleExpr rightArg;
+    private final int batchSize;
+    private final CloseableIteration<BindingSet, QueryEvaluationException> leftIter;
+    private final LinkedList<CloseableIteration<BindingSet, QueryEvaluationException>> parts =
+            new LinkedList<CloseableIteration<BindingSet, QueryEvaluationException>>();
+    private CloseableIteration<BindingSet, QueryEvaluationException> current = null;
+
+    BatchJoinIteration(final AllegroEvaluationStrategy strategy,
+                       final Join join,
+                       final BindingSet bindings,
+                       final int batchSize)
+            throws QueryEvaluationException {
+        this.strategy = strategy;
+        this.rightArg = join.getRightArg();
+        this.batchSize = batchSize;
+        leftIter = strategy.evaluate(join.getLeftArg(), bindings);
+    }
+
+    /**
+     * @return true if every selected variable of the expression is bound
+     *         in every result, so that the results of a batch can be
+     *         matched back to their branches.
+     */
+    static boolean canBatch(final TupleExpr expr) {
+        if (expr instanceof StatementPattern) return true;
+        if (expr instanceof Join)
+            return canBatch(((Join) expr).getLeftArg()) && canBatch(((Join) expr).getRightArg());
+        if (expr instanceof Filter)
+            return canBatch(((Filter) expr).getArg());
+        return false;
+    }
+
+    protected BindingSet getNextElement() throws QueryEvaluationException {
+        while (true) {
+            if (current != null) {
+                if (current.hasNext()) return current.next();
+                current.close();
+                current = null;
+            }
+            if (!parts.isEmpty()) {
+                current = parts.removeFirst();
+                continue;
+            }
+            if (!leftIter.hasNext()) return null;
+            nextBatch();
+        }
+    }
+
+    private void nextBatch() throws QueryEvaluationException {
+        List<BindingSet> lefts = new ArrayList<BindingSet>();
+        List<SPARQLSerializer> branches = new ArrayList<SPARQLSerializer>();
+        StringBuilder where = new StringBuilder();
+        while (lefts.size() < batchSize && leftIter.hasNext()) {
+            BindingSet left = leftIter.next();
+            SPARQLSerializer branch = new SPARQLSerializer(left, "b" + lefts.size() + "v");
+            String w = branch.where(rightArg);
+            if (w == null) {
+                parts.add(strategy.evaluate(rightArg, left));
+                continue;
+            }
+            if (!lefts.isEmpty()) where.append("UNION ");
+            where.append("{ ").append(w).append("} ");
+            lefts.add(left);
+            branches.add(branch);
+        }
+        if (lefts.size() == 1) {
+            parts.add(strategy.evaluate(rightArg, lefts.get(0)));
+        } else if (lefts.size() > 1) {
+            StringBuilder q = new StringBuilder("SELECT");
+            for (SPARQLSerializer branch : branches)
+                for (String name : branch.getSelected())
+                    q.append(" ?").append(branch.getQueryName(name));
+            q.append(" WHERE { ").append(where).append('}');
+            parts.add(new NativeSelectIteration(strategy.getAGraph(), strategy.select(q.toString()),
+                    branches.toArray(new SPARQLSerializer[branches.size()]),
+                    lefts.toArray(new BindingSet[lefts.size()])));
+        }
+    }
+
+    protected void handleClose() throws QueryEvaluationException {
+        try {
+            if (current != null) current.close();
+            for (CloseableIteration<BindingSet, QueryEvaluationException> part : parts) part.close();
+            parts.clear();
+        } finally {
+            leftIter.close();
+        }
+        super.handleClose();
+    }
+}
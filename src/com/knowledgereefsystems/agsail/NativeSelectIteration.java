@@ -0,0 +1,97 @@
+package com.knowledgereefsystems.agsail;
+
+import info.aduna.iteration.CloseableIteration;
+
+import org.openrdf.model.Value;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.algebra.evaluation.QueryBindingSet;
+
+import com.franz.agbase.ValueNode;
+import com.franz.agbase.ValueObject;
+import com.franz.agbase.ValueSetIterator;
+import com.franz.agsail.AGForSail;
+
+/**
+ * The binding sets of a SPARQL query sent to the server for a part of
+ * a Sesame query model.  Each binding set extends the incoming bindings
+ * with the values of the selected variables, under their names in the
+ * query model.
+ * <p>
+ * The query may be a union of several branches, each written with its
+ * own variable names for its own incoming bindings.  A result then
+ * belongs to the first branch whose first selected variable is bound.
+ */
+class NativeSelectIteration implements CloseableIteration<BindingSet, QueryEvaluationException> {
+    private final AGForSail aGraph;
+    private final BindingSet[] bindings;
+    private final String[][] names;
+    private final int[][] columns;
+    private ValueSetIterator results;
+
+    NativeSelectIteration(final AGForSail aGraph,
+                          final ValueSetIterator results,
+                          final SPARQLSerializer query,
+                          final BindingSet bindings) {
+        this(aGraph, results, new SPARQLSerializer[] { query }, new BindingSet[] { bindings });
+    }
+
+    NativeSelectIteration(final AGForSail aGraph,
+                          final ValueSetIterator results,
+                          final SPARQLSerializer[] branches,
+                          final BindingSet[] bindings) {
+        this.aGraph = aGraph;
+        this.results = results;
+        this.bindings = bindings;
+        String[] found = results.getNames().clone();
+        for (int j = 0; j < found.length; j++)
+            if (found[j].startsWith("?")) found[j] = found[j].substring(1);
+        names = new String[branches.length][];
+        columns = new int[branches.length][];
+        for (int k = 0; k < branches.length; k++) {
+            names[k] = branches[k].getSelected();
+            columns[k] = new int[names[k].length];
+            for (int i = 0; i < names[k].length; i++) {
+                columns[k][i] = -1;
+                String name = branches[k].getQueryName(names[k][i]);
+                for (int j = 0; j < found.length; j++)
+                    if (found[j].equals(name)) columns[k][i] = j;
+            }
+        }
+    }
+
+    public void close() throws QueryEvaluationException {
+        if (results != null) results.close();
+        results = null;
+    }
+
+    public boolean hasNext() throws QueryEvaluationException {
+        return results != null && results.hasNext();
+    }
+
+    public BindingSet next() throws QueryEvaluationException {
+        results.next();
+        ValueObject[] row = results.get();
+        int k = 0;
+        if (names.length > 1) {
+            while (k < names.length - 1 && value(row, columns[k][0]) == null) k++;
+        }
+        QueryBindingSet b = new QueryBindingSet(bindings[k]);
+        for (int i = 0; i < names[k].length; i++) {
+            Value v = value(row, columns[k][i]);
+            if (v != null) b.addBinding(names[k][i], v);
+        }
+        return b;
+    }
+
+    public void remove() throws QueryEvaluationException {
+        throw new UnsupportedOperationException();
+    }
+
+    private Value value(final ValueObject[] row, final int column) {
+        if (column < 0) return null;
+        ValueObject v = row[column];
+        if (!(v instanceof ValueNode)) return null;
+        return aGraph.coerceToSailValue((ValueNode) v);
+    }
+}
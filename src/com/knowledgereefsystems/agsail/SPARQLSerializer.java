@@ -0,0 +1,332 @@
+package com.knowledgereefsystems.agsail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openrdf.model.Literal;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.algebra.And;
+import org.openrdf.query.algebra.Bound;
+import org.openrdf.query.algebra.Compare;
+import org.openrdf.query.algebra.Datatype;
+import org.openrdf.query.algebra.Filter;
+import org.openrdf.query.algebra.IsBNode;
+import org.openrdf.query.algebra.IsLiteral;
+import org.openrdf.query.algebra.IsResource;
+import org.openrdf.query.algebra.IsURI;
+import org.openrdf.query.algebra.Join;
+import org.openrdf.query.algebra.Lang;
+import org.openrdf.query.algebra.LangMatches;
+import org.openrdf.query.algebra.LeftJoin;
+import org.openrdf.query.algebra.MathExpr;
+import org.openrdf.query.algebra.Not;
+import org.openrdf.query.algebra.Or;
+import org.openrdf.query.algebra.Regex;
+import org.openrdf.query.algebra.SameTerm;
+import org.openrdf.query.algebra.SingletonSet;
+import org.openrdf.query.algebra.StatementPattern;
+import org.openrdf.query.algebra.Str;
+import org.openrdf.query.algebra.TupleExpr;
+import org.openrdf.query.algebra.Union;
+import org.openrdf.query.algebra.ValueConstant;
+import org.openrdf.query.algebra.ValueExpr;
+import org.openrdf.query.algebra.Var;
+
+/**
+ * Writes a part of a Sesame query model as a SPARQL SELECT query, so
+ * that the AllegroGraph server can evaluate it in one call.
+ * <p>
+ * Statement patterns, joins, optional joins, unions and filters are
+ * written, with the SPARQL operators and functions in the filters.
+ * Variables bound in the incoming binding set are replaced by their
+ * values.  The query selects every unbound variable of the statement
+ * patterns, under a generated name.
+ * <p>
+ * Any other operator, and any blank node value, makes the query model
+ * impossible to write; it is then evaluated by decomposition.
+ */
+class SPARQLSerializer {
+
+    private static class UnsupportedException extends Exception {
+        private static final long serialVersionUID = 1L;
+    }
+
+    private final BindingSet bindings;
+    private final String prefix;
+    private final Map<String, String> names = new HashMap<String, String>();
+    private final List<String> selected = new ArrayList<String>();
+    private final StringBuilder out = new StringBuilder();
+
+    SPARQLSerializer(final BindingSet bindings) {
+        this(bindings, "v");
+    }
+
+    /**
+     * @param prefix the start of the generated variable names.  Queries
+     *        written with different prefixes do not share variables.
+     */
+    SPARQLSerializer(final BindingSet bindings, final String prefix) {
+        this.bindings = bindings;
+        this.prefix = prefix;
+    }
+
+    /**
+     * @return a SPARQL SELECT query, or null if the expression contains
+     *         an operator or a value that cannot be written, or if the
+     *         query would not select any variable.
+     */
+    String select(final TupleExpr expr) {
+        String where = where(expr);
+        if (where == null) return null;
+        StringBuilder q = new StringBuilder("SELECT");
+        for (String name : selected) q.append(" ?").append(names.get(name));
+        q.append(" WHERE { ").append(where).append('}');
+        return q.toString();
+    }
+
+    /**
+     * @return the contents of the WHERE clause, or null like select().
+     */
+    String where(final TupleExpr expr) {
+        try {
+            body(expr);
+        } catch (UnsupportedException e) {
+            return null;
+        }
+        if (selected.isEmpty()) return null;
+        return out.toString();
+    }
+
+    /**
+     * @return the names in the query model of the selected variables,
+     *         in the order of the SELECT clause.
+     */
+    String[] getSelected() {
+        return selected.toArray(new String[selected.size()]);
+    }
+
+    /**
+     * @return the name used in the query for a query model variable.
+     */
+    String getQueryName(final String name) {
+        return names.get(name);
+    }
+
+    private void body(final TupleExpr expr) throws UnsupportedException {
+        if (expr instanceof StatementPattern) {
+            StatementPattern sp = (StatementPattern) expr;
+            boolean graph = sp.getScope() == StatementPattern.Scope.NAMED_CONTEXTS;
+            if (graph) {
+                out.append("GRAPH ");
+                var(sp.getContextVar(), true);
+                out.append(" { ");
+            } else if (sp.getContextVar() != null) {
+                throw new UnsupportedException();
+            }
+            var(sp.getSubjectVar(), true);
+            out.append(' ');
+            var(sp.getPredicateVar(), true);
+            out.append(' ');
+            var(sp.getObjectVar(), true);
+            out.append(" . ");
+            if (graph) out.append("} ");
+        } else if (expr instanceof Join) {
+            Join j = (Join) expr;
+            part(j.getLeftArg());
+            part(j.getRightArg());
+        } else if (expr instanceof LeftJoin) {
+            LeftJoin j = (LeftJoin) expr;
+            part(j.getLeftArg());
+            out.append("OPTIONAL { ");
+            body(j.getRightArg());
+            if (j.hasCondition()) filter(j.getCondition());
+            out.append("} ");
+        } else if (expr instanceof Union) {
+            Union u = (Union) expr;
+            out.append("{ ");
+            body(u.getLeftArg());
+            out.append("} UNION { ");
+            body(u.getRightArg());
+            out.append("} ");
+        } else if (expr instanceof Filter) {
+            Filter f = (Filter) expr;
+            body(f.getArg());
+            filter(f.getCondition());
+        } else if (!(expr instanceof SingletonSet)) {
+            throw new UnsupportedException();
+        }
+    }
+
+    /**
+     * Write an argument of a join.  Statement patterns and joins are
+     * written in line; anything else gets a group of its own, so that
+     * its filters and optional parts keep their scope.
+     */
+    private void part(final TupleExpr expr) throws UnsupportedException {
+        if (expr instanceof StatementPattern || expr instanceof Join) {
+            body(expr);
+        } else {
+            out.append("{ ");
+            body(expr);
+            out.append("} ");
+        }
+    }
+
+    private void filter(final ValueExpr condition) throws UnsupportedException {
+        out.append("FILTER (");
+        expr(condition);
+        out.append(") ");
+    }
+
+    private void expr(final ValueExpr expr) throws UnsupportedException {
+        if (expr instanceof Var) {
+            var((Var) expr, false);
+        } else if (expr instanceof ValueConstant) {
+            term(((ValueConstant) expr).getValue());
+        } else if (expr instanceof Compare) {
+            Compare c = (Compare) expr;
+            infix(c.getLeftArg(), c.getOperator().getSymbol(), c.getRightArg());
+        } else if (expr instanceof MathExpr) {
+            MathExpr m = (MathExpr) expr;
+            infix(m.getLeftArg(), m.getOperator().getSymbol(), m.getRightArg());
+        } else if (expr instanceof And) {
+            And a = (And) expr;
+            infix(a.getLeftArg(), "&&", a.getRightArg());
+        } else if (expr instanceof Or) {
+            Or o = (Or) expr;
+            infix(o.getLeftArg(), "||", o.getRightArg());
+        } else if (expr instanceof Not) {
+            out.append("(!");
+            expr(((Not) expr).getArg());
+            out.append(')');
+        } else if (expr instanceof Bound) {
+            Var v = ((Bound) expr).getArg();
+            if (valueOf(v) != null) {
+                out.append("true");
+            } else {
+                out.append("bound(");
+                var(v, false);
+                out.append(')');
+            }
+        } else if (expr instanceof Str) {
+            call("str", ((Str) expr).getArg());
+        } else if (expr instanceof Lang) {
+            call("lang", ((Lang) expr).getArg());
+        } else if (expr instanceof Datatype) {
+            call("datatype", ((Datatype) expr).getArg());
+        } else if (expr instanceof IsURI) {
+            call("isURI", ((IsURI) expr).getArg());
+        } else if (expr instanceof IsLiteral) {
+            call("isLiteral", ((IsLiteral) expr).getArg());
+        } else if (expr instanceof IsBNode) {
+            call("isBlank", ((IsBNode) expr).getArg());
+        } else if (expr instanceof IsResource) {
+            ValueExpr arg = ((IsResource) expr).getArg();
+            out.append('(');
+            call("isURI", arg);
+            out.append(" || ");
+            call("isBlank", arg);
+            out.append(')');
+        } else if (expr instanceof SameTerm) {
+            SameTerm s = (SameTerm) expr;
+            call("sameTerm", s.getLeftArg(), s.getRightArg());
+        } else if (expr instanceof LangMatches) {
+            LangMatches l = (LangMatches) expr;
+            call("langMatches", l.getLeftArg(), l.getRightArg());
+        } else if (expr instanceof Regex) {
+            Regex r = (Regex) expr;
+            if (r.getFlagsArg() == null)
+                call("regex", r.getArg(), r.getPatternArg());
+            else
+                call("regex", r.getArg(), r.getPatternArg(), r.getFlagsArg());
+        } else {
+            throw new UnsupportedException();
+        }
+    }
+
+    private void infix(final ValueExpr left, final String op, final ValueExpr right)
+            throws UnsupportedException {
+        out.append('(');
+        expr(left);
+        out.append(' ').append(op).append(' ');
+        expr(right);
+        out.append(')');
+    }
+
+    private void call(final String function, final ValueExpr... args) throws UnsupportedException {
+        out.append(function).append('(');
+        for (int i = 0; i < args.length; i++) {
+            if (i > 0) out.append(", ");
+            expr(args[i]);
+        }
+        out.append(')');
+    }
+
+    private Value valueOf(final Var v) {
+        if (v.hasValue()) return v.getValue();
+        return bindings.getValue(v.getName());
+    }
+
+    private void var(final Var v, final boolean inPattern) throws UnsupportedException {
+        Value value = valueOf(v);
+        if (value != null) {
+            term(value);
+            return;
+        }
+        String name = names.get(v.getName());
+        if (name == null) {
+            name = prefix + names.size();
+            names.put(v.getName(), name);
+        }
+        if (inPattern && !selected.contains(v.getName())) selected.add(v.getName());
+        out.append('?').append(name);
+    }
+
+    private void term(final Value v) throws UnsupportedException {
+        if (v instanceof URI) {
+            uri(v.stringValue());
+        } else if (v instanceof Literal) {
+            Literal l = (Literal) v;
+            quote(l.getLabel());
+            if (l.getLanguage() != null)
+                out.append('@').append(l.getLanguage());
+            else if (l.getDatatype() != null) {
+                out.append("^^");
+                uri(l.getDatatype().stringValue());
+            }
+        } else {
+            // A blank node cannot be named in a query.
+            throw new UnsupportedException();
+        }
+    }
+
+    private void uri(final String uri) throws UnsupportedException {
+        for (int i = 0; i < uri.length(); i++) {
+            char c = uri.charAt(i);
+            if (c <= ' ' || c == '<' || c == '>' || c == '"' || c == '{' || c == '}'
+                    || c == '|' || c == '^' || c == '`' || c == '\\')
+                throw new UnsupportedException();
+        }
+        out.append('<').append(uri).append('>');
+    }
+
+    private void quote(final String s) {
+        out.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\t': out.append("\\t"); break;
+                default: out.append(c);
+            }
+        }
+        out.append('"');
+    }
+}
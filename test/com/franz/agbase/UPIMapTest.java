@@ -0,0 +1,127 @@
+package com.franz.agbase;
+
+import java.util.HashSet;
+import java.util.Iterator;
+
+import junit.framework.TestCase;
+
+import com.franz.agbase.impl.UPIImpl;
+
+/**
+ * Tests of the open addressing table behind UPIMap and UPISet.
+ */
+public class UPIMapTest extends TestCase {
+
+	/**
+	 * Make a stored UPI whose last four bytes hold n.
+	 */
+	static UPIImpl upi ( int n ) {
+		UPIImpl u = new UPIImpl();
+		for (int i = 0; i < UPIStore.WIDTH - 4; i++) u.addByte(i);
+		u.addByte(n>>>24);  u.addByte(n>>>16);  u.addByte(n>>>8);  u.addByte(n);
+		return u;
+	}
+
+	static int home ( UPIHash h, UPI u ) {
+		return UPIHash.hash(UPIStore.bytesOf(u)) & h.mask;
+	}
+
+	/**
+	 * Find n keys, starting from key number from, whose home slot is home.
+	 */
+	static UPIImpl[] collisions ( UPIHash h, int home, int n, int from ) {
+		UPIImpl[] r = new UPIImpl[n];
+		for (int i = 0, k = from; i < n; k++) {
+			UPIImpl u = upi(k);
+			if ( home(h, u)==home ) r[i++] = u;
+		}
+		return r;
+	}
+
+	public void testInsert () {
+		UPIMap m = new UPIMap(16);
+		for (int i = 0; i < 500; i++) m.put(upi(i), i);
+		assertEquals(500, m.size());
+		for (int i = 0; i < 500; i++) assertEquals(i, m.get(upi(i), -1));
+		assertEquals(-1, m.get(upi(500), -1));
+		m.put(upi(7), 70);
+		assertEquals(500, m.size());
+		assertEquals(70, m.get(upi(7), -1));
+		assertEquals(3, m.increment(upi(600), 3));
+		assertEquals(73, m.increment(upi(7), 3));
+		assertFalse(m.containsKey(new UPIImpl(5)));
+		try {
+			m.put(new UPIImpl(5), 1);
+			fail("A code UPI is not a stored UPI.");
+		} catch (IllegalArgumentException e) {}
+	}
+
+	public void testRehash () {
+		UPIMap m = new UPIMap(16);
+		int slots = m.slots;
+		int n = 0;
+		while ( m.slots==slots ) {
+			m.put(upi(n), n);
+			n++;
+		}
+		assertEquals(2*slots, m.slots);
+		assertTrue(10L*(n - 1)<=7L*slots);
+		for (int i = 0; i < n; i++) assertEquals(i, m.get(upi(i), -1));
+		HashSet<UPI> keys = new HashSet<UPI>();
+		for (Iterator<UPI> it = m.keyIterator(); it.hasNext(); ) keys.add(it.next());
+		assertEquals(n, keys.size());
+		for (int i = 0; i < n; i++) assertTrue(keys.contains(upi(i)));
+	}
+
+	public void testDeleteMovesKeysBack () {
+		UPIMap m = new UPIMap(16);
+		UPIImpl[] same = collisions(m, 3, 3, 0);
+		UPIImpl[] next = collisions(m, 4, 1, 0);
+		for (int i = 0; i < same.length; i++) m.put(same[i], i);
+		m.put(next[0], 10);
+		// The probe sequence is 3, 4, 5 for same and 6 for next.
+		assertEquals(5, m.find(UPIStore.bytesOf(same[2])));
+		assertEquals(6, m.find(UPIStore.bytesOf(next[0])));
+		assertTrue(m.remove(same[0]));
+		assertEquals(3, m.size());
+		assertEquals(3, m.find(UPIStore.bytesOf(same[1])));
+		assertEquals(4, m.find(UPIStore.bytesOf(same[2])));
+		assertEquals(5, m.find(UPIStore.bytesOf(next[0])));
+		assertFalse(m.used(6));
+		assertFalse(m.containsKey(same[0]));
+		assertEquals(1, m.get(same[1], -1));
+		assertEquals(2, m.get(same[2], -1));
+		assertEquals(10, m.get(next[0], -1));
+		assertFalse(m.remove(same[0]));
+	}
+
+	public void testDeleteWrapsAround () {
+		UPIMap m = new UPIMap(16);
+		int last = m.slots - 1;
+		UPIImpl[] same = collisions(m, last, 3, 0);
+		UPIImpl[] first = collisions(m, 0, 1, 0);
+		for (int i = 0; i < same.length; i++) m.put(same[i], i);
+		m.put(first[0], 10);
+		assertEquals(1, m.find(UPIStore.bytesOf(same[2])));
+		assertEquals(2, m.find(UPIStore.bytesOf(first[0])));
+		assertTrue(m.remove(same[1]));
+		assertEquals(last, m.find(UPIStore.bytesOf(same[0])));
+		assertEquals(0, m.find(UPIStore.bytesOf(same[2])));
+		assertEquals(1, m.find(UPIStore.bytesOf(first[0])));
+		assertFalse(m.used(2));
+		assertEquals(10, m.get(first[0], -1));
+	}
+
+	public void testDeleteAll () {
+		UPISet s = new UPISet(16);
+		for (int i = 0; i < 200; i++) assertTrue(s.add(upi(i)));
+		assertFalse(s.add(upi(5)));
+		for (int i = 0; i < 200; i += 2) assertTrue(s.remove(upi(i)));
+		assertEquals(100, s.size());
+		for (int i = 0; i < 200; i++) assertEquals(i%2==1, s.contains(upi(i)));
+		for (int i = 1; i < 200; i += 2) assertTrue(s.remove(upi(i)));
+		assertEquals(0, s.size());
+		for (int i = 0; i < s.slots; i++) assertFalse(s.used(i));
+	}
+
+}
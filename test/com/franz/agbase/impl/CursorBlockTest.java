@@ -0,0 +1,139 @@
+//***** BEGIN LICENSE BLOCK *****
+//Version: MPL 1.1
+//
+//The contents of this file are subject to the Mozilla Public License Version
+//1.1 (the "License"); you may not use this file except in compliance with
+//the License. You may obtain a copy of the License at
+//http://www.mozilla.org/MPL/
+//
+//Software distributed under the License is distributed on an "AS IS" basis,
+//WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+//for the specific language governing rights and limitations under the
+//License.
+//
+//The Original Code is the AllegroGraph Java Client interface.
+//
+//The Original Code was written by Franz Inc.
+//Copyright (C) 2006 Franz Inc.  All Rights Reserved.
+//
+//***** END LICENSE BLOCK *****
+
+
+package com.franz.agbase.impl;
+
+import junit.framework.TestCase;
+
+import com.franz.agbase.util.AGC;
+
+/**
+ * Tests of the back reference resolution and lazy part decoding
+ * of cursor blocks.
+ */
+public class CursorBlockTest extends TestCase {
+
+	static void body ( UPIBlock b, int i, int k ) {
+		byte[] bodies = b.bodies();
+		for (int j = 0; j < UPIImpl.WIDTH; j++)
+			bodies[i*UPIImpl.WIDTH + j] = (byte) (j + 16*k);
+		b.setBody(i);
+	}
+
+	/**
+	 * Three triples: the second refers back to slots of the first, and
+	 * the third refers back to the back references of the second.
+	 */
+	static UPIBlock block ( long flag ) {
+		UPIBlock b = new UPIBlock(16);
+		b.setCode(0, 100);  body(b, 1, 1);  body(b, 2, 2);  body(b, 3, 3);  body(b, 4, 4);
+		b.setCode(5, 101);  b.setCode(6, -5);  body(b, 7, 5);  b.setCode(8, -5);  b.setCode(9, -5);
+		b.setCode(10, 102);
+		for (int i = 11; i < 15; i++) b.setCode(i, -5);
+		b.setCode(15, flag);
+		return b;
+	}
+
+	static final String[] DEFS = { "%Nhttp://example.org/s", "%Nhttp://example.org/p",
+		"%Lone", "%XD", "%Nhttp://example.org/q" };
+
+	public void testBackReferences () {
+		CursorBlock c = new CursorBlock(block(1), null);
+		assertEquals(16, c.length);
+		assertEquals(1, c.home(6));
+		assertEquals(3, c.home(8));
+		assertEquals(4, c.home(9));
+		assertEquals(1, c.home(11));
+		assertEquals(7, c.home(12));
+		assertEquals(3, c.home(13));
+		assertEquals(4, c.home(14));
+		assertEquals(7, c.home(7));
+		assertEquals(101, c.code(5));
+		assertEquals(0, c.code(6));
+		assertTrue(c.withLabel(11));
+		assertSame(c.upi(1), c.upi(6));
+		assertSame(c.upi(1), c.upi(11));
+		assertEquals(c.upi(7), c.upi(12));
+		assertFalse(c.upi(3).equals(c.upi(4)));
+		assertFalse(c.hasLabels());
+		assertNull(c.label(6));
+	}
+
+	public void testFlagIsNotABackReference () {
+		CursorBlock c = new CursorBlock(block(-2), null);
+		assertEquals(-2, c.flag());
+		assertEquals(15, c.home(15));
+		c = new CursorBlock(block(1), null);
+		assertEquals(1, c.flag());
+	}
+
+	public void testNoBackReferences () {
+		UPIBlock b = new UPIBlock(6);
+		b.setCode(0, 7);
+		for (int i = 1; i < 5; i++) body(b, i, i);
+		b.setCode(5, 0);
+		CursorBlock c = new CursorBlock(b, null);
+		for (int i = 0; i < 6; i++) assertEquals(i, c.home(i));
+		assertEquals(7, c.code(0));
+		assertEquals(0, c.flag());
+	}
+
+	public void testLabelsFollowBackReferences () {
+		CursorBlock c = new CursorBlock(block(1), DEFS);
+		assertTrue(c.hasLabels());
+		assertEquals(6, c.type(0));
+		assertNull(c.label(0));
+		assertEquals(AGC.AGU_NODE, c.type(1));
+		assertEquals("http://example.org/s", c.label(6));
+		assertEquals("http://example.org/s", c.label(11));
+		assertEquals(AGC.AGU_LITERAL, c.type(13));
+		assertEquals("one", c.label(8));
+		assertEquals(AGC.AGU_DEFAULT_GRAPH, c.type(14));
+		assertEquals("http://example.org/q", c.label(12));
+		assertEquals("http://example.org/p", c.label(2));
+	}
+
+	public void testCopyForSplit () {
+		CursorBlock c = new CursorBlock(block(1), DEFS);
+		UPIImpl s = c.upi(1);
+		assertEquals("http://example.org/s", c.label(1));
+		CursorBlock d = new CursorBlock(c);
+		assertSame(s, d.upi(6));
+		assertEquals("http://example.org/s", d.label(11));
+		// Slots made after the copy are made separately.
+		UPIImpl o = d.upi(13);
+		assertNotSame(o, c.upi(3));
+		assertEquals(o, c.upi(3));
+		assertEquals("one", d.label(8));
+		assertEquals("one", c.label(3));
+		assertEquals(3, d.home(13));
+		assertEquals(1, d.flag());
+	}
+
+	public void testFromUPIArray () {
+		UPIImpl[] ts = block(1).toArray();
+		CursorBlock c = new CursorBlock(ts, null);
+		assertEquals(3, c.home(13));
+		assertEquals(ts[3], c.upi(13));
+		assertEquals(102, c.code(10));
+	}
+
+}
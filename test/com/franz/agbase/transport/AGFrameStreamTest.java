@@ -0,0 +1,148 @@
+//***** BEGIN LICENSE BLOCK *****
+//Version: MPL 1.1
+//
+//The contents of this file are subject to the Mozilla Public License Version
+//1.1 (the "License"); you may not use this file except in compliance with
+//the License. You may obtain a copy of the License at
+//http://www.mozilla.org/MPL/
+//
+//Software distributed under the License is distributed on an "AS IS" basis,
+//WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+//for the specific language governing rights and limitations under the
+//License.
+//
+//The Original Code is the AllegroGraph Java Client interface.
+//
+//The Original Code was written by Franz Inc.
+//Copyright (C) 2006 Franz Inc.  All Rights Reserved.
+//
+//***** END LICENSE BLOCK *****
+
+
+
+
+package com.franz.agbase.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of the compressed frames of a link, and of compression
+ * negotiated with the stand-in server.
+ */
+public class AGFrameStreamTest extends TestCase {
+
+	/**
+	 * Start a stand-in server on a free port.
+	 */
+	static AGDStandIn standIn ( boolean compress ) throws IOException {
+		AGDStandIn s = new AGDStandIn(0, compress);
+		s.start();
+		return s;
+	}
+
+	static AGDirectLink link ( AGDStandIn s ) throws IOException {
+		return new AGDirectLink("localhost", s.getPort(), 3, 100, 5000);
+	}
+
+	/**
+	 * A message that compresses well but is not all one byte.
+	 */
+	static byte[] message ( int n, int seed ) {
+		byte[] b = new byte[n];
+		for (int i = 0; i < n; i++) b[i] = (byte)("<http://example.org/".charAt(i%20) + (i/997 + seed)%3);
+		return b;
+	}
+
+	static byte[] readFully ( AGFrameInputStream in, int n ) throws IOException {
+		byte[] b = new byte[n];
+		int at = 0;
+		while ( at<n ) {
+			int k = in.read(b, at, n-at);
+			assertTrue(k>0);
+			at += k;
+		}
+		return b;
+	}
+
+	public void testRoundTrip () throws IOException {
+		ByteArrayOutputStream wire = new ByteArrayOutputStream();
+		AGFrameOutputStream out = new AGFrameOutputStream(wire, 64);
+		byte[] small = { 1, 2, 3 };
+		byte[] big = message(3*AGFrameOutputStream.MAX_FRAME + 17, 0);
+		byte[] next = message(5000, 1);
+		out.write(small);  out.flush();
+		// Written in small pieces, as the link spills its buffer.
+		for (int i = 0; i < big.length; i += 1000)
+			out.write(big, i, Math.min(1000, big.length - i));
+		out.flush();
+		out.write(next[0]);
+		out.write(next, 1, next.length - 1);
+		out.flush();
+		assertEquals(small.length + big.length + next.length, out.rawBytes);
+		assertEquals(wire.size(), out.wireBytes);
+		assertTrue(out.wireBytes<out.rawBytes/10);
+		AGFrameInputStream in = new AGFrameInputStream(new ByteArrayInputStream(wire.toByteArray()));
+		assertEquals(1, in.read());
+		assertEquals(2, in.read());
+		assertEquals(3, in.read());
+		assertTrue(java.util.Arrays.equals(big, readFully(in, big.length)));
+		assertTrue(java.util.Arrays.equals(next, readFully(in, next.length)));
+		assertEquals(-1, in.read());
+	}
+
+	public void testSharedDictionary () throws IOException {
+		ByteArrayOutputStream wire = new ByteArrayOutputStream();
+		AGFrameOutputStream out = new AGFrameOutputStream(wire, 0);
+		byte[] m = new byte[2000];
+		for (int i = 0; i < m.length; i++) m[i] = (byte)(i*7919 >>> 3);
+		out.write(m);  out.flush();
+		long first = out.wireBytes;
+		out.write(m);  out.flush();
+		long second = out.wireBytes - first;
+		// The second frame refers back to the first one.
+		assertTrue(second<first/4);
+		AGFrameInputStream in = new AGFrameInputStream(new ByteArrayInputStream(wire.toByteArray()));
+		assertTrue(java.util.Arrays.equals(m, readFully(in, m.length)));
+		assertTrue(java.util.Arrays.equals(m, readFully(in, m.length)));
+	}
+
+	public void testNegotiated () throws IOException {
+		AGDStandIn s = standIn(true);
+		try {
+			AGDirectLink l = link(s);
+			try {
+				assertTrue(l.startCompression(100));
+				assertNotNull(l.framer);
+				String text = new String(message(20000, 2), "ISO-8859-1");
+				assertEquals(text, AGDirectLink.stringValue(l.sendOp1(":echo", 1, 0, text)));
+				assertEquals("short", AGDirectLink.stringValue(l.sendOp1(":echo", 1, 0, "short")));
+				assertTrue(l.framer.wireBytes<l.framer.rawBytes/4);
+			} finally {
+				l.disconnect();
+			}
+		} finally {
+			s.close();
+		}
+	}
+
+	public void testRefused () throws IOException {
+		AGDStandIn s = standIn(false);
+		try {
+			AGDirectLink l = link(s);
+			try {
+				assertFalse(l.startCompression(100));
+				assertNull(l.framer);
+				assertEquals("plain", AGDirectLink.stringValue(l.sendOp1(":echo", 1, 0, "plain")));
+			} finally {
+				l.disconnect();
+			}
+		} finally {
+			s.close();
+		}
+	}
+
+}
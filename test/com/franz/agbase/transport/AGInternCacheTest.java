@@ -0,0 +1,95 @@
+//***** BEGIN LICENSE BLOCK *****
+//Version: MPL 1.1
+//
+//The contents of this file are subject to the Mozilla Public License Version
+//1.1 (the "License"); you may not use this file except in compliance with
+//the License. You may obtain a copy of the License at
+//http://www.mozilla.org/MPL/
+//
+//Software distributed under the License is distributed on an "AS IS" basis,
+//WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+//for the specific language governing rights and limitations under the
+//License.
+//
+//The Original Code is the AllegroGraph Java Client interface.
+//
+//The Original Code was written by Franz Inc.
+//Copyright (C) 2006 Franz Inc.  All Rights Reserved.
+//
+//***** END LICENSE BLOCK *****
+
+
+package com.franz.agbase.transport;
+
+import junit.framework.TestCase;
+
+import com.franz.agbase.impl.UPIImpl;
+import com.franz.agbase.util.AGBase;
+
+/**
+ * Tests of the bounds and keys of the intern cache.
+ */
+public class AGInternCacheTest extends TestCase {
+
+	public void testCapacity () {
+		AGInternCache c = new AGInternCache(64, 100);
+		AGBase ag = AGPartCacheTest.store(0);
+		for (int i = 0; i < 1000; i++)
+			c.put(c.key(ag, AGInternCache.RESOURCE, "http://example.org/" + i, null, null),
+					AGPartCacheTest.upi(i));
+		assertTrue(c.size()<=64);
+		assertTrue(c.size()>=64 - AGInternCache.SEGMENTS);
+		assertEquals(1000 - c.size(), c.getEvictions());
+		try {
+			new AGInternCache(AGInternCache.SEGMENTS - 1, 100);
+			fail("A cache smaller than the number of segments.");
+		} catch (IllegalArgumentException e) {}
+	}
+
+	public void testKeys () {
+		AGInternCache c = new AGInternCache(64, 10);
+		AGBase ag = AGPartCacheTest.store(0);
+		assertNull(c.key(ag, AGInternCache.LITERAL, "longer than ten", null, null));
+		assertNull(c.key(ag, AGInternCache.LITERAL, null, null, null));
+		assertNull(c.key(ag, AGInternCache.LITERAL, "x", new Object(), null));
+		AGInternCache.Key plain = c.key(ag, AGInternCache.LITERAL, "x", null, null);
+		AGInternCache.Key lang = c.key(ag, AGInternCache.LITERAL, "x", null, "en");
+		AGInternCache.Key typed = c.key(ag, AGInternCache.LITERAL, "x", "http://t", null);
+		AGInternCache.Key res = c.key(ag, AGInternCache.RESOURCE, "x", null, null);
+		c.put(plain, AGPartCacheTest.upi(1));
+		c.put(lang, AGPartCacheTest.upi(2));
+		c.put(typed, AGPartCacheTest.upi(3));
+		c.put(res, new UPIImpl(4));
+		assertEquals(3, c.size());
+		assertEquals(AGPartCacheTest.upi(1), c.get(c.key(ag, AGInternCache.LITERAL, "x", null, null)));
+		assertEquals(AGPartCacheTest.upi(2), c.get(lang));
+		assertEquals(AGPartCacheTest.upi(3), c.get(typed));
+		assertNull(c.get(res));
+		assertNull(c.get(null));
+	}
+
+	public void testStoresWithTheSameIndex () {
+		AGInternCache c = new AGInternCache(64, 100);
+		AGBase a = AGPartCacheTest.store(3);
+		AGBase b = AGPartCacheTest.store(3);
+		c.put(c.key(a, AGInternCache.RESOURCE, "http://a", null, null), AGPartCacheTest.upi(1));
+		assertNull(c.get(c.key(b, AGInternCache.RESOURCE, "http://a", null, null)));
+		c.put(c.key(b, AGInternCache.RESOURCE, "http://b", null, null), AGPartCacheTest.upi(2));
+		c.removeStore(a);
+		assertEquals(1, c.size());
+		assertNotNull(c.get(c.key(b, AGInternCache.RESOURCE, "http://b", null, null)));
+	}
+
+	public void testRepeatedLastElement () {
+		String[] types = { "http://t1", "http://t2" };
+		assertEquals("http://t1", AGDirectConnector.element(types, 0));
+		assertEquals("http://t2", AGDirectConnector.element(types, 5));
+		assertNull(AGDirectConnector.element(null, 0));
+		assertNull(AGDirectConnector.element(new String[0], 0));
+		String[] s = AGDirectConnector.subset(types, new int[] { 3, 0, 9 }, 2);
+		assertEquals(2, s.length);
+		assertEquals("http://t2", s[0]);
+		assertEquals("http://t1", s[1]);
+	}
+
+}
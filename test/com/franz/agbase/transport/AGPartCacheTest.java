@@ -0,0 +1,115 @@
+//***** BEGIN LICENSE BLOCK *****
+//Version: MPL 1.1
+//
+//The contents of this file are subject to the Mozilla Public License Version
+//1.1 (the "License"); you may not use this file except in compliance with
+//the License. You may obtain a copy of the License at
+//http://www.mozilla.org/MPL/
+//
+//Software distributed under the License is distributed on an "AS IS" basis,
+//WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+//for the specific language governing rights and limitations under the
+//License.
+//
+//The Original Code is the AllegroGraph Java Client interface.
+//
+//The Original Code was written by Franz Inc.
+//Copyright (C) 2006 Franz Inc.  All Rights Reserved.
+//
+//***** END LICENSE BLOCK *****
+
+
+package com.franz.agbase.transport;
+
+import junit.framework.TestCase;
+
+import com.franz.agbase.impl.UPIImpl;
+import com.franz.agbase.util.AGBase;
+
+/**
+ * Tests of the bounds and store separation of the part cache.
+ */
+public class AGPartCacheTest extends TestCase {
+
+	static AGBase store ( int tsx ) {
+		AGBase ag = new AGBase() {
+			public AGConnector verifyEnabled() { return null; }
+		};
+		ag.tsx = tsx;
+		return ag;
+	}
+
+	static UPIImpl upi ( int n ) {
+		UPIImpl u = new UPIImpl();
+		for (int i = 0; i < AGDirectLink.UPI_WIDTH - 4; i++) u.addByte(i);
+		u.addByte(n>>>24);  u.addByte(n>>>16);  u.addByte(n>>>8);  u.addByte(n);
+		return u;
+	}
+
+	public void testCapacity () {
+		AGPartCache c = new AGPartCache(64, 100);
+		AGBase ag = store(0);
+		for (int i = 0; i < 1000; i++) c.put(ag, upi(i), 2, "http://example.org/" + i, null);
+		assertTrue(c.size()<=64);
+		assertTrue(c.size()>=64 - AGPartCache.SEGMENTS);
+		assertEquals(1000 - c.size(), c.getEvictions());
+		int found = 0;
+		for (int i = 0; i < 1000; i++)
+			if ( c.get(ag, upi(i))!=null ) found++;
+		assertEquals(c.size(), found);
+		assertEquals(found, c.getHits());
+		assertEquals(1000 - found, c.getMisses());
+		try {
+			new AGPartCache(AGPartCache.SEGMENTS - 1, 100);
+			fail("A cache smaller than the number of segments.");
+		} catch (IllegalArgumentException e) {}
+	}
+
+	public void testLeastRecentlyUsed () {
+		AGPartCache c = new AGPartCache(AGPartCache.SEGMENTS, 100);
+		AGBase ag = store(0);
+		// With one entry per segment, a new entry in a segment
+		// replaces the one that was there.
+		int other = 1;
+		do {
+			other++;
+			c.clear();
+			c.put(ag, upi(1), 2, "one", null);
+			c.put(ag, upi(other), 2, "other", null);
+		} while ( c.size()>1 );
+		assertNull(c.get(ag, upi(1)));
+		assertNotNull(c.get(ag, upi(other)));
+		assertEquals(1, c.getEvictions());
+	}
+
+	public void testNotCached () {
+		AGPartCache c = new AGPartCache(64, 10);
+		AGBase ag = store(0);
+		c.put(ag, upi(1), 2, "http://example.org/long", null);
+		c.put(ag, upi(2), 4, "short", "a-very-long-modifier");
+		c.put(ag, upi(3), 0, "unknown", null);
+		c.put(ag, new UPIImpl(3), 2, "code", null);
+		assertEquals(0, c.size());
+		c.put(ag, upi(4), 4, "short", "en");
+		assertEquals(1, c.size());
+		AGPartCache.Entry e = c.get(ag, upi(4));
+		assertEquals(4, e.type);
+		assertEquals("short", e.label);
+		assertEquals("en", e.mod);
+	}
+
+	public void testStoresWithTheSameIndex () {
+		AGPartCache c = new AGPartCache(64, 100);
+		AGBase a = store(3);
+		AGBase b = store(3);
+		c.put(a, upi(1), 2, "a", null);
+		assertNull(c.get(b, upi(1)));
+		c.put(b, upi(2), 2, "b", null);
+		c.removeStore(a);
+		assertNull(c.get(a, upi(1)));
+		assertEquals("b", c.get(b, upi(2)).label);
+		c.clear();
+		assertEquals(0, c.size());
+	}
+
+}
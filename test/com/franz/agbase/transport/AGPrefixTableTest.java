@@ -0,0 +1,111 @@
+//***** BEGIN LICENSE BLOCK *****
+//Version: MPL 1.1
+//
+//The contents of this file are subject to the Mozilla Public License Version
+//1.1 (the "License"); you may not use this file except in compliance with
+//the License. You may obtain a copy of the License at
+//http://www.mozilla.org/MPL/
+//
+//Software distributed under the License is distributed on an "AS IS" basis,
+//WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+//for the specific language governing rights and limitations under the
+//License.
+//
+//The Original Code is the AllegroGraph Java Client interface.
+//
+//The Original Code was written by Franz Inc.
+//Copyright (C) 2006 Franz Inc.  All Rights Reserved.
+//
+//***** END LICENSE BLOCK *****
+
+
+
+
+package com.franz.agbase.transport;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of the prefix table, and of prefixes sent to the stand-in server.
+ */
+public class AGPrefixTableTest extends TestCase {
+
+	static final String[] NAMESPACES = {
+		"ex", "http://example.org/",
+		"deep", "http://example.org/a/b/c/d/e/f/",
+		"frag", "http://example.org/a/b/c/d/e/f/g#",
+		"none", "http://example.org/nodelimiter",
+	};
+
+	public void testFind () {
+		AGPrefixTable t = AGPrefixTable.fromNamespaces(NAMESPACES);
+		assertEquals(6, t.size());
+		assertEquals("http://example.org/", t.get(t.find("http://example.org/x")));
+		assertEquals("<http://example.org/", t.get(t.find("<http://example.org/x>")));
+		assertEquals("http://example.org/a/b/c/d/e/f/", t.get(t.find("http://example.org/a/b/c/d/e/f/x")));
+		assertEquals("<http://example.org/a/b/c/d/e/f/g#", t.get(t.find("<http://example.org/a/b/c/d/e/f/g#x>")));
+		// Deeper than any prefix: the longest one that matches.
+		assertEquals("http://example.org/a/b/c/d/e/f/", t.get(t.find("http://example.org/a/b/c/d/e/f/h/i/j/k/x")));
+		assertEquals("http://example.org/", t.get(t.find("http://example.org/a/b/x")));
+		// A prefix is only used when something follows it.
+		assertEquals(-1, t.find("http://example.org/"));
+		assertEquals(-1, t.find("http://example.com/x"));
+		assertEquals("http://example.org/", t.get(t.find("http://example.org/nodelimiterx")));
+		assertEquals(-1, t.find(""));
+	}
+
+	/**
+	 * Counts the bytes that a link sends.
+	 */
+	static class Counter extends FilterOutputStream {
+		long count = 0;
+		Counter ( OutputStream out ) { super(out); }
+		public void write ( int b ) throws IOException {
+			out.write(b);
+			count++;
+		}
+		public void write ( byte[] b, int off, int len ) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+
+	public void testEcho () throws IOException {
+		AGDStandIn s = AGFrameStreamTest.standIn(false);
+		try {
+			AGDirectLink l = AGFrameStreamTest.link(s);
+			Counter sent = new Counter(l.outStream);
+			l.outStream = sent;
+			try {
+				assertTrue(l.startPrefixes(AGPrefixTable.fromNamespaces(NAMESPACES)));
+				String[] uris = {
+					"http://example.org/a/b/c/d/e/f/g#x",
+					"<http://example.org/a/b/c/d/e/f/x>",
+					"http://example.org/y",
+					"http://example.com/z",
+					"plain",
+				};
+				for (int i = 0; i < uris.length; i++) {
+					// A string of the same length that has no prefix.
+					String plain = uris[i].replace('/', 'x').replace('#', 'y').replace(':', 'z');
+					long before = sent.count;
+					assertEquals(plain, AGDirectLink.stringValue(l.sendOp1(":echo", 1, 0, plain)));
+					long full = sent.count - before;
+					before = sent.count;
+					assertEquals(uris[i], AGDirectLink.stringValue(l.sendOp1(":echo", 1, 0, uris[i])));
+					if ( i<3 )
+						assertTrue(sent.count - before<full - 10);
+				}
+			} finally {
+				l.disconnect();
+			}
+		} finally {
+			s.close();
+		}
+	}
+
+}
@@ -0,0 +1,113 @@
+package com.knowledgereefsystems.agsail;
+
+import junit.framework.TestCase;
+
+import org.openrdf.model.impl.BNodeImpl;
+import org.openrdf.model.impl.LiteralImpl;
+import org.openrdf.model.impl.URIImpl;
+import org.openrdf.model.vocabulary.XMLSchema;
+import org.openrdf.query.algebra.Compare;
+import org.openrdf.query.algebra.EmptySet;
+import org.openrdf.query.algebra.Filter;
+import org.openrdf.query.algebra.Join;
+import org.openrdf.query.algebra.LeftJoin;
+import org.openrdf.query.algebra.Not;
+import org.openrdf.query.algebra.Regex;
+import org.openrdf.query.algebra.StatementPattern;
+import org.openrdf.query.algebra.Str;
+import org.openrdf.query.algebra.TupleExpr;
+import org.openrdf.query.algebra.Union;
+import org.openrdf.query.algebra.ValueConstant;
+import org.openrdf.query.algebra.Var;
+import org.openrdf.query.impl.EmptyBindingSet;
+import org.openrdf.query.impl.MapBindingSet;
+
+public class SPARQLSerializerTest extends TestCase {
+
+    private static final String EX = "http://example.org/";
+
+    private static Var var(final String name) {
+        return new Var(name);
+    }
+
+    private static Var uri(final String name, final String local) {
+        return new Var(name, new URIImpl(EX + local));
+    }
+
+    private static StatementPattern pattern(final Var s, final String p, final Var o) {
+        return new StatementPattern(s, uri("-p-" + p, p), o);
+    }
+
+    private static String select(final TupleExpr expr) {
+        return new SPARQLSerializer(new EmptyBindingSet()).select(expr);
+    }
+
+    public void testPattern() {
+        SPARQLSerializer s = new SPARQLSerializer(new EmptyBindingSet());
+        assertEquals("SELECT ?v0 ?v1 WHERE { ?v0 <http://example.org/p> ?v1 . }",
+                s.select(pattern(var("x"), "p", var("y"))));
+        assertEquals(2, s.getSelected().length);
+        assertEquals("x", s.getSelected()[0]);
+        assertEquals("v1", s.getQueryName("y"));
+    }
+
+    public void testJoinAndFilter() {
+        TupleExpr join = new Join(pattern(var("x"), "p", var("y")),
+                pattern(var("y"), "q", var("z")));
+        Compare lt = new Compare(var("z"),
+                new ValueConstant(new LiteralImpl("5", XMLSchema.INT)), Compare.CompareOp.LT);
+        assertEquals("SELECT ?v0 ?v1 ?v2 WHERE { ?v0 <http://example.org/p> ?v1 . "
+                + "?v1 <http://example.org/q> ?v2 . "
+                + "FILTER ((?v2 < \"5\"^^<http://www.w3.org/2001/XMLSchema#int>)) }",
+                select(new Filter(join, lt)));
+    }
+
+    public void testOptionalAndUnion() {
+        TupleExpr opt = new LeftJoin(pattern(var("x"), "p", var("y")),
+                pattern(var("y"), "q", var("z")));
+        assertEquals("SELECT ?v0 ?v1 ?v2 WHERE { ?v0 <http://example.org/p> ?v1 . "
+                + "OPTIONAL { ?v1 <http://example.org/q> ?v2 . } }", select(opt));
+        TupleExpr union = new Union(pattern(var("x"), "p", var("y")),
+                pattern(var("x"), "q", var("y")));
+        assertEquals("SELECT ?v0 ?v1 WHERE { { ?v0 <http://example.org/p> ?v1 . } "
+                + "UNION { ?v0 <http://example.org/q> ?v1 . } }", select(union));
+    }
+
+    public void testFunctionsAndQuoting() {
+        Regex re = new Regex(new Str(var("y")),
+                new ValueConstant(new LiteralImpl("a\"b\\c\n")), null);
+        TupleExpr f = new Filter(pattern(var("x"), "p", var("y")), new Not(re));
+        assertEquals("SELECT ?v0 ?v1 WHERE { ?v0 <http://example.org/p> ?v1 . "
+                + "FILTER ((!regex(str(?v1), \"a\\\"b\\\\c\\n\"))) }", select(f));
+        Compare eq = new Compare(var("y"),
+                new ValueConstant(new LiteralImpl("chat", "fr")), Compare.CompareOp.EQ);
+        assertEquals("SELECT ?v0 ?v1 WHERE { ?v0 <http://example.org/p> ?v1 . "
+                + "FILTER ((?v1 = \"chat\"@fr)) }",
+                select(new Filter(pattern(var("x"), "p", var("y")), eq)));
+    }
+
+    public void testBoundVariables() {
+        MapBindingSet b = new MapBindingSet();
+        b.addBinding("x", new URIImpl(EX + "a"));
+        SPARQLSerializer s = new SPARQLSerializer(b, "w");
+        assertEquals("SELECT ?w0 WHERE { <http://example.org/a> <http://example.org/p> ?w0 . }",
+                s.select(pattern(var("x"), "p", var("y"))));
+        assertNull(s.getQueryName("x"));
+    }
+
+    public void testFallback() {
+        // An operator that cannot be written.
+        assertNull(select(new Join(pattern(var("x"), "p", var("y")), new EmptySet())));
+        // A blank node value.
+        assertNull(select(new StatementPattern(new Var("x", new BNodeImpl("b1")),
+                uri("p", "p"), var("y"))));
+        // A URI that cannot be written between angle brackets.
+        assertNull(select(new StatementPattern(var("x"),
+                new Var("p", new URIImpl(EX + "a>b")), var("y"))));
+        // A pattern in the default graph only.
+        assertNull(select(new StatementPattern(var("x"), uri("p", "p"), var("y"), var("c"))));
+        // Nothing to select.
+        assertNull(select(new StatementPattern(uri("s", "s"), uri("p", "p"), uri("o", "o"))));
+    }
+
+}